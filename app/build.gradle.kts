@@ -34,6 +34,15 @@ android {
     }
 }
 
+tasks.withType<Test>().configureEach {
+    useJUnit {
+        // The stress suite runs for seconds; include it with -Pstress
+        if (!project.hasProperty("stress")) {
+            excludeCategories("com.simplexity.basictts.StressTests")
+        }
+    }
+}
+
 dependencies {
 
     implementation(libs.appcompat)
@@ -0,0 +1,66 @@
+package com.simplexity.basictts;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Launches MainActivity repeatedly and reports time-to-first-frame and time-to-ready-to-speak.
+ * The TTS service is stopped between runs so every launch pays for engine init again. Results
+ * are logged under "StartupTiming" and sent as instrumentation status, e.g.
+ * ./gradlew connectedAndroidTest -Pandroid.testInstrumentationRunnerArguments.class=com.simplexity.basictts.StartupTimingTest
+ */
+@RunWith(AndroidJUnit4.class)
+public class StartupTimingTest {
+
+    private static final int RUNS = 5;
+    private static final long READY_TIMEOUT_MS = 15_000;
+
+    @Test
+    public void measureColdStart() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        double[] firstFrame = new double[RUNS];
+        double[] ready = new double[RUNS];
+        for (int run = 0; run < RUNS; run++) {
+            context.stopService(new Intent(context, TtsService.class));
+            try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(MainActivity.class)) {
+                long deadline = SystemClock.uptimeMillis() + READY_TIMEOUT_MS;
+                while (StartupTiming.getTimeToReadyMillis() < 0 && SystemClock.uptimeMillis() < deadline) {
+                    SystemClock.sleep(10);
+                }
+                firstFrame[run] = StartupTiming.getTimeToFirstFrameMillis();
+                ready[run] = StartupTiming.getTimeToReadyMillis();
+            }
+            assertTrue("First frame was never drawn", firstFrame[run] >= 0);
+            assertTrue("Engine was not ready within " + READY_TIMEOUT_MS + " ms", ready[run] >= 0);
+            Log.i("StartupTiming", "Run " + run + ": first frame " + firstFrame[run]
+                    + " ms, ready to speak " + ready[run] + " ms");
+        }
+        context.stopService(new Intent(context, TtsService.class));
+
+        Bundle results = new Bundle();
+        results.putDouble("time_to_first_frame_median_ms", median(firstFrame));
+        results.putDouble("time_to_ready_median_ms", median(ready));
+        Log.i("StartupTiming", "Median: " + results);
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, results);
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
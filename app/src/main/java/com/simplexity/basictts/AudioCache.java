@@ -0,0 +1,186 @@
+package com.simplexity.basictts;
+
+import android.util.Log;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Size-bounded LRU directory of synthesized utterances, keyed by normalized text, voice name,
+ * pitch and speed. Entries are plain WAV files written by TextToSpeech.synthesizeToFile.
+ */
+public class AudioCache {
+
+    private static final String FILE_SUFFIX = ".wav";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * A cached file with the size it was counted at, since the file may be gone or replaced.
+     */
+    private static final class Entry {
+        private final File file;
+        private final long size;
+
+        private Entry(File file, long size) {
+            this.file = file;
+            this.size = size;
+        }
+    }
+
+    private final File directory;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long maxBytes;
+    private long totalBytes;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    public AudioCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        loadExistingEntries();
+    }
+
+    public static String normalize(String text) {
+        return text.trim().replaceAll("\\s+", " ");
+    }
+
+    public static String createKey(String text, String voiceName, float pitch, float speed) {
+        String raw = normalize(text) + '\u0000' + voiceName + '\u0000' + pitch + '\u0000' + speed;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(raw.getBytes(StandardCharsets.UTF_8));
+            StringBuilder builder = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                builder.append(String.format(Locale.ROOT, "%02x", b));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public synchronized File get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null || !entry.file.exists()) {
+            if (entry != null) removeEntry(key);
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        entry.file.setLastModified(System.currentTimeMillis());
+        return entry.file;
+    }
+
+    /**
+     * File the engine should synthesize into before the result is committed with {@link #put}.
+     */
+    public File createTempFile(String key, String utteranceId) {
+        return new File(directory, key + "." + utteranceId + TEMP_SUFFIX);
+    }
+
+    public synchronized File put(String key, File tempFile) {
+        File target = new File(directory, key + FILE_SUFFIX);
+        if (!tempFile.renameTo(target)) {
+            Log.d("AudioCache", "Could not commit cache entry: " + key);
+            tempFile.delete();
+            return null;
+        }
+        // The rename replaced the previous file, so its size is only known from the entry
+        Entry previous = entries.put(key, new Entry(target, target.length()));
+        if (previous != null) totalBytes -= previous.size;
+        totalBytes += target.length();
+        trimToSize();
+        return target;
+    }
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        trimToSize();
+    }
+
+    public synchronized void clear() {
+        for (Entry entry : entries.values()) {
+            entry.file.delete();
+        }
+        entries.clear();
+        totalBytes = 0;
+    }
+
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "entries=" + entries.size() + ", bytes=" + totalBytes + "/" + maxBytes + ", hits=" + hitCount
+                + ", misses=" + missCount + ", evictions=" + evictionCount;
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && entries.size() > 1 && iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            totalBytes -= entry.size;
+            entry.file.delete();
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+
+    private void removeEntry(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) totalBytes -= entry.size;
+    }
+
+    private void loadExistingEntries() {
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.d("AudioCache", "Could not create cache directory");
+            return;
+        }
+        File[] files = directory.listFiles();
+        if (files == null) return;
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TEMP_SUFFIX)) {
+                file.delete();
+                continue;
+            }
+            if (!name.endsWith(FILE_SUFFIX)) continue;
+            if (name.indexOf('.') != name.length() - FILE_SUFFIX.length()) continue;
+            long size = file.length();
+            entries.put(name.substring(0, name.length() - FILE_SUFFIX.length()), new Entry(file, size));
+            totalBytes += size;
+        }
+        trimToSize();
+    }
+}
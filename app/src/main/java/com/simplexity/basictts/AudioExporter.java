@@ -0,0 +1,392 @@
+package com.simplexity.basictts;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.speech.tts.TextToSpeech;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Renders texts into a single WAV file. The texts are packed into chunks of a few sentences,
+ * and several engine instances render chunks to temporary files at the same time. Finished
+ * chunks are appended to the output in order with {@link WavConcatenator} and deleted right
+ * away, and the texts are read a page at a time, so neither memory nor the temporary files grow
+ * with the length of the export.
+ *
+ * <p>The bookkeeping runs on a dedicated thread; only the engine calls go through the main
+ * thread. Listener callbacks arrive on the main thread.
+ */
+public class AudioExporter {
+
+    public static final int DEFAULT_WORKERS = 3;
+    private static final int CHUNK_LENGTH = 1000;
+    private static final String CHUNK_SEPARATOR = "\n\n";
+    private static final int PAGE_SIZE = 64;
+
+    public interface Listener {
+        void onExportProgress(int renderedChars, int totalChars);
+
+        void onExportFinished(long durationMillis);
+
+        void onExportFailed(String reason);
+
+        void onExportCancelled();
+    }
+
+    private final Context context;
+    private final VoiceCatalog voiceCatalog;
+    private final File workDirectory;
+    private final int workerCount;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService ioExecutor =
+            Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "audio-export"));
+    private Export export;
+    private volatile boolean isReleased;
+
+    public AudioExporter(Context context, VoiceCatalog voiceCatalog, File workDirectory, int workerCount) {
+        this.context = context.getApplicationContext();
+        this.voiceCatalog = voiceCatalog;
+        this.workDirectory = workDirectory;
+        this.workerCount = Math.max(1, workerCount);
+    }
+
+    public boolean isExporting() {
+        return export != null;
+    }
+
+    /**
+     * Starts rendering the texts, as many as the source holds now, with the given voice settings and pronunciations into the
+     * output, which is closed once the export ends either way. Only one export runs at a time.
+     *
+     * @return false if an export is already running
+     */
+    public boolean export(TextSource texts, TtsConfig config, ParcelFileDescriptor output, Listener listener) {
+        if (export != null || isReleased) return false;
+        export = new Export(texts, output, listener);
+        export.start(config);
+        return true;
+    }
+
+    /**
+     * Stops the running export and deletes what was written so far.
+     */
+    public void cancel() {
+        if (export == null) return;
+        export.cancel();
+    }
+
+    /**
+     * Cancels the running export without notifying its listener and stops the export thread.
+     */
+    public void release() {
+        isReleased = true;
+        if (export != null) export.cancel();
+        ioExecutor.shutdown();
+    }
+
+    private void onExportEnded(Export ended) {
+        if (export == ended) export = null;
+    }
+
+    /**
+     * Only called on the main thread, so it cannot race with release().
+     */
+    private void runOnIo(Runnable task) {
+        if (!isReleased) ioExecutor.execute(task);
+    }
+
+    private final class Export {
+        private final ChunkSource chunks;
+        private final ParcelFileDescriptor output;
+        private final Listener listener;
+        private final List<TtsManager> workers = new ArrayList<>();
+        // Everything below is only touched on ioExecutor
+        private final HashMap<Integer, File> renderedChunks = new HashMap<>();
+        private final HashMap<Integer, Integer> chunkLengths = new HashMap<>();
+        private final ArrayDeque<TtsManager> idleWorkers = new ArrayDeque<>();
+        private FileChannel channel;
+        private WavConcatenator concatenator;
+        private int nextChunk;
+        private int nextToAppend;
+        private int renderedChars;
+        private boolean isExhausted;
+        private boolean isEnded;
+
+        private Export(TextSource texts, ParcelFileDescriptor output, Listener listener) {
+            this.chunks = new ChunkSource(texts, CHUNK_LENGTH);
+            this.output = output;
+            this.listener = listener;
+        }
+
+        private void start(TtsConfig config) {
+            ioExecutor.execute(this::openOutput);
+            for (int i = 0; i < workerCount; i++) {
+                TtsManager worker = new TtsManager(config.getVoice(), config.getPitch(), config.getSpeed(), context,
+                        voiceCatalog);
+                worker.applyConfig(config);
+                workers.add(worker);
+                worker.runWhenReady(() -> runOnIo(() -> renderNext(worker)));
+                worker.runIfUnavailable(() -> runOnIo(() -> {
+                    if (!isEnded) fail("No speech engine could be started");
+                }));
+            }
+        }
+
+        private void cancel() {
+            // Queued behind any pending io work; release() still lets it run before shutting down
+            ioExecutor.execute(() -> {
+                if (isEnded) return;
+                end();
+                if (!isReleased) post(listener::onExportCancelled);
+            });
+        }
+
+        private void openOutput() {
+            try {
+                if (!workDirectory.isDirectory() && !workDirectory.mkdirs()) {
+                    throw new IOException("Could not create " + workDirectory);
+                }
+                channel = new FileOutputStream(output.getFileDescriptor()).getChannel();
+                concatenator = new WavConcatenator(channel);
+            } catch (IOException e) {
+                fail("Could not open the output: " + e.getMessage());
+                return;
+            }
+            try {
+                chunks.open();
+            } catch (IOException e) {
+                fail("Could not read the texts: " + e.getMessage());
+                return;
+            }
+            Tracing.d("AudioExporter", "Exporting chars: ", chunks.getTotalLength());
+        }
+
+        /**
+         * Gives the worker the next chunk. Renders are kept at most a few chunks ahead of the
+         * one the output is waiting for, so a slow chunk does not let finished files pile up.
+         */
+        private void renderNext(TtsManager worker) {
+            if (isEnded) return;
+            if (isExhausted || nextChunk - nextToAppend >= workerCount * 2) {
+                idleWorkers.addLast(worker);
+                return;
+            }
+            String text;
+            try {
+                text = chunks.next();
+            } catch (IOException e) {
+                fail("Could not read the texts: " + e.getMessage());
+                return;
+            }
+            if (text == null) {
+                isExhausted = true;
+                idleWorkers.addLast(worker);
+                finishIfDone();
+                return;
+            }
+            int index = nextChunk++;
+            chunkLengths.put(index, chunks.getLastChunkChars());
+            File file = new File(workDirectory, "chunk-" + index + ".wav");
+            mainHandler.post(() -> {
+                boolean isStarted = worker.renderToFile(text, file,
+                        success -> runOnIo(() -> onChunkRendered(worker, index, file, success)));
+                if (!isStarted) runOnIo(() -> onChunkRendered(worker, index, file, false));
+            });
+        }
+
+        private void onChunkRendered(TtsManager worker, int index, File file, boolean success) {
+            if (isEnded) {
+                file.delete();
+                return;
+            }
+            if (!success) {
+                file.delete();
+                fail("The engine could not render part " + (index + 1));
+                return;
+            }
+            renderedChunks.put(index, file);
+            try {
+                appendReadyChunks();
+            } catch (IOException e) {
+                fail("Could not write the output: " + e.getMessage());
+                return;
+            }
+            renderNext(worker);
+            while (!isEnded && !idleWorkers.isEmpty() && !isExhausted
+                    && nextChunk - nextToAppend < workerCount * 2) {
+                renderNext(idleWorkers.pollFirst());
+            }
+            finishIfDone();
+        }
+
+        private void appendReadyChunks() throws IOException {
+            File file;
+            while ((file = renderedChunks.remove(nextToAppend)) != null) {
+                try {
+                    concatenator.append(file);
+                } finally {
+                    file.delete();
+                }
+                renderedChars += chunkLengths.remove(nextToAppend);
+                nextToAppend++;
+            }
+            // Whitespace between sentences is not counted, so this can fall a little short of total
+            int rendered = Math.min(renderedChars, chunks.getTotalLength());
+            post(() -> listener.onExportProgress(rendered, chunks.getTotalLength()));
+        }
+
+        private void finishIfDone() {
+            if (isEnded || !isExhausted || nextToAppend < nextChunk) return;
+            try {
+                concatenator.finish();
+            } catch (IOException e) {
+                fail("Could not finish the output: " + e.getMessage());
+                return;
+            }
+            long duration = concatenator.getDurationMillis();
+            Tracing.d("AudioExporter", "Export finished, ms of audio: ", duration);
+            end();
+            post(() -> listener.onExportFinished(duration));
+        }
+
+        private void fail(String reason) {
+            Log.d("AudioExporter", "Export failed: " + reason);
+            if (concatenator != null) {
+                try {
+                    concatenator.discard();
+                } catch (IOException e) {
+                    Log.d("AudioExporter", "Could not discard the output: " + e.getMessage());
+                }
+            }
+            end();
+            post(() -> listener.onExportFailed(reason));
+        }
+
+        /**
+         * Runs on ioExecutor. Releases the engines, the temporary files and the output.
+         */
+        private void end() {
+            isEnded = true;
+            for (File file : renderedChunks.values()) {
+                file.delete();
+            }
+            renderedChunks.clear();
+            try {
+                if (channel != null) channel.close();
+                output.close();
+            } catch (IOException e) {
+                Log.d("AudioExporter", "Could not close the output: " + e.getMessage());
+            }
+            mainHandler.post(() -> {
+                for (TtsManager worker : workers) {
+                    worker.shutdown();
+                }
+                workers.clear();
+                onExportEnded(this);
+            });
+        }
+
+        private void post(Runnable callback) {
+            mainHandler.post(callback);
+        }
+    }
+
+    /**
+     * Packs sentences from the texts into chunks of up to maxLength characters, so each render
+     * is long enough to be worth a job but short enough to keep the workers balanced. Texts are
+     * read from the source a page at a time, once to add up their length and once to render.
+     */
+    private static final class ChunkSource {
+        private final TextSource texts;
+        private final int maxLength;
+        private final TextSegmenter segmenter;
+        private int count;
+        private int totalLength;
+        private List<String> page = Collections.emptyList();
+        private int pageStart;
+        private int textIndex;
+        private TextSegmenter.Cursor cursor;
+        private String segment;
+        private boolean startsText;
+        private int lastChunkChars;
+
+        private ChunkSource(TextSource texts, int maxLength) {
+            this.texts = texts;
+            this.maxLength = Math.min(maxLength, TextToSpeech.getMaxSpeechInputLength());
+            this.segmenter = new TextSegmenter(this.maxLength, this.maxLength, Locale.getDefault());
+        }
+
+        /**
+         * Fixes the texts to export at the ones the source holds now and adds up their length.
+         */
+        private void open() throws IOException {
+            count = texts.size();
+            long length = 0;
+            for (int position = 0; position < count; position += PAGE_SIZE) {
+                for (String text : texts.read(position, Math.min(PAGE_SIZE, count - position))) {
+                    length += text.length();
+                }
+            }
+            totalLength = (int) Math.min(Integer.MAX_VALUE, length);
+        }
+
+        private int getTotalLength() {
+            return totalLength;
+        }
+
+        /**
+         * @return characters of the source texts in the chunk last returned by {@link #next}
+         */
+        private int getLastChunkChars() {
+            return lastChunkChars;
+        }
+
+        private String next() throws IOException {
+            StringBuilder chunk = new StringBuilder();
+            lastChunkChars = 0;
+            while (segment != null || advance()) {
+                // Texts are separated by a paragraph break so the engine pauses between them
+                String separator = chunk.length() == 0 ? "" : startsText ? CHUNK_SEPARATOR : " ";
+                if (chunk.length() > 0 && chunk.length() + separator.length() + segment.length() > maxLength) break;
+                chunk.append(separator).append(segment);
+                lastChunkChars += segment.length();
+                segment = null;
+            }
+            return chunk.length() == 0 ? null : chunk.toString();
+        }
+
+        private boolean advance() throws IOException {
+            startsText = false;
+            while (true) {
+                if (cursor == null) {
+                    if (textIndex >= count) return false;
+                    if (textIndex - pageStart >= page.size()) {
+                        pageStart = textIndex;
+                        page = texts.read(textIndex, Math.min(PAGE_SIZE, count - textIndex));
+                        // The source shrank, e.g. the history was cleared
+                        if (page.isEmpty()) return false;
+                    }
+                    cursor = segmenter.segment(page.get(textIndex++ - pageStart));
+                    startsText = true;
+                }
+                segment = cursor.next();
+                if (segment != null) return true;
+                cursor = null;
+            }
+        }
+    }
+}
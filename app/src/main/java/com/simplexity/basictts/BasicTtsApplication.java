@@ -0,0 +1,29 @@
+package com.simplexity.basictts;
+
+import android.app.Application;
+import android.content.SharedPreferences;
+
+import androidx.appcompat.app.AppCompatDelegate;
+import androidx.preference.PreferenceManager;
+
+/**
+ * Applies the saved night mode before any activity inflates its layout. Setting it any later
+ * recreates the activity that is already showing, which runs its startup a second time.
+ */
+public class BasicTtsApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        applyNightMode(PreferenceManager.getDefaultSharedPreferences(this));
+    }
+
+    static void applyNightMode(SharedPreferences preferences) {
+        boolean lightMode = preferences.getBoolean("dark_mode_enabled", true);
+        if (lightMode) {
+            AppCompatDelegate.setDefaultNightMode(AppCompatDelegate.MODE_NIGHT_NO);
+        } else {
+            AppCompatDelegate.setDefaultNightMode(AppCompatDelegate.MODE_NIGHT_YES);
+        }
+    }
+}
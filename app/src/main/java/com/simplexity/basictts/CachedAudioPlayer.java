@@ -0,0 +1,153 @@
+package com.simplexity.basictts;
+
+import android.media.MediaPlayer;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Plays cached utterance files one after another in the order they were queued. Entries whose
+ * audio is still being synthesized hold the queue until {@link #markReady} is called for them.
+ * Silences queued with {@link #enqueueSilence} hold the queue for their length without playing.
+ */
+public class CachedAudioPlayer implements SpeechRouter.Player {
+
+    public interface Listener {
+        void onPlaybackStart(String utteranceId);
+
+        void onPlaybackDone(String utteranceId);
+
+        void onPlaybackError(String utteranceId);
+    }
+
+    private static class Entry {
+        private final String utteranceId;
+        private File file;
+        private boolean failed;
+        private int silenceMillis;
+
+        private Entry(String utteranceId, File file) {
+            this.utteranceId = utteranceId;
+            this.file = file;
+        }
+    }
+
+    private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+    private final Listener listener;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable silenceDone = () -> finishCurrent(true);
+    private MediaPlayer mediaPlayer;
+    private Entry current;
+
+    public CachedAudioPlayer(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void enqueue(String utteranceId, File file) {
+        queue.addLast(new Entry(utteranceId, file));
+        playNextIfIdle();
+    }
+
+    @Override
+    public void enqueueSilence(String utteranceId, int millis) {
+        Entry entry = new Entry(utteranceId, null);
+        entry.silenceMillis = Math.max(1, millis);
+        queue.addLast(entry);
+        playNextIfIdle();
+    }
+
+    @Override
+    public void markReady(String utteranceId, File file) {
+        Entry entry = find(utteranceId);
+        if (entry == null) return;
+        entry.file = file;
+        entry.failed = file == null;
+        playNextIfIdle();
+    }
+
+    public boolean isQueued(String utteranceId) {
+        return find(utteranceId) != null;
+    }
+
+    @Override
+    public void stop() {
+        queue.clear();
+        current = null;
+        handler.removeCallbacks(silenceDone);
+        releasePlayer();
+    }
+
+    private Entry find(String utteranceId) {
+        Iterator<Entry> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.utteranceId.equals(utteranceId)) return entry;
+        }
+        return null;
+    }
+
+    private void playNextIfIdle() {
+        while (current == null && !queue.isEmpty()) {
+            Entry next = queue.peekFirst();
+            if (next.file == null && !next.failed && next.silenceMillis == 0) return;
+            queue.pollFirst();
+            if (next.failed) {
+                listener.onPlaybackError(next.utteranceId);
+                continue;
+            }
+            play(next);
+        }
+    }
+
+    private void play(Entry entry) {
+        current = entry;
+        if (entry.silenceMillis > 0) {
+            listener.onPlaybackStart(entry.utteranceId);
+            handler.postDelayed(silenceDone, entry.silenceMillis);
+            return;
+        }
+        mediaPlayer = new MediaPlayer();
+        mediaPlayer.setOnCompletionListener(player -> finishCurrent(true));
+        mediaPlayer.setOnErrorListener((player, what, extra) -> {
+            Tracing.d("CachedAudioPlayer", "Playback error for ", entry.utteranceId);
+            finishCurrent(false);
+            return true;
+        });
+        try {
+            mediaPlayer.setDataSource(entry.file.getAbsolutePath());
+            mediaPlayer.prepare();
+            mediaPlayer.start();
+            listener.onPlaybackStart(entry.utteranceId);
+        } catch (IOException | IllegalStateException e) {
+            Log.d("CachedAudioPlayer", "Could not play " + entry.file + ": " + e.getMessage());
+            finishCurrent(false);
+        }
+    }
+
+    private void finishCurrent(boolean success) {
+        Entry finished = current;
+        current = null;
+        releasePlayer();
+        if (finished != null) {
+            if (success) {
+                listener.onPlaybackDone(finished.utteranceId);
+            } else {
+                listener.onPlaybackError(finished.utteranceId);
+            }
+        }
+        playNextIfIdle();
+    }
+
+    private void releasePlayer() {
+        if (mediaPlayer != null) {
+            mediaPlayer.release();
+            mediaPlayer = null;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.simplexity.basictts;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The messages on the chat screen and what the engine is doing with each one. Rows are made on
+ * demand from their position; only the ones sent or spoken this session are held, so a state
+ * change touches one entry and reports one row instead of publishing a new list. The word being
+ * spoken is reported separately so it can be drawn without rebinding the status. Main thread
+ * only.
+ */
+public class Conversation implements TtsManager.UtteranceListener {
+
+    public interface Observer {
+        /**
+         * Rows [start, start + count) were added at the end.
+         */
+        void onMessagesInserted(int start, int count);
+
+        /**
+         * The status of the row at this position changed; its text did not.
+         */
+        void onMessageChanged(int position);
+
+        /**
+         * Characters [start, end) of the message are being spoken; a negative id clears the
+         * highlight.
+         */
+        void onHighlightChanged(long messageId, int start, int end);
+    }
+
+    private final Observer observer;
+    private int size;
+    // Rows that differ from a message saved in an earlier session, by position
+    private final HashMap<Integer, Message> changed = new HashMap<>();
+    private final HashMap<String, List<Long>> messagesByUtterance = new HashMap<>();
+    private final HashMap<String, Long> startedAtMillis = new HashMap<>();
+    private long highlightedId = -1;
+
+    /**
+     * @param savedCount messages already in the log, shown as saved
+     */
+    public Conversation(int savedCount, Observer observer) {
+        this.observer = observer;
+        this.size = savedCount;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Message get(int position) {
+        Message message = changed.get(position);
+        return message != null ? message : new Message(position, 0, null, Message.State.SAVED, 0);
+    }
+
+    /**
+     * Adds the message the log just stored at this position.
+     */
+    public void onMessageAppended(int position) {
+        if (position < size) return;
+        int start = size;
+        long now = System.currentTimeMillis();
+        // Positions only grow, but a message appended elsewhere may not have been seen yet
+        for (int i = start; i <= position; i++) {
+            changed.put(i, new Message(i, now, null, Message.State.SAVED, 0));
+        }
+        size = position + 1;
+        observer.onMessagesInserted(start, size - start);
+    }
+
+    /**
+     * Ties a stored message to the utterance speaking it, so engine progress shows on its row.
+     * A coalesced utterance can carry several messages.
+     */
+    public void track(String utteranceId, int position, String voice) {
+        if (utteranceId == null || position >= size) return;
+        List<Long> ids = messagesByUtterance.get(utteranceId);
+        if (ids == null) {
+            ids = new ArrayList<>(1);
+            messagesByUtterance.put(utteranceId, ids);
+        }
+        ids.add((long) position);
+        Message message = get(position);
+        update(new Message(message.getId(), message.getTimestampMillis(), voice, Message.State.QUEUED, 0));
+    }
+
+    @Override
+    public void onQueued(String utteranceId, int queueDepth) {
+    }
+
+    @Override
+    public void onStart(String utteranceId) {
+        List<Long> ids = messagesByUtterance.get(utteranceId);
+        if (ids == null) return;
+        if (!startedAtMillis.containsKey(utteranceId)) startedAtMillis.put(utteranceId, System.currentTimeMillis());
+        setState(ids, Message.State.SPEAKING);
+    }
+
+    @Override
+    public void onPreempted(String utteranceId) {
+        List<Long> ids = messagesByUtterance.get(utteranceId);
+        if (ids == null) return;
+        clearHighlight(ids);
+        setState(ids, Message.State.INTERRUPTED);
+    }
+
+    @Override
+    public void onDone(String utteranceId) {
+        List<Long> ids = messagesByUtterance.remove(utteranceId);
+        Long started = startedAtMillis.remove(utteranceId);
+        if (ids == null) return;
+        clearHighlight(ids);
+        long duration = started == null ? 0 : System.currentTimeMillis() - started;
+        for (long id : ids) {
+            update(get((int) id).withSpoken(duration));
+        }
+    }
+
+    @Override
+    public void onError(String utteranceId, int errorCode) {
+        finish(utteranceId, Message.State.FAILED);
+    }
+
+    @Override
+    public void onDropped(String utteranceId) {
+        finish(utteranceId, Message.State.DROPPED);
+    }
+
+    @Override
+    public void onRangeStart(String utteranceId, int start, int end) {
+        List<Long> ids = messagesByUtterance.get(utteranceId);
+        if (ids == null) return;
+        // Ranges past the first message of a coalesced utterance are not mapped back
+        highlightedId = ids.get(0);
+        observer.onHighlightChanged(highlightedId, start, end);
+    }
+
+    private void finish(String utteranceId, Message.State state) {
+        List<Long> ids = messagesByUtterance.remove(utteranceId);
+        startedAtMillis.remove(utteranceId);
+        if (ids == null) return;
+        clearHighlight(ids);
+        setState(ids, state);
+    }
+
+    private void clearHighlight(List<Long> ids) {
+        if (highlightedId < 0 || !ids.contains(highlightedId)) return;
+        highlightedId = -1;
+        observer.onHighlightChanged(-1, 0, 0);
+    }
+
+    private void setState(List<Long> ids, Message.State state) {
+        for (long id : ids) {
+            update(get((int) id).withState(state));
+        }
+    }
+
+    private void update(Message message) {
+        int position = (int) message.getId();
+        changed.put(position, message);
+        observer.onMessageChanged(position);
+    }
+}
@@ -0,0 +1,44 @@
+package com.simplexity.basictts;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.os.Bundle;
+import android.widget.Button;
+import android.widget.TextView;
+
+public class DebugActivity extends Activity {
+
+    private TextView metricsText;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_debug);
+        metricsText = findViewById(R.id.debug_text);
+        Button exportButton = findViewById(R.id.export_button);
+        Button resetButton = findViewById(R.id.reset_button);
+        exportButton.setOnClickListener(v -> exportMetrics());
+        resetButton.setOnClickListener(v -> {
+            Tracing.reset();
+            showMetrics();
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        showMetrics();
+    }
+
+    private void showMetrics() {
+        metricsText.setText(Tracing.dump());
+    }
+
+    private void exportMetrics() {
+        Intent intent = new Intent(Intent.ACTION_SEND);
+        intent.setType("text/plain");
+        intent.putExtra(Intent.EXTRA_SUBJECT, "TTS latency metrics");
+        intent.putExtra(Intent.EXTRA_TEXT, Tracing.dump());
+        startActivity(Intent.createChooser(intent, "Export metrics"));
+    }
+}
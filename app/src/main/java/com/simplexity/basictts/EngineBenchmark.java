@@ -0,0 +1,178 @@
+package com.simplexity.basictts;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.speech.tts.TextToSpeech;
+import android.speech.tts.UtteranceProgressListener;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures each installed engine once per engine version, and again while it has failures to
+ * clear: the time to bind it and the time from asking for a reference sentence to its first
+ * audio. Engines are measured one at a time
+ * on their own instance, so the engine in use keeps speaking meanwhile. Results go to the
+ * catalog's {@link EngineStats}, which decides the engine to bind on the next launch.
+ */
+public class EngineBenchmark {
+
+    static final String REFERENCE_SENTENCE = "The quick brown fox jumps over the lazy dog.";
+    // Each engine gets this long to bind, and again to produce audio
+    private static final long STEP_TIMEOUT_MS = 10_000;
+    private static final String BENCHMARK_PREFIX = "benchmark-";
+    private static final AtomicBoolean hasStarted = new AtomicBoolean();
+
+    private final Context context;
+    private final VoiceCatalog voiceCatalog;
+    private final Executor executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ArrayDeque<String> remaining = new ArrayDeque<>();
+    // Everything below is only touched on the executor
+    private TextToSpeech textToSpeech;
+    private String enginePackage;
+    private long engineVersion;
+    private File file;
+    private int step;
+    private boolean isBound;
+    private long stepStartNanos;
+    // Set from engine threads when the first audio of the current step arrives
+    private final AtomicBoolean hasAudio = new AtomicBoolean();
+
+    private EngineBenchmark(Context context, VoiceCatalog voiceCatalog, List<String> enginePackages,
+                            Executor executor) {
+        this.context = context.getApplicationContext();
+        this.voiceCatalog = voiceCatalog;
+        this.executor = executor;
+        this.remaining.addAll(enginePackages);
+    }
+
+    /**
+     * Measures the engines that have no result for their installed version or that failed last
+     * time, at most once per process. The executor must run tasks one at a time.
+     */
+    public static void startOnce(Context context, VoiceCatalog voiceCatalog, List<String> enginePackages,
+                                 Executor executor) {
+        if (!hasStarted.compareAndSet(false, true)) return;
+        EngineBenchmark benchmark = new EngineBenchmark(context, voiceCatalog, enginePackages, executor);
+        executor.execute(benchmark::next);
+    }
+
+    private void next() {
+        EngineStats stats = voiceCatalog.getEngineStats();
+        while (!remaining.isEmpty()) {
+            String candidate = remaining.pollFirst();
+            long version = voiceCatalog.getEngineVersion(candidate);
+            if (version < 0 || !stats.needsBenchmark(candidate, version)) continue;
+            bind(candidate, version);
+            return;
+        }
+        voiceCatalog.saveEngineStats();
+        Tracing.d("EngineBenchmark", "Engines measured");
+    }
+
+    private void bind(String candidate, long version) {
+        int current = ++step;
+        enginePackage = candidate;
+        engineVersion = version;
+        isBound = false;
+        hasAudio.set(false);
+        stepStartNanos = System.nanoTime();
+        Tracing.d("EngineBenchmark", "Measuring ", candidate);
+        textToSpeech = new TextToSpeech(context, status -> executor.execute(() -> onInit(current, status)),
+                candidate);
+        scheduleTimeout(current, true);
+    }
+
+    private void onInit(int current, int status) {
+        if (current != step) return;
+        EngineStats stats = voiceCatalog.getEngineStats();
+        if (status != TextToSpeech.SUCCESS) {
+            stats.recordFailure(enginePackage);
+            finishStep();
+            return;
+        }
+        stats.recordInit(enginePackage, (System.nanoTime() - stepStartNanos) / 1_000_000d);
+        isBound = true;
+        String utteranceId = BENCHMARK_PREFIX + current;
+        textToSpeech.setOnUtteranceProgressListener(new UtteranceProgressListener() {
+            @Override
+            public void onStart(String id) {
+            }
+
+            @Override
+            public void onAudioAvailable(String id, byte[] audio) {
+                onAudio();
+            }
+
+            @Override
+            public void onDone(String id) {
+                // Engines that do not stream chunks only report the finished file
+                onAudio();
+            }
+
+            @Override
+            @SuppressWarnings("deprecation")
+            public void onError(String id) {
+                executor.execute(() -> {
+                    if (current == step) finishWithoutAudio();
+                });
+            }
+
+            private void onAudio() {
+                long now = System.nanoTime();
+                if (!hasAudio.compareAndSet(false, true)) return;
+                executor.execute(() -> onFirstAudio(current, now));
+            }
+        });
+        file = new File(context.getCacheDir(), utteranceId + ".wav");
+        stepStartNanos = System.nanoTime();
+        if (textToSpeech.synthesizeToFile(REFERENCE_SENTENCE, null, file, utteranceId) != TextToSpeech.SUCCESS) {
+            finishWithoutAudio();
+            return;
+        }
+        scheduleTimeout(current, false);
+    }
+
+    private void onFirstAudio(int current, long atNanos) {
+        if (current != step) return;
+        double millis = (atNanos - stepStartNanos) / 1_000_000d;
+        voiceCatalog.getEngineStats().recordFirstAudio(enginePackage, engineVersion, millis);
+        Tracing.d("EngineBenchmark", "First audio, ms: ", millis);
+        finishStep();
+    }
+
+    private void scheduleTimeout(int current, boolean isInit) {
+        mainHandler.postDelayed(() -> executor.execute(() -> {
+            if (current != step || (isInit && isBound)) return;
+            Tracing.d("EngineBenchmark", "Timed out: ", enginePackage);
+            if (isInit) {
+                voiceCatalog.getEngineStats().recordFailure(enginePackage);
+                finishStep();
+            } else {
+                finishWithoutAudio();
+            }
+        }), STEP_TIMEOUT_MS);
+    }
+
+    private void finishWithoutAudio() {
+        // Ranked as slow as it can be, rather than measured again every launch
+        voiceCatalog.getEngineStats().recordFirstAudio(enginePackage, engineVersion, STEP_TIMEOUT_MS);
+        finishStep();
+    }
+
+    private void finishStep() {
+        step++;
+        textToSpeech.shutdown();
+        textToSpeech = null;
+        if (file != null) {
+            file.delete();
+            file = null;
+        }
+        next();
+    }
+}
@@ -0,0 +1,162 @@
+package com.simplexity.basictts;
+
+import android.speech.tts.TextToSpeech;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Binds a TTS engine, moving on to the next one when an engine reports a failed init or does not
+ * call back before the timeout. The first engine and the order of the rest come from
+ * {@link EngineStats}. Every instance that is given up on is shut down, and late callbacks from
+ * it are ignored; the instance that binds belongs to the listener.
+ *
+ * <p>Methods must be called on the executor passed in, which runs tasks one at a time; engine
+ * and timer callbacks are moved there. The engine type is a parameter so binding can be driven
+ * by a fake engine in tests.
+ */
+public class EngineBinder<T> {
+
+    public interface Engines<T> {
+        /**
+         * @param enginePackage the engine to bind, or null for the system default
+         */
+        T create(String enginePackage, InitCallback callback);
+
+        String getDefaultEngine(T engine);
+
+        List<String> getInstalledEngines(T engine);
+
+        boolean isInstalled(String enginePackage);
+
+        void shutdown(T engine);
+    }
+
+    public interface InitCallback {
+        void onInit(int status);
+    }
+
+    public interface Timer {
+        void schedule(Runnable task, long delayMillis);
+    }
+
+    public interface Listener<T> {
+        void onBound(T engine, String enginePackage);
+
+        /**
+         * Every installed engine failed.
+         */
+        void onUnavailable();
+    }
+
+    private final Engines<T> engines;
+    private final EngineStats stats;
+    private final Executor executor;
+    private final Timer timer;
+    private final long timeoutMillis;
+    private final Listener<T> listener;
+    private final HashSet<String> triedEngines = new HashSet<>();
+    private List<String> engineOrder;
+    private String preferred;
+    private T binding;
+    private String enginePackage;
+    private long bindStartNanos;
+    private int attempt;
+    private boolean isClosed;
+
+    public EngineBinder(Engines<T> engines, EngineStats stats, Executor executor, Timer timer, long timeoutMillis,
+                        Listener<T> listener) {
+        this.engines = engines;
+        this.stats = stats;
+        this.executor = executor;
+        this.timer = timer;
+        this.timeoutMillis = timeoutMillis;
+        this.listener = listener;
+    }
+
+    /**
+     * Binds the engine measured fastest that is still installed, or the system default if none
+     * was measured.
+     *
+     * @param preferred an engine to bind first unless it failed last time, or null
+     */
+    public void start(String preferred) {
+        this.preferred = preferred;
+        for (String candidate : stats.rank(stats.getEnginePackages(), preferred)) {
+            if (engines.isInstalled(candidate)) {
+                bind(candidate);
+                return;
+            }
+        }
+        bind(null);
+    }
+
+    /**
+     * Gives up on an engine still binding. An engine that already bound is left to the listener.
+     */
+    public void close() {
+        isClosed = true;
+        if (binding != null) {
+            engines.shutdown(binding);
+            binding = null;
+        }
+    }
+
+    /**
+     * @return the installed engines in the order they are tried, known once an engine was created
+     */
+    public List<String> getEngineOrder() {
+        return engineOrder;
+    }
+
+    public boolean isBinding() {
+        return binding != null;
+    }
+
+    private void bind(String engine) {
+        int current = ++attempt;
+        bindStartNanos = System.nanoTime();
+        binding = engines.create(engine, status -> executor.execute(() -> onInit(current, status)));
+        enginePackage = engine == null ? engines.getDefaultEngine(binding) : engine;
+        triedEngines.add(enginePackage);
+        if (engineOrder == null) {
+            engineOrder = stats.rank(engines.getInstalledEngines(binding), preferred);
+        }
+        Tracing.d("EngineBinder", "Binding engine ", enginePackage);
+        timer.schedule(() -> executor.execute(() -> onTimeout(current)), timeoutMillis);
+    }
+
+    private void onInit(int current, int status) {
+        // A late callback from an engine that was given up on
+        if (current != attempt || binding == null || isClosed) return;
+        if (status != TextToSpeech.SUCCESS) {
+            Tracing.d("EngineBinder", "Engine initialization failed: ", status);
+            failOver();
+            return;
+        }
+        stats.recordInit(enginePackage, (System.nanoTime() - bindStartNanos) / 1_000_000d);
+        T bound = binding;
+        binding = null;
+        listener.onBound(bound, enginePackage);
+    }
+
+    private void onTimeout(int current) {
+        if (current != attempt || binding == null || isClosed) return;
+        Tracing.d("EngineBinder", "Engine did not initialize in time: ", enginePackage);
+        failOver();
+    }
+
+    private void failOver() {
+        stats.recordFailure(enginePackage);
+        engines.shutdown(binding);
+        binding = null;
+        for (String candidate : engineOrder) {
+            if (!triedEngines.contains(candidate)) {
+                bind(candidate);
+                return;
+            }
+        }
+        listener.onUnavailable();
+    }
+}
@@ -0,0 +1,163 @@
+package com.simplexity.basictts;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What each installed TTS engine has shown on this device: how long it takes to bind, how long
+ * until the first audio of a reference sentence, and whether it failed to initialize. Used to
+ * decide which engine to bind first and which to fall back to.
+ */
+public class EngineStats {
+
+    private static final double SMOOTHING = 0.3;
+
+    private static final class Entry {
+        private double initMillis = Double.NaN;
+        private double firstAudioMillis = Double.NaN;
+        // Engine version the first-audio time was measured on, so an update is measured again
+        private long benchmarkedVersion = -1;
+        // Failures since the engine last initialized
+        private int failures;
+    }
+
+    private final HashMap<String, Entry> entries = new HashMap<>();
+    private boolean isDirty;
+
+    public synchronized void recordInit(String enginePackage, double millis) {
+        if (enginePackage == null || millis < 0) return;
+        Entry entry = getOrCreate(enginePackage);
+        entry.initMillis = smooth(entry.initMillis, millis);
+        entry.failures = 0;
+        isDirty = true;
+    }
+
+    public synchronized void recordFirstAudio(String enginePackage, long engineVersion, double millis) {
+        if (enginePackage == null || millis < 0) return;
+        Entry entry = getOrCreate(enginePackage);
+        entry.firstAudioMillis = smooth(entry.firstAudioMillis, millis);
+        entry.benchmarkedVersion = engineVersion;
+        isDirty = true;
+    }
+
+    public synchronized void recordFailure(String enginePackage) {
+        if (enginePackage == null) return;
+        getOrCreate(enginePackage).failures++;
+        isDirty = true;
+    }
+
+    /**
+     * @return whether the engine has no first-audio time for this version yet, or failed since it
+     * last initialized. Failures are only cleared by an init, so a failed engine is tried again
+     * in the background rather than ranked last for good over one timeout.
+     */
+    public synchronized boolean needsBenchmark(String enginePackage, long engineVersion) {
+        Entry entry = entries.get(enginePackage);
+        return entry == null || entry.failures > 0 || entry.benchmarkedVersion != engineVersion
+                || Double.isNaN(entry.firstAudioMillis);
+    }
+
+    /**
+     * @return every engine something was recorded for, installed or not
+     */
+    public synchronized List<String> getEnginePackages() {
+        return new ArrayList<>(entries.keySet());
+    }
+
+    /**
+     * @return the measured init time, or NaN
+     */
+    public synchronized double getInitMillis(String enginePackage) {
+        Entry entry = entries.get(enginePackage);
+        return entry == null ? Double.NaN : entry.initMillis;
+    }
+
+    /**
+     * @return the measured time to first audio, or NaN
+     */
+    public synchronized double getFirstAudioMillis(String enginePackage) {
+        Entry entry = entries.get(enginePackage);
+        return entry == null ? Double.NaN : entry.firstAudioMillis;
+    }
+
+    /**
+     * Orders engines for binding. The preferred engine comes first unless it failed last time,
+     * then measured engines fastest to first audio, then unmeasured ones in the order given.
+     * Equal first-audio times are ordered by init time.
+     * Engines that failed last time come last, fewest failures first.
+     */
+    public synchronized List<String> rank(Collection<String> enginePackages, String preferred) {
+        List<String> ranked = new ArrayList<>(enginePackages);
+        ranked.sort(Comparator.comparingInt(this::failuresOf)
+                .thenComparing(enginePackage -> !enginePackage.equals(preferred))
+                .thenComparingDouble(this::sortMillis)
+                .thenComparingDouble(enginePackage -> orMax(getInitMillis(enginePackage))));
+        return ranked;
+    }
+
+    public synchronized boolean isDirty() {
+        return isDirty;
+    }
+
+    public synchronized void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(entries.size());
+        for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+            Entry entry = mapEntry.getValue();
+            out.writeUTF(mapEntry.getKey());
+            out.writeDouble(entry.initMillis);
+            out.writeDouble(entry.firstAudioMillis);
+            out.writeLong(entry.benchmarkedVersion);
+            out.writeInt(entry.failures);
+        }
+        isDirty = false;
+    }
+
+    public synchronized void readFrom(DataInputStream in) throws IOException {
+        entries.clear();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String enginePackage = in.readUTF();
+            Entry entry = new Entry();
+            entry.initMillis = in.readDouble();
+            entry.firstAudioMillis = in.readDouble();
+            entry.benchmarkedVersion = in.readLong();
+            entry.failures = in.readInt();
+            entries.put(enginePackage, entry);
+        }
+        isDirty = false;
+    }
+
+    private Entry getOrCreate(String enginePackage) {
+        Entry entry = entries.get(enginePackage);
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(enginePackage, entry);
+        }
+        return entry;
+    }
+
+    private int failuresOf(String enginePackage) {
+        Entry entry = entries.get(enginePackage);
+        return entry == null ? 0 : entry.failures;
+    }
+
+    private double sortMillis(String enginePackage) {
+        // List sort is stable, so unmeasured engines keep their order
+        return orMax(getFirstAudioMillis(enginePackage));
+    }
+
+    private static double orMax(double millis) {
+        return Double.isNaN(millis) ? Double.MAX_VALUE : millis;
+    }
+
+    private static double smooth(double previous, double millis) {
+        return Double.isNaN(previous) ? millis : previous + SMOOTHING * (millis - previous);
+    }
+}
@@ -0,0 +1,84 @@
+package com.simplexity.basictts;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Fixed-size latency histogram with power-of-two microsecond buckets. Recording is a handful of
+ * arithmetic operations and never allocates.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKET_COUNT = 40;
+
+    private final String name;
+    private final long[] buckets = new long[BUCKET_COUNT];
+    private long count;
+    private long totalNanos;
+    private long minNanos = Long.MAX_VALUE;
+    private long maxNanos;
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public synchronized void record(long nanos) {
+        if (nanos < 0) return;
+        long micros = nanos / 1000;
+        int bucket = micros == 0 ? 0 : Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets[bucket]++;
+        count++;
+        totalNanos += nanos;
+        if (nanos < minNanos) minNanos = nanos;
+        if (nanos > maxNanos) maxNanos = nanos;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized double getMeanMillis() {
+        return count == 0 ? 0 : totalNanos / (double) count / 1_000_000d;
+    }
+
+    public synchronized double getMaxMillis() {
+        return maxNanos / 1_000_000d;
+    }
+
+    /**
+     * Upper bound of the bucket holding the given percentile, in milliseconds.
+     */
+    public synchronized double getPercentileMillis(double percentile) {
+        if (count == 0) return 0;
+        long target = (long) Math.ceil(count * percentile / 100d);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets[i];
+            if (seen >= target) {
+                double upperMicros = i == 0 ? 1 : (double) (1L << i);
+                return Math.min(upperMicros / 1000d, getMaxMillis());
+            }
+        }
+        return getMaxMillis();
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(buckets, 0);
+        count = 0;
+        totalNanos = 0;
+        minNanos = Long.MAX_VALUE;
+        maxNanos = 0;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public synchronized String toString() {
+        if (count == 0) return name + ": no samples";
+        return String.format(Locale.ROOT, "%s: n=%d mean=%.2fms p50=%.2fms p90=%.2fms p99=%.2fms min=%.2fms max=%.2fms",
+                name, count, getMeanMillis(), getPercentileMillis(50), getPercentileMillis(90),
+                getPercentileMillis(99), minNanos / 1_000_000d, getMaxMillis());
+    }
+}
@@ -1,56 +1,157 @@
 package com.simplexity.basictts;
 
 import android.app.Activity;
+import android.app.AlertDialog;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
 import android.view.inputmethod.EditorInfo;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.ImageButton;
+import android.widget.TextView;
+import android.widget.Toast;
 
-import androidx.appcompat.app.AppCompatDelegate;
 import androidx.preference.PreferenceManager;
+import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class MainActivity extends Activity {
 
-    private RecyclerView recyclerView;
+    private static final long DRAFT_IDLE_DELAY_MS = 400;
+    private static final int PHRASE_COLUMNS = 3;
+    private static final int SUGGESTION_COUNT = 3;
+    private static final String PHRASE_INDEX_FILE = "phrases.idx";
+    private static final int REQUEST_IMPORT_TEXT = 1;
+    private static final int REQUEST_EXPORT_AUDIO = 2;
+
+    private RecyclerView recyclerView, phraseGrid, suggestionBar;
+    private PhraseAdapter phraseAdapter, suggestionAdapter;
     private EditText textBox;
-    private ImageButton settingsButton, sendButton;
+    private ImageButton settingsButton, sendButton, exportButton;
+    private TextView warmingUpIndicator, exportStatus;
     private MessageAdapter messageAdapter;
+    private Conversation conversation;
     private TtsManager ttsManager;
+    private TtsConnection ttsConnection;
     private SharedPreferences sharedPreferences;
     private SharedPreferences.OnSharedPreferenceChangeListener sharedPreferenceChangeListener;
 
-    private List<String> messages = new ArrayList<>();
+    private MessageLog messageLog;
+    private PhraseIndex phraseIndex;
+    private int savedPhraseIndexPosition;
+    private final List<String> pendingMessages = new ArrayList<>();
+    private final List<String> pendingHistory = new ArrayList<>();
+    private final ExecutorService backgroundExecutor = Executors.newSingleThreadExecutor();
+    private final Handler draftHandler = new Handler(Looper.getMainLooper());
+    private final Runnable preRenderDraft = this::preRenderDraft;
+    private final MessageLog.AppendListener historyListener = position -> runOnUiThread(() -> {
+        if (conversation != null) conversation.onMessageAppended(position);
+        catchUpPhraseIndex();
+    });
+    private final Conversation.Observer conversationObserver = new Conversation.Observer() {
+        @Override
+        public void onMessagesInserted(int start, int count) {
+            messageAdapter.notifyItemRangeInserted(start, count);
+            recyclerView.scrollToPosition(start + count - 1);
+        }
+
+        @Override
+        public void onMessageChanged(int position) {
+            messageAdapter.notifyStateChanged(position);
+        }
+
+        @Override
+        public void onHighlightChanged(long messageId, int start, int end) {
+            messageAdapter.setHighlight(messageId, start, end);
+        }
+    };
+    private boolean predictiveSynthesisEnabled;
+    private TextSource pendingExportTexts;
+    private boolean isExporting;
 
 
+    /**
+     * Only the views are set up here. Preferences and the message history are read on a
+     * background thread, and the engine warms up in the service, so the first frame is not
+     * waiting on disk or on the TTS engine. The night mode alone was applied by
+     * {@link BasicTtsApplication}, since changing it afterwards recreates the activity.
+     */
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        StartupTiming.markCreated();
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_tts_chat);
         setupScreenStuff();
-        loadTtsManagerFromPreferences();
-        loadStyleFromPreferences();
-        setupPreferenceListener();
+        watchForFirstFrame();
+        connectTtsService();
+        loadInBackground();
     }
 
 
     private void setupScreenStuff() {
-        sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
         recyclerView = findViewById(R.id.chat_recycler_view);
         textBox = findViewById(R.id.edit_tts_message);
         sendButton = findViewById(R.id.tts_send_button);
         settingsButton = findViewById(R.id.settings_button);
-        messageAdapter = new MessageAdapter(messages);
+        warmingUpIndicator = findViewById(R.id.warming_up_indicator);
+        exportButton = findViewById(R.id.export_audio_button);
+        exportStatus = findViewById(R.id.export_status);
+        phraseGrid = findViewById(R.id.phrase_grid);
         recyclerView.setLayoutManager(new LinearLayoutManager(this));
-        recyclerView.setAdapter(messageAdapter);
+        phraseAdapter = new PhraseAdapter(new PhraseAdapter.Listener() {
+            @Override
+            public void onPhraseClicked(String phrase) {
+                playPhrase(phrase);
+            }
+
+            @Override
+            public void onPhraseLongClicked(String phrase) {
+                unpinPhrase(phrase);
+            }
+        });
+        phraseGrid.setLayoutManager(new GridLayoutManager(this, PHRASE_COLUMNS));
+        phraseGrid.setAdapter(phraseAdapter);
+        phraseGrid.setVisibility(View.GONE);
+        suggestionBar = findViewById(R.id.suggestion_bar);
+        suggestionAdapter = new PhraseAdapter(new PhraseAdapter.Listener() {
+            @Override
+            public void onPhraseClicked(String phrase) {
+                textBox.setText(phrase);
+                textBox.setSelection(phrase.length());
+            }
+
+            @Override
+            public void onPhraseLongClicked(String phrase) {
+                pinPhrase(phrase);
+            }
+        }, R.layout.item_suggestion);
+        suggestionBar.setLayoutManager(new LinearLayoutManager(this, LinearLayoutManager.HORIZONTAL, false));
+        suggestionBar.setAdapter(suggestionAdapter);
+        suggestionBar.setVisibility(View.GONE);
         sendButton.setOnClickListener(v -> sendMessage());
 
         textBox.setOnEditorActionListener((v, actionId, event) -> {
@@ -61,76 +162,457 @@ public class MainActivity extends Activity {
             return false;
         });
 
+        textBox.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                updateSuggestions(s.toString());
+                draftHandler.removeCallbacks(preRenderDraft);
+                if (predictiveSynthesisEnabled) {
+                    draftHandler.postDelayed(preRenderDraft, DRAFT_IDLE_DELAY_MS);
+                }
+            }
+        });
+
         settingsButton.setOnClickListener(v -> {
-            Log.d("MainActivity", "Settings button clicked");
+            Tracing.d("MainActivity", "Settings button clicked");
             startActivity(new Intent(this, SettingsActivity.class));
         });
 
+        exportButton.setOnClickListener(v -> chooseExportSource());
+        exportStatus.setOnClickListener(v -> ttsConnection.cancelExport());
+
+    }
+
+    private void watchForFirstFrame() {
+        View decorView = getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                StartupTiming.markFirstFrame();
+                return true;
+            }
+        });
+    }
+
+    private void loadInBackground() {
+        backgroundExecutor.execute(() -> {
+            SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(this);
+            MessageLog log = MessageLog.get(getFilesDir());
+            PhraseIndex index = loadPhraseIndex(log);
+            runOnUiThread(() -> onBackgroundLoadFinished(preferences, log, index));
+        });
+    }
+
+    /**
+     * Reads the saved index and counts the messages sent since it was saved, like the ones
+     * spoken from the notification. Without a usable saved index the whole history is counted,
+     * every message as if sent now.
+     */
+    private PhraseIndex loadPhraseIndex(MessageLog log) {
+        PhraseIndex index;
+        try {
+            index = PhraseIndex.load(new File(getFilesDir(), PHRASE_INDEX_FILE));
+        } catch (FileNotFoundException e) {
+            index = new PhraseIndex();
+        } catch (IOException e) {
+            Log.d("MainActivity", "Could not load phrase index: " + e.getMessage());
+            index = new PhraseIndex();
+        }
+        savedPhraseIndexPosition = index.getLogPosition();
+        try {
+            index.catchUp(log, System.currentTimeMillis());
+        } catch (IOException e) {
+            Log.d("MainActivity", "Could not read history for phrase index: " + e.getMessage());
+        }
+        return index;
+    }
+
+    private void onBackgroundLoadFinished(SharedPreferences preferences, MessageLog log, PhraseIndex index) {
+        if (isDestroyed()) return;
+        phraseIndex = index;
+        sharedPreferences = preferences;
+        predictiveSynthesisEnabled = sharedPreferences.getBoolean("predictive_synthesis_enabled", false);
+        setupPreferenceListener();
+        messageLog = log;
+        messageLog.addAppendListener(historyListener);
+        conversation = new Conversation(messageLog.size(), conversationObserver);
+        messageAdapter = new MessageAdapter(messageLog, conversation, backgroundExecutor);
+        messageAdapter.setOnMessageLongClickListener(this::pinPhrase);
+        recyclerView.setAdapter(messageAdapter);
+        if (conversation.size() > 0) recyclerView.scrollToPosition(conversation.size() - 1);
+        if (ttsManager != null) ttsManager.addUtteranceListener(conversation);
+        loadPhrasesFromPreferences();
+        for (String message : pendingHistory) {
+            appendToHistory(message);
+        }
+        pendingHistory.clear();
+        catchUpPhraseIndex();
     }
 
     private void setupPreferenceListener(){
         sharedPreferenceChangeListener = (sharedPreferences, key) -> {
             if (key == null) return;
-            if (key.equals("selected_voice_id") ||
-                    key.equals("speech_pitch") ||
-                    key.equals("speech_speed")) {
-                loadTtsManagerFromPreferences();
-            }
             if (key.equals("dark_mode_enabled")) {
                 loadStyleFromPreferences();
             }
+            if (key.equals("pinned_phrases")) {
+                loadPhrasesFromPreferences();
+            }
+            if (key.equals("predictive_synthesis_enabled")) {
+                predictiveSynthesisEnabled = sharedPreferences.getBoolean("predictive_synthesis_enabled", false);
+                if (!predictiveSynthesisEnabled && ttsManager != null) ttsManager.preRenderDraft(null);
+            }
         };
 
         sharedPreferences.registerOnSharedPreferenceChangeListener(sharedPreferenceChangeListener);
     }
 
-    private void loadTtsManagerFromPreferences() {
-        if (ttsManager != null) {
-            ttsManager.shutdown();
-        }
-        String voiceId = sharedPreferences.getString("selected_voice_id", null);
-        float pitch = sharedPreferences.getInt("speech_pitch", 100) / 100f;
-        float speed = sharedPreferences.getInt("speech_speed", 100) / 100f;
-        Log.d("MainActivity", "Loading TTS manager from preferences");
-        Log.d("MainActivity", "Voice ID: " + voiceId);
-        Log.d("MainActivity", "Pitch: " + pitch);
-        Log.d("MainActivity", "Speed: " + speed);
-        if (voiceId != null) {
-            ttsManager = new TtsManager(voiceId, pitch, speed, this);
+    private void connectTtsService() {
+        ttsConnection = new TtsConnection(this, manager -> {
+            Tracing.d("MainActivity", "TTS manager available");
+            ttsManager = manager;
+            if (conversation != null) ttsManager.addUtteranceListener(conversation);
+            // The manager queues these itself until the engine has finished warming up
+            for (String message : pendingMessages) {
+                ttsManager.sendMessage(message);
+            }
+            pendingMessages.clear();
+            ttsManager.runWhenReady(this::onEngineReady);
+            ttsManager.runIfUnavailable(this::onEngineUnavailable);
+            // Starts rendering the pinned phrases into memory
+            ttsConnection.getSoundboard();
+        });
+        ttsConnection.bind();
+    }
+
+    private void loadPhrasesFromPreferences() {
+        List<String> phrases = getPinnedPhrases();
+        phraseAdapter.setPhrases(phrases);
+        phraseGrid.setVisibility(phrases.isEmpty() ? View.GONE : View.VISIBLE);
+    }
+
+    private List<String> getPinnedPhrases() {
+        return Soundboard.parsePhrases(sharedPreferences.getString("pinned_phrases", Soundboard.DEFAULT_PHRASES));
+    }
+
+    private void playPhrase(String phrase) {
+        Soundboard soundboard = ttsConnection.getSoundboard();
+        if (soundboard != null) {
+            soundboard.play(phrase);
         } else {
-            ttsManager = new TtsManager(this);
+            pendingMessages.add(phrase);
         }
     }
 
-    private void loadStyleFromPreferences() {
-        Log.d("MainActivity", "Loading style from preferences");
-        boolean lightMode = sharedPreferences.getBoolean("dark_mode_enabled", true);
-        if (lightMode) {
-            AppCompatDelegate.setDefaultNightMode(AppCompatDelegate.MODE_NIGHT_NO);
-        } else {
-            AppCompatDelegate.setDefaultNightMode(AppCompatDelegate.MODE_NIGHT_YES);
+    private void pinPhrase(String message) {
+        List<String> phrases = getPinnedPhrases();
+        if (phrases.contains(message)) return;
+        phrases.add(message);
+        sharedPreferences.edit().putString("pinned_phrases", Soundboard.joinPhrases(phrases)).apply();
+        Toast.makeText(this, "Pinned", Toast.LENGTH_SHORT).show();
+    }
+
+    private void unpinPhrase(String phrase) {
+        List<String> phrases = getPinnedPhrases();
+        phrases.remove(phrase);
+        sharedPreferences.edit().putString("pinned_phrases", Soundboard.joinPhrases(phrases)).apply();
+        Toast.makeText(this, "Unpinned", Toast.LENGTH_SHORT).show();
+    }
+
+    /**
+     * Runs once typing has paused, so the draft is already rendered if it gets sent unchanged.
+     */
+    private void preRenderDraft() {
+        if (ttsManager == null || !predictiveSynthesisEnabled) return;
+        ttsManager.preRenderDraft(textBox.getText().toString());
+    }
+
+    /**
+     * Counts the messages appended since the index last looked; only the new records are read,
+     * on the background thread, which also orders it before any save.
+     */
+    private void catchUpPhraseIndex() {
+        // An append posted before onDestroy would otherwise reach the stopped executor
+        if (phraseIndex == null || isDestroyed()) return;
+        PhraseIndex index = phraseIndex;
+        MessageLog log = messageLog;
+        backgroundExecutor.execute(() -> {
+            try {
+                index.catchUp(log, System.currentTimeMillis());
+            } catch (IOException e) {
+                Log.d("MainActivity", "Could not update phrase index: " + e.getMessage());
+            }
+        });
+    }
+
+    private void updateSuggestions(String text) {
+        if (phraseIndex == null) return;
+        long completeStart = Tracing.start();
+        List<String> suggestions = phraseIndex.complete(text, SUGGESTION_COUNT);
+        Tracing.record(Tracing.Metric.AUTOCOMPLETE, completeStart);
+        suggestionAdapter.setPhrases(suggestions);
+        suggestionBar.setVisibility(suggestions.isEmpty() ? View.GONE : View.VISIBLE);
+    }
+
+    private void savePhraseIndex() {
+        if (phraseIndex == null || phraseIndex.getLogPosition() == savedPhraseIndexPosition) return;
+        PhraseIndex index = phraseIndex;
+        int position = index.getLogPosition();
+        backgroundExecutor.execute(() -> {
+            try {
+                index.save(new File(getFilesDir(), PHRASE_INDEX_FILE));
+                // Only a save that reached the disk spares the next one
+                runOnUiThread(() -> savedPhraseIndexPosition = position);
+            } catch (IOException e) {
+                // Whatever was not saved is counted again from the history next time
+                Log.d("MainActivity", "Could not save phrase index: " + e.getMessage());
+            }
+        });
+    }
+
+    private void chooseExportSource() {
+        if (isExporting) {
+            Toast.makeText(this, "An export is already running", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        CharSequence[] sources = {"Conversation", "Text in the message box", "Text file\u2026"};
+        new AlertDialog.Builder(this)
+                .setTitle("Export audio")
+                .setItems(sources, (dialog, which) -> {
+                    if (which == 0) {
+                        exportConversation();
+                    } else if (which == 1) {
+                        String text = textBox.getText().toString().trim();
+                        if (text.isEmpty()) {
+                            Toast.makeText(this, "The message box is empty", Toast.LENGTH_SHORT).show();
+                        } else {
+                            chooseExportTarget(singleText(text), "message.wav");
+                        }
+                    } else {
+                        Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+                        intent.addCategory(Intent.CATEGORY_OPENABLE);
+                        intent.setType("text/plain");
+                        startActivityForResult(intent, REQUEST_IMPORT_TEXT);
+                    }
+                })
+                .show();
+    }
+
+    private void exportConversation() {
+        if (messageLog == null) return;
+        if (messageLog.size() == 0) {
+            Toast.makeText(this, "No messages to export", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        // The exporter reads the log a page at a time as it renders
+        chooseExportTarget(messageLog, "conversation.wav");
+    }
+
+    private void importText(Uri uri) {
+        backgroundExecutor.execute(() -> {
+            StringBuilder text = new StringBuilder();
+            try (InputStream input = getContentResolver().openInputStream(uri)) {
+                if (input == null) throw new IOException("No content");
+                BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    text.append(line).append('\n');
+                }
+            } catch (IOException e) {
+                Log.d("MainActivity", "Could not read " + uri + ": " + e.getMessage());
+                runOnUiThread(() -> Toast.makeText(this, "Could not read the file", Toast.LENGTH_SHORT).show());
+                return;
+            }
+            String imported = text.toString().trim();
+            runOnUiThread(() -> {
+                if (!imported.isEmpty()) chooseExportTarget(singleText(imported), "text.wav");
+            });
+        });
+    }
+
+    private static TextSource singleText(String text) {
+        return TextSource.of(Collections.singletonList(text));
+    }
+
+    private void chooseExportTarget(TextSource texts, String fileName) {
+        if (isDestroyed()) return;
+        pendingExportTexts = texts;
+        Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("audio/wav");
+        intent.putExtra(Intent.EXTRA_TITLE, fileName);
+        startActivityForResult(intent, REQUEST_EXPORT_AUDIO);
+    }
+
+    private void startExport(Uri uri) {
+        TextSource texts = pendingExportTexts;
+        pendingExportTexts = null;
+        if (texts == null) return;
+        ParcelFileDescriptor output;
+        try {
+            // Read-write so the header can be patched once the length is known
+            output = getContentResolver().openFileDescriptor(uri, "rw");
+        } catch (IOException e) {
+            Log.d("MainActivity", "Could not open " + uri + ": " + e.getMessage());
+            output = null;
+        }
+        if (output == null || !ttsConnection.startExport(texts, output, exportListener)) {
+            if (output != null) {
+                try {
+                    output.close();
+                } catch (IOException e) {
+                    Log.d("MainActivity", "Could not close " + uri + ": " + e.getMessage());
+                }
+            }
+            Toast.makeText(this, "Could not start the export", Toast.LENGTH_SHORT).show();
+            return;
         }
+        isExporting = true;
+        exportStatus.setText("Exporting audio\u2026 tap to cancel");
+        exportStatus.setVisibility(View.VISIBLE);
+    }
 
+    private void onExportEnded(String message) {
+        isExporting = false;
+        if (isDestroyed()) return;
+        exportStatus.setVisibility(View.GONE);
+        Toast.makeText(this, message, Toast.LENGTH_LONG).show();
+    }
+
+    private final AudioExporter.Listener exportListener = new AudioExporter.Listener() {
+        @Override
+        public void onExportProgress(int renderedChars, int totalChars) {
+            if (isDestroyed() || totalChars == 0) return;
+            exportStatus.setText("Exporting audio\u2026 " + renderedChars * 100L / totalChars + "%, tap to cancel");
+        }
+
+        @Override
+        public void onExportFinished(long durationMillis) {
+            onExportEnded("Exported " + durationMillis / 60_000 + " min " + durationMillis / 1000 % 60 + " s of audio");
+        }
+
+        @Override
+        public void onExportFailed(String reason) {
+            onExportEnded("Export failed: " + reason);
+        }
+
+        @Override
+        public void onExportCancelled() {
+            onExportEnded("Export cancelled");
+        }
+    };
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        Uri uri = resultCode == RESULT_OK && data != null ? data.getData() : null;
+        if (requestCode == REQUEST_IMPORT_TEXT && uri != null) {
+            importText(uri);
+        } else if (requestCode == REQUEST_EXPORT_AUDIO) {
+            if (uri != null) {
+                startExport(uri);
+            } else {
+                pendingExportTexts = null;
+            }
+        }
+    }
+
+    private void onEngineReady() {
+        if (isDestroyed()) return;
+        warmingUpIndicator.setVisibility(View.GONE);
+        StartupTiming.markReady();
+        reportFullyDrawn();
+    }
+
+    /**
+     * No engine could be started, so nothing sent will be spoken; says so where the warming-up
+     * note was.
+     */
+    private void onEngineUnavailable() {
+        if (isDestroyed()) return;
+        warmingUpIndicator.setText("No speech engine could be started. Check the text-to-speech settings.");
+        warmingUpIndicator.setVisibility(View.VISIBLE);
+        reportFullyDrawn();
+    }
+
+    private void loadStyleFromPreferences() {
+        Tracing.d("MainActivity", "Loading style from preferences");
+        // Only on a change; the saved mode was applied at launch, before the first frame
+        BasicTtsApplication.applyNightMode(sharedPreferences);
     }
 
 
     private void sendMessage() {
-        if (textBox.getText().toString().trim().isEmpty()) {
+        String message = textBox.getText().toString().trim();
+        if (message.isEmpty()) {
             return;
         }
-        ttsManager.sendMessage(textBox.getText().toString().trim());
-        messages.add(textBox.getText().toString().trim());
-        messageAdapter.notifyItemInserted(messages.size() - 1);
-        recyclerView.scrollToPosition(messages.size() - 1);
+        draftHandler.removeCallbacks(preRenderDraft);
+        String utteranceId = null;
+        if (ttsManager != null) {
+            utteranceId = ttsManager.sendMessage(message);
+        } else {
+            pendingMessages.add(message);
+        }
+        if (messageLog != null) {
+            int position = appendToHistory(message);
+            if (position >= 0 && utteranceId != null) {
+                conversation.track(utteranceId, position, ttsManager.getDefaultVoice());
+            }
+        } else {
+            pendingHistory.add(message);
+        }
         textBox.setText("");
     }
 
+    /**
+     * @return the position of the message in the log, or -1 if it could not be saved
+     */
+    private int appendToHistory(String message) {
+        try {
+            // historyListener adds it to the conversation
+            return messageLog.append(message);
+        } catch (IOException e) {
+            Log.d("MainActivity", "Could not save message: " + e.getMessage());
+            return -1;
+        }
+    }
+
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        savePhraseIndex();
+    }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        if (ttsManager != null) {
-            ttsManager.shutdown();
+        // Lets the phrase index save queued by onStop finish rather than discarding it
+        backgroundExecutor.shutdown();
+        draftHandler.removeCallbacks(preRenderDraft);
+        if (sharedPreferences != null) {
+            sharedPreferences.unregisterOnSharedPreferenceChangeListener(sharedPreferenceChangeListener);
+        }
+        if (ttsManager != null && conversation != null) {
+            // The manager belongs to the service and outlives this screen
+            ttsManager.removeUtteranceListener(conversation);
+        }
+        ttsManager = null;
+        if (messageLog != null) {
+            messageLog.removeAppendListener(historyListener);
+        }
+        if (ttsConnection != null) {
+            ttsConnection.unbind();
         }
     }
 
@@ -0,0 +1,296 @@
+package com.simplexity.basictts;
+
+/**
+ * Tokenizer for the inline markup a message can carry:
+ * <ul>
+ *     <li>{@code [pause 500]}, {@code [pause 1.5s]}: silence, in milliseconds unless marked s</li>
+ *     <li>{@code [voice=en-gb-x-rjs]} ... {@code [/voice]}: another voice, by name or language tag</li>
+ *     <li>{@code [pitch 1.2]}, {@code [rate=80%]} ... {@code [/pitch]}: pitch or rate relative to the
+ *     message's own</li>
+ *     <li>{@code *emphasis*}: a word or phrase said with emphasis</li>
+ * </ul>
+ * A backslash keeps the next [, * or \ literal, and anything that does not parse as markup is
+ * plain text, so ordinary messages are never mangled.
+ *
+ * <p>The parser is a cursor over the text: tokens are reported as ranges and numbers, so scanning
+ * allocates nothing, and one parser can be reset and reused.
+ */
+public final class MarkupParser {
+
+    public enum Token {
+        TEXT,
+        PAUSE,
+        VOICE,
+        PITCH,
+        RATE,
+        EMPHASIS,
+        END
+    }
+
+    public static final int MAX_PAUSE_MILLIS = 10_000;
+    public static final float MIN_SCALE = 0.25f;
+    public static final float MAX_SCALE = 4f;
+    // Longer brackets are text, which also bounds the work a stray [ can cause
+    private static final int MAX_TAG_LENGTH = 64;
+
+    private CharSequence text;
+    private int length;
+    private int position;
+    private Token token;
+    private int start;
+    private int end;
+    private int pauseMillis;
+    private float scale;
+    private boolean isEmphasisStart;
+    // Where the open emphasis closes, or -1 when none is open
+    private int emphasisEnd = -1;
+
+    public MarkupParser reset(CharSequence text) {
+        this.text = text;
+        this.length = text.length();
+        this.position = 0;
+        this.token = null;
+        this.emphasisEnd = -1;
+        return this;
+    }
+
+    /**
+     * Moves to the next token. Plain text may come as several TEXT tokens in a row, split where
+     * an escape or a character that failed to start markup was.
+     */
+    public Token next() {
+        if (position >= length) return token = Token.END;
+        char c = text.charAt(position);
+        if (c == '[' && parseTag()) return token;
+        if (c == '*' && parseEmphasis()) return token;
+        if (c == '\\' && position + 1 < length && isSpecial(text.charAt(position + 1))) {
+            start = position + 1;
+            end = position + 2;
+            position += 2;
+            return token = Token.TEXT;
+        }
+        start = position++;
+        while (position < length && !isSpecial(text.charAt(position))) {
+            position++;
+        }
+        end = position;
+        return token = Token.TEXT;
+    }
+
+    public Token getToken() {
+        return token;
+    }
+
+    /**
+     * @return for TEXT, where the text starts; for VOICE, where the voice name starts
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * @return for TEXT, where the text ends; for VOICE, where the name ends, equal to the start
+     * when the tag switches back to the message's own voice
+     */
+    public int getEnd() {
+        return end;
+    }
+
+    public int getPauseMillis() {
+        return pauseMillis;
+    }
+
+    /**
+     * @return for PITCH and RATE, the factor applied to the message's own value; 1 to go back to it
+     */
+    public float getScale() {
+        return scale;
+    }
+
+    /**
+     * @return for EMPHASIS, whether it opens rather than closes
+     */
+    public boolean isEmphasisStart() {
+        return isEmphasisStart;
+    }
+
+    /**
+     * @return whether the text has anything the parser would not read as plain text
+     */
+    public static boolean hasMarkup(CharSequence text) {
+        MarkupParser parser = new MarkupParser().reset(text);
+        for (Token next = parser.next(); next != Token.END; next = parser.next()) {
+            if (next != Token.TEXT || parser.end - parser.start == 1 && parser.start > 0
+                    && text.charAt(parser.start - 1) == '\\') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the text with the markup taken out, for engines that render it in one piece
+     */
+    public static String stripMarkup(String text) {
+        if (!hasMarkup(text)) return text;
+        StringBuilder plain = new StringBuilder(text.length());
+        MarkupParser parser = new MarkupParser().reset(text);
+        for (Token next = parser.next(); next != Token.END; next = parser.next()) {
+            if (next == Token.TEXT) plain.append(text, parser.start, parser.end);
+        }
+        return plain.toString();
+    }
+
+    private static boolean isSpecial(char c) {
+        return c == '[' || c == '*' || c == '\\';
+    }
+
+    /**
+     * Reads the tag at the current position. On failure nothing moves and the [ is text.
+     */
+    private boolean parseTag() {
+        int limit = Math.min(length, position + MAX_TAG_LENGTH);
+        int close = -1;
+        for (int i = position + 1; i < limit; i++) {
+            char c = text.charAt(i);
+            if (c == ']') {
+                close = i;
+                break;
+            }
+            if (c == '[' || c == '\n') return false;
+        }
+        if (close < 0) return false;
+        int nameStart = position + 1;
+        boolean isClosing = text.charAt(nameStart) == '/';
+        if (isClosing) nameStart++;
+        int nameEnd = nameStart;
+        while (nameEnd < close && Character.isLetter(text.charAt(nameEnd))) {
+            nameEnd++;
+        }
+        int valueStart = nameEnd;
+        while (valueStart < close && text.charAt(valueStart) == ' ') valueStart++;
+        if (valueStart < close && text.charAt(valueStart) == '=') valueStart++;
+        while (valueStart < close && text.charAt(valueStart) == ' ') valueStart++;
+        int valueEnd = close;
+        while (valueEnd > valueStart && text.charAt(valueEnd - 1) == ' ') valueEnd--;
+        // The name must be followed by a separator or the end of the tag
+        if (valueStart == nameEnd && valueEnd > valueStart) return false;
+        boolean isReset = isClosing || valueStart == valueEnd || equalsIgnoreCase(valueStart, valueEnd, "default");
+        if (isClosing && valueStart != valueEnd) return false;
+        Token parsed;
+        if (equalsIgnoreCase(nameStart, nameEnd, "pause")) {
+            if (isReset || !parsePause(valueStart, valueEnd)) return false;
+            parsed = Token.PAUSE;
+        } else if (equalsIgnoreCase(nameStart, nameEnd, "voice")) {
+            start = valueStart;
+            end = isReset ? valueStart : valueEnd;
+            parsed = Token.VOICE;
+        } else if (equalsIgnoreCase(nameStart, nameEnd, "pitch")) {
+            if (!isReset && !parseScale(valueStart, valueEnd)) return false;
+            if (isReset) scale = 1f;
+            parsed = Token.PITCH;
+        } else if (equalsIgnoreCase(nameStart, nameEnd, "rate") || equalsIgnoreCase(nameStart, nameEnd, "speed")) {
+            if (!isReset && !parseScale(valueStart, valueEnd)) return false;
+            if (isReset) scale = 1f;
+            parsed = Token.RATE;
+        } else {
+            return false;
+        }
+        position = close + 1;
+        token = parsed;
+        return true;
+    }
+
+    /**
+     * An emphasis opens at a * followed by a non-space, if the next * closes it: it follows a
+     * non-space and is not the very next character. Anything else is a literal *.
+     */
+    private boolean parseEmphasis() {
+        if (emphasisEnd == position) {
+            emphasisEnd = -1;
+            isEmphasisStart = false;
+            position++;
+            token = Token.EMPHASIS;
+            return true;
+        }
+        if (emphasisEnd >= 0 || position + 2 >= length || Character.isWhitespace(text.charAt(position + 1))) {
+            return false;
+        }
+        int close = position + 1;
+        while (close < length && text.charAt(close) != '*') close++;
+        if (close >= length || close == position + 1 || Character.isWhitespace(text.charAt(close - 1))
+                || text.charAt(close - 1) == '\\') {
+            return false;
+        }
+        emphasisEnd = close;
+        isEmphasisStart = true;
+        position++;
+        token = Token.EMPHASIS;
+        return true;
+    }
+
+    private boolean parsePause(int from, int to) {
+        int unitStart = to;
+        while (unitStart > from && Character.isLetter(text.charAt(unitStart - 1))) unitStart--;
+        float multiplier;
+        if (unitStart == to || equalsIgnoreCase(unitStart, to, "ms")) {
+            multiplier = 1;
+        } else if (equalsIgnoreCase(unitStart, to, "s")) {
+            multiplier = 1000;
+        } else {
+            return false;
+        }
+        while (unitStart > from && text.charAt(unitStart - 1) == ' ') unitStart--;
+        float value = parseNumber(from, unitStart);
+        if (Float.isNaN(value)) return false;
+        pauseMillis = Math.min(MAX_PAUSE_MILLIS, Math.round(value * multiplier));
+        return true;
+    }
+
+    private boolean parseScale(int from, int to) {
+        boolean isPercent = to > from && text.charAt(to - 1) == '%';
+        float value = parseNumber(from, isPercent ? to - 1 : to);
+        if (Float.isNaN(value) || value <= 0) return false;
+        if (isPercent) value /= 100f;
+        scale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, value));
+        return true;
+    }
+
+    /**
+     * @return the unsigned decimal number spanning the range exactly, or NaN
+     */
+    private float parseNumber(int from, int to) {
+        if (from >= to) return Float.NaN;
+        long whole = 0;
+        long fraction = 0;
+        long fractionScale = 1;
+        boolean isFraction = false;
+        int digits = 0;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c == '.' && !isFraction) {
+                isFraction = true;
+            } else if (c >= '0' && c <= '9' && digits < 9) {
+                digits++;
+                if (isFraction) {
+                    fraction = fraction * 10 + (c - '0');
+                    fractionScale *= 10;
+                } else {
+                    whole = whole * 10 + (c - '0');
+                }
+            } else {
+                return Float.NaN;
+            }
+        }
+        if (digits == 0) return Float.NaN;
+        return whole + fraction / (float) fractionScale;
+    }
+
+    private boolean equalsIgnoreCase(int from, int to, String expected) {
+        if (to - from != expected.length()) return false;
+        for (int i = 0; i < expected.length(); i++) {
+            if (Character.toLowerCase(text.charAt(from + i)) != expected.charAt(i)) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,68 @@
+package com.simplexity.basictts;
+
+/**
+ * One row of the conversation. The text stays in the {@link MessageLog} and is read a page at a
+ * time when the row is shown, so the in-memory list stays small however long the history gets.
+ * The id is the message's position in the log, which never changes for an append-only log.
+ */
+public final class Message {
+
+    public enum State {
+        // Saved in an earlier session, or sent from outside this screen
+        SAVED,
+        QUEUED,
+        SPEAKING,
+        INTERRUPTED,
+        SPOKEN,
+        FAILED,
+        DROPPED
+    }
+
+    private final long id;
+    private final long timestampMillis;
+    private final String voice;
+    private final State state;
+    private final long durationMillis;
+
+    public Message(long id, long timestampMillis, String voice, State state, long durationMillis) {
+        this.id = id;
+        this.timestampMillis = timestampMillis;
+        this.voice = voice;
+        this.state = state;
+        this.durationMillis = durationMillis;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return when the message was sent, or 0 for messages from before the current session
+     */
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    public String getVoice() {
+        return voice;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return how long speaking it took, or 0 until it is spoken
+     */
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public Message withState(State state) {
+        return new Message(id, timestampMillis, voice, state, durationMillis);
+    }
+
+    public Message withSpoken(long durationMillis) {
+        return new Message(id, timestampMillis, voice, State.SPOKEN, durationMillis);
+    }
+}
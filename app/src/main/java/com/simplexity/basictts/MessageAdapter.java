@@ -1,5 +1,13 @@
 package com.simplexity.basictts;
 
+import android.content.Context;
+import android.graphics.Color;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Spannable;
+import android.text.Spanned;
+import android.text.format.DateUtils;
+import android.text.style.BackgroundColorSpan;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -9,14 +17,94 @@ import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
 
+/**
+ * Binds the rows of a {@link Conversation}. A changed state or the word being spoken only rebinds
+ * the one row, through payloads, and the text itself is read from the log a page at a time. Pages
+ * are read on the background executor, ahead of the scroll where possible; a row whose page has
+ * not arrived shows no text until it is rebound with it.
+ */
 public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.ViewHolder> {
 
-    private List<String> messages;
+    public interface OnMessageLongClickListener {
+        void onMessageLongClicked(String message);
+    }
+
+    private static final int PAGE_SIZE = 50;
+    private static final int MAX_CACHED_PAGES = 4;
+    // Rows this close to the edge of their page start reading the neighbouring page
+    private static final int PREFETCH_DISTANCE = 15;
+    private static final Object PAYLOAD_STATE = new Object();
+    private static final Object PAYLOAD_TEXT = new Object();
+    private static final Object PAYLOAD_HIGHLIGHT = new Object();
+    private static final int HIGHLIGHT_COLOR = Color.argb(96, 255, 213, 79);
+
+    private final MessageLog messageLog;
+    private final Conversation conversation;
+    private final Executor readExecutor;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    // Pages being read, so a page is only asked for once at a time
+    private final Set<Integer> loadingPages = new HashSet<>();
+    private OnMessageLongClickListener longClickListener;
+    private long highlightedId = -1;
+    private int highlightStart;
+    private int highlightEnd;
+    private final LinkedHashMap<Integer, List<String>> pages =
+            new LinkedHashMap<Integer, List<String>>(MAX_CACHED_PAGES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, List<String>> eldest) {
+                    return size() > MAX_CACHED_PAGES;
+                }
+            };
+
+    public MessageAdapter(MessageLog messageLog, Conversation conversation, Executor readExecutor) {
+        this.messageLog = messageLog;
+        this.conversation = conversation;
+        this.readExecutor = readExecutor;
+        setHasStableIds(true);
+    }
+
+    public void setOnMessageLongClickListener(OnMessageLongClickListener longClickListener) {
+        this.longClickListener = longClickListener;
+    }
+
+    /**
+     * Highlights characters [start, end) of the message, or clears the highlight for a negative
+     * id. Only the rows that gain or lose the highlight are rebound.
+     */
+    public void setHighlight(long messageId, int start, int end) {
+        long previous = highlightedId;
+        highlightedId = messageId;
+        highlightStart = start;
+        highlightEnd = end;
+        if (previous >= 0 && previous != messageId) notifyHighlightChanged(previous);
+        if (messageId >= 0) notifyHighlightChanged(messageId);
+    }
 
-    public MessageAdapter(List<String> messages) {
-        this.messages = messages;
+    /**
+     * Rebinds the status line of the row; the text never changes for a position.
+     */
+    public void notifyStateChanged(int position) {
+        notifyItemChanged(position, PAYLOAD_STATE);
+    }
+
+    @Override
+    public int getItemCount() {
+        return conversation.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
     }
 
     @NonNull
@@ -29,28 +117,168 @@ public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.ViewHold
 
     @Override
     public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
-        if (messages.isEmpty()) {
-            holder.textView.setText(0);
+        long bindStart = Tracing.start();
+        Message message = conversation.get(position);
+        bindText(holder, message);
+        bindStatus(holder, message);
+        bindHighlight(holder, message);
+        prefetchAround(position);
+        Tracing.record(Tracing.Metric.BIND, bindStart);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
             return;
         }
-        Log.d("MessageAdapter", "Position: " + position);
-        Log.d("MessageAdapter", "Messages size: " + messages.size());
-        Log.d("MessageAdapter", "Messages: " + messages.toString());
-        Log.d("MessageAdapter", "Binding message: " + messages.get(position));
-        holder.textView.setText(messages.get(position));
+        Message message = conversation.get(position);
+        for (Object payload : payloads) {
+            if (payload == PAYLOAD_STATE) bindStatus(holder, message);
+            if (payload == PAYLOAD_TEXT) {
+                bindText(holder, message);
+                bindHighlight(holder, message);
+            }
+            if (payload == PAYLOAD_HIGHLIGHT) bindHighlight(holder, message);
+        }
     }
 
-    @Override
-    public int getItemCount() {
-        return messages.size();
+    /**
+     * Sets the text if its page is in memory, or an empty placeholder while the page is read.
+     */
+    private void bindText(ViewHolder holder, Message message) {
+        String text = getText(message.getId());
+        holder.textView.setText(text == null ? "" : text, TextView.BufferType.SPANNABLE);
+        holder.itemView.setOnLongClickListener(v -> {
+            if (longClickListener == null || text == null) return false;
+            longClickListener.onMessageLongClicked(text);
+            return true;
+        });
+    }
+
+    private void bindStatus(ViewHolder holder, Message message) {
+        String status = describe(holder.itemView.getContext(), message);
+        holder.statusView.setText(status);
+        holder.statusView.setVisibility(status.isEmpty() ? View.GONE : View.VISIBLE);
+    }
+
+    /**
+     * Moves the one highlight span of the row; the text is not set again.
+     */
+    private void bindHighlight(ViewHolder holder, Message message) {
+        Spannable text = (Spannable) holder.textView.getText();
+        if (message.getId() != highlightedId || highlightStart < 0 || highlightEnd > text.length()
+                || highlightStart >= highlightEnd) {
+            text.removeSpan(holder.highlight);
+            return;
+        }
+        text.setSpan(holder.highlight, highlightStart, highlightEnd, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+    }
+
+    private void notifyHighlightChanged(long messageId) {
+        // Ids are log positions and the rows cover the whole log, so the id is the position
+        if (messageId < getItemCount()) notifyItemChanged((int) messageId, PAYLOAD_HIGHLIGHT);
+    }
+
+    private static String describe(Context context, Message message) {
+        StringBuilder status = new StringBuilder();
+        if (message.getTimestampMillis() > 0) {
+            status.append(DateUtils.formatDateTime(context, message.getTimestampMillis(), DateUtils.FORMAT_SHOW_TIME));
+        }
+        String state;
+        switch (message.getState()) {
+            case QUEUED:
+                state = "Queued";
+                break;
+            case SPEAKING:
+                state = "Speaking";
+                break;
+            case INTERRUPTED:
+                state = "Interrupted";
+                break;
+            case SPOKEN:
+                state = message.getDurationMillis() > 0
+                        ? String.format(Locale.getDefault(), "%.1f s", message.getDurationMillis() / 1000f) : "";
+                break;
+            case FAILED:
+                state = "Not spoken";
+                break;
+            case DROPPED:
+                state = "Skipped";
+                break;
+            default:
+                state = "";
+        }
+        if (status.length() > 0 && !state.isEmpty()) status.append(" · ");
+        return status.append(state).toString();
+    }
+
+    /**
+     * @return the text, or null if its page is being read
+     */
+    private String getText(long id) {
+        int position = (int) id;
+        int pageNumber = position / PAGE_SIZE;
+        int offset = position - pageNumber * PAGE_SIZE;
+        List<String> page = pages.get(pageNumber);
+        // A page read before more messages were appended to it is read again
+        if (page == null || offset >= page.size()) {
+            loadPage(pageNumber);
+            return null;
+        }
+        return page.get(offset);
+    }
+
+    /**
+     * Reads the neighbouring page once the row is near the edge of its own, so scrolling on
+     * finds it in memory.
+     */
+    private void prefetchAround(int position) {
+        int pageNumber = position / PAGE_SIZE;
+        int offset = position - pageNumber * PAGE_SIZE;
+        if (offset < PREFETCH_DISTANCE && pageNumber > 0 && !pages.containsKey(pageNumber - 1)) {
+            loadPage(pageNumber - 1);
+        }
+        if (offset >= PAGE_SIZE - PREFETCH_DISTANCE && (pageNumber + 1) * PAGE_SIZE < getItemCount()
+                && !pages.containsKey(pageNumber + 1)) {
+            loadPage(pageNumber + 1);
+        }
+    }
+
+    private void loadPage(int pageNumber) {
+        if (!loadingPages.add(pageNumber)) return;
+        readExecutor.execute(() -> {
+            List<String> page;
+            try {
+                page = messageLog.read(pageNumber * PAGE_SIZE, PAGE_SIZE);
+            } catch (IOException e) {
+                Log.d("MessageAdapter", "Could not read page " + pageNumber + ": " + e.getMessage());
+                page = Collections.emptyList();
+            }
+            List<String> loaded = page;
+            handler.post(() -> onPageLoaded(pageNumber, loaded));
+        });
+    }
+
+    private void onPageLoaded(int pageNumber, List<String> page) {
+        loadingPages.remove(pageNumber);
+        pages.put(pageNumber, page);
+        // Only the rows the page holds, so a row it still lacks is not rebound into another read
+        int first = pageNumber * PAGE_SIZE;
+        int count = Math.min(page.size(), getItemCount() - first);
+        if (count > 0) notifyItemRangeChanged(first, count, PAYLOAD_TEXT);
     }
 
     static class ViewHolder extends RecyclerView.ViewHolder {
         TextView textView;
+        TextView statusView;
+        // One span per row, moved from word to word
+        final BackgroundColorSpan highlight = new BackgroundColorSpan(HIGHLIGHT_COLOR);
 
         public ViewHolder(@NonNull View itemView) {
             super(itemView);
             textView = itemView.findViewById(R.id.message_text);
+            statusView = itemView.findViewById(R.id.message_status);
         }
     }
 
@@ -0,0 +1,182 @@
+package com.simplexity.basictts;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Append-only message history on disk. Records live in a data file as length-prefixed UTF-8 and
+ * a separate index file holds the 8-byte offset of every record, so appends are O(1), the count
+ * is known from the index size alone, and a page of messages is read with one positioned read.
+ */
+public class MessageLog implements TextSource {
+
+    private static final String DATA_FILE = "messages.log";
+    private static final String INDEX_FILE = "messages.idx";
+    private static final int OFFSET_BYTES = 8;
+    private static final int LENGTH_BYTES = 4;
+
+    public interface AppendListener {
+        /**
+         * Called on the thread that appended, after the message is on disk.
+         */
+        void onMessageAppended(int position);
+    }
+
+    private static MessageLog instance;
+
+    private final FileChannel data;
+    private final FileChannel index;
+    private int size;
+    private final List<AppendListener> appendListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Shared log under the given app files dir, so every screen and service appends to the same
+     * channels.
+     */
+    public static synchronized MessageLog get(File filesDir) {
+        if (instance == null) {
+            try {
+                instance = new MessageLog(new File(filesDir, "history"));
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not open message history", e);
+            }
+        }
+        return instance;
+    }
+
+    public MessageLog(File directory) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        data = new RandomAccessFile(new File(directory, DATA_FILE), "rw").getChannel();
+        index = new RandomAccessFile(new File(directory, INDEX_FILE), "rw").getChannel();
+        recover();
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    public void addAppendListener(AppendListener listener) {
+        appendListeners.add(listener);
+    }
+
+    public void removeAppendListener(AppendListener listener) {
+        appendListeners.remove(listener);
+    }
+
+    /**
+     * Appends the message and tells the listeners, so a screen showing the history also sees
+     * messages appended elsewhere, like the ones spoken from the notification.
+     */
+    public int append(String message) throws IOException {
+        int position = write(message);
+        for (AppendListener listener : appendListeners) {
+            listener.onMessageAppended(position);
+        }
+        return position;
+    }
+
+    private synchronized int write(String message) throws IOException {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        long offset = data.size();
+        ByteBuffer record = ByteBuffer.allocate(LENGTH_BYTES + bytes.length);
+        record.putInt(bytes.length).put(bytes).flip();
+        writeFully(data, record, offset);
+        ByteBuffer entry = ByteBuffer.allocate(OFFSET_BYTES);
+        entry.putLong(offset).flip();
+        writeFully(index, entry, (long) size * OFFSET_BYTES);
+        return size++;
+    }
+
+    public synchronized String get(int position) throws IOException {
+        List<String> page = read(position, 1);
+        return page.isEmpty() ? null : page.get(0);
+    }
+
+    /**
+     * Reads up to count messages starting at position.
+     */
+    @Override
+    public synchronized List<String> read(int position, int count) throws IOException {
+        int end = Math.min(size, position + count);
+        List<String> messages = new ArrayList<>(Math.max(0, end - position));
+        if (position < 0 || position >= end) return messages;
+        long startOffset = readOffset(position);
+        long endOffset = end < size ? readOffset(end) : data.size();
+        ByteBuffer buffer = ByteBuffer.allocate((int) (endOffset - startOffset));
+        readFully(data, buffer, startOffset);
+        buffer.flip();
+        while (buffer.remaining() >= LENGTH_BYTES) {
+            int length = buffer.getInt();
+            messages.add(new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8));
+            buffer.position(buffer.position() + length);
+        }
+        return messages;
+    }
+
+    public synchronized void clear() throws IOException {
+        data.truncate(0);
+        index.truncate(0);
+        size = 0;
+    }
+
+    public synchronized void close() throws IOException {
+        data.close();
+        index.close();
+    }
+
+    private long readOffset(int position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(OFFSET_BYTES);
+        readFully(index, buffer, (long) position * OFFSET_BYTES);
+        buffer.flip();
+        return buffer.getLong();
+    }
+
+    /**
+     * Drops a torn tail left behind if the process died between the data and index writes.
+     */
+    private void recover() throws IOException {
+        int entries = (int) (index.size() / OFFSET_BYTES);
+        long dataSize = data.size();
+        while (entries > 0) {
+            long offset = readOffset(entries - 1);
+            if (offset + LENGTH_BYTES <= dataSize) {
+                ByteBuffer length = ByteBuffer.allocate(LENGTH_BYTES);
+                readFully(data, length, offset);
+                length.flip();
+                long recordEnd = offset + LENGTH_BYTES + length.getInt();
+                if (recordEnd <= dataSize) {
+                    if (recordEnd < dataSize) data.truncate(recordEnd);
+                    break;
+                }
+            }
+            entries--;
+        }
+        if (entries == 0) data.truncate(0);
+        index.truncate((long) entries * OFFSET_BYTES);
+        size = entries;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) throw new IOException("Unexpected end of message history");
+            position += read;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.simplexity.basictts;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Uncompressed PCM samples in a direct buffer, as decoded from the WAV files written by
+ * TextToSpeech.synthesizeToFile. The samples live outside the Java heap, so holding many of
+ * them does not add GC pressure.
+ */
+public final class PcmAudio {
+
+    // Chunk ids as little-endian ints
+    private static final int RIFF = 0x46464952;
+    private static final int WAVE = 0x45564157;
+    private static final int FMT = 0x20746d66;
+    private static final int DATA = 0x61746164;
+    private static final int FORMAT_PCM = 1;
+    public static final int WAV_HEADER_SIZE = 44;
+
+    private final int sampleRate;
+    private final int channelCount;
+    private final int bitsPerSample;
+    private final ByteBuffer data;
+
+    public PcmAudio(int sampleRate, int channelCount, int bitsPerSample, ByteBuffer data) {
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        this.bitsPerSample = bitsPerSample;
+        this.data = data;
+    }
+
+    /**
+     * Where the samples sit inside a WAV file, and their format.
+     */
+    public static final class Layout {
+        private final int sampleRate;
+        private final int channelCount;
+        private final int bitsPerSample;
+        private final long dataOffset;
+        private final long dataLength;
+
+        private Layout(int sampleRate, int channelCount, int bitsPerSample, long dataOffset, long dataLength) {
+            this.sampleRate = sampleRate;
+            this.channelCount = channelCount;
+            this.bitsPerSample = bitsPerSample;
+            this.dataOffset = dataOffset;
+            this.dataLength = dataLength;
+        }
+
+        public int getSampleRate() {
+            return sampleRate;
+        }
+
+        public int getChannelCount() {
+            return channelCount;
+        }
+
+        public int getBitsPerSample() {
+            return bitsPerSample;
+        }
+
+        public long getDataOffset() {
+            return dataOffset;
+        }
+
+        public long getDataLength() {
+            return dataLength;
+        }
+
+        public boolean hasSameFormat(Layout other) {
+            return sampleRate == other.sampleRate && channelCount == other.channelCount
+                    && bitsPerSample == other.bitsPerSample;
+        }
+    }
+
+    public static PcmAudio readWav(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            Layout layout = readLayout(channel, file);
+            ByteBuffer samples = ByteBuffer.allocateDirect((int) layout.dataLength)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, samples, layout.dataOffset);
+            samples.flip();
+            return new PcmAudio(layout.sampleRate, layout.channelCount, layout.bitsPerSample, samples);
+        }
+    }
+
+    /**
+     * Reads only the headers, leaving the samples on disk.
+     */
+    public static Layout readLayout(FileChannel channel, File file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+        header.limit(12);
+        readFully(channel, header, 0);
+        if (header.getInt(0) != RIFF || header.getInt(8) != WAVE) {
+            throw new IOException("Not a WAV file: " + file);
+        }
+        int sampleRate = 0;
+        int channelCount = 0;
+        int bitsPerSample = 0;
+        long position = 12;
+        long fileSize = channel.size();
+        while (position + 8 <= fileSize) {
+            header.clear().limit(8);
+            readFully(channel, header, position);
+            int chunkId = header.getInt(0);
+            long chunkSize = header.getInt(4) & 0xffffffffL;
+            position += 8;
+            if (chunkId == FMT) {
+                header.clear();
+                readFully(channel, header, position);
+                if (header.getShort(0) != FORMAT_PCM) {
+                    throw new IOException("Unsupported WAV encoding: " + header.getShort(0));
+                }
+                channelCount = header.getShort(2);
+                sampleRate = header.getInt(4);
+                bitsPerSample = header.getShort(14);
+            } else if (chunkId == DATA) {
+                if (sampleRate == 0) throw new IOException("WAV data before format: " + file);
+                // Engines that stream the file may leave the size unset; trust what is on disk
+                long available = fileSize - position;
+                if (chunkSize == 0 || chunkSize > available) chunkSize = available;
+                return new Layout(sampleRate, channelCount, bitsPerSample, position, chunkSize);
+            }
+            position += chunkSize + (chunkSize & 1);
+        }
+        throw new IOException("No WAV data in " + file);
+    }
+
+    /**
+     * Writes a canonical 44-byte PCM header at the start of the channel, leaving its position
+     * alone, for files whose samples were written after a placeholder.
+     */
+    public static void writeWavHeader(FileChannel channel, int sampleRate, int channelCount, int bitsPerSample,
+                                      long dataLength) throws IOException {
+        if (dataLength + WAV_HEADER_SIZE - 8 > 0xffffffffL) throw new IOException("Exceeds the 4 GB WAV limit");
+        int blockAlign = channelCount * bitsPerSample / 8;
+        ByteBuffer header = ByteBuffer.allocate(WAV_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(RIFF)
+                .putInt((int) (dataLength + WAV_HEADER_SIZE - 8))
+                .putInt(WAVE)
+                .putInt(FMT)
+                .putInt(16)
+                .putShort((short) FORMAT_PCM)
+                .putShort((short) channelCount)
+                .putInt(sampleRate)
+                .putInt(sampleRate * blockAlign)
+                .putShort((short) blockAlign)
+                .putShort((short) bitsPerSample)
+                .putInt(DATA)
+                .putInt((int) dataLength);
+        header.flip();
+        long position = 0;
+        while (header.hasRemaining()) {
+            position += channel.write(header, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) throw new EOFException();
+            position += read;
+        }
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    public int getBitsPerSample() {
+        return bitsPerSample;
+    }
+
+    /**
+     * @return a read-only view of the samples positioned at the start
+     */
+    public ByteBuffer getData() {
+        ByteBuffer view = data.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+        view.rewind();
+        return view;
+    }
+
+    public int getByteCount() {
+        return data.limit();
+    }
+
+    public long getDurationMillis() {
+        int frameSize = channelCount * bitsPerSample / 8;
+        if (frameSize == 0 || sampleRate == 0) return 0;
+        return getByteCount() / frameSize * 1000L / sampleRate;
+    }
+}
@@ -0,0 +1,305 @@
+package com.simplexity.basictts;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Changes the rate and pitch of 16-bit PCM that has already been synthesized. Rate is done with
+ * WSOLA: the input is cut into overlapping sequences, each one placed where it lines up best
+ * with the end of the previous one, so the tempo changes without changing the pitch. Pitch is
+ * done by stretching the tempo by the pitch factor first and then resampling back to the
+ * requested length.
+ *
+ * <p>It is a streaming stage with fixed-size buffers: write input with {@link #write}, pull
+ * output with {@link #read}, and call {@link #flush} after the last input. Nothing is allocated
+ * once the instance exists. Not thread safe.
+ */
+public final class PcmStretcher {
+
+    public static final float MIN_FACTOR = 0.25f;
+    public static final float MAX_FACTOR = 4f;
+    private static final int SEQUENCE_MS = 40;
+    private static final int SEEK_WINDOW_MS = 15;
+    private static final int OVERLAP_MS = 8;
+    private static final int INPUT_BLOCK_FRAMES = 4096;
+
+    private final int sampleRate;
+    private final int channelCount;
+    private final int sequenceFrames;
+    private final int seekFrames;
+    private final int overlapFrames;
+    private final short[] input;
+    private final short[] overlap;
+    private final short[] stretched;
+    private int inputFrames;
+    private int stretchedFrames;
+    private boolean hasOverlap;
+    private double skipFraction;
+    private double resamplePosition;
+    private float rate = 1f;
+    private float pitch = 1f;
+    private double expectedOutputFrames;
+    private long outputFrames;
+    private boolean isFlushed;
+
+    public PcmStretcher(int sampleRate, int channelCount) {
+        if (sampleRate <= 0 || channelCount <= 0) {
+            throw new IllegalArgumentException("Bad format: " + sampleRate + " Hz, " + channelCount + " channels");
+        }
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        this.overlapFrames = Math.max(8, sampleRate * OVERLAP_MS / 1000);
+        this.sequenceFrames = Math.max(overlapFrames * 3, sampleRate * SEQUENCE_MS / 1000);
+        this.seekFrames = Math.max(8, sampleRate * SEEK_WINDOW_MS / 1000);
+        // Most input one sequence needs, at the fastest tempo; write() holds back at most this much
+        int maxSkip = (int) Math.ceil(MAX_FACTOR / MIN_FACTOR * (sequenceFrames - overlapFrames)) + 1;
+        int maxRequiredFrames = Math.max(seekFrames + sequenceFrames, maxSkip);
+        this.input = new short[(maxRequiredFrames + INPUT_BLOCK_FRAMES) * channelCount];
+        this.overlap = new short[overlapFrames * channelCount];
+        this.stretched = new short[(sequenceFrames + 2) * channelCount];
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    /**
+     * @param rate playback speed, 2 plays twice as fast; clamped to [MIN_FACTOR, MAX_FACTOR]
+     */
+    public void setRate(float rate) {
+        this.rate = clamp(rate);
+    }
+
+    /**
+     * @param pitch frequency factor, 2 is an octave up; clamped to [MIN_FACTOR, MAX_FACTOR]
+     */
+    public void setPitch(float pitch) {
+        this.pitch = clamp(pitch);
+    }
+
+    public float getRate() {
+        return rate;
+    }
+
+    public float getPitch() {
+        return pitch;
+    }
+
+    /**
+     * Copies as many frames as fit into the input buffer. Once it is full, output has to be
+     * read before more input is accepted.
+     *
+     * @return frames accepted, which can be fewer than offered
+     */
+    public int write(short[] samples, int offset, int frames) {
+        if (isFlushed) throw new IllegalStateException("Already flushed");
+        int accepted = Math.min(frames, input.length / channelCount - inputFrames);
+        System.arraycopy(samples, offset, input, inputFrames * channelCount, accepted * channelCount);
+        inputFrames += accepted;
+        expectedOutputFrames += accepted / (double) rate;
+        return accepted;
+    }
+
+    /**
+     * Marks the end of the input, so the frames held back for the next sequence get processed.
+     */
+    public void flush() {
+        isFlushed = true;
+    }
+
+    /**
+     * @return frames written to the output; 0 means more input is needed, or everything has
+     *         been read after a flush
+     */
+    public int read(short[] samples, int offset, int maxFrames) {
+        if (isFlushed) {
+            maxFrames = (int) Math.min(maxFrames, Math.max(0, Math.round(expectedOutputFrames) - outputFrames));
+        }
+        int produced = 0;
+        while (produced < maxFrames) {
+            produced += resample(samples, offset + produced * channelCount, maxFrames - produced);
+            if (produced < maxFrames && !stretchNextSequence()) break;
+        }
+        outputFrames += produced;
+        return produced;
+    }
+
+    /**
+     * Drops all buffered audio so the instance can be reused for another stream.
+     */
+    public void reset() {
+        inputFrames = 0;
+        stretchedFrames = 0;
+        hasOverlap = false;
+        skipFraction = 0;
+        resamplePosition = 0;
+        expectedOutputFrames = 0;
+        outputFrames = 0;
+        isFlushed = false;
+    }
+
+    /**
+     * Convenience for whole clips: stretches 16-bit audio into a new direct buffer.
+     */
+    public static PcmAudio stretch(PcmAudio audio, float rate, float pitch) {
+        if (audio.getBitsPerSample() != 16) {
+            throw new IllegalArgumentException("Only 16-bit audio is supported, got " + audio.getBitsPerSample());
+        }
+        int channels = audio.getChannelCount();
+        PcmStretcher stretcher = new PcmStretcher(audio.getSampleRate(), channels);
+        stretcher.setRate(rate);
+        stretcher.setPitch(pitch);
+        ShortBuffer source = audio.getData().asShortBuffer();
+        int capacity = (int) Math.ceil(source.remaining() / channels / (double) stretcher.rate) + 1;
+        ByteBuffer result = ByteBuffer.allocateDirect(capacity * channels * 2).order(ByteOrder.LITTLE_ENDIAN);
+        ShortBuffer target = result.asShortBuffer();
+        short[] inputBlock = new short[INPUT_BLOCK_FRAMES * channels];
+        short[] outputBlock = new short[INPUT_BLOCK_FRAMES * channels];
+        while (source.remaining() >= channels) {
+            int frames = Math.min(INPUT_BLOCK_FRAMES, source.remaining() / channels);
+            source.get(inputBlock, 0, frames * channels);
+            int written = 0;
+            while (written < frames) {
+                written += stretcher.write(inputBlock, written * channels, frames - written);
+                drainInto(stretcher, target, outputBlock);
+            }
+        }
+        stretcher.flush();
+        drainInto(stretcher, target, outputBlock);
+        result.limit(target.position() * 2);
+        return new PcmAudio(audio.getSampleRate(), channels, 16, result);
+    }
+
+    private static void drainInto(PcmStretcher stretcher, ShortBuffer target, short[] block) {
+        int channels = stretcher.channelCount;
+        int frames;
+        while ((frames = stretcher.read(block, 0,
+                Math.min(block.length / channels, target.remaining() / channels))) > 0) {
+            target.put(block, 0, frames * channels);
+        }
+    }
+
+    /**
+     * Linear interpolation from the stretched buffer at steps of {@code pitch}, which brings
+     * the tempo stretched by the pitch factor back to the requested rate at the new pitch.
+     */
+    private int resample(short[] samples, int offset, int maxFrames) {
+        int produced = 0;
+        int out = offset;
+        while (produced < maxFrames) {
+            int index = (int) resamplePosition;
+            if (index + 1 >= stretchedFrames) break;
+            double fraction = resamplePosition - index;
+            int base = index * channelCount;
+            for (int channel = 0; channel < channelCount; channel++) {
+                int first = stretched[base + channel];
+                int second = stretched[base + channelCount + channel];
+                samples[out++] = (short) Math.round(first + (second - first) * fraction);
+            }
+            resamplePosition += pitch;
+            produced++;
+        }
+        return produced;
+    }
+
+    /**
+     * Runs one WSOLA step, appending sequenceFrames - overlapFrames frames to the stretched
+     * buffer.
+     *
+     * @return false if there is not enough input yet
+     */
+    private boolean stretchNextSequence() {
+        double tempo = rate / (double) pitch;
+        int outputPerSequence = sequenceFrames - overlapFrames;
+        int skip = (int) (skipFraction + tempo * outputPerSequence);
+        int required = Math.max(seekFrames + sequenceFrames, skip);
+        if (inputFrames < required) {
+            if (!isFlushed) return false;
+            // Pad the tail with silence; read() stops at the expected length anyway
+            Arrays.fill(input, inputFrames * channelCount, required * channelCount, (short) 0);
+            inputFrames = required;
+        }
+        compactStretched();
+        int position = hasOverlap ? seekBestOffset() : 0;
+        int out = stretchedFrames * channelCount;
+        int in = position * channelCount;
+        int overlapSamples = overlapFrames * channelCount;
+        if (hasOverlap) {
+            for (int frame = 0; frame < overlapFrames; frame++) {
+                for (int channel = 0; channel < channelCount; channel++) {
+                    int sample = frame * channelCount + channel;
+                    stretched[out + sample] = (short) ((overlap[sample] * (overlapFrames - frame)
+                            + input[in + sample] * frame) / overlapFrames);
+                }
+            }
+        } else {
+            System.arraycopy(input, in, stretched, out, overlapSamples);
+        }
+        int middleSamples = (sequenceFrames - 2 * overlapFrames) * channelCount;
+        System.arraycopy(input, in + overlapSamples, stretched, out + overlapSamples, middleSamples);
+        System.arraycopy(input, in + overlapSamples + middleSamples, overlap, 0, overlapSamples);
+        hasOverlap = true;
+        stretchedFrames += outputPerSequence;
+
+        skipFraction += tempo * outputPerSequence - skip;
+        inputFrames -= skip;
+        System.arraycopy(input, skip * channelCount, input, 0, inputFrames * channelCount);
+        return true;
+    }
+
+    /**
+     * Drops stretched frames the resampler has moved past, keeping the one it interpolates from.
+     */
+    private void compactStretched() {
+        int consumed = Math.min((int) resamplePosition, stretchedFrames);
+        if (consumed == 0) return;
+        int kept = stretchedFrames - consumed;
+        System.arraycopy(stretched, consumed * channelCount, stretched, 0, kept * channelCount);
+        stretchedFrames = kept;
+        resamplePosition -= consumed;
+    }
+
+    /**
+     * @return the offset within the seek window where the input best continues the overlap
+     *         kept from the previous sequence, by normalized cross-correlation
+     */
+    private int seekBestOffset() {
+        int overlapSamples = overlapFrames * channelCount;
+        long norm = 0;
+        for (int i = 0; i < overlapSamples; i++) {
+            norm += input[i] * input[i];
+        }
+        int bestOffset = 0;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int offset = 0; offset < seekFrames; offset++) {
+            int start = offset * channelCount;
+            long correlation = 0;
+            for (int i = 0; i < overlapSamples; i++) {
+                correlation += overlap[i] * input[start + i];
+            }
+            double score = correlation / Math.sqrt(norm + 1);
+            if (score > bestScore) {
+                bestScore = score;
+                bestOffset = offset;
+            }
+            // Slide the energy window one frame forward
+            for (int channel = 0; channel < channelCount; channel++) {
+                int leaving = input[start + channel];
+                int entering = input[start + overlapSamples + channel];
+                norm += entering * entering - leaving * leaving;
+            }
+        }
+        return bestOffset;
+    }
+
+    private static float clamp(float factor) {
+        if (Float.isNaN(factor)) return 1f;
+        return Math.max(MIN_FACTOR, Math.min(MAX_FACTOR, factor));
+    }
+}
@@ -0,0 +1,76 @@
+package com.simplexity.basictts;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class PhraseAdapter extends RecyclerView.Adapter<PhraseAdapter.ViewHolder> {
+
+    public interface Listener {
+        void onPhraseClicked(String phrase);
+
+        void onPhraseLongClicked(String phrase);
+    }
+
+    private final List<String> phrases = new ArrayList<>();
+    private final Listener listener;
+    private final int layoutId;
+
+    public PhraseAdapter(Listener listener) {
+        this(listener, R.layout.item_phrase);
+    }
+
+    /**
+     * @param layoutId item layout holding a TextView with the id phrase_text
+     */
+    public PhraseAdapter(Listener listener, int layoutId) {
+        this.listener = listener;
+        this.layoutId = layoutId;
+    }
+
+    public void setPhrases(List<String> newPhrases) {
+        phrases.clear();
+        phrases.addAll(newPhrases);
+        notifyDataSetChanged();
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(layoutId, parent, false);
+        return new ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        String phrase = phrases.get(position);
+        holder.textView.setText(phrase);
+        holder.itemView.setOnClickListener(v -> listener.onPhraseClicked(phrase));
+        holder.itemView.setOnLongClickListener(v -> {
+            listener.onPhraseLongClicked(phrase);
+            return true;
+        });
+    }
+
+    @Override
+    public int getItemCount() {
+        return phrases.size();
+    }
+
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        TextView textView;
+
+        public ViewHolder(@NonNull View itemView) {
+            super(itemView);
+            textView = itemView.findViewById(R.id.phrase_text);
+        }
+    }
+}
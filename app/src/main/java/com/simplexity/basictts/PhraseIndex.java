@@ -0,0 +1,429 @@
+package com.simplexity.basictts;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Completions for the message box from everything sent before. Phrases are kept in arrays sorted
+ * by their lower-cased text, so the phrases starting with what was typed form one range found by
+ * binary search, and a max tree over the scores picks the best k of that range in O(k log n)
+ * however many phrases share the prefix.
+ *
+ * <p>A phrase scores the sum of 2^(age / half-life) over its uses, measured forward from a base
+ * time. Every score decays at the same rate, so the order never changes with the passage of time
+ * alone, and the only update a use needs is raising one score and its path up the tree.
+ *
+ * <p>New phrases wait in a small sorted buffer that completions also search, and are merged into
+ * the arrays once it fills, so sending a message does not copy the whole index.
+ */
+public class PhraseIndex {
+
+    public static final long HALF_LIFE_MILLIS = 14L * 24 * 60 * 60 * 1000;
+    /**
+     * Longer messages are spoken but not offered back as completions.
+     */
+    public static final int MAX_PHRASE_LENGTH = 300;
+
+    private static final int MAGIC = 0x50485831;
+    private static final int HEADER_BYTES = 4 + 8 + 4 + 4;
+    // Scores are rescaled before 2^exponent gets near the range of a double
+    private static final double MAX_EXPONENT = 512;
+    private static final int CATCH_UP_PAGE = 1000;
+    static final int MAX_PENDING = 256;
+
+    private String[] keys = new String[16];
+    private String[] phrases = new String[16];
+    private double[] scores = new double[16];
+    private int size;
+    // Leaves at capacity + i hold i; every other node holds the best-scored position below it
+    private int[] tree = new int[32];
+    private int capacity = 16;
+    // Phrases not merged into the arrays yet, by key
+    private final TreeMap<String, Pending> pending = new TreeMap<>();
+    private long baseMillis;
+    private int logPosition;
+
+    public synchronized int size() {
+        return size + pending.size();
+    }
+
+    /**
+     * @return how many messages of the history have been counted
+     */
+    public synchronized int getLogPosition() {
+        return logPosition;
+    }
+
+    public synchronized void record(String phrase, long timeMillis) {
+        recordAll(Arrays.asList(phrase), timeMillis);
+    }
+
+    /**
+     * Counts one use of each phrase. Phrases not seen before go to the buffer, which is merged in
+     * with one pass over the arrays once it is full, so a large batch costs about one pass too.
+     */
+    public synchronized void recordAll(List<String> uses, long timeMillis) {
+        double weight = weight(timeMillis);
+        for (String use : uses) {
+            String phrase = use.trim();
+            if (phrase.isEmpty() || phrase.length() > MAX_PHRASE_LENGTH) continue;
+            String key = normalize(phrase);
+            int position = Arrays.binarySearch(keys, 0, size, key);
+            if (position >= 0) {
+                // The latest spelling is the one offered back
+                phrases[position] = phrase;
+                scores[position] += weight;
+                update(position);
+                continue;
+            }
+            Pending waiting = pending.get(key);
+            if (waiting == null) {
+                pending.put(key, new Pending(phrase, weight));
+            } else {
+                waiting.phrase = phrase;
+                waiting.score += weight;
+            }
+        }
+        if (pending.size() > MAX_PENDING) merge();
+    }
+
+    /**
+     * Counts the messages appended to the log since the last call. The log is read outside the
+     * lock, so completions keep working while a long history is read for the first time.
+     */
+    public void catchUp(MessageLog log, long timeMillis) throws IOException {
+        int position = getLogPosition();
+        if (log.size() < position) {
+            // The history was cleared, and what it taught goes with it
+            clear();
+            position = 0;
+        }
+        while (position < log.size()) {
+            List<String> page = log.read(position, CATCH_UP_PAGE);
+            if (page.isEmpty()) break;
+            synchronized (this) {
+                recordAll(page, timeMillis);
+                position += page.size();
+                logPosition = position;
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        keys = new String[16];
+        phrases = new String[16];
+        scores = new double[16];
+        size = 0;
+        capacity = 16;
+        tree = new int[32];
+        pending.clear();
+        logPosition = 0;
+    }
+
+    /**
+     * Up to limit phrases starting with the text, ignoring case, best first. The text itself is
+     * not offered, since choosing it would change nothing.
+     */
+    public synchronized List<String> complete(String text, int limit) {
+        List<String> completions = new ArrayList<>(limit);
+        String prefix = normalize(stripLeading(text));
+        if (prefix.isEmpty() || limit <= 0) return completions;
+        completeMerged(prefix, limit, completions);
+        if (pending.isEmpty()) return completions;
+        // Buffered phrases join the picks by score, ties going to the earlier key
+        ArrayList<String> candidateKeys = new ArrayList<>();
+        ArrayList<String> candidates = new ArrayList<>();
+        ArrayList<Double> candidateScores = new ArrayList<>();
+        for (String phrase : completions) {
+            String key = normalize(phrase);
+            candidateKeys.add(key);
+            candidates.add(phrase);
+            candidateScores.add(scores[Arrays.binarySearch(keys, 0, size, key)]);
+        }
+        for (Map.Entry<String, Pending> entry : pending.tailMap(prefix, false).entrySet()) {
+            if (!entry.getKey().startsWith(prefix)) break;
+            int at = 0;
+            double score = entry.getValue().score;
+            while (at < candidates.size() && (candidateScores.get(at) > score
+                    || (candidateScores.get(at) == score && candidateKeys.get(at).compareTo(entry.getKey()) < 0))) {
+                at++;
+            }
+            if (at >= limit) continue;
+            candidateKeys.add(at, entry.getKey());
+            candidates.add(at, entry.getValue().phrase);
+            candidateScores.add(at, score);
+        }
+        return new ArrayList<>(candidates.subList(0, Math.min(limit, candidates.size())));
+    }
+
+    /**
+     * Adds the best of the merged phrases starting with the prefix.
+     */
+    private void completeMerged(String prefix, int limit, List<String> completions) {
+        if (size == 0) return;
+        int start = lowerBound(prefix, 0);
+        int end = lowerBound(prefix, 1);
+        if (start >= end) return;
+        // Candidate ranges, each with its best position; a pick splits its range in two
+        int slots = 2 * limit + 3;
+        int[] rangeStart = new int[slots];
+        int[] rangeEnd = new int[slots];
+        int[] rangeBest = new int[slots];
+        int ranges = 0;
+        rangeStart[0] = start;
+        rangeEnd[0] = end;
+        rangeBest[0] = best(start, end);
+        ranges++;
+        while (ranges > 0 && completions.size() < limit) {
+            int pick = 0;
+            for (int i = 1; i < ranges; i++) {
+                if (scores[rangeBest[i]] > scores[rangeBest[pick]]) pick = i;
+            }
+            int pickStart = rangeStart[pick];
+            int pickEnd = rangeEnd[pick];
+            int position = rangeBest[pick];
+            ranges--;
+            rangeStart[pick] = rangeStart[ranges];
+            rangeEnd[pick] = rangeEnd[ranges];
+            rangeBest[pick] = rangeBest[ranges];
+            if (!keys[position].equals(prefix)) completions.add(phrases[position]);
+            if (pickStart < position) {
+                rangeStart[ranges] = pickStart;
+                rangeEnd[ranges] = position;
+                rangeBest[ranges] = best(pickStart, position);
+                ranges++;
+            }
+            if (position + 1 < pickEnd) {
+                rangeStart[ranges] = position + 1;
+                rangeEnd[ranges] = pickEnd;
+                rangeBest[ranges] = best(position + 1, pickEnd);
+                ranges++;
+            }
+        }
+    }
+
+    /**
+     * Writes the index to a temporary file and renames it over the old one, so a save cut short
+     * leaves the previous index in place. The bytes are encoded under the lock and written
+     * outside it.
+     */
+    public void save(File file) throws IOException {
+        ByteBuffer buffer;
+        synchronized (this) {
+            // Saving copies every phrase anyway, so the buffer is merged on the way
+            if (!pending.isEmpty()) merge();
+            byte[][] encoded = new byte[size][];
+            int length = HEADER_BYTES;
+            for (int i = 0; i < size; i++) {
+                encoded[i] = phrases[i].getBytes(StandardCharsets.UTF_8);
+                length += 8 + 4 + encoded[i].length;
+            }
+            buffer = ByteBuffer.allocate(length);
+            buffer.putInt(MAGIC).putLong(baseMillis).putInt(logPosition).putInt(size);
+            for (int i = 0; i < size; i++) {
+                buffer.putDouble(scores[i]).putInt(encoded[i].length).put(encoded[i]);
+            }
+            buffer.flip();
+        }
+        File temporary = new File(file.getPath() + ".tmp");
+        try (FileChannel channel = new RandomAccessFile(temporary, "rw").getChannel()) {
+            channel.truncate(0);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        if (!temporary.renameTo(file)) throw new IOException("Could not replace " + file);
+    }
+
+    /**
+     * Reads an index written by {@link #save} with one read of the file. The phrases were saved in
+     * order, so nothing is sorted again.
+     */
+    public static PhraseIndex load(File file) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+            buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) throw new IOException("Unexpected end of " + file);
+            }
+        }
+        buffer.flip();
+        if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a phrase index: " + file);
+        }
+        PhraseIndex index = new PhraseIndex();
+        index.baseMillis = buffer.getLong();
+        index.logPosition = buffer.getInt();
+        int count = buffer.getInt();
+        index.ensureCapacity(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                double score = buffer.getDouble();
+                int length = buffer.getInt();
+                String phrase = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+                buffer.position(buffer.position() + length);
+                String key = normalize(phrase);
+                if (i > 0 && key.compareTo(index.keys[i - 1]) <= 0) {
+                    throw new IOException("Phrase index is out of order: " + file);
+                }
+                index.keys[i] = key;
+                index.phrases[i] = phrase;
+                index.scores[i] = score;
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt phrase index: " + file, e);
+        }
+        index.size = count;
+        index.rebuild();
+        return index;
+    }
+
+    private static String normalize(String phrase) {
+        return phrase.toLowerCase(Locale.ROOT);
+    }
+
+    private static String stripLeading(String text) {
+        int start = 0;
+        while (start < text.length() && Character.isWhitespace(text.charAt(start))) start++;
+        return text.substring(start);
+    }
+
+    private double weight(long timeMillis) {
+        double exponent = (timeMillis - baseMillis) / (double) HALF_LIFE_MILLIS;
+        if (exponent > MAX_EXPONENT) {
+            // Scaling every score alike keeps their order; the oldest may underflow to zero
+            double scale = Math.pow(2, -exponent);
+            for (int i = 0; i < size; i++) {
+                scores[i] *= scale;
+            }
+            for (Pending waiting : pending.values()) {
+                waiting.score *= scale;
+            }
+            baseMillis = timeMillis;
+            rebuild();
+            exponent = 0;
+        }
+        return Math.pow(2, exponent);
+    }
+
+    /**
+     * @return the first position whose key, cut to the prefix length, is at least the prefix
+     * (bias 0) or past it (bias 1)
+     */
+    private int lowerBound(String prefix, int bias) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (comparePrefix(keys[middle], prefix) < bias) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static int comparePrefix(String key, String prefix) {
+        int length = Math.min(key.length(), prefix.length());
+        for (int i = 0; i < length; i++) {
+            int difference = key.charAt(i) - prefix.charAt(i);
+            if (difference != 0) return difference;
+        }
+        return key.length() < prefix.length() ? -1 : 0;
+    }
+
+    private void merge() {
+        int total = size + pending.size();
+        int length = Math.max(16, Integer.highestOneBit(total - 1) << 1);
+        String[] mergedKeys = new String[length];
+        String[] mergedPhrases = new String[length];
+        double[] mergedScores = new double[length];
+        int existing = 0;
+        int merged = 0;
+        for (Map.Entry<String, Pending> entry : pending.entrySet()) {
+            while (existing < size && keys[existing].compareTo(entry.getKey()) < 0) {
+                mergedKeys[merged] = keys[existing];
+                mergedPhrases[merged] = phrases[existing];
+                mergedScores[merged++] = scores[existing++];
+            }
+            mergedKeys[merged] = entry.getKey();
+            mergedPhrases[merged] = entry.getValue().phrase;
+            mergedScores[merged++] = entry.getValue().score;
+        }
+        while (existing < size) {
+            mergedKeys[merged] = keys[existing];
+            mergedPhrases[merged] = phrases[existing];
+            mergedScores[merged++] = scores[existing++];
+        }
+        keys = mergedKeys;
+        phrases = mergedPhrases;
+        scores = mergedScores;
+        size = total;
+        pending.clear();
+        rebuild();
+    }
+
+    private void ensureCapacity(int count) {
+        if (count <= keys.length) return;
+        int length = Integer.highestOneBit(count - 1) << 1;
+        keys = Arrays.copyOf(keys, length);
+        phrases = Arrays.copyOf(phrases, length);
+        scores = Arrays.copyOf(scores, length);
+    }
+
+    private void rebuild() {
+        capacity = keys.length;
+        if (tree.length != 2 * capacity) tree = new int[2 * capacity];
+        for (int i = 0; i < capacity; i++) {
+            tree[capacity + i] = i;
+        }
+        for (int node = capacity - 1; node > 0; node--) {
+            tree[node] = better(tree[2 * node], tree[2 * node + 1]);
+        }
+    }
+
+    private void update(int position) {
+        for (int node = (capacity + position) >> 1; node > 0; node >>= 1) {
+            tree[node] = better(tree[2 * node], tree[2 * node + 1]);
+        }
+    }
+
+    /**
+     * The earlier of two equal scores wins, so ties come out in alphabetical order.
+     */
+    private int better(int first, int second) {
+        if (second >= size) return first;
+        if (first >= size) return second;
+        return scores[second] > scores[first] ? second : first;
+    }
+
+    private int best(int start, int end) {
+        int best = start;
+        for (int low = start + capacity, high = end + capacity; low < high; low >>= 1, high >>= 1) {
+            if ((low & 1) == 1) best = better(best, tree[low++]);
+            if ((high & 1) == 1) best = better(best, tree[--high]);
+        }
+        return best;
+    }
+
+    private static final class Pending {
+        String phrase;
+        double score;
+
+        Pending(String phrase, double score) {
+            this.phrase = phrase;
+            this.score = score;
+        }
+    }
+}
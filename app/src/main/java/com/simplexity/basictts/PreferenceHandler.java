@@ -1,42 +1,38 @@
 package com.simplexity.basictts;
 
+import android.Manifest;
+import android.content.pm.PackageManager;
 import android.os.Bundle;
-import android.speech.tts.TextToSpeech;
-import android.speech.tts.Voice;
-import android.util.Log;
+import android.text.InputType;
 import android.widget.Button;
 
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatDelegate;
+import androidx.preference.EditTextPreference;
 import androidx.preference.ListPreference;
 import androidx.preference.PreferenceFragmentCompat;
 import androidx.preference.SeekBarPreference;
 import androidx.preference.SwitchPreferenceCompat;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
-import java.util.Set;
 
 public class PreferenceHandler extends PreferenceFragmentCompat {
 
-    private TextToSpeech textToSpeech;
+    private VoiceCatalog voiceCatalog;
+    private TtsConnection ttsConnection;
     private ListPreference languagePreference, voicePreference;
-    private SeekBarPreference pitchPreference, speedPreference;
-    private Voice defaultVoice;
+    private SeekBarPreference pitchPreference, speedPreference, soundboardMemoryPreference;
     private Button testButton;
-    private SwitchPreferenceCompat darkMode, includeCloudVoices;
-    private final HashMap<String, Set<VoiceInfo>> availableVoices = new HashMap<>();
-    private final HashMap<String, Locale> localeOptions = new HashMap<>();
+    private SwitchPreferenceCompat darkMode, includeCloudVoices, residentEngine;
+    private EditTextPreference pronunciationPreference;
 
     @Override
     public void onCreatePreferences(@Nullable Bundle savedInstanceState, @Nullable String rootKey) {
         setPreferencesFromResource(R.xml.root_preferences, rootKey);
-        textToSpeech = new TextToSpeech(getContext(), onTtsInitialized());
+        ttsConnection = new TtsConnection(requireContext(), onTtsManagerAvailable());
+        ttsConnection.bind();
 
         languagePreference = findPreference("selected_language_locale");
         voicePreference = findPreference("selected_voice_id");
@@ -44,6 +40,9 @@ public class PreferenceHandler extends PreferenceFragmentCompat {
         pitchPreference = findPreference("speech_pitch");
         speedPreference = findPreference("speech_speed");
         includeCloudVoices = findPreference("include_cloud_voices");
+        soundboardMemoryPreference = findPreference("soundboard_memory_mb");
+        residentEngine = findPreference("resident_engine_enabled");
+        pronunciationPreference = findPreference("pronunciations");
         setupListeners();
 
 
@@ -52,25 +51,25 @@ public class PreferenceHandler extends PreferenceFragmentCompat {
     private void setupListeners() {
         if (languagePreference != null) {
             languagePreference.setOnPreferenceChangeListener((preference, newValue) -> {
-                Log.d("PreferenceHandler", "Language changed to: " + newValue);
+                Tracing.d("PreferenceHandler", "Language changed to: ", newValue);
                 if (newValue != null) {
                     Locale selected = Locale.forLanguageTag(newValue.toString());
+                    // Falls back to the language's auto voice, the old voice is not in the new list
                     populateAvailableVoices(selected);
-                    voicePreference.setValue(voicePreference.getEntries()[0].toString());
                 }
                 return true;
             });
         }
         if (voicePreference != null) {
             voicePreference.setOnPreferenceChangeListener((preference, newValue) -> {
-                Log.d("PreferenceHandler", "Voice changed to: " + newValue);
+                Tracing.d("PreferenceHandler", "Voice changed to: ", newValue);
                 return true;
             });
         }
         if (includeCloudVoices != null) {
             includeCloudVoices.setOnPreferenceChangeListener((preference, newValue) -> {
                 populateAvailableVoices(Locale.forLanguageTag(languagePreference.getValue()));
-                Log.d("PreferenceHandler", "Cloud voices value changed to: " + newValue);
+                Tracing.d("PreferenceHandler", "Cloud voices value changed to: ", newValue);
                 return true;
             });
         }
@@ -81,73 +80,68 @@ public class PreferenceHandler extends PreferenceFragmentCompat {
                 } else {
                     AppCompatDelegate.setDefaultNightMode(AppCompatDelegate.MODE_NIGHT_NO);
                 }
-                Log.d("PreferenceHandler", "Dark mode changed to: " + newValue);
+                Tracing.d("PreferenceHandler", "Dark mode changed to: ", newValue);
                 return true;
             });
         }
         if (pitchPreference != null) {
             pitchPreference.setOnPreferenceChangeListener((preference, newValue) -> {
-                Log.d("PreferenceHandler", "Pitch changed to: " + newValue);
+                Tracing.d("PreferenceHandler", "Pitch changed to: ", newValue);
                 return true;
             });
         }
         if (speedPreference != null) {
             speedPreference.setOnPreferenceChangeListener((preference, newValue) -> {
-                Log.d("PreferenceHandler", "Speed changed to: " + newValue);
+                Tracing.d("PreferenceHandler", "Speed changed to: ", newValue);
                 return true;
             });
         }
-
-    }
-
-    private void loadAllVoices() {
-        if (textToSpeech == null) {
-            Log.d("PreferenceHandler", "TextToSpeech is null");
-            return;
+        if (residentEngine != null) {
+            residentEngine.setOnPreferenceChangeListener((preference, newValue) -> {
+                // Without it the reply action in the notification cannot be reached
+                if (Boolean.TRUE.equals(newValue) && requireContext().checkSelfPermission(
+                        Manifest.permission.POST_NOTIFICATIONS) != PackageManager.PERMISSION_GRANTED) {
+                    requireActivity().requestPermissions(new String[]{Manifest.permission.POST_NOTIFICATIONS}, 0);
+                }
+                Tracing.d("PreferenceHandler", "Resident engine changed to: ", newValue);
+                return true;
+            });
         }
-        Log.d("PreferenceHandler", "Loading all voices");
-
-        for (Voice voice : textToSpeech.getVoices()) {
-            if (voice == null) {
-                Log.d("PreferenceHandler", "Voice is null");
-                continue;
-            }
-            Locale locale = voice.getLocale();
-            if (locale == null) {
-                Log.d("PreferenceHandler", "Locale is null");
-                continue;
+        if (pronunciationPreference != null) {
+            if (pronunciationPreference.getText() == null) {
+                pronunciationPreference.setText(PronunciationDictionary.DEFAULT_SOURCE);
             }
-            Log.d("PreferenceHandler", "Locale: " + locale);
-            VoiceInfo voiceInfo = new VoiceInfo(createHumanReadableName(voice), voice.getName(), locale,
-                    voice.isNetworkConnectionRequired());
-            Log.d("PreferenceHandler", "Voice: " + voiceInfo);
-            Set<VoiceInfo> currentVoices;
-            if (availableVoices.containsKey(locale.toLanguageTag())) {
-                currentVoices = availableVoices.get(locale.toLanguageTag());
-            } else {
-                currentVoices = new HashSet<>();
-            }
-            currentVoices.add(voiceInfo);
-            availableVoices.put(locale.toLanguageTag(), currentVoices);
+            pronunciationPreference.setOnBindEditTextListener(editText -> {
+                editText.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_FLAG_MULTI_LINE);
+                editText.setMinLines(6);
+            });
+            pronunciationPreference.setSummary(describePronunciations(pronunciationPreference.getText()));
+            pronunciationPreference.setOnPreferenceChangeListener((preference, newValue) -> {
+                // The service compiles the edited dictionary once the change settles
+                pronunciationPreference.setSummary(describePronunciations((String) newValue));
+                return true;
+            });
         }
-        Log.d("PreferenceHandler", "All voices loaded");
-        Log.d("PreferenceHandler", "Language voices: " + availableVoices);
+
+    }
+
+    private static String describePronunciations(String source) {
+        // Only counted here; the service compiles the dictionary off the main thread
+        int count = PronunciationDictionary.countEntries(source);
+        return count == 1 ? "1 term is rewritten before speaking" : count + " terms are rewritten before speaking";
     }
 
     private void populateLocaleList() {
-        if (textToSpeech == null) {
-            Log.d("PreferenceHandler", "TextToSpeech is null");
+        if (voiceCatalog == null || !voiceCatalog.isLoaded()) {
+            Tracing.d("PreferenceHandler", "Voice catalog not loaded");
             return;
         }
-        Log.d("PreferenceHandler", "Populating locale list");
-        Set<Locale> locales = textToSpeech.getAvailableLanguages();
-        if (locales == null) {
-            Log.d("PreferenceHandler", "No locales found");
+        Tracing.d("PreferenceHandler", "Populating locale list");
+        List<Locale> sortedLocales = voiceCatalog.getVoiceIndex().getSortedLocales();
+        if (sortedLocales.isEmpty()) {
+            Tracing.d("PreferenceHandler", "No locales found");
             return;
         }
-        Log.d("PreferenceHandler", "Locales found: " + locales);
-        List<Locale> sortedLocales = new ArrayList<>(locales);
-        sortedLocales.sort(Comparator.comparing(Locale::getDisplayName));
 
         String[] entries = sortedLocales.stream()
                 .map(Locale::getDisplayName)
@@ -166,41 +160,39 @@ public class PreferenceHandler extends PreferenceFragmentCompat {
             languagePreference.setValue(fallback);
             currentValue = fallback;
         }
-        Log.d("PreferenceHandler", "Current value: " + currentValue);
+        Tracing.d("PreferenceHandler", "Current value: ", currentValue);
         populateAvailableVoices(Locale.forLanguageTag(currentValue));
-        Log.d("PreferenceHandler", "Locale list populated");
+        Tracing.d("PreferenceHandler", "Locale list populated");
     }
 
 
     private void populateAvailableVoices(Locale locale) {
+        if (voiceCatalog == null) {
+            Tracing.d("PreferenceHandler", "Voice catalog is null");
+            return;
+        }
         if (locale == null) {
-            Log.d("PreferenceHandler", "Locale is null");
+            Tracing.d("PreferenceHandler", "Locale is null");
             return;
         }
-        Log.d("PreferenceHandler", "Locale: " + locale);
-        Set<VoiceInfo> voices = availableVoices.get(locale.toLanguageTag());
-        Log.d("PreferenceHandler", "Voices: " + voices);
-        Log.d("PreferenceHandler", "Voice preference: " + voicePreference);
-        Log.d("PreferenceHandler", "Language Voices: " + availableVoices);
-        if (voices == null) {
-            Log.d("PreferenceHandler", "No voices found for locale: " + locale);
+        Tracing.d("PreferenceHandler", "Locale: ", locale);
+        List<VoiceInfo> sortedVoices = voiceCatalog.getVoiceIndex().getSortedVoices(locale.toLanguageTag(),
+                includeCloudVoices.isChecked());
+        Tracing.d("PreferenceHandler", "Voice preference: ", voicePreference);
+        if (sortedVoices.isEmpty()) {
+            Tracing.d("PreferenceHandler", "No voices found for locale: ", locale);
             return;
         }
-        Log.d("PreferenceHandler", "Voices found: " + voices);
-        List<VoiceInfo> sortedVoices = new ArrayList<>(voices);
-        if (!includeCloudVoices.isChecked()) {
-            sortedVoices.removeIf(VoiceInfo::isNetworkRequired);
+        Tracing.d("PreferenceHandler", "Voices found: ", sortedVoices);
+
+        String[] entries = new String[sortedVoices.size() + 1];
+        String[] entryValues = new String[sortedVoices.size() + 1];
+        entries[0] = "Auto (lowest latency)";
+        entryValues[0] = VoiceIndex.AUTO_VOICE_PREFIX + locale.toLanguageTag();
+        for (int i = 0; i < sortedVoices.size(); i++) {
+            entries[i + 1] = sortedVoices.get(i).getHumanReadableName();
+            entryValues[i + 1] = sortedVoices.get(i).getVoiceId();
         }
-        sortedVoices.sort(Comparator.comparing(VoiceInfo::isNetworkRequired)
-                .thenComparing(VoiceInfo::getHumanReadableName, String.CASE_INSENSITIVE_ORDER));
-
-        String[] entries = sortedVoices.stream()
-                .map(VoiceInfo::getHumanReadableName)
-                .toArray(String[]::new);
-
-        String[] entryValues = sortedVoices.stream()
-                .map(VoiceInfo::getVoiceId)
-                .toArray(String[]::new);
 
         voicePreference.setEntryValues(entryValues);
         voicePreference.setEntries(entries);
@@ -214,36 +206,30 @@ public class PreferenceHandler extends PreferenceFragmentCompat {
     }
 
 
-    private TextToSpeech.OnInitListener onTtsInitialized() {
-        return (status -> {
-            if (status == TextToSpeech.SUCCESS) {
-                loadAllVoices();
-                populateLocaleList();
-                Log.d("PreferenceHandler", "TextToSpeech initialization successful");
-            } else {
-                Log.d("PreferenceHandler", "TextToSpeech initialization failed");
-            }
-        });
+    private void showSoundboardUsage() {
+        Soundboard soundboard = ttsConnection.getSoundboard();
+        if (soundboardMemoryPreference == null || soundboard == null) return;
+        soundboardMemoryPreference.setSummary("Memory for pinned phrases, in MB. Using " + soundboard);
+    }
+
+    private TtsConnection.Callback onTtsManagerAvailable() {
+        return (ttsManager -> ttsManager.runWhenReady(() -> {
+            if (!isAdded()) return;
+            voiceCatalog = ttsManager.getVoiceCatalog();
+            populateLocaleList();
+            showSoundboardUsage();
+            Tracing.d("PreferenceHandler", "Shared voice catalog ready");
+        }));
 
     }
 
-    private String createHumanReadableName(Voice voice){
-        String name = voice.getName().toLowerCase();
-        Log.d("PreferenceHandler", "Voice name: " + name);
-        String localeName = voice.getLocale().toString().toLowerCase().replace("_", "-");
-        Log.d("PreferenceHandler", "Locale name: " + localeName);
-        name = name.replace(localeName, "");
-        Log.d("PreferenceHandler", "Name after removing locale: " + name);
-        name = name.replace("-x-", "");
-        Log.d("PreferenceHandler", "Name after removing -x-: " + name);
-        name = name.replace("-", " ");
-        Log.d("PreferenceHandler", "Name after removing -: " + name);
-        name = name.replace("network", " (Requires Wifi)");
-        Log.d("PreferenceHandler", "Name after removing network: " + name);
-        name = name.replace("local", " (Offline)");
-        Log.d("PreferenceHandler", "Name after removing local: " + name);
-        name = name.replace("language", "Default");
-        return name.trim();
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        voiceCatalog = null;
+        if (ttsConnection != null) {
+            ttsConnection.unbind();
+        }
     }
 
 }
@@ -0,0 +1,362 @@
+package com.simplexity.basictts;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Rewrites text before it reaches the engine, replacing the terms the user listed with how they
+ * should be said. All terms are compiled into one Aho-Corasick automaton, so a message is matched
+ * in a single pass whatever the size of the dictionary, instead of one search per term.
+ *
+ * <p>Terms match regardless of case. A term that starts or ends with a letter or digit only
+ * matches at a word boundary on that side, so "ok" leaves "book" alone while "&" still matches
+ * inside "R&D". Where matches overlap, the one starting first wins, then the longest.
+ *
+ * <p>Compiled dictionaries are immutable and safe to share between threads.
+ */
+public final class PronunciationDictionary {
+
+    public static final PronunciationDictionary EMPTY = parse("");
+
+    /**
+     * Offered until the user edits the dictionary. One entry per line: term = replacement.
+     */
+    public static final String DEFAULT_SOURCE = "e.g. = for example\n"
+            + "i.e. = that is\n"
+            + "etc. = et cetera\n"
+            + "& = and\n"
+            + "https:// = \n"
+            + "http:// = \n"
+            + "www. = \n"
+            + ".com = dot com\n"
+            + ".org = dot org\n";
+
+    private static final char SEPARATOR = '=';
+    private static final char COMMENT = '#';
+    private static final int ROOT = 0;
+
+    private final String source;
+    private final String[] terms;
+    private final String[] replacements;
+    private final boolean[] needsBoundaryBefore;
+    private final boolean[] needsBoundaryAfter;
+    // Automaton states; the root is state 0
+    private final int[] fail;
+    private final int[] depth;
+    // The term spelled by the path to the state, or -1
+    private final int[] output;
+    // The nearest state down the failure chain that spells a term, or the root
+    private final int[] outputLink;
+    // Transitions in an open-addressing table keyed by state and folded char
+    private final long[] transitionKeys;
+    private final int[] transitionTargets;
+    private final int transitionMask;
+
+    private PronunciationDictionary(String source, Map<String, String> entries) {
+        this.source = source;
+        int count = entries.size();
+        terms = new String[count];
+        replacements = new String[count];
+        needsBoundaryBefore = new boolean[count];
+        needsBoundaryAfter = new boolean[count];
+        int totalLength = 1;
+        int index = 0;
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            String term = entry.getKey();
+            terms[index] = term;
+            replacements[index] = entry.getValue();
+            needsBoundaryBefore[index] = Character.isLetterOrDigit(term.charAt(0));
+            needsBoundaryAfter[index] = Character.isLetterOrDigit(term.charAt(term.length() - 1));
+            totalLength += term.length();
+            index++;
+        }
+        int tableSize = Integer.highestOneBit(Math.max(2, totalLength) * 2 - 1) << 1;
+        transitionKeys = new long[tableSize];
+        Arrays.fill(transitionKeys, -1);
+        transitionTargets = new int[tableSize];
+        transitionMask = tableSize - 1;
+        // Children are listed per state while building, to walk the trie breadth first
+        int[] firstChild = new int[totalLength];
+        int[] nextSibling = new int[totalLength];
+        char[] label = new char[totalLength];
+        depth = new int[totalLength];
+        output = new int[totalLength];
+        Arrays.fill(firstChild, -1);
+        Arrays.fill(output, -1);
+        int states = 1;
+        for (int term = 0; term < count; term++) {
+            int state = ROOT;
+            String text = terms[term];
+            for (int i = 0; i < text.length(); i++) {
+                char c = fold(text.charAt(i));
+                int next = transition(state, c);
+                if (next < 0) {
+                    next = states++;
+                    depth[next] = depth[state] + 1;
+                    label[next] = c;
+                    nextSibling[next] = firstChild[state];
+                    firstChild[state] = next;
+                    putTransition(state, c, next);
+                }
+                state = next;
+            }
+            output[state] = term;
+        }
+        fail = new int[states];
+        outputLink = new int[states];
+        int[] queue = new int[states];
+        int head = 0;
+        int tail = 0;
+        for (int child = firstChild[ROOT]; child >= 0; child = nextSibling[child]) {
+            queue[tail++] = child;
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            for (int child = firstChild[state]; child >= 0; child = nextSibling[child]) {
+                char c = label[child];
+                int fallback = fail[state];
+                int target = transition(fallback, c);
+                while (target < 0 && fallback != ROOT) {
+                    fallback = fail[fallback];
+                    target = transition(fallback, c);
+                }
+                fail[child] = target < 0 ? ROOT : target;
+                queue[tail++] = child;
+            }
+            int f = fail[state];
+            outputLink[state] = output[f] >= 0 ? f : outputLink[f];
+        }
+    }
+
+    /**
+     * Compiles a dictionary from its text form: one "term = replacement" per line. Blank lines
+     * and lines starting with # are skipped, and a term listed twice keeps its last replacement.
+     */
+    public static PronunciationDictionary parse(String source) {
+        return new PronunciationDictionary(source == null ? "" : source, parseEntries(source));
+    }
+
+    /**
+     * @return how many terms {@link #parse} would compile, without building the automaton
+     */
+    public static int countEntries(String source) {
+        return parseEntries(source).size();
+    }
+
+    private static LinkedHashMap<String, String> parseEntries(String source) {
+        LinkedHashMap<String, String> entries = new LinkedHashMap<>();
+        if (source != null) {
+            int lineStart = 0;
+            while (lineStart < source.length()) {
+                int lineEnd = source.indexOf('\n', lineStart);
+                if (lineEnd < 0) lineEnd = source.length();
+                String line = source.substring(lineStart, lineEnd).trim();
+                lineStart = lineEnd + 1;
+                int separator = line.indexOf(SEPARATOR);
+                if (line.isEmpty() || line.charAt(0) == COMMENT || separator <= 0) continue;
+                String term = line.substring(0, separator).trim();
+                if (term.isEmpty()) continue;
+                // Terms are matched folded, so one spelling per folded term is kept
+                String key = foldAll(term);
+                entries.remove(key);
+                entries.put(key, line.substring(separator + 1).trim());
+            }
+        }
+        return entries;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public int size() {
+        return terms.length;
+    }
+
+    public String apply(String text) {
+        return normalize(text).getText();
+    }
+
+    /**
+     * Replaces every listed term in one pass over the text, keeping what is needed to map
+     * positions in the result back to the text.
+     */
+    public Normalized normalize(String text) {
+        if (terms.length == 0 || text.isEmpty()) return new Normalized(text, null, 0);
+        int length = text.length();
+        // Longest usable match starting at each position, found as the match ends
+        int[] matchLength = null;
+        int[] matchTerm = null;
+        int state = ROOT;
+        for (int i = 0; i < length; i++) {
+            char c = fold(text.charAt(i));
+            int next = transition(state, c);
+            while (next < 0 && state != ROOT) {
+                state = fail[state];
+                next = transition(state, c);
+            }
+            state = next < 0 ? ROOT : next;
+            for (int match = output[state] >= 0 ? state : outputLink[state]; match != ROOT;
+                 match = outputLink[match]) {
+                int term = output[match];
+                int start = i + 1 - depth[match];
+                if (!isBoundaryOk(text, term, start, i + 1)) continue;
+                if (matchLength == null) {
+                    matchLength = new int[length];
+                    matchTerm = new int[length];
+                }
+                if (depth[match] > matchLength[start]) {
+                    matchLength[start] = depth[match];
+                    matchTerm[start] = term;
+                }
+            }
+        }
+        if (matchLength == null) return new Normalized(text, null, 0);
+        StringBuilder result = new StringBuilder(length + 16);
+        // Four ints per replacement: source start, source end, result start, result end
+        int[] edits = new int[16];
+        int editCount = 0;
+        int copied = 0;
+        for (int i = 0; i < length; ) {
+            if (matchLength[i] == 0) {
+                i++;
+                continue;
+            }
+            result.append(text, copied, i);
+            int resultStart = result.length();
+            String replacement = replacements[matchTerm[i]];
+            int end = i + matchLength[i];
+            if (!replacement.isEmpty()) {
+                // "R&D" becomes "R and D", not "RandD"
+                if (resultStart > 0 && Character.isLetterOrDigit(result.charAt(resultStart - 1))
+                        && Character.isLetterOrDigit(replacement.charAt(0))) {
+                    result.append(' ');
+                }
+                result.append(replacement);
+                if (end < length && Character.isLetterOrDigit(text.charAt(end))
+                        && Character.isLetterOrDigit(replacement.charAt(replacement.length() - 1))) {
+                    result.append(' ');
+                }
+            }
+            if (editCount * 4 == edits.length) edits = Arrays.copyOf(edits, edits.length * 2);
+            edits[editCount * 4] = i;
+            edits[editCount * 4 + 1] = end;
+            edits[editCount * 4 + 2] = resultStart;
+            edits[editCount * 4 + 3] = result.length();
+            editCount++;
+            copied = end;
+            i = end;
+        }
+        result.append(text, copied, length);
+        return new Normalized(result.toString(), edits, editCount);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        return other instanceof PronunciationDictionary && source.equals(((PronunciationDictionary) other).source);
+    }
+
+    @Override
+    public int hashCode() {
+        return source.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return terms.length + " pronunciations";
+    }
+
+    private boolean isBoundaryOk(String text, int term, int start, int end) {
+        if (needsBoundaryBefore[term] && start > 0 && Character.isLetterOrDigit(text.charAt(start - 1))) {
+            return false;
+        }
+        return !needsBoundaryAfter[term] || end >= text.length() || !Character.isLetterOrDigit(text.charAt(end));
+    }
+
+    private int transition(int state, char c) {
+        long key = (long) state << 16 | c;
+        for (int slot = slot(key); ; slot = (slot + 1) & transitionMask) {
+            long found = transitionKeys[slot];
+            if (found == key) return transitionTargets[slot];
+            if (found == -1) return -1;
+        }
+    }
+
+    private void putTransition(int state, char c, int target) {
+        long key = (long) state << 16 | c;
+        int slot = slot(key);
+        while (transitionKeys[slot] != -1) {
+            slot = (slot + 1) & transitionMask;
+        }
+        transitionKeys[slot] = key;
+        transitionTargets[slot] = target;
+    }
+
+    private int slot(long key) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32)) & transitionMask;
+    }
+
+    private static char fold(char c) {
+        return Character.toLowerCase(c);
+    }
+
+    private static String foldAll(String term) {
+        char[] chars = term.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = fold(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Normalized text, and where its characters came from.
+     */
+    public static final class Normalized {
+        private final String text;
+        private final int[] edits;
+        private final int editCount;
+
+        private Normalized(String text, int[] edits, int editCount) {
+            this.text = text;
+            this.edits = edits;
+            this.editCount = editCount;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * Maps a position in the normalized text back to the original. A position inside a
+         * replacement maps to the start of the term it replaced, or to its end when isEnd is set,
+         * so a spoken range covers the whole term.
+         */
+        public int toSource(int position, boolean isEnd) {
+            int low = 0;
+            int high = editCount;
+            // The last edit starting at or before the position; an end only belongs to an edit
+            // it is inside of
+            int bound = isEnd ? position - 1 : position;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (edits[middle * 4 + 2] <= bound) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            int edit = low - 1;
+            if (edit < 0) return position;
+            int sourceStart = edits[edit * 4];
+            int sourceEnd = edits[edit * 4 + 1];
+            int resultEnd = edits[edit * 4 + 3];
+            if (position < resultEnd || (isEnd && position == resultEnd)) {
+                return isEnd ? sourceEnd : sourceStart;
+            }
+            return sourceEnd + position - resultEnd;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.simplexity.basictts;
+
+import android.app.AlertDialog;
+import android.content.Intent;
+import android.service.quicksettings.Tile;
+import android.service.quicksettings.TileService;
+import android.view.WindowManager;
+import android.widget.EditText;
+
+import androidx.preference.PreferenceManager;
+
+/**
+ * Quick Settings tile for speaking without opening the app. While the resident engine is on, a
+ * tap asks for text in a dialog over the shade and hands it to the foreground TtsService; while
+ * it is off, a tap turns it on.
+ */
+public class QuickSpeakTileService extends TileService {
+
+    @Override
+    public void onStartListening() {
+        updateTile();
+    }
+
+    @Override
+    public void onClick() {
+        if (!isResidentEnabled()) {
+            PreferenceManager.getDefaultSharedPreferences(this).edit()
+                    .putBoolean("resident_engine_enabled", true).apply();
+            // The service reads the preference when it starts and goes to the foreground
+            startForegroundService(new Intent(this, TtsService.class));
+            updateTile();
+            return;
+        }
+        EditText input = new EditText(this);
+        input.setHint("Text to speak");
+        AlertDialog dialog = new AlertDialog.Builder(this)
+                .setView(input)
+                .setPositiveButton("Speak", (d, which) -> speak(input.getText().toString()))
+                .setNeutralButton("Turn off", (d, which) -> {
+                    startForegroundService(new Intent(this, TtsService.class)
+                            .setAction(TtsService.ACTION_STOP_RESIDENT));
+                    updateTile();
+                })
+                .setNegativeButton("Cancel", null)
+                .create();
+        dialog.getWindow().setSoftInputMode(WindowManager.LayoutParams.SOFT_INPUT_STATE_VISIBLE);
+        showDialog(dialog);
+    }
+
+    private void speak(String text) {
+        if (text.trim().isEmpty()) return;
+        // The process may have been killed since the tile last looked, and a plain start from
+        // the background is not allowed; the service goes to the foreground as it starts
+        startForegroundService(new Intent(this, TtsService.class)
+                .setAction(TtsService.ACTION_SPEAK)
+                .putExtra(Intent.EXTRA_TEXT, text));
+    }
+
+    private void updateTile() {
+        Tile tile = getQsTile();
+        if (tile == null) return;
+        boolean isResident = isResidentEnabled();
+        tile.setState(isResident ? Tile.STATE_ACTIVE : Tile.STATE_INACTIVE);
+        tile.setSubtitle(isResident ? "Tap to type" : "Off");
+        tile.updateTile();
+    }
+
+    private boolean isResidentEnabled() {
+        return PreferenceManager.getDefaultSharedPreferences(this).getBoolean("resident_engine_enabled", false);
+    }
+}
@@ -0,0 +1,338 @@
+package com.simplexity.basictts;
+
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioTrack;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Pinned phrases rendered once through TtsManager and held as PCM in direct buffers. Tapping a
+ * rendered phrase plays it from memory through a static AudioTrack, without touching the engine
+ * or the disk. Phrases that are not rendered yet, or did not fit the memory budget, fall back to
+ * the engine.
+ *
+ * <p>Phrases are rendered at neutral pitch and speed; the current settings are applied with
+ * PcmStretcher when a track is built, so moving the sliders does not render anything again.
+ */
+public class Soundboard {
+
+    public static final int DEFAULT_MEMORY_MB = 8;
+    public static final String DEFAULT_PHRASES = "Yes\nNo\nOne moment please";
+    private static final String PHRASE_SEPARATOR = "\n";
+    // Static tracks hold a copy of the samples in shared memory, so only the recent ones are kept
+    private static final int MAX_TRACKS = 6;
+
+    private final TtsManager ttsManager;
+    private final File renderDirectory;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService decodeExecutor =
+            Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "soundboard-decode"));
+    private final List<String> phrases = new ArrayList<>();
+    private final HashMap<String, PcmAudio> renderedPhrases = new HashMap<>();
+    private final ArrayDeque<String> renderQueue = new ArrayDeque<>();
+    private final LinkedHashMap<String, AudioTrack> tracks =
+            new LinkedHashMap<String, AudioTrack>(MAX_TRACKS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, AudioTrack> eldest) {
+                    if (size() <= MAX_TRACKS) return false;
+                    eldest.getValue().release();
+                    return true;
+                }
+            };
+    private long maxBytes;
+    private float pitch;
+    private float speed;
+    private long bytesUsed;
+    private int generation;
+    private int renderCounter;
+    private boolean isRendering;
+    private AudioTrack playingTrack;
+
+    public Soundboard(TtsManager ttsManager, File renderDirectory, long maxBytes, float pitch, float speed) {
+        this.ttsManager = ttsManager;
+        this.renderDirectory = renderDirectory;
+        this.maxBytes = maxBytes;
+        this.pitch = pitch;
+        this.speed = speed;
+    }
+
+    /**
+     * Splits the newline separated list stored in the pinned_phrases preference.
+     */
+    public static List<String> parsePhrases(String stored) {
+        List<String> result = new ArrayList<>();
+        if (stored == null) return result;
+        for (String phrase : stored.split(PHRASE_SEPARATOR)) {
+            String trimmed = phrase.trim();
+            if (!trimmed.isEmpty() && !result.contains(trimmed)) result.add(trimmed);
+        }
+        return result;
+    }
+
+    public static String joinPhrases(List<String> phrases) {
+        return String.join(PHRASE_SEPARATOR, phrases);
+    }
+
+    public List<String> getPhrases() {
+        return new ArrayList<>(phrases);
+    }
+
+    /**
+     * Replaces the pinned phrases. Phrases that are already rendered are kept, new ones are
+     * queued for rendering.
+     */
+    public void setPhrases(List<String> newPhrases) {
+        phrases.clear();
+        phrases.addAll(newPhrases);
+        List<String> removed = new ArrayList<>(renderedPhrases.keySet());
+        removed.removeAll(phrases);
+        for (String phrase : removed) {
+            forget(phrase);
+        }
+        renderQueue.clear();
+        for (String phrase : phrases) {
+            if (!renderedPhrases.containsKey(phrase)) renderQueue.addLast(phrase);
+        }
+        ttsManager.runWhenReady(this::renderNext);
+    }
+
+    /**
+     * Drops all rendered audio and renders every phrase again, for when the voice has changed.
+     */
+    public void rerenderAll() {
+        generation++;
+        isRendering = false;
+        for (String phrase : new ArrayList<>(renderedPhrases.keySet())) {
+            forget(phrase);
+        }
+        renderQueue.clear();
+        renderQueue.addAll(phrases);
+        ttsManager.runWhenReady(this::renderNext);
+    }
+
+    /**
+     * Applies new pitch and speed to the rendered phrases. Tracks are rebuilt from the held
+     * audio the next time each phrase plays.
+     */
+    public void setPlaybackSettings(float pitch, float speed) {
+        if (pitch == this.pitch && speed == this.speed) return;
+        this.pitch = pitch;
+        this.speed = speed;
+        stopPlaying();
+        for (AudioTrack track : tracks.values()) {
+            track.release();
+        }
+        tracks.clear();
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        long previous = this.maxBytes;
+        this.maxBytes = maxBytes;
+        if (maxBytes < bytesUsed || maxBytes > previous) rerenderAll();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getBytesUsed() {
+        return bytesUsed;
+    }
+
+    public int getRenderedCount() {
+        return renderedPhrases.size();
+    }
+
+    public boolean isRendered(String phrase) {
+        return renderedPhrases.containsKey(phrase);
+    }
+
+    /**
+     * Plays the phrase from memory, or sends it to the engine ahead of other messages if it is not
+     * rendered.
+     *
+     * @return true if it played from memory
+     */
+    public boolean play(String phrase) {
+        PcmAudio audio = renderedPhrases.get(phrase);
+        if (audio == null) {
+            ttsManager.sendMessage(phrase, UtteranceScheduler.Priority.URGENT);
+            return false;
+        }
+        stopPlaying();
+        AudioTrack track = tracks.get(phrase);
+        if (track == null) {
+            track = createTrack(applyPlaybackSettings(audio));
+            if (track == null) {
+                ttsManager.sendMessage(phrase, UtteranceScheduler.Priority.URGENT);
+                return false;
+            }
+            tracks.put(phrase, track);
+        } else {
+            track.reloadStaticData();
+        }
+        track.play();
+        playingTrack = track;
+        return true;
+    }
+
+    public void stopPlaying() {
+        if (playingTrack == null) return;
+        try {
+            playingTrack.stop();
+        } catch (IllegalStateException e) {
+            Log.d("Soundboard", "Could not stop track: " + e.getMessage());
+        }
+        playingTrack = null;
+    }
+
+    public void release() {
+        generation++;
+        stopPlaying();
+        for (AudioTrack track : tracks.values()) {
+            track.release();
+        }
+        tracks.clear();
+        renderedPhrases.clear();
+        renderQueue.clear();
+        bytesUsed = 0;
+        decodeExecutor.shutdownNow();
+    }
+
+    private void renderNext() {
+        while (!isRendering) {
+            String phrase = renderQueue.pollFirst();
+            if (phrase == null) {
+                Tracing.d("Soundboard", "Rendering finished: ", this);
+                return;
+            }
+            if (renderedPhrases.containsKey(phrase)) continue;
+            if (!renderDirectory.isDirectory() && !renderDirectory.mkdirs()) {
+                Log.d("Soundboard", "Could not create " + renderDirectory);
+                return;
+            }
+            int renderGeneration = generation;
+            File file = new File(renderDirectory, "phrase-" + (++renderCounter) + ".wav");
+            isRendering = ttsManager.renderToFile(phrase, file, 1f, 1f,
+                    success -> onRendered(renderGeneration, phrase, file, success));
+            if (!isRendering) Log.d("Soundboard", "Engine refused to render: " + phrase);
+        }
+    }
+
+    private void onRendered(int renderGeneration, String phrase, File file, boolean success) {
+        if (!success || renderGeneration != generation) {
+            file.delete();
+            onDecoded(renderGeneration, phrase, null);
+            return;
+        }
+        SpeechConditioner.Settings conditioning = ttsManager.getAudioConditioning();
+        decodeExecutor.execute(() -> {
+            if (conditioning != null && conditioning.isEnabled()) {
+                try {
+                    SpeechConditioner.conditionInPlace(file, conditioning);
+                } catch (IOException e) {
+                    // The file still plays as the engine wrote it
+                    Log.d("Soundboard", "Could not condition " + phrase + ": " + e.getMessage());
+                }
+            }
+            PcmAudio audio = null;
+            try {
+                audio = PcmAudio.readWav(file);
+            } catch (IOException e) {
+                Log.d("Soundboard", "Could not decode " + phrase + ": " + e.getMessage());
+            }
+            file.delete();
+            PcmAudio decoded = audio;
+            mainHandler.post(() -> onDecoded(renderGeneration, phrase, decoded));
+        });
+    }
+
+    private void onDecoded(int renderGeneration, String phrase, PcmAudio audio) {
+        // A newer rerenderAll already restarted the queue
+        if (renderGeneration != generation) return;
+        isRendering = false;
+        if (audio != null && audio.getByteCount() > 0 && phrases.contains(phrase)) {
+            if (bytesUsed + audio.getByteCount() <= maxBytes) {
+                renderedPhrases.put(phrase, audio);
+                bytesUsed += audio.getByteCount();
+            } else {
+                Tracing.d("Soundboard", "Over memory budget, not holding: ", phrase);
+            }
+        }
+        renderNext();
+    }
+
+    private void forget(String phrase) {
+        PcmAudio audio = renderedPhrases.remove(phrase);
+        if (audio != null) bytesUsed -= audio.getByteCount();
+        AudioTrack track = tracks.remove(phrase);
+        if (track != null) {
+            if (track == playingTrack) playingTrack = null;
+            track.release();
+        }
+    }
+
+    private PcmAudio applyPlaybackSettings(PcmAudio audio) {
+        if (pitch == 1f && speed == 1f) return audio;
+        if (audio.getBitsPerSample() != 16) {
+            Tracing.d("Soundboard", "Cannot stretch bits per sample: ", audio.getBitsPerSample());
+            return audio;
+        }
+        long start = System.nanoTime();
+        PcmAudio stretched = PcmStretcher.stretch(audio, speed, pitch);
+        Tracing.d("Soundboard", "Stretched phrase, us: ", (System.nanoTime() - start) / 1000);
+        return stretched;
+    }
+
+    private static AudioTrack createTrack(PcmAudio audio) {
+        int encoding = audio.getBitsPerSample() == 8
+                ? AudioFormat.ENCODING_PCM_8BIT : AudioFormat.ENCODING_PCM_16BIT;
+        int channelMask = audio.getChannelCount() == 2
+                ? AudioFormat.CHANNEL_OUT_STEREO : AudioFormat.CHANNEL_OUT_MONO;
+        try {
+            AudioTrack track = new AudioTrack.Builder()
+                    .setAudioAttributes(new AudioAttributes.Builder()
+                            .setUsage(AudioAttributes.USAGE_MEDIA)
+                            .setContentType(AudioAttributes.CONTENT_TYPE_SPEECH)
+                            .build())
+                    .setAudioFormat(new AudioFormat.Builder()
+                            .setSampleRate(audio.getSampleRate())
+                            .setEncoding(encoding)
+                            .setChannelMask(channelMask)
+                            .build())
+                    .setTransferMode(AudioTrack.MODE_STATIC)
+                    .setBufferSizeInBytes(audio.getByteCount())
+                    .build();
+            int written = track.write(audio.getData(), audio.getByteCount(), AudioTrack.WRITE_BLOCKING);
+            if (written < 0) {
+                Log.d("Soundboard", "Could not load track: " + written);
+                track.release();
+                return null;
+            }
+            return track;
+        } catch (IllegalArgumentException | UnsupportedOperationException e) {
+            Log.d("Soundboard", "Could not create track: " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%d/%d phrases in memory, %.1f of %.1f MB",
+                renderedPhrases.size(), phrases.size(), bytesUsed / 1048576.0, maxBytes / 1048576.0);
+    }
+}
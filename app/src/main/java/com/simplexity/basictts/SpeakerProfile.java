@@ -0,0 +1,53 @@
+package com.simplexity.basictts;
+
+import java.util.Objects;
+
+/**
+ * Voice, pitch and speed one segment is spoken with, after the utterance's own settings and its
+ * markup have been applied.
+ */
+public class SpeakerProfile {
+    private final String voiceName;
+    private final float pitch;
+    private final float speed;
+
+
+    public SpeakerProfile(String voiceName, float pitch, float speed) {
+        this.voiceName = voiceName;
+        this.pitch = pitch;
+        this.speed = speed;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof SpeakerProfile)) return false;
+        SpeakerProfile other = (SpeakerProfile) o;
+        return pitch == other.pitch && speed == other.speed && Objects.equals(voiceName, other.voiceName);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(voiceName, pitch, speed);
+    }
+
+    @Override
+    public String toString() {
+        return "voice=" + voiceName + ", pitch=" + pitch + ", speed=" + speed;
+    }
+
+    /**
+     * @return the engine voice name, or null for whatever the engine has
+     */
+    public String getVoiceName() {
+        return voiceName;
+    }
+
+    public float getPitch() {
+        return pitch;
+    }
+
+    public float getSpeed() {
+        return speed;
+    }
+}
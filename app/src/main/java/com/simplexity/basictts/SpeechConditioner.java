@@ -0,0 +1,415 @@
+package com.simplexity.basictts;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * One-pass clean-up of synthesized 16-bit PCM: trims the silence engines put before and after
+ * speech, and evens out loudness between voices. Leading silence is dropped until the first
+ * sample above the threshold, keeping a short pre-roll. Quiet stretches are held back and only
+ * passed on once speech resumes, so whatever is still held at the end is trailing silence.
+ * Loudness is measured over the samples above the threshold that are in a short lookahead, so
+ * the measurement slides along with the audio, and the gain that brings them to the target
+ * level, capped so the loudest of them does not clip, is applied as they leave it. Through a
+ * pause longer than the lookahead the last gain is held.
+ *
+ * <p>Memory is bounded by the pre-roll, the longest quiet stretch held back and the lookahead,
+ * all allocated up front. Not thread safe.
+ */
+public final class SpeechConditioner {
+
+    private static final int PRE_ROLL_MS = 20;
+    private static final int POST_ROLL_MS = 40;
+    private static final int MAX_HOLD_MS = 1000;
+    private static final int LOOKAHEAD_MS = 250;
+    private static final int GAIN_SMOOTHING_MS = 50;
+    private static final float MAX_GAIN = 4f;
+    private static final float MIN_GAIN = 0.25f;
+    private static final int FILE_BLOCK_FRAMES = 4096;
+
+    public static final class Settings {
+        public static final float DEFAULT_THRESHOLD_DB = -45f;
+        public static final float DEFAULT_TARGET_DB = -20f;
+
+        private final boolean trimSilence;
+        private final float thresholdDb;
+        private final boolean normalize;
+        private final float targetDb;
+
+        /**
+         * @param thresholdDb level in dBFS below which audio counts as silence
+         * @param targetDb    RMS level in dBFS that speech is brought to
+         */
+        public Settings(boolean trimSilence, float thresholdDb, boolean normalize, float targetDb) {
+            this.trimSilence = trimSilence;
+            this.thresholdDb = thresholdDb;
+            this.normalize = normalize;
+            this.targetDb = targetDb;
+        }
+
+        public boolean isEnabled() {
+            return trimSilence || normalize;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) return true;
+            if (!(other instanceof Settings)) return false;
+            Settings settings = (Settings) other;
+            return trimSilence == settings.trimSilence && thresholdDb == settings.thresholdDb
+                    && normalize == settings.normalize && targetDb == settings.targetDb;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = Boolean.hashCode(trimSilence);
+            result = 31 * result + Float.hashCode(thresholdDb);
+            result = 31 * result + Boolean.hashCode(normalize);
+            return 31 * result + Float.hashCode(targetDb);
+        }
+
+        @Override
+        public String toString() {
+            return "trim=" + trimSilence + " below " + thresholdDb + " dB, normalize=" + normalize + " to "
+                    + targetDb + " dB";
+        }
+    }
+
+    private final int sampleRate;
+    private final int channelCount;
+    private final Settings settings;
+    private final int threshold;
+    private final double targetLevel;
+    private final int postRollFrames;
+    private final double gainSmoothing;
+    private final FrameRing preRoll;
+    private final FrameRing held;
+    private final FrameRing lookahead;
+    private final short[] frame;
+    // Per lookahead slot, the sum of squares of a loud frame or 0; totals cover the lookahead
+    private final long[] frameEnergy;
+    private long windowEnergy;
+    private int windowSamples;
+    // Peaks of the loud frames in the lookahead, decreasing from the oldest, to track its maximum
+    private final long[] peakFrames;
+    private final int[] peakValues;
+    private int peakHead;
+    private int peakCount;
+    private long pushedFrames;
+    private long emittedFrames;
+    private boolean isStarted;
+    private double gain = 1;
+    private boolean hasGain;
+    private long trimmedLeadingFrames;
+    private long trimmedTrailingFrames;
+
+    public SpeechConditioner(int sampleRate, int channelCount, Settings settings) {
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        this.settings = settings;
+        this.threshold = (int) Math.round(32767 * Math.pow(10, settings.thresholdDb / 20));
+        this.targetLevel = 32767 * Math.pow(10, settings.targetDb / 20);
+        this.postRollFrames = sampleRate * POST_ROLL_MS / 1000;
+        this.gainSmoothing = 1000.0 / (sampleRate * GAIN_SMOOTHING_MS);
+        this.preRoll = new FrameRing(settings.trimSilence ? sampleRate * PRE_ROLL_MS / 1000 : 0, channelCount);
+        this.held = new FrameRing(settings.trimSilence ? sampleRate * MAX_HOLD_MS / 1000 : 0, channelCount);
+        this.lookahead = new FrameRing(settings.normalize ? sampleRate * LOOKAHEAD_MS / 1000 : 0, channelCount);
+        this.frameEnergy = new long[lookahead.capacity];
+        this.peakFrames = new long[lookahead.capacity];
+        this.peakValues = new int[lookahead.capacity];
+        this.frame = new short[channelCount];
+        this.isStarted = !settings.trimSilence;
+    }
+
+    /**
+     * @return how large the output of a process() call with this many input frames, or of
+     *         flush(), can get
+     */
+    public int getMaxOutputFrames(int inputFrames) {
+        return inputFrames + preRoll.capacity + held.capacity + lookahead.capacity;
+    }
+
+    /**
+     * @param output room for {@link #getMaxOutputFrames} frames from outputOffset on
+     * @return frames written to the output
+     */
+    public int process(short[] input, int inputOffset, int frames, short[] output, int outputOffset) {
+        int out = outputOffset;
+        for (int i = 0; i < frames; i++) {
+            int start = inputOffset + i * channelCount;
+            boolean isLoud = false;
+            for (int channel = 0; channel < channelCount; channel++) {
+                int sample = input[start + channel];
+                if (sample > threshold || -sample > threshold) {
+                    isLoud = true;
+                    break;
+                }
+            }
+            if (!isStarted) {
+                if (!isLoud) {
+                    if (preRoll.isFull()) {
+                        preRoll.pop(frame, 0);
+                        trimmedLeadingFrames++;
+                    }
+                    preRoll.push(input, start);
+                    continue;
+                }
+                isStarted = true;
+                while (!preRoll.isEmpty()) {
+                    preRoll.pop(frame, 0);
+                    out = toLookahead(frame, 0, false, output, out);
+                }
+            }
+            if (isLoud) {
+                while (!held.isEmpty()) {
+                    held.pop(frame, 0);
+                    out = toLookahead(frame, 0, false, output, out);
+                }
+                out = toLookahead(input, start, true, output, out);
+            } else if (held.capacity == 0) {
+                out = toLookahead(input, start, false, output, out);
+            } else {
+                if (held.isFull()) {
+                    // Too long to be padding; a pause inside the speech
+                    held.pop(frame, 0);
+                    out = toLookahead(frame, 0, false, output, out);
+                }
+                held.push(input, start);
+            }
+        }
+        return (out - outputOffset) / channelCount;
+    }
+
+    /**
+     * Ends the stream: drops the trailing silence except a short post-roll and drains the
+     * lookahead.
+     *
+     * @return frames written to the output
+     */
+    public int flush(short[] output, int outputOffset) {
+        int out = outputOffset;
+        if (!isStarted) {
+            trimmedLeadingFrames += preRoll.size;
+            preRoll.clear();
+        }
+        int kept = 0;
+        while (!held.isEmpty()) {
+            held.pop(frame, 0);
+            if (kept++ < postRollFrames) {
+                out = toLookahead(frame, 0, false, output, out);
+            } else {
+                trimmedTrailingFrames++;
+            }
+        }
+        while (!lookahead.isEmpty()) {
+            out = emit(output, out);
+        }
+        return (out - outputOffset) / channelCount;
+    }
+
+    public long getTrimmedLeadingMillis() {
+        return trimmedLeadingFrames * 1000 / sampleRate;
+    }
+
+    public long getTrimmedTrailingMillis() {
+        return trimmedTrailingFrames * 1000 / sampleRate;
+    }
+
+    /**
+     * @return the gain applied to the last emitted frame
+     */
+    public double getGain() {
+        return gain;
+    }
+
+    /**
+     * Replaces a rendered WAV file with its conditioned version. On failure the file is left as
+     * the engine wrote it, which still plays fine.
+     *
+     * @throws IOException if the file could not be conditioned
+     */
+    public static void conditionInPlace(File file, Settings settings) throws IOException {
+        File conditioned = new File(file.getPath() + ".conditioned");
+        try {
+            SpeechConditioner conditioner = processWav(file, conditioned, settings);
+            if (!conditioned.renameTo(file)) throw new IOException("Could not replace " + file);
+            Tracing.recordDuration(Tracing.Metric.SILENCE_TRIMMED,
+                    conditioner.getTrimmedLeadingMillis() * 1_000_000L);
+            Tracing.d("SpeechConditioner", "Trimmed trailing silence, ms: ", conditioner.getTrimmedTrailingMillis());
+        } catch (IOException e) {
+            conditioned.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Streams a WAV file through a new conditioner into another WAV file.
+     *
+     * @return the conditioner, for its trim and gain figures
+     * @throws IOException if the input is not 16-bit PCM or cannot be read or written
+     */
+    public static SpeechConditioner processWav(File input, File output, Settings settings) throws IOException {
+        try (FileChannel source = FileChannel.open(input.toPath(), StandardOpenOption.READ);
+             FileChannel target = FileChannel.open(output.toPath(), StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            PcmAudio.Layout layout = PcmAudio.readLayout(source, input);
+            if (layout.getBitsPerSample() != 16) {
+                throw new IOException("Only 16-bit audio is supported, got " + layout.getBitsPerSample());
+            }
+            int channels = layout.getChannelCount();
+            SpeechConditioner conditioner = new SpeechConditioner(layout.getSampleRate(), channels, settings);
+            int frameBytes = channels * 2;
+            ByteBuffer inputBytes = ByteBuffer.allocateDirect(FILE_BLOCK_FRAMES * frameBytes)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            short[] inputSamples = new short[FILE_BLOCK_FRAMES * channels];
+            short[] outputSamples = new short[conditioner.getMaxOutputFrames(FILE_BLOCK_FRAMES) * channels];
+            ByteBuffer outputBytes = ByteBuffer.allocateDirect(outputSamples.length * 2)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            long position = layout.getDataOffset();
+            long end = position + layout.getDataLength() / frameBytes * frameBytes;
+            long written = 0;
+            target.position(PcmAudio.WAV_HEADER_SIZE);
+            while (position < end) {
+                inputBytes.clear().limit((int) Math.min(inputBytes.capacity(), end - position));
+                while (inputBytes.hasRemaining()) {
+                    int read = source.read(inputBytes, position + inputBytes.position());
+                    if (read < 0) throw new IOException("Unexpected end of " + input);
+                }
+                position += inputBytes.limit();
+                inputBytes.flip();
+                int frames = inputBytes.remaining() / frameBytes;
+                inputBytes.asShortBuffer().get(inputSamples, 0, frames * channels);
+                int produced = conditioner.process(inputSamples, 0, frames, outputSamples, 0);
+                written += write(target, outputBytes, outputSamples, produced * channels);
+            }
+            int produced = conditioner.flush(outputSamples, 0);
+            written += write(target, outputBytes, outputSamples, produced * channels);
+            PcmAudio.writeWavHeader(target, layout.getSampleRate(), channels, 16, written);
+            return conditioner;
+        }
+    }
+
+    private static long write(FileChannel target, ByteBuffer bytes, short[] samples, int count) throws IOException {
+        bytes.clear();
+        bytes.asShortBuffer().put(samples, 0, count);
+        bytes.limit(count * 2);
+        while (bytes.hasRemaining()) {
+            target.write(bytes);
+        }
+        return count * 2L;
+    }
+
+    /**
+     * Queues a frame in the lookahead, which only exists when normalizing, and adds it to the
+     * measurement.
+     */
+    private int toLookahead(short[] source, int start, boolean isLoud, short[] output, int out) {
+        if (lookahead.capacity == 0) {
+            System.arraycopy(source, start, output, out, channelCount);
+            return out + channelCount;
+        }
+        if (lookahead.isFull()) out = emit(output, out);
+        long energy = 0;
+        if (isLoud) {
+            int peak = 0;
+            for (int channel = 0; channel < channelCount; channel++) {
+                int sample = source[start + channel];
+                energy += (long) sample * sample;
+                peak = Math.max(peak, Math.abs(sample));
+            }
+            windowEnergy += energy;
+            windowSamples += channelCount;
+            // Earlier frames that are not louder can never be the maximum again
+            while (peakCount > 0 && peakValues[(peakHead + peakCount - 1) % peakValues.length] <= peak) {
+                peakCount--;
+            }
+            int slot = (peakHead + peakCount++) % peakValues.length;
+            peakFrames[slot] = pushedFrames;
+            peakValues[slot] = peak;
+        }
+        frameEnergy[(lookahead.head + lookahead.size) % lookahead.capacity] = energy;
+        pushedFrames++;
+        lookahead.push(source, start);
+        return out;
+    }
+
+    private int emit(short[] output, int out) {
+        int slot = lookahead.head;
+        lookahead.pop(output, out);
+        if (windowSamples > 0) {
+            double ceiling = 32767.0 / Math.max(1, peakValues[peakHead]);
+            double wanted = targetLevel / Math.sqrt((double) windowEnergy / windowSamples);
+            wanted = Math.max(MIN_GAIN, Math.min(MAX_GAIN, Math.min(wanted, ceiling)));
+            if (hasGain) {
+                gain += (wanted - gain) * gainSmoothing;
+            } else {
+                // The lookahead has already been measured, so start at the right level
+                gain = wanted;
+                hasGain = true;
+            }
+            // Smoothing must not carry the gain past a peak that just entered the lookahead
+            gain = Math.min(gain, ceiling);
+        }
+        // The frame leaves the measurement with the lookahead
+        if (frameEnergy[slot] > 0) {
+            windowEnergy -= frameEnergy[slot];
+            windowSamples -= channelCount;
+        }
+        if (peakCount > 0 && peakFrames[peakHead] == emittedFrames) {
+            peakHead = (peakHead + 1) % peakValues.length;
+            peakCount--;
+        }
+        emittedFrames++;
+        for (int channel = 0; channel < channelCount; channel++) {
+            long scaled = Math.round(output[out + channel] * gain);
+            output[out + channel] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, scaled));
+        }
+        return out + channelCount;
+    }
+
+    /**
+     * Fixed-size FIFO of interleaved frames.
+     */
+    private static final class FrameRing {
+        private final short[] samples;
+        private final int capacity;
+        private final int channelCount;
+        private int head;
+        private int size;
+
+        private FrameRing(int capacity, int channelCount) {
+            this.samples = new short[capacity * channelCount];
+            this.capacity = capacity;
+            this.channelCount = channelCount;
+        }
+
+        private boolean isEmpty() {
+            return size == 0;
+        }
+
+        private boolean isFull() {
+            return size == capacity;
+        }
+
+        private void push(short[] source, int start) {
+            int tail = (head + size) % capacity;
+            System.arraycopy(source, start, samples, tail * channelCount, channelCount);
+            size++;
+        }
+
+        private void pop(short[] target, int start) {
+            System.arraycopy(samples, head * channelCount, target, start, channelCount);
+            head = (head + 1) % capacity;
+            size--;
+        }
+
+        private void clear() {
+            head = 0;
+            size = 0;
+        }
+    }
+}
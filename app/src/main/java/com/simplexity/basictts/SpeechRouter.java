@@ -0,0 +1,749 @@
+package com.simplexity.basictts;
+
+import android.speech.tts.TextToSpeech;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * The speak path of {@link TtsManager} between a send and the engine. Holds messages until the
+ * engine is ready under the backpressure policy, hands them to the scheduler, picks how each
+ * segment is spoken (from a rendered draft, as a pause, through the phrase cache or straight
+ * through the engine) and routes engine and player progress back to the segment's utterance.
+ *
+ * <p>Everything but the scheduler runs on the main executor. The calls that need a real
+ * TextToSpeech sit behind {@link Engine}, the way {@link EngineBinder} keeps engine creation
+ * behind its Engines, so the path can be driven on the JVM against a fake engine.
+ */
+public class SpeechRouter {
+
+    public static final int DEFAULT_MAX_PENDING = 64;
+    public static final String DRAFT_PREFIX = "draft-";
+    public static final String RENDER_PREFIX = "render-";
+
+    private static final AtomicLong idCounter = new AtomicLong();
+
+    /**
+     * The engine calls of the speak path, made on the main executor.
+     */
+    public interface Engine {
+        /**
+         * Speaks text already rewritten by the dictionary, with the settings of the utterance and
+         * of the segment, which may be null.
+         */
+        int speak(Utterance utterance, UtterancePlan.Segment segment, String text, String segmentId,
+                  int segmentIndex);
+
+        int playSilence(int millis, String segmentId);
+
+        /**
+         * Renders like {@link #speak}, or with the engine defaults when the utterance is null.
+         */
+        int synthesizeToFile(Utterance utterance, UtterancePlan.Segment segment, String text, File file,
+                             String id);
+
+        /**
+         * @return the voice the segment would be spoken with, or the default voice for a null
+         * utterance, to key rendered audio by
+         */
+        String getVoiceName(Utterance utterance, UtterancePlan.Segment segment);
+
+        void stop();
+    }
+
+    /**
+     * Plays rendered files and silences in the order they were queued, as
+     * {@link CachedAudioPlayer} does.
+     */
+    public interface Player {
+        void enqueue(String segmentId, File file);
+
+        void enqueueSilence(String segmentId, int millis);
+
+        void markReady(String segmentId, File file);
+
+        void stop();
+    }
+
+    private final Engine engine;
+    private final Player player;
+    private final AtomicReference<TtsConfig> config;
+    private final Executor main;
+    private final Executor conditioning;
+    private final UtteranceScheduler scheduler;
+    private final TextSegmenter textSegmenter;
+    private final int maxInputLength;
+    private final File draftDirectory;
+    private final List<TtsManager.UtteranceListener> utteranceListeners = new CopyOnWriteArrayList<>();
+    // Everything below is only touched on the main executor
+    private boolean isReady;
+    private boolean isUnavailable;
+    private final ArrayDeque<Utterance> pendingUtterances = new ArrayDeque<>();
+    private int maxPending = DEFAULT_MAX_PENDING;
+    private TtsManager.BackpressurePolicy backpressurePolicy = TtsManager.BackpressurePolicy.COALESCE;
+    private int scheduledCount;
+    private int maxQueueDepth;
+    private AudioCache audioCache;
+    private final HashMap<String, Long> startedAtNanos = new HashMap<>();
+    private final HashMap<String, String> pendingSynthesisKeys = new HashMap<>();
+    private final HashMap<String, DraftRender> draftsInFlight = new HashMap<>();
+    private DraftRender draft;
+    private String queuedDraftText;
+    private final HashMap<String, DraftRender> draftsByUtterance = new HashMap<>();
+    private final HashMap<String, TtsManager.RenderCallback> renderCallbacks = new HashMap<>();
+    private final HashMap<String, SegmentRange> spokenSegments = new HashMap<>();
+    private final HashMap<String, UtterancePlan> plans = new HashMap<>();
+
+    /**
+     * @param players makes the player for rendered audio, given the listener it reports to
+     * @param schedulerExecutor runs the scheduler's queue, one task at a time
+     * @param conditioning conditions rendered files before they play
+     */
+    public SpeechRouter(Engine engine, Function<CachedAudioPlayer.Listener, Player> players,
+                        AtomicReference<TtsConfig> config, TextSegmenter textSegmenter, int maxInputLength,
+                        File draftDirectory, Executor main, Executor schedulerExecutor, Executor conditioning) {
+        this.engine = engine;
+        this.player = players.apply(playbackListener);
+        this.config = config;
+        this.textSegmenter = textSegmenter;
+        this.maxInputLength = maxInputLength;
+        this.draftDirectory = draftDirectory;
+        this.main = main;
+        this.conditioning = conditioning;
+        this.scheduler = new UtteranceScheduler(speechEngine, schedulerListener, schedulerExecutor);
+    }
+
+    public static String newId(String prefix) {
+        return prefix + idCounter.incrementAndGet();
+    }
+
+    public void addUtteranceListener(TtsManager.UtteranceListener listener) {
+        utteranceListeners.add(listener);
+    }
+
+    public void removeUtteranceListener(TtsManager.UtteranceListener listener) {
+        utteranceListeners.remove(listener);
+    }
+
+    public void setMaxPending(int maxPending) {
+        this.maxPending = Math.max(1, maxPending);
+    }
+
+    public void setBackpressurePolicy(TtsManager.BackpressurePolicy backpressurePolicy) {
+        this.backpressurePolicy = backpressurePolicy;
+    }
+
+    public TtsManager.BackpressurePolicy getBackpressurePolicy() {
+        return backpressurePolicy;
+    }
+
+    public void setAudioCache(AudioCache audioCache) {
+        this.audioCache = audioCache;
+    }
+
+    public AudioCache getAudioCache() {
+        return audioCache;
+    }
+
+    /**
+     * Messages waiting for the engine plus messages handed to the scheduler that have not
+     * finished yet.
+     */
+    public int getQueueDepth() {
+        return pendingUtterances.size() + scheduledCount;
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    /**
+     * @return what the scheduler is playing and what waits behind it, safe to call from any thread
+     */
+    public List<UtteranceScheduler.Entry> getScheduledUtterances() {
+        return scheduler.getSnapshot();
+    }
+
+    /**
+     * The engine is ready: messages held meanwhile go to the scheduler in the order sent.
+     */
+    public void onEngineReady() {
+        isReady = true;
+        while (!pendingUtterances.isEmpty()) {
+            schedule(pendingUtterances.pollFirst());
+        }
+    }
+
+    /**
+     * Every engine failed to initialize: held messages are dropped and new ones rejected.
+     */
+    public void onEngineUnavailable() {
+        isUnavailable = true;
+        for (Utterance utterance : pendingUtterances) {
+            notifyDropped(utterance.getUtteranceId());
+        }
+        pendingUtterances.clear();
+    }
+
+    /**
+     * @return the utterance id reported to listeners, which is an earlier message's when the
+     * text was coalesced into it, or null if the message was rejected
+     */
+    public String enqueue(Utterance utterance) {
+        if (isUnavailable) {
+            notifyDropped(utterance.getUtteranceId());
+            return null;
+        }
+        if (isReady) {
+            schedule(utterance);
+            return utterance.getUtteranceId();
+        }
+        if (pendingUtterances.size() >= maxPending) {
+            switch (backpressurePolicy) {
+                case REJECT:
+                    Tracing.d("SpeechRouter", "Pending queue full, rejecting ", utterance.getUtteranceId());
+                    notifyDropped(utterance.getUtteranceId());
+                    return null;
+                case COALESCE:
+                    Utterance last = pendingUtterances.peekLast();
+                    if (last != null && last.canCoalesceWith(utterance)) {
+                        last.append(utterance.getText());
+                        return last.getUtteranceId();
+                    }
+                    // Settings differ, so it is queued over the bound rather than losing a message
+                    Tracing.d("SpeechRouter", "Pending queue full, cannot coalesce ", utterance.getUtteranceId());
+                    break;
+                case DROP_OLDEST:
+                    Utterance dropped = pendingUtterances.pollFirst();
+                    if (dropped != null) notifyDropped(dropped.getUtteranceId());
+                    break;
+            }
+        }
+        pendingUtterances.addLast(utterance);
+        notifyQueued(utterance.getUtteranceId());
+        return utterance.getUtteranceId();
+    }
+
+    /**
+     * Stops the current utterance and drops everything queued behind it, including segments of
+     * long messages that have not been handed to the engine yet.
+     */
+    public void stop() {
+        for (Utterance utterance : pendingUtterances) {
+            notifyDropped(utterance.getUtteranceId());
+        }
+        pendingUtterances.clear();
+        queuedDraftText = null;
+        discardDraft();
+        scheduler.stop();
+    }
+
+    public void shutdown() {
+        isReady = false;
+        pendingUtterances.clear();
+        scheduler.stop();
+        utteranceListeners.clear();
+        player.stop();
+        pendingSynthesisKeys.clear();
+        spokenSegments.clear();
+        plans.clear();
+        queuedDraftText = null;
+        discardDraft();
+        renderCallbacks.clear();
+    }
+
+    /**
+     * Renders the draft the user is still typing to a file, so sending exactly that text can
+     * play straight away. Only one draft is rendered at a time; text that changes meanwhile is
+     * rendered once the engine is done with the previous one. Empty text discards the draft.
+     */
+    public void preRenderDraft(String text) {
+        if (!isReady) return;
+        String normalized = text == null ? "" : AudioCache.normalize(text);
+        // Markup is spoken as several segments with their own settings, which one render cannot be
+        if (normalized.isEmpty() || MarkupParser.hasMarkup(normalized)) {
+            queuedDraftText = null;
+            discardDraft();
+            return;
+        }
+        String spoken = pronounce(normalized).getText();
+        String key = createDraftKey(spoken);
+        if (draft != null && draft.key.equals(key)) {
+            queuedDraftText = null;
+            return;
+        }
+        if (!draftsInFlight.isEmpty()) {
+            queuedDraftText = normalized;
+            return;
+        }
+        discardDraft();
+        String draftId = newId(DRAFT_PREFIX);
+        File file = new File(draftDirectory, draftId + ".wav");
+        if (!draftDirectory.isDirectory() && !draftDirectory.mkdirs()) return;
+        if (engine.synthesizeToFile(null, null, spoken, file, draftId) != TextToSpeech.SUCCESS) {
+            return;
+        }
+        draft = new DraftRender(draftId, key, file);
+        draftsInFlight.put(draftId, draft);
+        Tracing.d("SpeechRouter", "Rendering draft ", draftId);
+    }
+
+    /**
+     * Calls back when the engine reports the render with this id, started by the caller.
+     */
+    public void trackRender(String renderId, TtsManager.RenderCallback callback) {
+        renderCallbacks.put(renderId, callback);
+    }
+
+    /**
+     * Rewrites text with the pronunciation dictionary of the current config. The dictionary is
+     * compiled once per edit, so this is a single pass over the text.
+     */
+    public PronunciationDictionary.Normalized pronounce(String text) {
+        return config.get().getPronunciations().normalize(text);
+    }
+
+    public float getPitch(Utterance utterance, UtterancePlan.Segment segment) {
+        float pitch = utterance.hasOwnSettings() ? utterance.getPitch() : config.get().getPitch();
+        return segment == null ? pitch : pitch * segment.getPitchScale();
+    }
+
+    public float getSpeed(Utterance utterance, UtterancePlan.Segment segment) {
+        float speed = utterance.hasOwnSettings() ? utterance.getSpeed() : config.get().getSpeed();
+        return segment == null ? speed : speed * segment.getRateScale();
+    }
+
+    // Engine progress, on the main executor
+
+    public void onEngineStart(String id) {
+        if (pendingSynthesisKeys.containsKey(id)) return;
+        if (id.startsWith(DRAFT_PREFIX) || id.startsWith(RENDER_PREFIX)) return;
+        scheduler.onSegmentStart(id);
+    }
+
+    public void onEngineDone(String id) {
+        if (pendingSynthesisKeys.containsKey(id)) {
+            onSynthesisFinished(id, true);
+            return;
+        }
+        if (id.startsWith(DRAFT_PREFIX)) {
+            onDraftFinished(id, true);
+            return;
+        }
+        if (id.startsWith(RENDER_PREFIX)) {
+            onRenderFinished(id, true);
+            return;
+        }
+        spokenSegments.remove(id);
+        scheduler.onSegmentDone(id);
+    }
+
+    public void onEngineError(String id, int errorCode) {
+        if (pendingSynthesisKeys.containsKey(id)) {
+            onSynthesisFinished(id, false);
+            return;
+        }
+        if (id.startsWith(DRAFT_PREFIX)) {
+            onDraftFinished(id, false);
+            return;
+        }
+        if (id.startsWith(RENDER_PREFIX)) {
+            onRenderFinished(id, false);
+            return;
+        }
+        spokenSegments.remove(id);
+        scheduler.onSegmentError(id, errorCode);
+    }
+
+    public void onEngineStop(String id) {
+        if (id.startsWith(DRAFT_PREFIX)) {
+            onDraftFinished(id, false);
+            return;
+        }
+        if (id.startsWith(RENDER_PREFIX)) {
+            onRenderFinished(id, false);
+            return;
+        }
+        spokenSegments.remove(id);
+        scheduler.onSegmentStopped(id);
+    }
+
+    /**
+     * The engine reports ranges in the rewritten text of one segment; listeners get them in the
+     * original text of the whole utterance.
+     */
+    public void onEngineRangeStart(String id, int start, int end) {
+        SegmentRange range = spokenSegments.get(id);
+        if (range == null || range.start < 0) return;
+        for (TtsManager.UtteranceListener listener : utteranceListeners) {
+            listener.onRangeStart(range.utteranceId, range.start + range.spoken.toSource(start, false),
+                    range.start + range.spoken.toSource(end, true));
+        }
+    }
+
+    private void schedule(Utterance utterance) {
+        UtteranceScheduler.SegmentSource segments;
+        DraftRender render = takeDraft(utterance);
+        if (render != null) {
+            draftsByUtterance.put(utterance.getUtteranceId(), render);
+            segments = singleSegment(utterance.getText());
+        } else {
+            UtterancePlan plan = new UtterancePlan(utterance.getText(), textSegmenter);
+            plans.put(utterance.getUtteranceId(), plan);
+            segments = plan;
+        }
+        scheduledCount++;
+        notifyQueued(utterance.getUtteranceId());
+        scheduler.submit(utterance, utterance.getPriority(), segments);
+    }
+
+    private static UtteranceScheduler.SegmentSource singleSegment(String text) {
+        return new UtteranceScheduler.SegmentSource() {
+            private boolean isTaken;
+
+            @Override
+            public String next() {
+                if (isTaken) return null;
+                isTaken = true;
+                return text;
+            }
+        };
+    }
+
+    /**
+     * Speaks one segment handed over by the scheduler: from a rendered draft, as a pause of the
+     * plan, through the phrase cache, or straight through the engine. Failures go back to the
+     * scheduler.
+     */
+    private void speakSegment(Utterance utterance, String segmentId, String text, int segmentIndex) {
+        if (!isReady) return;
+        DraftRender render = draftsByUtterance.get(utterance.getUtteranceId());
+        if (render != null && !render.isFailed) {
+            playDraft(render, segmentId);
+            return;
+        }
+        UtterancePlan plan = plans.get(utterance.getUtteranceId());
+        UtterancePlan.Segment segment = plan == null ? null : plan.get(segmentIndex);
+        int result;
+        if (segment != null && segment.isPause()) {
+            result = speakPause(segmentId, segment.getPauseMillis());
+        } else {
+            result = speakText(utterance, segmentId, text, segmentIndex, segment);
+        }
+        if (result != TextToSpeech.SUCCESS) {
+            scheduler.onSegmentError(segmentId, result);
+        }
+    }
+
+    private int speakPause(String segmentId, int millis) {
+        // Cached segments play through the player, so their pauses have to wait in its queue
+        if (audioCache != null) {
+            player.enqueueSilence(segmentId, millis);
+            return TextToSpeech.SUCCESS;
+        }
+        return engine.playSilence(millis, segmentId);
+    }
+
+    private int speakText(Utterance utterance, String segmentId, String text, int segmentIndex,
+                          UtterancePlan.Segment segment) {
+        PronunciationDictionary.Normalized spoken = pronounce(text);
+        if (audioCache != null) {
+            // Keyed by what is said, so an edited dictionary never plays the old pronunciation
+            return speakCached(utterance, segment, segmentId, spoken.getText());
+        }
+        int start = segment == null ? 0 : segment.getSourceStart();
+        spokenSegments.put(segmentId, new SegmentRange(utterance.getUtteranceId(), start, spoken));
+        return engine.speak(utterance, segment, spoken.getText(), segmentId, segmentIndex);
+    }
+
+    private int speakCached(Utterance utterance, UtterancePlan.Segment segment, String segmentId, String text) {
+        String key = AudioCache.createKey(text, engine.getVoiceName(utterance, segment),
+                getPitch(utterance, segment), getSpeed(utterance, segment));
+        File cached = audioCache.get(key);
+        if (cached != null) {
+            player.enqueue(segmentId, cached);
+            return TextToSpeech.SUCCESS;
+        }
+        File tempFile = audioCache.createTempFile(key, segmentId);
+        int result = engine.synthesizeToFile(utterance, segment, text, tempFile, segmentId);
+        if (result == TextToSpeech.SUCCESS) {
+            pendingSynthesisKeys.put(segmentId, key);
+            player.enqueue(segmentId, null);
+        }
+        return result;
+    }
+
+    private void onSynthesisFinished(String segmentId, boolean success) {
+        String key = pendingSynthesisKeys.remove(segmentId);
+        AudioCache cache = audioCache;
+        File tempFile = cache == null ? null : cache.createTempFile(key, segmentId);
+        if (success && tempFile != null) {
+            // Stopping meanwhile leaves nothing to mark ready, but the file is still worth caching
+            conditionRendered(tempFile, () -> player.markReady(segmentId, cache.put(key, tempFile)));
+            return;
+        }
+        if (tempFile != null) tempFile.delete();
+        player.markReady(segmentId, null);
+    }
+
+    private void stopEngine() {
+        player.stop();
+        pendingSynthesisKeys.clear();
+        spokenSegments.clear();
+        engine.stop();
+    }
+
+    /**
+     * Hands the rendered draft to the player. If the engine is still writing it, the player holds
+     * the slot until onDraftFinished marks it ready.
+     */
+    private void playDraft(DraftRender render, String segmentId) {
+        if (draftsInFlight.containsKey(render.id)) {
+            render.segmentId = segmentId;
+            player.enqueue(segmentId, null);
+        } else {
+            player.enqueue(segmentId, render.file);
+        }
+    }
+
+    private void releaseDraft(String utteranceId) {
+        DraftRender render = draftsByUtterance.remove(utteranceId);
+        if (render != null && !draftsInFlight.containsKey(render.id)) render.file.delete();
+    }
+
+    /**
+     * @return the current draft if it was rendered from exactly this text with the settings the
+     * utterance will use, or null
+     */
+    private DraftRender takeDraft(Utterance utterance) {
+        if (draft == null || utterance.hasOwnSettings()) return null;
+        // Falls back to speaking the text as one segment if the render fails
+        if (utterance.getText().length() > maxInputLength) return null;
+        String spoken = pronounce(AudioCache.normalize(utterance.getText())).getText();
+        if (!draft.key.equals(createDraftKey(spoken))) return null;
+        DraftRender taken = draft;
+        draft = null;
+        Tracing.d("SpeechRouter", "Playing rendered draft for ", utterance.getUtteranceId());
+        return taken;
+    }
+
+    private String createDraftKey(String spokenText) {
+        TtsConfig snapshot = config.get();
+        return engine.getVoiceName(null, null) + '\u0000' + snapshot.getPitch() + '\u0000' + snapshot.getSpeed()
+                + '\u0000' + spokenText;
+    }
+
+    private void discardDraft() {
+        if (draft == null) return;
+        // A draft still being written is deleted when the engine reports it finished
+        if (!draftsInFlight.containsKey(draft.id)) draft.file.delete();
+        draft = null;
+    }
+
+    /**
+     * The render stays in flight while it is conditioned, so a message sent meanwhile waits for
+     * the conditioned file.
+     */
+    private void onDraftFinished(String draftId, boolean success) {
+        DraftRender render = draftsInFlight.get(draftId);
+        if (success && render != null) {
+            conditionRendered(render.file, () -> {
+                // Stopped while conditioning; the failure path could not delete the file yet
+                if (!draftsInFlight.containsKey(draftId)) render.file.delete();
+                onDraftReady(draftId, true);
+            });
+        } else {
+            onDraftReady(draftId, success);
+        }
+    }
+
+    private void onDraftReady(String draftId, boolean success) {
+        DraftRender render = draftsInFlight.remove(draftId);
+        if (render == null) return;
+        render.isFailed = !success;
+        if (render.segmentId != null) {
+            player.markReady(render.segmentId, success ? render.file : null);
+            // Utterance already finished or stopped, nothing will play or delete the file
+            if (!draftsByUtterance.containsValue(render)) render.file.delete();
+        } else if (!success || render != draft && !draftsByUtterance.containsValue(render)) {
+            // A message that took the draft before the scheduler reached it still plays the file
+            render.file.delete();
+            if (render == draft) draft = null;
+        }
+        if (queuedDraftText != null) {
+            String text = queuedDraftText;
+            queuedDraftText = null;
+            preRenderDraft(text);
+        }
+    }
+
+    private void onRenderFinished(String renderId, boolean success) {
+        TtsManager.RenderCallback callback = renderCallbacks.remove(renderId);
+        if (callback != null) callback.onRendered(success);
+    }
+
+    /**
+     * Conditions the file in place on the conditioning thread if conditioning is on, then runs
+     * the continuation on the main executor.
+     */
+    private void conditionRendered(File file, Runnable then) {
+        SpeechConditioner.Settings settings = config.get().getConditioning();
+        if (settings == null || !settings.isEnabled()) {
+            then.run();
+            return;
+        }
+        conditioning.execute(() -> {
+            try {
+                SpeechConditioner.conditionInPlace(file, settings);
+            } catch (IOException e) {
+                Log.d("SpeechRouter", "Could not condition " + file + ": " + e.getMessage());
+            }
+            main.execute(then);
+        });
+    }
+
+    private void onUtteranceFinished(Utterance utterance) {
+        scheduledCount--;
+        releaseDraft(utterance.getUtteranceId());
+        startedAtNanos.remove(utterance.getUtteranceId());
+        plans.remove(utterance.getUtteranceId());
+    }
+
+    private void notifyQueued(String utteranceId) {
+        int depth = getQueueDepth();
+        if (depth > maxQueueDepth) maxQueueDepth = depth;
+        for (TtsManager.UtteranceListener listener : utteranceListeners) {
+            listener.onQueued(utteranceId, depth);
+        }
+    }
+
+    private void notifyDropped(String utteranceId) {
+        for (TtsManager.UtteranceListener listener : utteranceListeners) {
+            listener.onDropped(utteranceId);
+        }
+    }
+
+    private final CachedAudioPlayer.Listener playbackListener = new CachedAudioPlayer.Listener() {
+        @Override
+        public void onPlaybackStart(String segmentId) {
+            scheduler.onSegmentStart(segmentId);
+        }
+
+        @Override
+        public void onPlaybackDone(String segmentId) {
+            scheduler.onSegmentDone(segmentId);
+        }
+
+        @Override
+        public void onPlaybackError(String segmentId) {
+            scheduler.onSegmentError(segmentId, TextToSpeech.ERROR_OUTPUT);
+        }
+    };
+
+    // Called on the scheduler thread; the actual engine work happens on the main executor
+    private final UtteranceScheduler.SpeechEngine speechEngine = new UtteranceScheduler.SpeechEngine() {
+        @Override
+        public void speak(Utterance utterance, String segmentId, String text, int segmentIndex) {
+            main.execute(() -> speakSegment(utterance, segmentId, text, segmentIndex));
+        }
+
+        @Override
+        public void stop() {
+            main.execute(SpeechRouter.this::stopEngine);
+        }
+    };
+
+    private final UtteranceScheduler.Listener schedulerListener = new UtteranceScheduler.Listener() {
+        @Override
+        public void onStart(Utterance utterance) {
+            main.execute(() -> {
+                // A preempted utterance starts again when it resumes; only the first start is timed
+                if (startedAtNanos.putIfAbsent(utterance.getUtteranceId(), Tracing.start()) == null) {
+                    Tracing.record(Tracing.Metric.SEND_TO_START, utterance.getCreatedAtNanos());
+                }
+                for (TtsManager.UtteranceListener listener : utteranceListeners) {
+                    listener.onStart(utterance.getUtteranceId());
+                }
+            });
+        }
+
+        @Override
+        public void onPreempted(Utterance utterance) {
+            main.execute(() -> {
+                for (TtsManager.UtteranceListener listener : utteranceListeners) {
+                    listener.onPreempted(utterance.getUtteranceId());
+                }
+            });
+        }
+
+        @Override
+        public void onDone(Utterance utterance) {
+            main.execute(() -> {
+                Long started = startedAtNanos.get(utterance.getUtteranceId());
+                if (started != null) Tracing.record(Tracing.Metric.UTTERANCE_DURATION, started);
+                onUtteranceFinished(utterance);
+                for (TtsManager.UtteranceListener listener : utteranceListeners) {
+                    listener.onDone(utterance.getUtteranceId());
+                }
+            });
+        }
+
+        @Override
+        public void onError(Utterance utterance, int errorCode) {
+            main.execute(() -> {
+                onUtteranceFinished(utterance);
+                for (TtsManager.UtteranceListener listener : utteranceListeners) {
+                    listener.onError(utterance.getUtteranceId(), errorCode);
+                }
+            });
+        }
+
+        @Override
+        public void onDropped(Utterance utterance) {
+            main.execute(() -> {
+                onUtteranceFinished(utterance);
+                notifyDropped(utterance.getUtteranceId());
+            });
+        }
+    };
+
+    /**
+     * Where a segment spoken by the engine sits in its utterance, to translate the engine's
+     * segment-relative ranges.
+     */
+    private static class SegmentRange {
+        private final String utteranceId;
+        private final int start;
+        private final PronunciationDictionary.Normalized spoken;
+
+        private SegmentRange(String utteranceId, int start, PronunciationDictionary.Normalized spoken) {
+            this.utteranceId = utteranceId;
+            this.start = start;
+            this.spoken = spoken;
+        }
+    }
+
+    private static class DraftRender {
+        private final String id;
+        private final String key;
+        private final File file;
+        // Set once a sent message is waiting on this render in the player
+        private String segmentId;
+        private boolean isFailed;
+
+        private DraftRender(String id, String key, File file) {
+            this.id = id;
+            this.key = key;
+            this.file = file;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.simplexity.basictts;
+
+/**
+ * Cold start milestones, measured from MainActivity.onCreate. They are kept even with metrics
+ * off so the startup timing test can read them; the histograms only fill when tracing is on.
+ */
+public final class StartupTiming {
+
+    private static volatile long createdAtNanos;
+    private static volatile long firstFrameAtNanos;
+    private static volatile long readyAtNanos;
+
+    private StartupTiming() {
+    }
+
+    static void markCreated() {
+        createdAtNanos = System.nanoTime();
+        firstFrameAtNanos = 0;
+        readyAtNanos = 0;
+    }
+
+    static void markFirstFrame() {
+        if (createdAtNanos == 0 || firstFrameAtNanos != 0) return;
+        firstFrameAtNanos = System.nanoTime();
+        Tracing.record(Tracing.Metric.FIRST_FRAME, Tracing.isEnabled() ? createdAtNanos : 0);
+    }
+
+    static void markReady() {
+        if (createdAtNanos == 0 || readyAtNanos != 0) return;
+        readyAtNanos = System.nanoTime();
+        Tracing.record(Tracing.Metric.READY_TO_SPEAK, Tracing.isEnabled() ? createdAtNanos : 0);
+    }
+
+    /**
+     * @return milliseconds from onCreate to the first drawn frame, or -1 if not drawn yet
+     */
+    public static double getTimeToFirstFrameMillis() {
+        return elapsedMillis(firstFrameAtNanos);
+    }
+
+    /**
+     * @return milliseconds from onCreate until the engine could speak, or -1 if not ready yet
+     */
+    public static double getTimeToReadyMillis() {
+        return elapsedMillis(readyAtNanos);
+    }
+
+    private static double elapsedMillis(long atNanos) {
+        if (createdAtNanos == 0 || atNanos == 0) return -1;
+        return (atNanos - createdAtNanos) / 1_000_000.0;
+    }
+}
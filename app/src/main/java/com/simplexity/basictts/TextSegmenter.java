@@ -0,0 +1,101 @@
+package com.simplexity.basictts;
+
+import java.text.BreakIterator;
+import java.util.Locale;
+
+/**
+ * Splits a message into sentence-sized segments so long text can be handed to the engine piece
+ * by piece. Sentences longer than the segment length are cut at the last clause break
+ * (commas, semicolons, dashes), then at the last space, and only then mid-word. The first segment uses a
+ * shorter length so audio starts sooner.
+ */
+public class TextSegmenter {
+
+    public static final int DEFAULT_FIRST_SEGMENT_LENGTH = 120;
+    public static final int DEFAULT_SEGMENT_LENGTH = 400;
+
+    private final int firstSegmentLength;
+    private final int segmentLength;
+    private final Locale locale;
+
+    public TextSegmenter(int firstSegmentLength, int segmentLength, Locale locale) {
+        this.firstSegmentLength = Math.max(1, firstSegmentLength);
+        this.segmentLength = Math.max(1, segmentLength);
+        this.locale = locale;
+    }
+
+    public TextSegmenter(int maxLength) {
+        this(Math.min(DEFAULT_FIRST_SEGMENT_LENGTH, maxLength), Math.min(DEFAULT_SEGMENT_LENGTH, maxLength),
+                Locale.getDefault());
+    }
+
+    public Cursor segment(String text) {
+        return new Cursor(text);
+    }
+
+    public class Cursor {
+        private final String text;
+        private final BreakIterator sentences;
+        private int position;
+        private int index;
+
+        private Cursor(String text) {
+            this.text = text;
+            this.sentences = BreakIterator.getSentenceInstance(locale);
+            this.sentences.setText(text);
+        }
+
+        public boolean hasNext() {
+            skipWhitespace();
+            return position < text.length();
+        }
+
+        /**
+         * @return the next segment, or null once the text is exhausted
+         */
+        public String next() {
+            while (hasNext()) {
+                int limit = index == 0 ? firstSegmentLength : segmentLength;
+                int end = sentences.following(position);
+                if (end == BreakIterator.DONE) end = text.length();
+                if (end - position > limit) {
+                    end = findCut(position, position + limit);
+                }
+                String segment = text.substring(position, end).trim();
+                position = end;
+                if (!segment.isEmpty()) {
+                    index++;
+                    return segment;
+                }
+            }
+            return null;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        private void skipWhitespace() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+
+        private int findCut(int start, int limit) {
+            int lastSpace = -1;
+            for (int i = limit; i > start; i--) {
+                char previous = text.charAt(i - 1);
+                boolean atSpace = i < text.length() && Character.isWhitespace(text.charAt(i));
+                if (atSpace && isClauseBreak(previous)) return i;
+                if (atSpace && lastSpace < 0) lastSpace = i;
+            }
+            if (lastSpace > start) return lastSpace;
+            if (Character.isHighSurrogate(text.charAt(limit - 1))) return limit - 1;
+            return limit;
+        }
+    }
+
+    private static boolean isClauseBreak(char c) {
+        return c == ',' || c == ';' || c == ':' || c == ')' || c == '\u2014' || c == '\u2013';
+    }
+}
@@ -0,0 +1,32 @@
+package com.simplexity.basictts;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Numbered texts read in pages, like {@link MessageLog}. Read on the export thread.
+ */
+public interface TextSource {
+    int size();
+
+    /**
+     * @return up to count texts starting at position
+     */
+    List<String> read(int position, int count) throws IOException;
+
+    static TextSource of(List<String> texts) {
+        return new TextSource() {
+            @Override
+            public int size() {
+                return texts.size();
+            }
+
+            @Override
+            public List<String> read(int position, int count) {
+                if (position >= texts.size()) return Collections.emptyList();
+                return texts.subList(position, Math.min(texts.size(), position + count));
+            }
+        };
+    }
+}
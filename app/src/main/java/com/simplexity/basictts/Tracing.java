@@ -0,0 +1,101 @@
+package com.simplexity.basictts;
+
+import android.util.Log;
+
+/**
+ * Debug logging and latency metrics that cost a single boolean check when disabled. The log
+ * helpers take the message and its argument separately so nothing is concatenated or boxed
+ * unless tracing is on.
+ */
+public final class Tracing {
+
+    public enum Metric {
+        ENGINE_INIT("engine_init"),
+        SEND_TO_START("send_to_start"),
+        UTTERANCE_DURATION("utterance_duration"),
+        VOICE_ENUMERATION("voice_enumeration"),
+        BIND("bind"),
+        FIRST_FRAME("first_frame"),
+        READY_TO_SPEAK("ready_to_speak"),
+        // Leading silence cut from rendered audio, the delay before speech a listener no longer hears
+        SILENCE_TRIMMED("silence_trimmed"),
+        AUTOCOMPLETE("autocomplete");
+
+        private final LatencyHistogram histogram;
+
+        Metric(String name) {
+            this.histogram = new LatencyHistogram(name);
+        }
+
+        public LatencyHistogram getHistogram() {
+            return histogram;
+        }
+    }
+
+    private static volatile boolean enabled;
+
+    private Tracing() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        Tracing.enabled = enabled;
+    }
+
+    /**
+     * @return a start timestamp for {@link #record}, or 0 when tracing is off
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    public static void record(Metric metric, long startNanos) {
+        if (!enabled || startNanos == 0) return;
+        metric.histogram.record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Records a duration measured some other way than from a start timestamp.
+     */
+    public static void recordDuration(Metric metric, long nanos) {
+        if (!enabled) return;
+        metric.histogram.record(nanos);
+    }
+
+    public static void d(String tag, String message) {
+        if (enabled) Log.d(tag, message);
+    }
+
+    public static void d(String tag, String message, Object arg) {
+        if (enabled) Log.d(tag, message + arg);
+    }
+
+    public static void d(String tag, String message, long arg) {
+        if (enabled) Log.d(tag, message + arg);
+    }
+
+    public static void d(String tag, String message, float arg) {
+        if (enabled) Log.d(tag, message + arg);
+    }
+
+    public static void d(String tag, String message, boolean arg) {
+        if (enabled) Log.d(tag, message + arg);
+    }
+
+    public static String dump() {
+        StringBuilder builder = new StringBuilder();
+        for (Metric metric : Metric.values()) {
+            builder.append(metric.histogram).append('\n');
+        }
+        return builder.toString();
+    }
+
+    public static void reset() {
+        for (Metric metric : Metric.values()) {
+            metric.histogram.reset();
+        }
+    }
+}
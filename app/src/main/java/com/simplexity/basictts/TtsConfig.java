@@ -0,0 +1,166 @@
+package com.simplexity.basictts;
+
+import android.content.SharedPreferences;
+
+import java.util.Objects;
+
+/**
+ * Immutable snapshot of the settings that shape speech. A new snapshot replaces the old one as a
+ * whole, so a reader on any thread sees voice, pitch and speed that belong together.
+ */
+public final class TtsConfig {
+
+    public static final long DEFAULT_AUDIO_CACHE_MB = 50;
+
+    private final String voice;
+    private final float pitch;
+    private final float speed;
+    private final boolean isAudioCacheEnabled;
+    private final long audioCacheBytes;
+    private final SpeechConditioner.Settings conditioning;
+    private final PronunciationDictionary pronunciations;
+
+    public TtsConfig(String voice, float pitch, float speed, boolean isAudioCacheEnabled, long audioCacheBytes,
+                     SpeechConditioner.Settings conditioning, PronunciationDictionary pronunciations) {
+        this.voice = voice;
+        this.pitch = pitch;
+        this.speed = speed;
+        this.isAudioCacheEnabled = isAudioCacheEnabled;
+        this.audioCacheBytes = audioCacheBytes;
+        this.conditioning = conditioning;
+        this.pronunciations = pronunciations;
+    }
+
+    /**
+     * Voice settings only, with no cache, no conditioning and no pronunciations.
+     */
+    public static TtsConfig forVoice(String voice, float pitch, float speed) {
+        return forVoice(voice, pitch, speed, PronunciationDictionary.EMPTY);
+    }
+
+    /**
+     * Voice settings and pronunciations, for engines that speak or render on behalf of another.
+     */
+    public static TtsConfig forVoice(String voice, float pitch, float speed, PronunciationDictionary pronunciations) {
+        return new TtsConfig(voice, pitch, speed, false, 0, null, pronunciations);
+    }
+
+    /**
+     * @param pronunciations the dictionary compiled from {@link #getPronunciationSource}, which is
+     *                       left to the caller since compiling a long one takes a while
+     */
+    public static TtsConfig fromPreferences(SharedPreferences preferences, PronunciationDictionary pronunciations) {
+        SpeechConditioner.Settings conditioning = new SpeechConditioner.Settings(
+                preferences.getBoolean("trim_silence_enabled", false),
+                -preferences.getInt("silence_threshold_db", (int) -SpeechConditioner.Settings.DEFAULT_THRESHOLD_DB),
+                preferences.getBoolean("normalize_loudness_enabled", false),
+                -preferences.getInt("loudness_target_db", (int) -SpeechConditioner.Settings.DEFAULT_TARGET_DB));
+        return new TtsConfig(
+                preferences.getString("selected_voice_id", null),
+                preferences.getInt("speech_pitch", 100) / 100f,
+                preferences.getInt("speech_speed", 100) / 100f,
+                preferences.getBoolean("audio_cache_enabled", false),
+                preferences.getInt("audio_cache_size_mb", (int) DEFAULT_AUDIO_CACHE_MB) * 1024L * 1024L,
+                conditioning,
+                pronunciations);
+    }
+
+    public static String getPronunciationSource(SharedPreferences preferences) {
+        return preferences.getString("pronunciations", PronunciationDictionary.DEFAULT_SOURCE);
+    }
+
+    /**
+     * @return whether the preference is one that {@link #fromPreferences} reads
+     */
+    public static boolean isConfigKey(String key) {
+        switch (key) {
+            case "selected_voice_id":
+            case "speech_pitch":
+            case "speech_speed":
+            case "audio_cache_enabled":
+            case "audio_cache_size_mb":
+            case "trim_silence_enabled":
+            case "silence_threshold_db":
+            case "normalize_loudness_enabled":
+            case "loudness_target_db":
+            case "pronunciations":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public String getVoice() {
+        return voice;
+    }
+
+    public float getPitch() {
+        return pitch;
+    }
+
+    public float getSpeed() {
+        return speed;
+    }
+
+    public boolean isAudioCacheEnabled() {
+        return isAudioCacheEnabled;
+    }
+
+    public long getAudioCacheBytes() {
+        return audioCacheBytes;
+    }
+
+    /**
+     * @return null when rendered audio is played as the engine made it
+     */
+    public SpeechConditioner.Settings getConditioning() {
+        return conditioning;
+    }
+
+    /**
+     * @return the dictionary text is rewritten with before it is spoken, never null
+     */
+    public PronunciationDictionary getPronunciations() {
+        return pronunciations;
+    }
+
+    public boolean hasSameVoice(TtsConfig other) {
+        return Objects.equals(voice, other.voice);
+    }
+
+    public boolean hasSamePitchAndSpeed(TtsConfig other) {
+        return pitch == other.pitch && speed == other.speed;
+    }
+
+    public boolean hasSameAudioCache(TtsConfig other) {
+        return isAudioCacheEnabled == other.isAudioCacheEnabled && audioCacheBytes == other.audioCacheBytes;
+    }
+
+    public boolean hasSameConditioning(TtsConfig other) {
+        return Objects.equals(conditioning, other.conditioning);
+    }
+
+    public boolean hasSamePronunciations(TtsConfig other) {
+        return pronunciations.equals(other.pronunciations);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        if (!(other instanceof TtsConfig)) return false;
+        TtsConfig config = (TtsConfig) other;
+        return hasSameVoice(config) && hasSamePitchAndSpeed(config) && hasSameAudioCache(config)
+                && hasSameConditioning(config) && hasSamePronunciations(config);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(voice, pitch, speed, isAudioCacheEnabled, audioCacheBytes, conditioning, pronunciations);
+    }
+
+    @Override
+    public String toString() {
+        return "voice=" + voice + " pitch=" + pitch + " speed=" + speed + " cache=" + isAudioCacheEnabled
+                + " (" + audioCacheBytes + " bytes) conditioning=" + conditioning + " " + pronunciations;
+    }
+}
@@ -0,0 +1,94 @@
+package com.simplexity.basictts;
+
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Publishes {@link TtsConfig} snapshots built from the preferences. A burst of preference writes,
+ * like the ones a dragged slider makes, is coalesced: the snapshot is rebuilt once the writes
+ * have stopped for {@link #DEBOUNCE_MS}, and the listener only hears about it if something
+ * actually changed. Readers on any thread get the latest snapshot from {@link #get} without
+ * locking.
+ *
+ * <p>An edited pronunciation dictionary is compiled on the compile executor, and the snapshot
+ * waits for it: until then readers keep the previous one, or an empty dictionary at first.
+ */
+public class TtsConfigStore {
+
+    public static final long DEBOUNCE_MS = 300;
+
+    public interface Listener {
+        /**
+         * Called on the main thread with the snapshot that was replaced and its replacement.
+         */
+        void onConfigChanged(TtsConfig previous, TtsConfig config);
+    }
+
+    private final SharedPreferences preferences;
+    private final Listener listener;
+    private final Executor compileExecutor;
+    private final AtomicReference<TtsConfig> config;
+    // Bumped for every compile, so only the latest one is published
+    private int compileGeneration;
+    private boolean isClosed;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable publish = this::publish;
+    private final SharedPreferences.OnSharedPreferenceChangeListener preferenceListener = (preferences, key) -> {
+        if (key == null || !TtsConfig.isConfigKey(key)) return;
+        handler.removeCallbacks(publish);
+        handler.postDelayed(publish, DEBOUNCE_MS);
+    };
+
+    public TtsConfigStore(SharedPreferences preferences, Executor compileExecutor, Listener listener) {
+        this.preferences = preferences;
+        this.compileExecutor = compileExecutor;
+        this.listener = listener;
+        this.config = new AtomicReference<>(TtsConfig.fromPreferences(preferences, PronunciationDictionary.EMPTY));
+        preferences.registerOnSharedPreferenceChangeListener(preferenceListener);
+        publish();
+    }
+
+    public TtsConfig get() {
+        return config.get();
+    }
+
+    /**
+     * Stops listening; a change still waiting for its debounce is dropped.
+     */
+    public void close() {
+        isClosed = true;
+        preferences.unregisterOnSharedPreferenceChangeListener(preferenceListener);
+        handler.removeCallbacks(publish);
+    }
+
+    private void publish() {
+        String source = TtsConfig.getPronunciationSource(preferences);
+        PronunciationDictionary pronunciations = config.get().getPronunciations();
+        if (pronunciations.getSource().equals(source)) {
+            replace(TtsConfig.fromPreferences(preferences, pronunciations));
+            return;
+        }
+        int generation = ++compileGeneration;
+        compileExecutor.execute(() -> {
+            PronunciationDictionary compiled = PronunciationDictionary.parse(source);
+            handler.post(() -> {
+                // Closed, or a later edit started its own compile
+                if (isClosed || generation != compileGeneration) return;
+                replace(TtsConfig.fromPreferences(preferences, compiled));
+            });
+        });
+    }
+
+    private void replace(TtsConfig next) {
+        TtsConfig previous = config.get();
+        // Only the main thread replaces the config, so nothing can slip in between
+        config.set(next);
+        if (next.equals(previous)) return;
+        Tracing.d("TtsConfigStore", "Config changed: ", next);
+        listener.onConfigChanged(previous, next);
+    }
+}
@@ -0,0 +1,80 @@
+package com.simplexity.basictts;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.IBinder;
+import android.os.ParcelFileDescriptor;
+
+import java.util.List;
+
+public class TtsConnection implements ServiceConnection {
+
+    public interface Callback {
+        void onTtsManagerAvailable(TtsManager ttsManager);
+    }
+
+    private final Context context;
+    private final Callback callback;
+    private TtsService service;
+    private boolean isBound;
+
+    public TtsConnection(Context context, Callback callback) {
+        this.context = context.getApplicationContext();
+        this.callback = callback;
+    }
+
+    public void bind() {
+        if (isBound) return;
+        Intent intent = new Intent(context, TtsService.class);
+        context.startService(intent);
+        isBound = context.bindService(intent, this, Context.BIND_AUTO_CREATE);
+        Tracing.d("TtsConnection", "Bound to TTS service: ", isBound);
+    }
+
+    public void unbind() {
+        if (service != null) {
+            service.release();
+            service = null;
+        }
+        if (isBound) {
+            context.unbindService(this);
+            isBound = false;
+        }
+    }
+
+    public TtsManager getTtsManager() {
+        if (service == null) return null;
+        return service.getTtsManager();
+    }
+
+    public Soundboard getSoundboard() {
+        if (service == null) return null;
+        return service.getSoundboard();
+    }
+
+    /**
+     * @return false if the service is not connected or another export is running
+     */
+    public boolean startExport(TextSource texts, ParcelFileDescriptor output, AudioExporter.Listener listener) {
+        if (service == null) return false;
+        return service.startExport(texts, output, listener);
+    }
+
+    public void cancelExport() {
+        if (service != null) service.cancelExport();
+    }
+
+    @Override
+    public void onServiceConnected(ComponentName name, IBinder binder) {
+        service = ((TtsService.LocalBinder) binder).getService();
+        service.acquire();
+        callback.onTtsManagerAvailable(service.getTtsManager());
+    }
+
+    @Override
+    public void onServiceDisconnected(ComponentName name) {
+        service = null;
+    }
+}
@@ -0,0 +1,245 @@
+package com.simplexity.basictts;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.speech.tts.TextToSpeech;
+import android.speech.tts.UtteranceProgressListener;
+import android.speech.tts.Voice;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Small pool of warm engine instances for speakers other than the default voice, so a
+ * conversation that switches between speakers does not make the main engine load another voice
+ * for every switch. Each instance is given its voice once, after init; when more voices are in use
+ * than the pool holds, the least recently used idle instance is shut down.
+ *
+ * <p>Segments are played on one instance at a time. A segment for another instance waits until
+ * everything queued on the current one has finished, so speakers never talk over each other.
+ * Called on the main thread only.
+ */
+public class TtsEnginePool {
+
+    public static final int DEFAULT_MAX_ENGINES = 3;
+
+    private static class PooledEngine {
+        private final String voiceName;
+        private final TextToSpeech engine;
+        private boolean isReady;
+
+        private PooledEngine(String voiceName, TextToSpeech engine) {
+            this.voiceName = voiceName;
+            this.engine = engine;
+        }
+    }
+
+    private static class DeferredSegment {
+        private final TextToSpeech engine;
+        private final String text;
+        private final Supplier<Bundle> params;
+        private final int silenceMillis;
+        private final String segmentId;
+
+        private DeferredSegment(TextToSpeech engine, String text, Supplier<Bundle> params, int silenceMillis,
+                                String segmentId) {
+            this.engine = engine;
+            this.text = text;
+            this.params = params;
+            this.silenceMillis = silenceMillis;
+            this.segmentId = segmentId;
+        }
+    }
+
+    private final Context context;
+    private final String enginePackage;
+    private final TextToSpeech mainEngine;
+    private final VoiceCatalog voiceCatalog;
+    private final int maxEngines;
+    private final UtteranceProgressListener progressListener;
+    private final Handler handler;
+    private final LinkedHashMap<String, PooledEngine> engines = new LinkedHashMap<>(8, 0.75f, true);
+    // The instance segments are playing on, and the segments queued there
+    private TextToSpeech playingEngine;
+    private final HashSet<String> playingSegments = new HashSet<>();
+    private final ArrayDeque<DeferredSegment> deferredSegments = new ArrayDeque<>();
+    // Every id handed to an instance and not finished yet, so a busy instance is not shut down
+    private final HashMap<String, TextToSpeech> outstanding = new HashMap<>();
+
+    /**
+     * @param progressListener set on every pooled instance, and told about segments that fail
+     *                         when they are handed over after waiting
+     */
+    public TtsEnginePool(Context context, String enginePackage, TextToSpeech mainEngine,
+                         VoiceCatalog voiceCatalog, int maxEngines, UtteranceProgressListener progressListener,
+                         Handler handler) {
+        this.context = context.getApplicationContext();
+        this.enginePackage = enginePackage;
+        this.mainEngine = mainEngine;
+        this.voiceCatalog = voiceCatalog;
+        this.maxEngines = Math.max(1, maxEngines);
+        this.progressListener = progressListener;
+        this.handler = handler;
+    }
+
+    /**
+     * @return an initialized instance already set to the speaker's voice, or null while it warms
+     * up or if it could not be started. A missing instance is started for next time.
+     */
+    public TextToSpeech get(SpeakerProfile speaker) {
+        String voiceName = speaker.getVoiceName();
+        PooledEngine pooled = engines.get(voiceName);
+        if (pooled == null) {
+            start(voiceName);
+            return null;
+        }
+        return pooled.isReady ? pooled.engine : null;
+    }
+
+    public int getEngineCount() {
+        return engines.size();
+    }
+
+    /**
+     * @param params asked for when the segment is handed to the engine, which may be after it
+     *               waited, so engine-wide settings it changes are in place for this segment
+     */
+    public int speak(TextToSpeech engine, String text, Supplier<Bundle> params, String segmentId) {
+        return play(new DeferredSegment(engine, text, params, 0, segmentId));
+    }
+
+    /**
+     * Plays the silence on the instance the segments before it went to.
+     */
+    public int playSilence(int millis, String segmentId) {
+        DeferredSegment last = deferredSegments.peekLast();
+        TextToSpeech engine = last != null ? last.engine : playingEngine != null ? playingEngine : mainEngine;
+        return play(new DeferredSegment(engine, null, null, millis, segmentId));
+    }
+
+    /**
+     * Renders are written to files and played in order elsewhere, so they never wait.
+     */
+    public int synthesizeToFile(TextToSpeech engine, String text, Bundle params, File file, String id) {
+        outstanding.put(id, engine);
+        int result = engine.synthesizeToFile(text, params, file, id);
+        if (result != TextToSpeech.SUCCESS) outstanding.remove(id);
+        return result;
+    }
+
+    /**
+     * The segment or render ended on its instance, by finishing, failing or being stopped. Once
+     * the current instance has nothing left queued, the segments waiting for another one go.
+     */
+    public void onFinished(String segmentId) {
+        outstanding.remove(segmentId);
+        if (!playingSegments.remove(segmentId) || !playingSegments.isEmpty()) return;
+        while (!deferredSegments.isEmpty()) {
+            DeferredSegment next = deferredSegments.peekFirst();
+            if (!playingSegments.isEmpty() && next.engine != playingEngine) return;
+            deferredSegments.pollFirst();
+            int result = submit(next);
+            if (result != TextToSpeech.SUCCESS) progressListener.onError(next.segmentId, result);
+        }
+    }
+
+    public void stop() {
+        deferredSegments.clear();
+        playingSegments.clear();
+        outstanding.clear();
+        playingEngine = null;
+        mainEngine.stop();
+        for (PooledEngine pooled : engines.values()) {
+            if (pooled.isReady) pooled.engine.stop();
+        }
+    }
+
+    /**
+     * Shuts down the pooled instances; the main engine belongs to the caller.
+     */
+    public void shutdown() {
+        deferredSegments.clear();
+        playingSegments.clear();
+        outstanding.clear();
+        for (PooledEngine pooled : engines.values()) {
+            pooled.engine.shutdown();
+        }
+        engines.clear();
+    }
+
+    private int play(DeferredSegment segment) {
+        if (!deferredSegments.isEmpty() || (!playingSegments.isEmpty() && segment.engine != playingEngine)) {
+            deferredSegments.addLast(segment);
+            return TextToSpeech.SUCCESS;
+        }
+        return submit(segment);
+    }
+
+    private int submit(DeferredSegment segment) {
+        playingEngine = segment.engine;
+        playingSegments.add(segment.segmentId);
+        outstanding.put(segment.segmentId, segment.engine);
+        int result = segment.silenceMillis > 0
+                ? segment.engine.playSilentUtterance(segment.silenceMillis, TextToSpeech.QUEUE_ADD, segment.segmentId)
+                : segment.engine.speak(segment.text, TextToSpeech.QUEUE_ADD, segment.params.get(),
+                        segment.segmentId);
+        if (result != TextToSpeech.SUCCESS) {
+            playingSegments.remove(segment.segmentId);
+            outstanding.remove(segment.segmentId);
+        }
+        return result;
+    }
+
+    private void start(String voiceName) {
+        evictIdleEngine();
+        if (engines.size() >= maxEngines) return;
+        PooledEngine[] created = new PooledEngine[1];
+        TextToSpeech engine = new TextToSpeech(context, status -> handler.post(() -> onInit(created[0], status)),
+                enginePackage);
+        created[0] = new PooledEngine(voiceName, engine);
+        engines.put(voiceName, created[0]);
+        Tracing.d("TtsEnginePool", "Started engine for ", voiceName);
+    }
+
+    private void onInit(PooledEngine pooled, int status) {
+        // Evicted or shut down while it was starting
+        if (engines.get(pooled.voiceName) != pooled) return;
+        Voice voice = voiceCatalog.resolveVoice(pooled.voiceName);
+        if (status != TextToSpeech.SUCCESS || voice == null
+                || pooled.engine.setVoice(voice) != TextToSpeech.SUCCESS) {
+            // Kept so the voice is not retried on every segment; the main engine speaks it instead
+            Tracing.d("TtsEnginePool", "Could not start engine for ", pooled.voiceName);
+            return;
+        }
+        pooled.engine.setOnUtteranceProgressListener(progressListener);
+        pooled.isReady = true;
+    }
+
+    private void evictIdleEngine() {
+        if (engines.size() < maxEngines) return;
+        Iterator<Map.Entry<String, PooledEngine>> iterator = engines.entrySet().iterator();
+        while (iterator.hasNext()) {
+            PooledEngine pooled = iterator.next().getValue();
+            if (isBusy(pooled.engine)) continue;
+            pooled.engine.shutdown();
+            iterator.remove();
+            Tracing.d("TtsEnginePool", "Evicted engine for ", pooled.voiceName);
+            return;
+        }
+    }
+
+    private boolean isBusy(TextToSpeech engine) {
+        if (outstanding.containsValue(engine)) return true;
+        for (DeferredSegment segment : deferredSegments) {
+            if (segment.engine == engine) return true;
+        }
+        return false;
+    }
+}
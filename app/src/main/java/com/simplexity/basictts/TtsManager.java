@@ -1,83 +1,629 @@
 package com.simplexity.basictts;
 
 import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.speech.tts.TextToSpeech;
+import android.speech.tts.UtteranceProgressListener;
 import android.speech.tts.Voice;
 import android.util.Log;
 
-import java.util.Set;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class TtsManager {
 
-    private TextToSpeech textToSpeech;
-    private String defaultVoice;
-    private float defaultPitch;
-    private float defaultSpeed;
-    private boolean isInitialized;
+    // Keys TextToSpeech itself uses to pass setSpeechRate/setPitch to the engine, as percent ints
+    private static final String PARAM_RATE = "rate";
+    private static final String PARAM_PITCH = "pitch";
+    private static final String DRAFT_DIRECTORY = "tts_draft";
+    // An engine that has not called back by then is given up on for the next one
+    private static final long INIT_TIMEOUT_MS = 8_000;
+    // Engines are measured once the first messages had a chance to play
+    private static final long BENCHMARK_DELAY_MS = 30_000;
+
+    public enum BackpressurePolicy {
+        DROP_OLDEST,
+        /**
+         * Appends to the last pending message; one that cannot join it is queued past the bound.
+         */
+        COALESCE,
+        REJECT
+    }
+
+    public interface UtteranceListener {
+        void onQueued(String utteranceId, int queueDepth);
+
+        /**
+         * The utterance began to play, or resumed after {@link #onPreempted}.
+         */
+        void onStart(String utteranceId);
+
+        void onDone(String utteranceId);
+
+        void onError(String utteranceId, int errorCode);
+
+        void onDropped(String utteranceId);
+
+        void onPreempted(String utteranceId);
+
+        /**
+         * The engine is about to speak characters [start, end) of the utterance's text. Only
+         * reported for speech that streams from the engine, not for rendered audio.
+         */
+        void onRangeStart(String utteranceId, int start, int end);
+    }
+
+    public interface RenderCallback {
+        void onRendered(boolean success);
+    }
 
+    // Engine binding and voice enumeration run here so neither blocks the first frame
+    private static final ExecutorService startupExecutor =
+            Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "tts-startup"));
+    // Owns every manager's queue state; engine work is handed back to the main thread
+    private static final ExecutorService schedulerExecutor =
+            Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "tts-scheduler"));
+    // Conditions rendered files off the main thread, shared like the engine threads above
+    private static final ExecutorService conditioningExecutor =
+            Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "tts-conditioning"));
+
+    private volatile TextToSpeech textToSpeech;
+    private final VoiceCatalog voiceCatalog;
+    private final Context appContext;
+    // Owned by the startup thread
+    private EngineBinder<TextToSpeech> engineBinder;
+    private String enginePackage;
+    private boolean isEngineUnavailable;
+    // Read by the speaking path on the main thread and by the render and conditioning threads
+    private final AtomicReference<TtsConfig> config;
+    // The defaults the engine was last given, so a new config only pushes what changed
+    private TtsConfig engineConfig;
+    private String resolvedVoice;
+    private String engineVoice;
+    private boolean isInitialized;
+    private volatile boolean isShutdown;
+    private final List<Runnable> readyActions = new ArrayList<>();
+    private final List<Runnable> unavailableActions = new ArrayList<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final HashMap<String, LatencyProbe> latencyProbes = new HashMap<>();
+    private boolean engineHasDefaults;
+    private final SpeechRouter router;
+    // Warm instances for speakers other than the default voice, created once the engine is bound
+    private TtsEnginePool enginePool;
 
     public TtsManager(String defaultVoice, float defaultPitch, float defaultSpeed,
                       Context context) {
-        this.defaultVoice = defaultVoice;
-        this.defaultPitch = defaultPitch;
-        this.defaultSpeed = defaultSpeed;
-        textToSpeech = new TextToSpeech(context, status -> {
-            if (status == TextToSpeech.SUCCESS) {
-                isInitialized = true;
-                Voice voice = getVoiceFromString(defaultVoice);
-                textToSpeech.setPitch(defaultPitch);
-                textToSpeech.setSpeechRate(defaultSpeed);
-                if (voice != null) textToSpeech.setVoice(voice);
-            }
-        });
+        this(defaultVoice, defaultPitch, defaultSpeed, context, new VoiceCatalog(context));
     }
 
-    public TtsManager(Context context) {
-        textToSpeech = new TextToSpeech(context, status -> {
-            if (status == TextToSpeech.SUCCESS) {
-                isInitialized = true;
-            }
+    /**
+     * Creates a manager that shares an existing voice catalog, so extra engine instances do not
+     * each re-read the catalog from disk.
+     */
+    public TtsManager(String defaultVoice, float defaultPitch, float defaultSpeed,
+                      Context context, VoiceCatalog voiceCatalog) {
+        this.config = new AtomicReference<>(TtsConfig.forVoice(defaultVoice, defaultPitch, defaultSpeed));
+        this.voiceCatalog = voiceCatalog;
+        int maxInputLength = TextToSpeech.getMaxSpeechInputLength();
+        this.router = new SpeechRouter(routerEngine, CachedAudioPlayer::new, config,
+                new TextSegmenter(maxInputLength), maxInputLength, new File(context.getCacheDir(), DRAFT_DIRECTORY),
+                mainHandler::post, schedulerExecutor, conditioningExecutor);
+        this.appContext = context.getApplicationContext();
+        long initStart = Tracing.start();
+        startupExecutor.execute(() -> {
+            if (isShutdown) return;
+            engineBinder = new EngineBinder<>(engines, voiceCatalog.getEngineStats(), startupExecutor,
+                    (task, delayMillis) -> mainHandler.postDelayed(task, delayMillis), INIT_TIMEOUT_MS,
+                    new EngineBinder.Listener<TextToSpeech>() {
+                        @Override
+                        public void onBound(TextToSpeech engine, String boundPackage) {
+                            textToSpeech = engine;
+                            enginePackage = boundPackage;
+                            voiceCatalog.saveEngineStats();
+                            prepareEngine(initStart);
+                        }
+
+                        @Override
+                        public void onUnavailable() {
+                            voiceCatalog.saveEngineStats();
+                            mainHandler.post(TtsManager.this::onEngineUnavailable);
+                        }
+                    });
+            // The engine the saved voice belongs to stays first, since other engines do not have it
+            engineBinder.start(getVoiceEngine());
         });
+    }
 
+    /**
+     * The thread engines are bound on. Work queued here before a manager is created is done, and
+     * anything it posts to the main thread has run, before that manager reports its engine ready.
+     */
+    static Executor getStartupExecutor() {
+        return startupExecutor;
     }
 
+    private String getVoiceEngine() {
+        String voice = config.get().getVoice();
+        if (voice == null || VoiceIndex.isAutoVoice(voice)) return null;
+        return voiceCatalog.getCatalogEngine();
+    }
 
-    public String getDefaultVoice() {
-        return defaultVoice;
+    /**
+     * Every engine failed to initialize: queued messages are dropped and new ones rejected, and
+     * whoever waits for the engine hears about it through {@link #runIfUnavailable}.
+     */
+    private void onEngineUnavailable() {
+        Log.d("TtsManager", "No TTS engine could be initialized");
+        isEngineUnavailable = true;
+        readyActions.clear();
+        router.onEngineUnavailable();
+        List<Runnable> actions = new ArrayList<>(unavailableActions);
+        unavailableActions.clear();
+        for (Runnable action : actions) {
+            action.run();
+        }
     }
 
-    public void setDefaultVoice(String defaultVoice) {
-        this.defaultVoice = defaultVoice;
+    /**
+     * Runs on the startup thread after the engine has bound: loads the voice catalog there, then
+     * hands over to the main thread, which resolves the saved voice and flushes queued messages.
+     */
+    private void prepareEngine(long initStart) {
+        if (isShutdown) return;
+        if (!voiceCatalog.isLoadedFor(enginePackage)) {
+            voiceCatalog.load(textToSpeech, enginePackage);
+        }
+        List<String> engineOrder = engineBinder.getEngineOrder();
+        mainHandler.postDelayed(() -> EngineBenchmark.startOnce(appContext, voiceCatalog, engineOrder,
+                startupExecutor), BENCHMARK_DELAY_MS);
+        mainHandler.post(() -> {
+            Tracing.record(Tracing.Metric.ENGINE_INIT, initStart);
+            if (isShutdown) return;
+            isInitialized = true;
+            textToSpeech.setOnUtteranceProgressListener(progressListener);
+            enginePool = new TtsEnginePool(appContext, enginePackage, textToSpeech, voiceCatalog,
+                    TtsEnginePool.DEFAULT_MAX_ENGINES, progressListener, mainHandler);
+            applyDefaults();
+            router.onEngineReady();
+            runReadyActions();
+        });
     }
 
-    public float getDefaultPitch() {
-        return defaultPitch;
+    public TtsManager(Context context) {
+        this(null, 1f, 1f, context);
+    }
+
+
+    public String getDefaultVoice() {
+        return config.get().getVoice();
     }
 
-    public void setDefaultPitch(float defaultPitch) {
-        this.defaultPitch = defaultPitch;
+    public float getDefaultPitch() {
+        return config.get().getPitch();
     }
 
     public float getDefaultSpeed() {
-        return defaultSpeed;
+        return config.get().getSpeed();
+    }
+
+    public TtsConfig getConfig() {
+        return config.get();
     }
 
-    public void setDefaultSpeed(float defaultSpeed) {
-        this.defaultSpeed = defaultSpeed;
+    public boolean isInitialized() {
+        return isInitialized;
     }
 
-    public void sendMessage(String message){
+    /**
+     * Switches to a new config without rebinding the engine. Only the voice, pitch or speed that
+     * differ from what the engine already has are pushed to it; if the engine is still
+     * initializing, they are applied once it is ready. Files already in the cache keep the
+     * conditioning they were made with.
+     */
+    public void applyConfig(TtsConfig next) {
+        config.set(next);
         if (isInitialized) {
-            textToSpeech.speak(message, TextToSpeech.QUEUE_FLUSH, null, null);
+            applyDefaults();
         }
     }
 
-    public void sendMessage(String message, Voice voice, float pitch, float speed) {
+    /**
+     * Runs the action once the engine has initialized, or right away if it already has.
+     */
+    public void runWhenReady(Runnable action) {
         if (isInitialized) {
+            action.run();
+            return;
+        }
+        readyActions.add(action);
+    }
+
+    /**
+     * Runs the action if no engine can be initialized, right away if that is already known. The
+     * actions given to {@link #runWhenReady} never run then, so anything waiting on them should
+     * also pass one of these.
+     */
+    public void runIfUnavailable(Runnable action) {
+        if (isEngineUnavailable) {
+            action.run();
+        } else if (!isInitialized && !isShutdown) {
+            unavailableActions.add(action);
+        }
+    }
+
+    public void addUtteranceListener(UtteranceListener listener) {
+        router.addUtteranceListener(listener);
+    }
+
+    public void removeUtteranceListener(UtteranceListener listener) {
+        router.removeUtteranceListener(listener);
+    }
+
+    public void setMaxPending(int maxPending) {
+        router.setMaxPending(maxPending);
+    }
+
+    /**
+     * Enables cache mode when non-null: utterances are rendered once with synthesizeToFile and
+     * repeated phrases are played straight from the cache without going through the engine.
+     */
+    public void setAudioCache(AudioCache audioCache) {
+        router.setAudioCache(audioCache);
+    }
+
+    public AudioCache getAudioCache() {
+        return router.getAudioCache();
+    }
+
+    /**
+     * @return how audio rendered for cache mode, drafts and the soundboard is trimmed and
+     *         normalized before it plays, or null
+     */
+    public SpeechConditioner.Settings getAudioConditioning() {
+        return config.get().getConditioning();
+    }
+
+    public void setBackpressurePolicy(BackpressurePolicy backpressurePolicy) {
+        router.setBackpressurePolicy(backpressurePolicy);
+    }
+
+    public BackpressurePolicy getBackpressurePolicy() {
+        return router.getBackpressurePolicy();
+    }
+
+    /**
+     * Messages waiting for init plus messages handed to the scheduler that have not finished yet.
+     */
+    public int getQueueDepth() {
+        return router.getQueueDepth();
+    }
+
+    /**
+     * @return what the scheduler is playing and what waits behind it, safe to call from any thread
+     */
+    public List<UtteranceScheduler.Entry> getScheduledUtterances() {
+        return router.getScheduledUtterances();
+    }
+
+    public int getMaxQueueDepth() {
+        return router.getMaxQueueDepth();
+    }
+
+    /**
+     * Queues the message at normal priority, behind anything already speaking.
+     *
+     * @return the utterance id reported to listeners, or null if the message was rejected
+     */
+    public String sendMessage(String message) {
+        return sendMessage(message, UtteranceScheduler.Priority.NORMAL);
+    }
+
+    /**
+     * Queues the message behind anything of the same or higher priority. A higher priority than
+     * what is playing interrupts it; the interrupted message resumes afterwards at the sentence
+     * where it stopped.
+     */
+    public String sendMessage(String message, UtteranceScheduler.Priority priority) {
+        TtsConfig snapshot = config.get();
+        return router.enqueue(new Utterance(nextUtteranceId(), message, null, snapshot.getPitch(),
+                snapshot.getSpeed(), false, priority));
+    }
+
+    public String sendMessage(String message, Voice voice, float pitch, float speed) {
+        return router.enqueue(new Utterance(nextUtteranceId(), message, voice, pitch, speed, true,
+                UtteranceScheduler.Priority.NORMAL));
+    }
+
+    /**
+     * Renders the draft the user is still typing to a file, so sending exactly that text can
+     * play straight away. Only one draft is rendered at a time; text that changes meanwhile is
+     * rendered once the engine is done with the previous one. Empty text discards the draft.
+     */
+    public void preRenderDraft(String text) {
+        router.preRenderDraft(text);
+    }
+
+    /**
+     * Synthesizes text with the current default settings into a WAV file without playing it.
+     * The callback runs on the main thread.
+     *
+     * @return false if the engine is not ready or refused the request
+     */
+    public boolean renderToFile(String text, File file, RenderCallback callback) {
+        return renderToFile(text, file, null, callback);
+    }
+
+    /**
+     * Same as {@link #renderToFile(String, File, RenderCallback)} with the default voice but
+     * the given pitch and speed, for audio that gets its final pitch and speed at playback.
+     */
+    public boolean renderToFile(String text, File file, float pitch, float speed, RenderCallback callback) {
+        Bundle params = new Bundle();
+        params.putInt(PARAM_RATE, Math.round(speed * 100));
+        params.putInt(PARAM_PITCH, Math.round(pitch * 100));
+        return renderToFile(text, file, params, callback);
+    }
+
+    private boolean renderToFile(String text, File file, Bundle params, RenderCallback callback) {
+        if (!isInitialized) return false;
+        if (!engineHasDefaults) applyDefaults();
+        String renderId = SpeechRouter.newId(SpeechRouter.RENDER_PREFIX);
+        String spoken = router.pronounce(MarkupParser.stripMarkup(text)).getText();
+        if (textToSpeech.synthesizeToFile(spoken, params, file, renderId) != TextToSpeech.SUCCESS) {
+            return false;
+        }
+        router.trackRender(renderId, callback);
+        return true;
+    }
+
+    /**
+     * Stops the current utterance and drops everything queued behind it, including segments of
+     * long messages that have not been handed to the engine yet.
+     */
+    public void stop() {
+        router.stop();
+    }
+
+    /**
+     * Makes sure the main engine speaks the segment with the right voice, for the default voice
+     * or a speaker the pool has no warm instance for yet. Pitch and rate of utterances with their
+     * own settings or of segments changed by markup travel as per-utterance params instead of
+     * changing the engine-wide values, so queued segments keep the settings they were sent with.
+     *
+     * @param markupVoice the voice the segment's markup asks for, or null
+     * @return params for speak/synthesizeToFile, or null to use the engine defaults
+     */
+    private Bundle applyEngineSettings(Utterance utterance, UtterancePlan.Segment segment, Voice markupVoice) {
+        if (!utterance.hasOwnSettings() && !engineHasDefaults) applyDefaults();
+        if (!utterance.hasOwnSettings() && (segment == null || segment.hasDefaultSettings())) {
+            return null;
+        }
+        Voice voice = markupVoice != null ? markupVoice : utterance.hasOwnSettings() ? utterance.getVoice() : null;
+        if (voice != null && !voice.getName().equals(engineVoice)) {
             textToSpeech.setVoice(voice);
-            textToSpeech.setPitch(pitch);
-            textToSpeech.setSpeechRate(speed);
-            textToSpeech.speak(message, TextToSpeech.QUEUE_FLUSH, null, null);
+            engineVoice = voice.getName();
+            engineHasDefaults = false;
+        }
+        Bundle params = new Bundle();
+        params.putInt(PARAM_RATE, Math.round(router.getSpeed(utterance, segment) * 100));
+        params.putInt(PARAM_PITCH, Math.round(router.getPitch(utterance, segment) * 100));
+        return params;
+    }
+
+    /**
+     * @return who speaks the segment: its markup voice or the utterance's, with its pitch and rate
+     */
+    private SpeakerProfile getSpeaker(Utterance utterance, UtterancePlan.Segment segment, Voice markupVoice) {
+        String voiceName = markupVoice != null ? markupVoice.getName() : getVoiceName(utterance);
+        return new SpeakerProfile(voiceName, router.getPitch(utterance, segment), router.getSpeed(utterance, segment));
+    }
+
+    /**
+     * @return the pool's warm instance for a speaker with a voice other than the default, or null
+     * to speak on the main engine, which also covers a voice whose instance is still warming up
+     */
+    private TextToSpeech getPooledEngine(SpeakerProfile speaker) {
+        if (speaker.getVoiceName() == null || speaker.getVoiceName().equals(resolvedVoice)) return null;
+        return enginePool.get(speaker);
+    }
+
+    /**
+     * A pooled instance already has the speaker's voice, so only pitch and rate go along.
+     */
+    private static Bundle getSpeakerParams(SpeakerProfile speaker) {
+        Bundle params = new Bundle();
+        params.putInt(PARAM_RATE, Math.round(speaker.getSpeed() * 100));
+        params.putInt(PARAM_PITCH, Math.round(speaker.getPitch() * 100));
+        return params;
+    }
+
+    private Voice getMarkupVoice(UtterancePlan.Segment segment) {
+        if (segment == null || segment.getVoice() == null) return null;
+        Voice voice = voiceCatalog.findVoice(segment.getVoice());
+        if (voice == null) Tracing.d("TtsManager", "Voice not in catalog: ", segment.getVoice());
+        return voice;
+    }
+
+    private String getVoiceName(Utterance utterance) {
+        if (!utterance.hasOwnSettings()) return resolvedVoice;
+        return utterance.getVoice() == null ? null : utterance.getVoice().getName();
+    }
+
+    /**
+     * Lets segments waiting for another pooled instance go before the router asks for more.
+     */
+    private void onEngineFinished(String segmentId) {
+        if (enginePool != null) enginePool.onFinished(segmentId);
+    }
+
+    private void recordVoiceLatency(String segmentId) {
+        LatencyProbe probe = latencyProbes.remove(segmentId);
+        if (probe == null) return;
+        voiceCatalog.getLatencyStats().record(probe.voiceName,
+                (System.nanoTime() - probe.submittedAtNanos) / 1_000_000d);
+    }
+
+    private String nextUtteranceId() {
+        return SpeechRouter.newId("utterance-");
+    }
+
+    // Latency is measured here, everything else about the segment is the router's
+    private final UtteranceProgressListener progressListener = new UtteranceProgressListener() {
+        @Override
+        public void onStart(String utteranceId) {
+            mainHandler.post(() -> {
+                recordVoiceLatency(utteranceId);
+                router.onEngineStart(utteranceId);
+            });
+        }
+
+        @Override
+        public void onDone(String utteranceId) {
+            mainHandler.post(() -> {
+                onEngineFinished(utteranceId);
+                router.onEngineDone(utteranceId);
+            });
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public void onError(String utteranceId) {
+            onError(utteranceId, TextToSpeech.ERROR);
+        }
+
+        @Override
+        public void onError(String utteranceId, int errorCode) {
+            mainHandler.post(() -> {
+                onEngineFinished(utteranceId);
+                router.onEngineError(utteranceId, errorCode);
+            });
+        }
+
+        @Override
+        public void onStop(String utteranceId, boolean interrupted) {
+            mainHandler.post(() -> {
+                onEngineFinished(utteranceId);
+                router.onEngineStop(utteranceId);
+            });
+        }
+
+        @Override
+        public void onRangeStart(String utteranceId, int start, int end, int frame) {
+            mainHandler.post(() -> router.onEngineRangeStart(utteranceId, start, end));
+        }
+    };
+
+    // The router's engine calls, on the main thread
+    private final SpeechRouter.Engine routerEngine = new SpeechRouter.Engine() {
+        @Override
+        public int speak(Utterance utterance, UtterancePlan.Segment segment, String text, String segmentId,
+                         int segmentIndex) {
+            Voice markupVoice = getMarkupVoice(segment);
+            SpeakerProfile speaker = getSpeaker(utterance, segment, markupVoice);
+            TextToSpeech pooled = getPooledEngine(speaker);
+            if (segmentIndex == 0) {
+                // The scheduler only starts an utterance once the engine is idle, so the time to
+                // onStart is the voice's own latency
+                latencyProbes.put(segmentId, new LatencyProbe(speaker.getVoiceName(), System.nanoTime()));
+            }
+            if (pooled != null) {
+                return enginePool.speak(pooled, text, () -> getSpeakerParams(speaker), segmentId);
+            }
+            // Settings are pushed to the main engine only when it gets the segment
+            return enginePool.speak(textToSpeech, text, () -> applyEngineSettings(utterance, segment, markupVoice),
+                    segmentId);
+        }
+
+        @Override
+        public int playSilence(int millis, String segmentId) {
+            return enginePool.playSilence(millis, segmentId);
+        }
+
+        @Override
+        public int synthesizeToFile(Utterance utterance, UtterancePlan.Segment segment, String text, File file,
+                                    String id) {
+            if (utterance == null) {
+                if (!engineHasDefaults) applyDefaults();
+                return textToSpeech.synthesizeToFile(text, null, file, id);
+            }
+            Voice markupVoice = getMarkupVoice(segment);
+            SpeakerProfile speaker = getSpeaker(utterance, segment, markupVoice);
+            TextToSpeech pooled = getPooledEngine(speaker);
+            if (pooled != null) {
+                return enginePool.synthesizeToFile(pooled, text, getSpeakerParams(speaker), file, id);
+            }
+            return enginePool.synthesizeToFile(textToSpeech, text, applyEngineSettings(utterance, segment, markupVoice),
+                    file, id);
+        }
+
+        @Override
+        public String getVoiceName(Utterance utterance, UtterancePlan.Segment segment) {
+            if (utterance == null) return resolvedVoice;
+            Voice markupVoice = getMarkupVoice(segment);
+            return markupVoice != null ? markupVoice.getName() : TtsManager.this.getVoiceName(utterance);
+        }
+
+        @Override
+        public void stop() {
+            latencyProbes.clear();
+            if (isInitialized) {
+                enginePool.stop();
+            }
+        }
+    };
+
+    // Creates engine instances for the binder, on the startup thread
+    private final EngineBinder.Engines<TextToSpeech> engines = new EngineBinder.Engines<TextToSpeech>() {
+        @Override
+        public TextToSpeech create(String engine, EngineBinder.InitCallback callback) {
+            TextToSpeech.OnInitListener listener = callback::onInit;
+            return engine == null ? new TextToSpeech(appContext, listener)
+                    : new TextToSpeech(appContext, listener, engine);
+        }
+
+        @Override
+        public String getDefaultEngine(TextToSpeech engine) {
+            return engine.getDefaultEngine();
+        }
+
+        @Override
+        public List<String> getInstalledEngines(TextToSpeech engine) {
+            List<String> installed = new ArrayList<>();
+            List<TextToSpeech.EngineInfo> infos = engine.getEngines();
+            if (infos != null) {
+                for (TextToSpeech.EngineInfo info : infos) {
+                    installed.add(info.name);
+                }
+            }
+            return installed;
+        }
+
+        @Override
+        public boolean isInstalled(String engine) {
+            return voiceCatalog.getEngineVersion(engine) >= 0;
+        }
+
+        @Override
+        public void shutdown(TextToSpeech engine) {
+            engine.shutdown();
+        }
+    };
+
+    private static class LatencyProbe {
+        private final String voiceName;
+        private final long submittedAtNanos;
+
+        private LatencyProbe(String voiceName, long submittedAtNanos) {
+            this.voiceName = voiceName;
+            this.submittedAtNanos = submittedAtNanos;
         }
     }
 
@@ -85,33 +631,66 @@ public class TtsManager {
         return textToSpeech;
     }
 
-    private Voice getVoiceFromString(String string) {
-        if (textToSpeech == null) {
-            Log.d("TtsManager", "TextToSpeech is null");
-            return null;
+    public VoiceCatalog getVoiceCatalog() {
+        return voiceCatalog;
+    }
+
+    private void applyDefaults() {
+        engineHasDefaults = true;
+        TtsConfig wanted = config.get();
+        TtsConfig applied = engineConfig;
+        engineConfig = wanted;
+        // Resolved every time, since an utterance with its own voice may have replaced it
+        Voice voice = getVoiceFromString(wanted.getVoice());
+        resolvedVoice = voice == null ? wanted.getVoice() : voice.getName();
+        if (applied == null || applied.getPitch() != wanted.getPitch()) {
+            textToSpeech.setPitch(wanted.getPitch());
         }
-        if (string == null) {
-            Log.d("TtsManager", "String is null");
-            return null;
+        if (applied == null || applied.getSpeed() != wanted.getSpeed()) {
+            textToSpeech.setSpeechRate(wanted.getSpeed());
+        }
+        if (voice != null && !voice.getName().equals(engineVoice)) {
+            textToSpeech.setVoice(voice);
+            engineVoice = voice.getName();
+        }
+    }
+
+    private void runReadyActions() {
+        unavailableActions.clear();
+        List<Runnable> actions = new ArrayList<>(readyActions);
+        readyActions.clear();
+        for (Runnable action : actions) {
+            action.run();
         }
-        Set<Voice> voices = textToSpeech.getVoices();
-        if (voices == null) {
-            Log.d("TtsManager", "Voices are null");
+    }
+
+    private Voice getVoiceFromString(String string) {
+        if (string == null) {
+            Tracing.d("TtsManager", "String is null");
             return null;
         }
-        for (Voice voice : textToSpeech.getVoices()) {
-            if (voice.getName().equals(string)) {
-                Log.d("TtsManager", "Voice found: " + voice.getName());
-                return voice;
-            }
+        Voice voice = voiceCatalog.resolveVoice(string);
+        if (voice == null) {
+            Tracing.d("TtsManager", "Voice not in catalog: ", string);
         }
-        return null;
+        return voice;
     }
 
     public void shutdown() {
-        if (textToSpeech != null) {
-            textToSpeech.stop();
-            textToSpeech.shutdown();
-        }
+        isShutdown = true;
+        isInitialized = false;
+        voiceCatalog.saveLatencyStats();
+        readyActions.clear();
+        unavailableActions.clear();
+        router.shutdown();
+        if (enginePool != null) enginePool.shutdown();
+        startupExecutor.execute(() -> {
+            if (engineBinder != null) engineBinder.close();
+            voiceCatalog.saveEngineStats();
+            if (textToSpeech != null) {
+                textToSpeech.stop();
+                textToSpeech.shutdown();
+            }
+        });
     }
 }
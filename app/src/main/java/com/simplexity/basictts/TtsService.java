@@ -0,0 +1,351 @@
+package com.simplexity.basictts;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.RemoteInput;
+import android.app.Service;
+import android.content.ComponentName;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.pm.ServiceInfo;
+import android.os.Binder;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.service.quicksettings.TileService;
+import android.util.Log;
+
+import androidx.preference.PreferenceManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Holds the single long-lived TtsManager for the app. Clients acquire it through a
+ * TtsConnection; the service lingers for a short while after the last client releases it so
+ * activity recreation does not pay for engine init again.
+ *
+ * <p>With the resident engine preference on it runs in the foreground instead, keeping the
+ * engine warm for the notification reply and the Quick Settings tile, which speak through
+ * {@link #ACTION_SPEAK} without starting the chat screen.
+ */
+public class TtsService extends Service {
+
+    private static final long IDLE_SHUTDOWN_DELAY_MS = 30_000;
+    private static final String AUDIO_CACHE_DIRECTORY = "tts_audio";
+    private static final String SOUNDBOARD_DIRECTORY = "soundboard";
+    private static final String EXPORT_DIRECTORY = "export";
+    public static final String ACTION_SPEAK = "com.simplexity.basictts.action.SPEAK";
+    public static final String ACTION_STOP_RESIDENT = "com.simplexity.basictts.action.STOP_RESIDENT";
+    private static final String REPLY_KEY = "reply_text";
+    private static final String CHANNEL_ID = "resident_engine";
+    private static final int NOTIFICATION_ID = 1;
+
+    private final IBinder binder = new LocalBinder();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable idleShutdown = this::stopSelf;
+    private TtsManager ttsManager;
+    private Soundboard soundboard;
+    private AudioExporter audioExporter;
+    private AudioCache audioCache;
+    private SharedPreferences sharedPreferences;
+    private TtsConfigStore configStore;
+    private SharedPreferences.OnSharedPreferenceChangeListener sharedPreferenceChangeListener;
+    private int clientCount;
+    private boolean isResident;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
+        Tracing.setEnabled(sharedPreferences.getBoolean("metrics_enabled", false));
+        // Queued ahead of the engine binding, so the dictionary is compiled before the engine is ready
+        configStore = new TtsConfigStore(sharedPreferences, TtsManager.getStartupExecutor(), this::onConfigChanged);
+        TtsConfig config = configStore.get();
+        ttsManager = new TtsManager(config.getVoice(), config.getPitch(), config.getSpeed(), this);
+        ttsManager.applyConfig(config);
+        loadAudioCache(config);
+        setupPreferenceListener();
+        updateResident();
+        Tracing.d("TtsService", "TTS service created");
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        String action = intent == null ? null : intent.getAction();
+        if (action != null && !isResident) {
+            // Actions come through startForegroundService, which has to be answered with
+            // startForeground even if the resident engine was turned off in the meantime
+            startForegroundNotice();
+            stopForeground(STOP_FOREGROUND_REMOVE);
+            if (clientCount == 0) handler.postDelayed(idleShutdown, IDLE_SHUTDOWN_DELAY_MS);
+        }
+        if (ACTION_SPEAK.equals(action)) {
+            speak(getSpokenText(intent));
+        } else if (ACTION_STOP_RESIDENT.equals(action)) {
+            // The preference listener takes the service out of the foreground
+            sharedPreferences.edit().putBoolean("resident_engine_enabled", false).apply();
+        }
+        return isResident ? START_STICKY : START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    @Override
+    public boolean onUnbind(Intent intent) {
+        return true;
+    }
+
+    public TtsManager getTtsManager() {
+        return ttsManager;
+    }
+
+    /**
+     * Pinned phrases held in memory, rendered on first use and again whenever the voice
+     * settings change.
+     */
+    public Soundboard getSoundboard() {
+        if (soundboard == null) {
+            soundboard = new Soundboard(ttsManager, new File(getCacheDir(), SOUNDBOARD_DIRECTORY),
+                    getSoundboardBytesFromPreferences(), configStore.get().getPitch(), configStore.get().getSpeed());
+            soundboard.setPhrases(getPhrasesFromPreferences());
+        }
+        return soundboard;
+    }
+
+    /**
+     * Renders the texts into the output with the current voice settings. The service counts as
+     * acquired until the export ends, so it is not shut down underneath it.
+     *
+     * @return false if another export is still running
+     */
+    public boolean startExport(TextSource texts, ParcelFileDescriptor output, AudioExporter.Listener listener) {
+        if (audioExporter == null) {
+            audioExporter = new AudioExporter(this, ttsManager.getVoiceCatalog(),
+                    new File(getCacheDir(), EXPORT_DIRECTORY), AudioExporter.DEFAULT_WORKERS);
+        }
+        TtsConfig config = TtsConfig.forVoice(ttsManager.getDefaultVoice(), ttsManager.getDefaultPitch(),
+                ttsManager.getDefaultSpeed(), configStore.get().getPronunciations());
+        boolean isStarted = audioExporter.export(texts, config, output, new AudioExporter.Listener() {
+            @Override
+            public void onExportProgress(int renderedChars, int totalChars) {
+                listener.onExportProgress(renderedChars, totalChars);
+            }
+
+            @Override
+            public void onExportFinished(long durationMillis) {
+                release();
+                listener.onExportFinished(durationMillis);
+            }
+
+            @Override
+            public void onExportFailed(String reason) {
+                release();
+                listener.onExportFailed(reason);
+            }
+
+            @Override
+            public void onExportCancelled() {
+                release();
+                listener.onExportCancelled();
+            }
+        });
+        if (isStarted) acquire();
+        return isStarted;
+    }
+
+    public void cancelExport() {
+        if (audioExporter != null) audioExporter.cancel();
+    }
+
+    public void acquire() {
+        clientCount++;
+        handler.removeCallbacks(idleShutdown);
+        Tracing.d("TtsService", "Client acquired, count: ", clientCount);
+    }
+
+    public void release() {
+        if (clientCount > 0) clientCount--;
+        Tracing.d("TtsService", "Client released, count: ", clientCount);
+        if (clientCount == 0 && !isResident) {
+            handler.postDelayed(idleShutdown, IDLE_SHUTDOWN_DELAY_MS);
+        }
+    }
+
+    /**
+     * Speaks text sent from outside the chat screen ahead of queued messages, and adds it to the
+     * history like a message typed into the chat.
+     */
+    private void speak(CharSequence text) {
+        String message = text == null ? "" : text.toString().trim();
+        if (isResident) {
+            // Also clears the sending spinner the notification shows after a reply
+            getSystemService(NotificationManager.class).notify(NOTIFICATION_ID, buildNotification(message));
+        }
+        if (message.isEmpty()) return;
+        ttsManager.sendMessage(message, UtteranceScheduler.Priority.URGENT);
+        try {
+            MessageLog.get(getFilesDir()).append(message);
+        } catch (IOException | IllegalStateException e) {
+            // The history could not be opened or written; the message is still spoken
+            Log.d("TtsService", "Could not save message: " + e.getMessage());
+        }
+        Tracing.d("TtsService", "Speaking from outside the app, chars: ", message.length());
+    }
+
+    private static CharSequence getSpokenText(Intent intent) {
+        Bundle reply = RemoteInput.getResultsFromIntent(intent);
+        if (reply != null) return reply.getCharSequence(REPLY_KEY);
+        return intent.getStringExtra(Intent.EXTRA_TEXT);
+    }
+
+    /**
+     * Moves in or out of the foreground to match the resident engine preference.
+     */
+    private void updateResident() {
+        boolean resident = sharedPreferences.getBoolean("resident_engine_enabled", false);
+        if (resident == isResident) return;
+        isResident = resident;
+        if (resident) {
+            handler.removeCallbacks(idleShutdown);
+            startForegroundNotice();
+        } else {
+            stopForeground(STOP_FOREGROUND_REMOVE);
+            if (clientCount == 0) handler.postDelayed(idleShutdown, IDLE_SHUTDOWN_DELAY_MS);
+        }
+        TileService.requestListeningState(this, new ComponentName(this, QuickSpeakTileService.class));
+        Tracing.d("TtsService", "Resident engine: ", resident);
+    }
+
+    /**
+     * Shows the resident notification as the foreground notice. Most of the time the engine only
+     * sits warm between messages rather than playing anything, so the service runs as a special
+     * use, described in the manifest, rather than as media playback.
+     */
+    private void startForegroundNotice() {
+        getSystemService(NotificationManager.class).createNotificationChannel(new NotificationChannel(
+                CHANNEL_ID, "Ready to speak", NotificationManager.IMPORTANCE_LOW));
+        startForeground(NOTIFICATION_ID, buildNotification(null), ServiceInfo.FOREGROUND_SERVICE_TYPE_SPECIAL_USE);
+    }
+
+    private Notification buildNotification(String lastMessage) {
+        PendingIntent speakIntent = PendingIntent.getForegroundService(this, 0,
+                new Intent(this, TtsService.class).setAction(ACTION_SPEAK),
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_MUTABLE);
+        PendingIntent stopIntent = PendingIntent.getForegroundService(this, 1,
+                new Intent(this, TtsService.class).setAction(ACTION_STOP_RESIDENT),
+                PendingIntent.FLAG_IMMUTABLE);
+        PendingIntent openIntent = PendingIntent.getActivity(this, 0,
+                new Intent(this, MainActivity.class), PendingIntent.FLAG_IMMUTABLE);
+        Notification.Builder builder = new Notification.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.drawable.send_icon)
+                .setContentTitle("Ready to speak")
+                .setContentText("Reply to speak without opening the app")
+                .setContentIntent(openIntent)
+                .setOngoing(true)
+                .setShowWhen(false)
+                .addAction(new Notification.Action.Builder(null, "Speak", speakIntent)
+                        .addRemoteInput(new RemoteInput.Builder(REPLY_KEY).setLabel("Text to speak").build())
+                        .build())
+                .addAction(new Notification.Action.Builder(null, "Turn off", stopIntent).build());
+        if (lastMessage != null && !lastMessage.isEmpty()) {
+            builder.setRemoteInputHistory(new CharSequence[]{lastMessage});
+        }
+        return builder.build();
+    }
+
+    private void setupPreferenceListener() {
+        sharedPreferenceChangeListener = (sharedPreferences, key) -> {
+            if (key == null) return;
+            if (soundboard != null && key.equals("pinned_phrases")) {
+                soundboard.setPhrases(getPhrasesFromPreferences());
+            }
+            if (soundboard != null && key.equals("soundboard_memory_mb")) {
+                soundboard.setMaxBytes(getSoundboardBytesFromPreferences());
+            }
+            if (key.equals("metrics_enabled")) {
+                Tracing.setEnabled(sharedPreferences.getBoolean("metrics_enabled", false));
+            }
+            if (key.equals("resident_engine_enabled")) {
+                updateResident();
+            }
+        };
+        sharedPreferences.registerOnSharedPreferenceChangeListener(sharedPreferenceChangeListener);
+    }
+
+    /**
+     * Applies a coalesced batch of speech preference changes, touching only what changed.
+     */
+    private void onConfigChanged(TtsConfig previous, TtsConfig config) {
+        ttsManager.applyConfig(config);
+        if (!config.hasSameAudioCache(previous)) {
+            loadAudioCache(config);
+        }
+        if (!config.hasSameConditioning(previous) && audioCache != null) {
+            // Audio made with the old settings would otherwise keep playing from the cache
+            audioCache.clear();
+        }
+        if (soundboard != null) {
+            // Pitch and speed are applied at playback, the rest needs the phrases rendered again
+            soundboard.setPlaybackSettings(config.getPitch(), config.getSpeed());
+            if (!config.hasSameVoice(previous) || !config.hasSameConditioning(previous)
+                    || !config.hasSamePronunciations(previous)) {
+                soundboard.rerenderAll();
+            }
+        }
+    }
+
+    private void loadAudioCache(TtsConfig config) {
+        long maxBytes = config.getAudioCacheBytes();
+        if (!config.isAudioCacheEnabled()) {
+            if (audioCache != null) audioCache.clear();
+            audioCache = null;
+        } else if (audioCache == null) {
+            audioCache = new AudioCache(new File(getCacheDir(), AUDIO_CACHE_DIRECTORY), maxBytes);
+        } else {
+            audioCache.setMaxBytes(maxBytes);
+        }
+        ttsManager.setAudioCache(audioCache);
+        Tracing.d("TtsService", "Audio cache: ", audioCache);
+    }
+
+    private List<String> getPhrasesFromPreferences() {
+        return Soundboard.parsePhrases(sharedPreferences.getString("pinned_phrases", Soundboard.DEFAULT_PHRASES));
+    }
+
+    private long getSoundboardBytesFromPreferences() {
+        return sharedPreferences.getInt("soundboard_memory_mb", Soundboard.DEFAULT_MEMORY_MB) * 1024L * 1024L;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        handler.removeCallbacks(idleShutdown);
+        sharedPreferences.unregisterOnSharedPreferenceChangeListener(sharedPreferenceChangeListener);
+        configStore.close();
+        if (soundboard != null) {
+            soundboard.release();
+        }
+        if (audioExporter != null) {
+            audioExporter.release();
+        }
+        if (ttsManager != null) {
+            ttsManager.shutdown();
+        }
+        Tracing.d("TtsService", "TTS service destroyed");
+    }
+
+    public class LocalBinder extends Binder {
+        public TtsService getService() {
+            return TtsService.this;
+        }
+    }
+}
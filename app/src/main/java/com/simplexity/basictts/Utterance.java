@@ -0,0 +1,75 @@
+package com.simplexity.basictts;
+
+import android.speech.tts.Voice;
+
+import java.util.Objects;
+
+public class Utterance {
+    private final String utteranceId;
+    private final Voice voice;
+    private final float pitch;
+    private final float speed;
+    private final boolean hasOwnSettings;
+    private final UtteranceScheduler.Priority priority;
+    private final long createdAtNanos = Tracing.start();
+    private String text;
+
+
+    public Utterance(String utteranceId, String text, Voice voice, float pitch, float speed,
+                     boolean hasOwnSettings, UtteranceScheduler.Priority priority) {
+        this.utteranceId = utteranceId;
+        this.text = text;
+        this.voice = voice;
+        this.pitch = pitch;
+        this.speed = speed;
+        this.hasOwnSettings = hasOwnSettings;
+        this.priority = priority;
+    }
+
+    public boolean canCoalesceWith(Utterance other) {
+        if (hasOwnSettings != other.hasOwnSettings || priority != other.priority) return false;
+        if (!hasOwnSettings) return true;
+        return Objects.equals(voice, other.voice) && pitch == other.pitch && speed == other.speed;
+    }
+
+    public void append(String more) {
+        text = text + "\n" + more;
+    }
+
+    @Override
+    public String toString() {
+        return "id=" + utteranceId + ", text=" + text;
+    }
+
+    public String getUtteranceId() {
+        return utteranceId;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public Voice getVoice() {
+        return voice;
+    }
+
+    public float getPitch() {
+        return pitch;
+    }
+
+    public float getSpeed() {
+        return speed;
+    }
+
+    public long getCreatedAtNanos() {
+        return createdAtNanos;
+    }
+
+    public UtteranceScheduler.Priority getPriority() {
+        return priority;
+    }
+
+    public boolean hasOwnSettings() {
+        return hasOwnSettings;
+    }
+}
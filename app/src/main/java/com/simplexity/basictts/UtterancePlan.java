@@ -0,0 +1,206 @@
+package com.simplexity.basictts;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Compiles a message with inline markup into the segments the engine is given: runs of text cut
+ * by the segmenter, each with the voice, pitch and rate in effect where it sits, and silences
+ * for pauses. The markup is read as the scheduler asks for segments, so a long message starts
+ * playing before the end of it is parsed.
+ *
+ * <p>Segments are produced on the scheduler thread and looked up by index on the main thread.
+ */
+public class UtterancePlan implements UtteranceScheduler.SegmentSource {
+
+    // Engines take no SSML from here, so emphasis is said a little higher and slower
+    static final float EMPHASIS_PITCH = 1.15f;
+    static final float EMPHASIS_RATE = 0.85f;
+
+    /**
+     * One step of the plan, either text to speak or a silence.
+     */
+    public static final class Segment {
+        private final String text;
+        private final int sourceStart;
+        private final int pauseMillis;
+        private final String voice;
+        private final float pitchScale;
+        private final float rateScale;
+
+        private Segment(String text, int sourceStart, int pauseMillis, String voice, float pitchScale,
+                        float rateScale) {
+            this.text = text;
+            this.sourceStart = sourceStart;
+            this.pauseMillis = pauseMillis;
+            this.voice = voice;
+            this.pitchScale = pitchScale;
+            this.rateScale = rateScale;
+        }
+
+        /**
+         * @return the text to speak, empty for a pause
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * @return where the text starts in the message, or -1 for a pause
+         */
+        public int getSourceStart() {
+            return sourceStart;
+        }
+
+        public int getPauseMillis() {
+            return pauseMillis;
+        }
+
+        public boolean isPause() {
+            return pauseMillis > 0;
+        }
+
+        /**
+         * @return the voice named in the markup, or null for the message's own voice
+         */
+        public String getVoice() {
+            return voice;
+        }
+
+        public float getPitchScale() {
+            return pitchScale;
+        }
+
+        public float getRateScale() {
+            return rateScale;
+        }
+
+        public boolean hasDefaultSettings() {
+            return voice == null && pitchScale == 1f && rateScale == 1f;
+        }
+
+        @Override
+        public String toString() {
+            if (isPause()) return "pause " + pauseMillis + "ms";
+            return "\"" + text + "\" at " + sourceStart + " voice " + voice + " pitch " + pitchScale
+                    + " rate " + rateScale;
+        }
+    }
+
+    private final String text;
+    private final TextSegmenter segmenter;
+    private final MarkupParser parser = new MarkupParser();
+    private final ArrayList<Segment> segments = new ArrayList<>();
+    // Text between two tags, gathered from the text tokens in it
+    private final StringBuilder run = new StringBuilder();
+    // Where each text token of the run starts, in the run and in the message
+    private int[] runOffsets = new int[4];
+    private int[] sourceOffsets = new int[4];
+    private int pieceCount;
+    private TextSegmenter.Cursor cursor;
+    private String cursorText;
+    private int searchFrom;
+    // The parser's current token has not been applied yet, because the run before it was
+    private boolean hasPendingToken;
+    private String voice;
+    private float pitchScale = 1f;
+    private float rateScale = 1f;
+    private boolean isEmphasized;
+
+    public UtterancePlan(String text, TextSegmenter segmenter) {
+        this.text = text;
+        this.segmenter = segmenter;
+        parser.reset(text);
+    }
+
+    @Override
+    public synchronized String next() {
+        Segment segment = nextSegment();
+        if (segment == null) return null;
+        segments.add(segment);
+        return segment.text;
+    }
+
+    /**
+     * @return a segment already handed out by {@link #next}, or null
+     */
+    public synchronized Segment get(int index) {
+        return index >= 0 && index < segments.size() ? segments.get(index) : null;
+    }
+
+    private Segment nextSegment() {
+        while (true) {
+            if (cursor != null) {
+                String next = cursor.next();
+                if (next != null) return textSegment(next);
+                cursor = null;
+                cursorText = null;
+            }
+            MarkupParser.Token token = hasPendingToken ? parser.getToken() : parser.next();
+            hasPendingToken = false;
+            if (token == MarkupParser.Token.TEXT) {
+                addPiece(parser.getStart(), parser.getEnd());
+                continue;
+            }
+            if (run.length() > 0) {
+                // Everything before the tag is spoken with the settings in effect before it
+                cursorText = run.toString();
+                cursor = segmenter.segment(cursorText);
+                searchFrom = 0;
+                run.setLength(0);
+                hasPendingToken = true;
+                continue;
+            }
+            switch (token) {
+                case END:
+                    return null;
+                case PAUSE:
+                    if (parser.getPauseMillis() > 0) {
+                        return new Segment("", -1, parser.getPauseMillis(), voice, 1f, 1f);
+                    }
+                    break;
+                case VOICE:
+                    voice = parser.getStart() == parser.getEnd() ? null
+                            : text.substring(parser.getStart(), parser.getEnd());
+                    break;
+                case PITCH:
+                    pitchScale = parser.getScale();
+                    break;
+                case RATE:
+                    rateScale = parser.getScale();
+                    break;
+                case EMPHASIS:
+                    isEmphasized = parser.isEmphasisStart();
+                    break;
+            }
+        }
+    }
+
+    private void addPiece(int start, int end) {
+        // The previous run is fully segmented by the time a new one starts
+        if (run.length() == 0) pieceCount = 0;
+        if (pieceCount == runOffsets.length) {
+            runOffsets = Arrays.copyOf(runOffsets, pieceCount * 2);
+            sourceOffsets = Arrays.copyOf(sourceOffsets, pieceCount * 2);
+        }
+        runOffsets[pieceCount] = run.length();
+        sourceOffsets[pieceCount] = start;
+        pieceCount++;
+        run.append(text, start, end);
+    }
+
+    private Segment textSegment(String segment) {
+        // Segments are trimmed substrings of the run, so they are found as they are
+        int offset = cursorText.indexOf(segment, searchFrom);
+        searchFrom = offset + segment.length();
+        float pitch = isEmphasized ? pitchScale * EMPHASIS_PITCH : pitchScale;
+        float rate = isEmphasized ? rateScale * EMPHASIS_RATE : rateScale;
+        return new Segment(segment, toSource(offset), 0, voice, pitch, rate);
+    }
+
+    private int toSource(int runOffset) {
+        int piece = pieceCount - 1;
+        while (piece > 0 && runOffsets[piece] > runOffset) piece--;
+        return sourceOffsets[piece] + runOffset - runOffsets[piece];
+    }
+}
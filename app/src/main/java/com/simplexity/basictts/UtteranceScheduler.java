@@ -0,0 +1,340 @@
+package com.simplexity.basictts;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Decides what the engine speaks next. Utterances are queued FIFO per priority; an utterance of
+ * higher priority preempts lower-priority playback, and the interrupted utterance later resumes
+ * at the sentence where it was cut off. Only one utterance is in the engine at a time, with up to
+ * {@code lookahead} of its segments queued there.
+ *
+ * <p>All state lives on the executor passed in, which must run tasks one at a time, in order and
+ * never re-entrantly: a single dedicated thread in the app, a manually drained queue in tests.
+ * Engine callbacks may arrive from any thread. Listener callbacks run on the executor. Tasks hold
+ * a lock only so that {@link #getSnapshot} can build the rarely read snapshot from another thread.
+ */
+public class UtteranceScheduler {
+
+    public static final int DEFAULT_LOOKAHEAD = 2;
+    private static final String SEGMENT_SEPARATOR = "#";
+
+    public enum Priority {
+        URGENT,
+        NORMAL,
+        BACKGROUND
+    }
+
+    public enum State {
+        PLAYING,
+        WAITING,
+        INTERRUPTED
+    }
+
+    /**
+     * Lazily produces the segments of one utterance.
+     */
+    public interface SegmentSource {
+        /**
+         * @return the next segment, or null once the text is exhausted
+         */
+        String next();
+    }
+
+    public interface SpeechEngine {
+        /**
+         * Queues one segment behind the ones already handed over. The outcome is reported back
+         * through the scheduler's onSegment* methods under the same segment id.
+         */
+        void speak(Utterance utterance, String segmentId, String text, int segmentIndex);
+
+        /**
+         * Drops everything handed over so far, including the segment that is playing.
+         */
+        void stop();
+    }
+
+    public interface Listener {
+        void onStart(Utterance utterance);
+
+        void onPreempted(Utterance utterance);
+
+        void onDone(Utterance utterance);
+
+        void onError(Utterance utterance, int errorCode);
+
+        void onDropped(Utterance utterance);
+    }
+
+    /**
+     * Immutable view of one queued utterance, for inspecting the queue from any thread.
+     */
+    public static final class Entry {
+        private final String utteranceId;
+        private final Priority priority;
+        private final State state;
+        private final int finishedSegments;
+
+        private Entry(String utteranceId, Priority priority, State state, int finishedSegments) {
+            this.utteranceId = utteranceId;
+            this.priority = priority;
+            this.state = state;
+            this.finishedSegments = finishedSegments;
+        }
+
+        public String getUtteranceId() {
+            return utteranceId;
+        }
+
+        public Priority getPriority() {
+            return priority;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public int getFinishedSegments() {
+            return finishedSegments;
+        }
+
+        @Override
+        public String toString() {
+            return utteranceId + " " + priority + " " + state + " at segment " + finishedSegments;
+        }
+    }
+
+    private static final class Item {
+        private final Utterance utterance;
+        private final Priority priority;
+        private final SegmentSource segments;
+        // Segments handed to the engine but not finished; replayed in order after a preemption
+        private final ArrayDeque<String> unfinished = new ArrayDeque<>();
+        private final ArrayDeque<String> replay = new ArrayDeque<>();
+        private int finishedSegments;
+        private boolean isExhausted;
+        private boolean isStarted;
+        private boolean wasInterrupted;
+
+        private Item(Utterance utterance, Priority priority, SegmentSource segments) {
+            this.utterance = utterance;
+            this.priority = priority;
+            this.segments = segments;
+        }
+
+        private String nextSegment() {
+            if (!replay.isEmpty()) return replay.pollFirst();
+            if (isExhausted) return null;
+            String next = segments.next();
+            if (next == null) isExhausted = true;
+            return next;
+        }
+    }
+
+    private final SpeechEngine engine;
+    private final Listener listener;
+    private final Executor executor;
+    private final int lookahead;
+    private final EnumMap<Priority, ArrayDeque<Item>> queues = new EnumMap<>(Priority.class);
+    // Segment ids handed to the engine for the current item, mapped to their index
+    private final HashMap<String, Integer> outstanding = new HashMap<>();
+    private Item current;
+    private long segmentCounter;
+    private final Object lock = new Object();
+    // Built on demand, null once the queue changed
+    private List<Entry> snapshot = Collections.emptyList();
+    private volatile int queueDepth;
+
+    public UtteranceScheduler(SpeechEngine engine, Listener listener, Executor executor, int lookahead) {
+        this.engine = engine;
+        this.listener = listener;
+        this.executor = executor;
+        this.lookahead = Math.max(1, lookahead);
+        for (Priority priority : Priority.values()) {
+            queues.put(priority, new ArrayDeque<>());
+        }
+    }
+
+    public UtteranceScheduler(SpeechEngine engine, Listener listener, Executor executor) {
+        this(engine, listener, executor, DEFAULT_LOOKAHEAD);
+    }
+
+    public void submit(Utterance utterance, Priority priority, SegmentSource segments) {
+        post(() -> {
+            queues.get(priority).addLast(new Item(utterance, priority, segments));
+            if (current != null && priority.ordinal() < current.priority.ordinal()) {
+                preemptCurrent();
+            }
+            pump();
+        });
+    }
+
+    /**
+     * Drops the playing utterance and everything queued, and flushes the engine.
+     */
+    public void stop() {
+        post(() -> {
+            List<Item> dropped = new ArrayList<>();
+            if (current != null) dropped.add(current);
+            for (ArrayDeque<Item> queue : queues.values()) {
+                dropped.addAll(queue);
+                queue.clear();
+            }
+            current = null;
+            outstanding.clear();
+            engine.stop();
+            onQueueChanged();
+            for (Item item : dropped) {
+                listener.onDropped(item.utterance);
+            }
+        });
+    }
+
+    public void onSegmentStart(String segmentId) {
+        post(() -> {
+            if (!outstanding.containsKey(segmentId) || current.isStarted) return;
+            current.isStarted = true;
+            listener.onStart(current.utterance);
+        });
+    }
+
+    public void onSegmentDone(String segmentId) {
+        post(() -> {
+            Integer index = outstanding.remove(segmentId);
+            if (index == null) return;
+            current.unfinished.pollFirst();
+            current.finishedSegments = index + 1;
+            pump();
+        });
+    }
+
+    public void onSegmentError(String segmentId, int errorCode) {
+        post(() -> {
+            if (!outstanding.containsKey(segmentId)) return;
+            Item failed = current;
+            current = null;
+            outstanding.clear();
+            // Later segments of the same utterance may still be queued in the engine
+            engine.stop();
+            listener.onError(failed.utterance, errorCode);
+            pump();
+        });
+    }
+
+    /**
+     * The engine stopped a segment on its own, not because of {@link #stop} or a preemption.
+     */
+    public void onSegmentStopped(String segmentId) {
+        post(() -> {
+            if (!outstanding.containsKey(segmentId)) return;
+            Item dropped = current;
+            current = null;
+            outstanding.clear();
+            listener.onDropped(dropped.utterance);
+            pump();
+        });
+    }
+
+    /**
+     * @return the playing utterance first, then the waiting ones in the order they will play
+     */
+    public List<Entry> getSnapshot() {
+        synchronized (lock) {
+            if (snapshot == null) snapshot = buildSnapshot();
+            return snapshot;
+        }
+    }
+
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    private void post(Runnable task) {
+        executor.execute(() -> {
+            synchronized (lock) {
+                task.run();
+            }
+        });
+    }
+
+    private void preemptCurrent() {
+        Item interrupted = current;
+        current = null;
+        outstanding.clear();
+        // Restart from the first sentence that did not finish
+        while (!interrupted.unfinished.isEmpty()) {
+            interrupted.replay.addFirst(interrupted.unfinished.pollLast());
+        }
+        interrupted.wasInterrupted = true;
+        // Reported started again once the resumed run plays, so listeners leave the interrupted state
+        interrupted.isStarted = false;
+        queues.get(interrupted.priority).addFirst(interrupted);
+        engine.stop();
+        Tracing.d("UtteranceScheduler", "Preempted ", interrupted.utterance.getUtteranceId());
+        listener.onPreempted(interrupted.utterance);
+    }
+
+    private void pump() {
+        while (true) {
+            if (current == null) {
+                current = pollHighestPriority();
+                if (current == null) break;
+            }
+            while (outstanding.size() < lookahead) {
+                String text = current.nextSegment();
+                if (text == null) break;
+                int index = current.finishedSegments + current.unfinished.size();
+                String segmentId = current.utterance.getUtteranceId() + SEGMENT_SEPARATOR + (++segmentCounter);
+                current.unfinished.addLast(text);
+                outstanding.put(segmentId, index);
+                engine.speak(current.utterance, segmentId, text, index);
+            }
+            if (outstanding.isEmpty() && current.isExhausted && current.replay.isEmpty()) {
+                // Every segment has finished, or the text was only whitespace
+                Item finished = current;
+                current = null;
+                listener.onDone(finished.utterance);
+                continue;
+            }
+            break;
+        }
+        onQueueChanged();
+    }
+
+    private Item pollHighestPriority() {
+        for (ArrayDeque<Item> queue : queues.values()) {
+            Item item = queue.pollFirst();
+            if (item != null) return item;
+        }
+        return null;
+    }
+
+    private void onQueueChanged() {
+        snapshot = null;
+        int depth = current == null ? 0 : 1;
+        for (ArrayDeque<Item> queue : queues.values()) {
+            depth += queue.size();
+        }
+        queueDepth = depth;
+    }
+
+    private List<Entry> buildSnapshot() {
+        List<Entry> entries = new ArrayList<>();
+        if (current != null) {
+            entries.add(new Entry(current.utterance.getUtteranceId(), current.priority, State.PLAYING,
+                    current.finishedSegments));
+        }
+        for (ArrayDeque<Item> queue : queues.values()) {
+            for (Item item : queue) {
+                entries.add(new Entry(item.utterance.getUtteranceId(), item.priority,
+                        item.wasInterrupted ? State.INTERRUPTED : State.WAITING, item.finishedSegments));
+            }
+        }
+        return Collections.unmodifiableList(entries);
+    }
+}
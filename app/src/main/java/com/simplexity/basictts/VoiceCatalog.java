@@ -0,0 +1,289 @@
+package com.simplexity.basictts;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.speech.tts.TextToSpeech;
+import android.speech.tts.Voice;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Index of the engine's voices keyed by voice name and by language tag. The index is persisted
+ * to app storage and only rebuilt from TextToSpeech.getVoices() when the engine package or its
+ * version code changes. Latencies measured per voice and per engine are kept alongside.
+ */
+public class VoiceCatalog {
+
+    private static final String CATALOG_FILE = "voice_catalog.bin";
+    private static final String LATENCY_FILE = "voice_latency.bin";
+    private static final String ENGINE_STATS_FILE = "engine_stats.bin";
+    private static final int FORMAT_VERSION = 1;
+
+    private final File catalogFile;
+    private final File latencyFile;
+    private final File engineStatsFile;
+    private final VoiceLatencyStats latencyStats = new VoiceLatencyStats();
+    private EngineStats engineStats;
+    private final PackageManager packageManager;
+    private final HashMap<String, Voice> voicesByName = new HashMap<>();
+    private final VoiceIndex voiceIndex = new VoiceIndex();
+    private boolean isLoaded;
+    private String loadedEngine;
+
+    public VoiceCatalog(Context context) {
+        this.catalogFile = new File(context.getFilesDir(), CATALOG_FILE);
+        this.latencyFile = new File(context.getFilesDir(), LATENCY_FILE);
+        this.engineStatsFile = new File(context.getFilesDir(), ENGINE_STATS_FILE);
+        this.packageManager = context.getPackageManager();
+    }
+
+    /**
+     * Loads the voices of the engine the instance is bound to, from disk if that engine was
+     * enumerated before at the same version.
+     */
+    public void load(TextToSpeech textToSpeech, String enginePackage) {
+        long loadStart = Tracing.start();
+        long engineVersion = getEngineVersion(enginePackage);
+        clear();
+        readLatencyStats();
+        if (readFromDisk(enginePackage, engineVersion)) {
+            Tracing.d("VoiceCatalog", "Voices loaded from disk: ", voicesByName.size());
+            isLoaded = true;
+            loadedEngine = enginePackage;
+            Tracing.record(Tracing.Metric.VOICE_ENUMERATION, loadStart);
+            return;
+        }
+        clear();
+        Set<Voice> voices = textToSpeech.getVoices();
+        if (voices == null) {
+            Tracing.d("VoiceCatalog", "Voices are null");
+            return;
+        }
+        for (Voice voice : voices) {
+            addVoice(voice);
+        }
+        writeToDisk(enginePackage, engineVersion);
+        Tracing.d("VoiceCatalog", "Voices enumerated from engine: ", voicesByName.size());
+        isLoaded = true;
+        loadedEngine = enginePackage;
+        Tracing.record(Tracing.Metric.VOICE_ENUMERATION, loadStart);
+    }
+
+    public void invalidate() {
+        clear();
+        if (catalogFile.exists() && !catalogFile.delete()) {
+            Log.d("VoiceCatalog", "Could not delete catalog file");
+        }
+    }
+
+    public boolean isLoaded() {
+        return isLoaded;
+    }
+
+    /**
+     * @return whether the voices of this engine are loaded, rather than another engine's
+     */
+    public boolean isLoadedFor(String enginePackage) {
+        return isLoaded && enginePackage != null && enginePackage.equals(loadedEngine);
+    }
+
+    /**
+     * @return the engine whose voices the catalog holds or last saved, which is where the voice
+     * the user picked comes from; null if unknown
+     */
+    public String getCatalogEngine() {
+        if (isLoaded) return loadedEngine;
+        if (!catalogFile.exists()) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(catalogFile)))) {
+            if (in.readInt() != FORMAT_VERSION) return null;
+            return in.readUTF();
+        } catch (IOException e) {
+            Log.d("VoiceCatalog", "Could not read catalog: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public Voice getVoice(String voiceName) {
+        if (voiceName == null) return null;
+        return voicesByName.get(voiceName);
+    }
+
+    public VoiceInfo getVoiceInfo(String voiceName) {
+        return voiceIndex.get(voiceName);
+    }
+
+    public VoiceIndex getVoiceIndex() {
+        return voiceIndex;
+    }
+
+    public VoiceLatencyStats getLatencyStats() {
+        return latencyStats;
+    }
+
+    /**
+     * @return per-engine init and first-audio times, read from disk on first use
+     */
+    public synchronized EngineStats getEngineStats() {
+        if (engineStats == null) {
+            engineStats = new EngineStats();
+            if (engineStatsFile.exists()) {
+                try (DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(new FileInputStream(engineStatsFile)))) {
+                    engineStats.readFrom(in);
+                } catch (IOException e) {
+                    Log.d("VoiceCatalog", "Could not read engine stats: " + e.getMessage());
+                }
+            }
+        }
+        return engineStats;
+    }
+
+    /**
+     * Resolves a voice preference value, including the "auto" option, to an engine voice.
+     */
+    public Voice resolveVoice(String voiceName) {
+        if (!VoiceIndex.isAutoVoice(voiceName)) return getVoice(voiceName);
+        String languageTag = voiceName.substring(VoiceIndex.AUTO_VOICE_PREFIX.length());
+        VoiceInfo fastest = voiceIndex.selectFastestVoice(languageTag, latencyStats);
+        if (fastest == null) return null;
+        Tracing.d("VoiceCatalog", "Fastest voice: ", fastest);
+        return getVoice(fastest.getVoiceId());
+    }
+
+    /**
+     * Resolves a voice typed by the user in message markup: an exact voice name, a name without
+     * its "-local" or "-network" suffix, or a language tag for its fastest voice.
+     */
+    public Voice findVoice(String typed) {
+        Voice voice = resolveVoice(typed);
+        if (voice == null) voice = getVoice(typed + "-local");
+        if (voice == null) voice = getVoice(typed + "-network");
+        if (voice == null) {
+            // Tags are stored canonically, "en-gb" is kept as "en-GB"
+            voice = resolveVoice(VoiceIndex.AUTO_VOICE_PREFIX + Locale.forLanguageTag(typed).toLanguageTag());
+        }
+        return voice;
+    }
+
+    public void saveEngineStats() {
+        EngineStats stats = getEngineStats();
+        if (!stats.isDirty()) return;
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(engineStatsFile)))) {
+            stats.writeTo(out);
+        } catch (IOException e) {
+            Log.d("VoiceCatalog", "Could not write engine stats: " + e.getMessage());
+        }
+    }
+
+    public void saveLatencyStats() {
+        if (!latencyStats.isDirty()) return;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(latencyFile)))) {
+            latencyStats.writeTo(out);
+        } catch (IOException e) {
+            Log.d("VoiceCatalog", "Could not write voice latencies: " + e.getMessage());
+        }
+    }
+
+    private void addVoice(Voice voice) {
+        if (voice == null || voice.getLocale() == null) return;
+        Locale locale = voice.getLocale();
+        Set<String> features = voice.getFeatures();
+        boolean installed = features == null || !features.contains(TextToSpeech.Engine.KEY_FEATURE_NOT_INSTALLED);
+        VoiceInfo voiceInfo = new VoiceInfo(VoiceInfo.createHumanReadableName(voice.getName(), locale),
+                voice.getName(), locale, voice.isNetworkConnectionRequired(), voice.getQuality(),
+                voice.getLatency(), installed);
+        voicesByName.put(voice.getName(), voice);
+        voiceIndex.add(voiceInfo);
+    }
+
+    private void clear() {
+        voicesByName.clear();
+        voiceIndex.clear();
+        isLoaded = false;
+    }
+
+    private void readLatencyStats() {
+        if (!latencyFile.exists()) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(latencyFile)))) {
+            latencyStats.readFrom(in);
+        } catch (IOException e) {
+            Log.d("VoiceCatalog", "Could not read voice latencies: " + e.getMessage());
+        }
+    }
+
+    public long getEngineVersion(String enginePackage) {
+        if (enginePackage == null) return -1;
+        try {
+            return packageManager.getPackageInfo(enginePackage, 0).getLongVersionCode();
+        } catch (PackageManager.NameNotFoundException e) {
+            Tracing.d("VoiceCatalog", "Engine package not found: ", enginePackage);
+            return -1;
+        }
+    }
+
+    private boolean readFromDisk(String enginePackage, long engineVersion) {
+        if (enginePackage == null || !catalogFile.exists()) return false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(catalogFile)))) {
+            if (in.readInt() != FORMAT_VERSION) return false;
+            if (!enginePackage.equals(in.readUTF())) return false;
+            if (in.readLong() != engineVersion) return false;
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                Locale locale = Locale.forLanguageTag(in.readUTF());
+                int quality = in.readInt();
+                int latency = in.readInt();
+                boolean networkRequired = in.readBoolean();
+                int featureCount = in.readInt();
+                Set<String> features = new HashSet<>();
+                for (int j = 0; j < featureCount; j++) {
+                    features.add(in.readUTF());
+                }
+                addVoice(new Voice(name, locale, quality, latency, networkRequired, features));
+            }
+            return true;
+        } catch (IOException e) {
+            Log.d("VoiceCatalog", "Could not read catalog: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void writeToDisk(String enginePackage, long engineVersion) {
+        if (enginePackage == null) return;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(catalogFile)))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(enginePackage);
+            out.writeLong(engineVersion);
+            out.writeInt(voicesByName.size());
+            for (Voice voice : voicesByName.values()) {
+                out.writeUTF(voice.getName());
+                out.writeUTF(voice.getLocale().toLanguageTag());
+                out.writeInt(voice.getQuality());
+                out.writeInt(voice.getLatency());
+                out.writeBoolean(voice.isNetworkConnectionRequired());
+                Set<String> features = voice.getFeatures();
+                if (features == null) features = Collections.emptySet();
+                out.writeInt(features.size());
+                for (String feature : features) {
+                    out.writeUTF(feature);
+                }
+            }
+        } catch (IOException e) {
+            Log.d("VoiceCatalog", "Could not write catalog: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.simplexity.basictts;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Voice lookups by name and by language tag, plus the orderings the settings screen shows.
+ * Holds no Android types so it can be exercised on a plain JVM.
+ */
+public class VoiceIndex {
+
+    /**
+     * Voice preference values starting with this prefix, followed by a language tag, ask for the
+     * fastest good-enough installed offline voice of that language.
+     */
+    public static final String AUTO_VOICE_PREFIX = "auto:";
+
+    private static final Comparator<VoiceInfo> DISPLAY_ORDER = Comparator.comparing(VoiceInfo::isNetworkRequired)
+            .thenComparing(VoiceInfo::getHumanReadableName, String.CASE_INSENSITIVE_ORDER);
+
+    private final HashMap<String, VoiceInfo> voicesByName = new HashMap<>();
+    private final HashMap<String, List<VoiceInfo>> voicesByLanguage = new HashMap<>();
+
+    public void add(VoiceInfo voiceInfo) {
+        VoiceInfo previous = voicesByName.put(voiceInfo.getVoiceId(), voiceInfo);
+        List<VoiceInfo> languageVoices = voicesByLanguage.computeIfAbsent(
+                voiceInfo.getLocale().toLanguageTag(), tag -> new ArrayList<>());
+        if (previous != null) languageVoices.remove(previous);
+        languageVoices.add(voiceInfo);
+    }
+
+    public void clear() {
+        voicesByName.clear();
+        voicesByLanguage.clear();
+    }
+
+    public int size() {
+        return voicesByName.size();
+    }
+
+    public VoiceInfo get(String voiceName) {
+        if (voiceName == null) return null;
+        return voicesByName.get(voiceName);
+    }
+
+    public List<VoiceInfo> getVoicesForLanguage(String languageTag) {
+        List<VoiceInfo> voices = voicesByLanguage.get(languageTag);
+        if (voices == null) return Collections.emptyList();
+        return Collections.unmodifiableList(voices);
+    }
+
+    public Set<String> getLanguageTags() {
+        return Collections.unmodifiableSet(voicesByLanguage.keySet());
+    }
+
+    /**
+     * Voices for the language, offline voices first and then by display name.
+     */
+    public List<VoiceInfo> getSortedVoices(String languageTag, boolean includeNetworkVoices) {
+        List<VoiceInfo> voices = voicesByLanguage.get(languageTag);
+        if (voices == null) return Collections.emptyList();
+        List<VoiceInfo> sorted = new ArrayList<>(voices.size());
+        for (VoiceInfo voice : voices) {
+            if (includeNetworkVoices || !voice.isNetworkRequired()) sorted.add(voice);
+        }
+        sorted.sort(DISPLAY_ORDER);
+        return sorted;
+    }
+
+    /**
+     * Locales that have at least one voice, ordered by display name.
+     */
+    public List<Locale> getSortedLocales() {
+        // getDisplayName is slow, so resolve it once per locale rather than per comparison
+        List<Map.Entry<String, Locale>> named = new ArrayList<>(voicesByLanguage.size());
+        for (String languageTag : voicesByLanguage.keySet()) {
+            Locale locale = Locale.forLanguageTag(languageTag);
+            named.add(new AbstractMap.SimpleImmutableEntry<>(locale.getDisplayName(), locale));
+        }
+        named.sort(Map.Entry.comparingByKey());
+        List<Locale> locales = new ArrayList<>(named.size());
+        for (Map.Entry<String, Locale> entry : named) {
+            locales.add(entry.getValue());
+        }
+        return locales;
+    }
+
+    public static boolean isAutoVoice(String voiceName) {
+        return voiceName != null && voiceName.startsWith(AUTO_VOICE_PREFIX);
+    }
+
+    /**
+     * Picks the installed offline voice of the language with the lowest expected latency. Voices
+     * with measured latency on this device are ranked by that, the rest by their declared latency
+     * level. Voices below normal quality are only considered if nothing better is installed.
+     *
+     * @return the chosen voice, or null if the language has no installed offline voice
+     */
+    public VoiceInfo selectFastestVoice(String languageTag, VoiceLatencyStats latencyStats) {
+        List<VoiceInfo> voices = voicesByLanguage.get(languageTag);
+        if (voices == null) return null;
+        VoiceInfo best = null;
+        double bestMillis = Double.MAX_VALUE;
+        boolean bestIsGoodEnough = false;
+        for (VoiceInfo voice : voices) {
+            if (voice.isNetworkRequired() || !voice.isInstalled()) continue;
+            boolean goodEnough = voice.getQuality() >= VoiceInfo.QUALITY_NORMAL;
+            if (bestIsGoodEnough && !goodEnough) continue;
+            double millis = expectedLatencyMillis(voice, latencyStats);
+            boolean better = best == null
+                    || (goodEnough && !bestIsGoodEnough)
+                    || millis < bestMillis
+                    || (millis == bestMillis && voice.getQuality() > best.getQuality())
+                    || (millis == bestMillis && voice.getQuality() == best.getQuality()
+                    && voice.getVoiceId().compareTo(best.getVoiceId()) < 0);
+            if (better) {
+                best = voice;
+                bestMillis = millis;
+                bestIsGoodEnough = goodEnough;
+            }
+        }
+        return best;
+    }
+
+    private static double expectedLatencyMillis(VoiceInfo voice, VoiceLatencyStats latencyStats) {
+        if (latencyStats != null) {
+            double measured = latencyStats.getMeasuredMillis(voice.getVoiceId());
+            if (!Double.isNaN(measured)) return measured;
+        }
+        // Declared levels run 100 (very low) to 500 (very high); treat each step as doubling
+        int level = Math.max(1, Math.min(5, voice.getLatency() / 100));
+        return 50d * (1 << (level - 1));
+    }
+}
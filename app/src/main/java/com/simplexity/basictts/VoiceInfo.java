@@ -3,24 +3,39 @@ package com.simplexity.basictts;
 import java.util.Locale;
 
 public class VoiceInfo {
+    // Same values as the android.speech.tts.Voice QUALITY_* and LATENCY_* constants
+    public static final int QUALITY_NORMAL = 300;
+    public static final int LATENCY_NORMAL = 300;
+
     private final String humanReadableName;
     private final String voiceId;
     private final Locale locale;
     private final boolean isNetworkRequired;
+    private final int quality;
+    private final int latency;
+    private final boolean isInstalled;
     private boolean isDefault;
 
 
     public VoiceInfo(String humanReadableName, String voiceId, Locale locale, boolean isNetworkRequired) {
+        this(humanReadableName, voiceId, locale, isNetworkRequired, QUALITY_NORMAL, LATENCY_NORMAL, true);
+    }
+
+    public VoiceInfo(String humanReadableName, String voiceId, Locale locale, boolean isNetworkRequired,
+                     int quality, int latency, boolean isInstalled) {
         this.humanReadableName = humanReadableName;
         this.voiceId = voiceId;
         this.locale = locale;
         this.isNetworkRequired = isNetworkRequired;
-
+        this.quality = quality;
+        this.latency = latency;
+        this.isInstalled = isInstalled;
     }
 
     @Override
     public String toString() {
-        return "name=" + humanReadableName + ", id=" + voiceId + ", locale=" + locale;
+        return "name=" + humanReadableName + ", id=" + voiceId + ", locale=" + locale + ", quality=" + quality
+                + ", latency=" + latency + ", installed=" + isInstalled;
     }
 
     public String getHumanReadableName() {
@@ -46,4 +61,60 @@ public class VoiceInfo {
     public boolean isNetworkRequired() {
         return isNetworkRequired;
     }
+
+    public int getQuality() {
+        return quality;
+    }
+
+    public int getLatency() {
+        return latency;
+    }
+
+    public boolean isInstalled() {
+        return isInstalled;
+    }
+
+    /**
+     * Turns an engine voice name like "en-us-x-iol-local" into "iol (Offline)" in a single pass:
+     * the locale prefix and the "x" private-use marker are dropped, the remaining dash-separated
+     * parts are lowercased and joined with spaces, and the network/local/language markers are
+     * replaced with readable labels.
+     */
+    public static String createHumanReadableName(String voiceName, Locale locale) {
+        String localeName = locale.toString().replace('_', '-');
+        int start = 0;
+        if (!localeName.isEmpty() && voiceName.regionMatches(true, 0, localeName, 0, localeName.length())) {
+            start = localeName.length();
+        }
+        StringBuilder builder = new StringBuilder(voiceName.length() + 16);
+        int tokenStart = start;
+        for (int i = start; i <= voiceName.length(); i++) {
+            if (i < voiceName.length() && voiceName.charAt(i) != '-') continue;
+            appendNamePart(builder, voiceName, tokenStart, i);
+            tokenStart = i + 1;
+        }
+        return builder.length() == 0 ? voiceName : builder.toString();
+    }
+
+    private static void appendNamePart(StringBuilder builder, String name, int start, int end) {
+        int length = end - start;
+        if (length <= 0) return;
+        if (length == 1 && Character.toLowerCase(name.charAt(start)) == 'x') return;
+        if (builder.length() > 0) builder.append(' ');
+        if (partEquals(name, start, length, "network")) {
+            builder.append("(Requires Wifi)");
+        } else if (partEquals(name, start, length, "local")) {
+            builder.append("(Offline)");
+        } else if (partEquals(name, start, length, "language")) {
+            builder.append("Default");
+        } else {
+            for (int i = start; i < end; i++) {
+                builder.append(Character.toLowerCase(name.charAt(i)));
+            }
+        }
+    }
+
+    private static boolean partEquals(String name, int start, int length, String word) {
+        return length == word.length() && name.regionMatches(true, start, word, 0, length);
+    }
 }
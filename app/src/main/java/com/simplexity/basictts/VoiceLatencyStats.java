@@ -0,0 +1,57 @@
+package com.simplexity.basictts;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Send-to-start latency measured on this device, per voice name, as an exponential moving
+ * average so a few slow first runs do not stick forever.
+ */
+public class VoiceLatencyStats {
+
+    private static final double SMOOTHING = 0.3;
+
+    private final HashMap<String, Double> averageMillis = new HashMap<>();
+    private boolean isDirty;
+
+    public synchronized void record(String voiceName, double millis) {
+        if (voiceName == null || millis < 0) return;
+        Double previous = averageMillis.get(voiceName);
+        double updated = previous == null ? millis : previous + SMOOTHING * (millis - previous);
+        averageMillis.put(voiceName, updated);
+        isDirty = true;
+    }
+
+    /**
+     * @return the measured average, or NaN if the voice has not been used yet
+     */
+    public synchronized double getMeasuredMillis(String voiceName) {
+        Double value = averageMillis.get(voiceName);
+        return value == null ? Double.NaN : value;
+    }
+
+    public synchronized boolean isDirty() {
+        return isDirty;
+    }
+
+    public synchronized void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(averageMillis.size());
+        for (Map.Entry<String, Double> entry : averageMillis.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeDouble(entry.getValue());
+        }
+        isDirty = false;
+    }
+
+    public synchronized void readFrom(DataInputStream in) throws IOException {
+        averageMillis.clear();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            averageMillis.put(in.readUTF(), in.readDouble());
+        }
+        isDirty = false;
+    }
+}
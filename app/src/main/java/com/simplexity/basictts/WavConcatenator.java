@@ -0,0 +1,89 @@
+package com.simplexity.basictts;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Joins WAV files into one by copying their sample data channel to channel, so the audio never
+ * passes through the Java heap. A placeholder header is written first and patched with the real
+ * sizes in {@link #finish}.
+ */
+public class WavConcatenator {
+
+    private final FileChannel output;
+    private PcmAudio.Layout format;
+    private long dataLength;
+
+    /**
+     * @param output an empty, writable and seekable channel; it is not closed here
+     */
+    public WavConcatenator(FileChannel output) throws IOException {
+        this.output = output;
+        output.truncate(0);
+        output.position(PcmAudio.WAV_HEADER_SIZE);
+    }
+
+    /**
+     * Appends the samples of a WAV file. Every file has to match the format of the first one. If
+     * the file cannot be appended, the output is cut back to what it held before.
+     */
+    public void append(File wav) throws IOException {
+        long start = output.position();
+        try (FileChannel input = FileChannel.open(wav.toPath(), StandardOpenOption.READ)) {
+            PcmAudio.Layout layout = PcmAudio.readLayout(input, wav);
+            if (format == null) {
+                format = layout;
+            } else if (!format.hasSameFormat(layout)) {
+                throw new IOException("Format of " + wav + " does not match the first part");
+            }
+            long position = layout.getDataOffset();
+            long end = position + layout.getDataLength();
+            // transferTo may copy less than asked for
+            while (position < end) {
+                long copied = input.transferTo(position, end - position, output);
+                if (copied <= 0) throw new IOException("Could not copy " + wav);
+                position += copied;
+            }
+            dataLength += layout.getDataLength();
+        } catch (IOException e) {
+            output.truncate(start);
+            output.position(start);
+            throw e;
+        }
+    }
+
+    /**
+     * Empties the output, so a failed export does not leave a file that looks playable.
+     */
+    public void discard() throws IOException {
+        output.truncate(0);
+        dataLength = 0;
+        format = null;
+    }
+
+    public long getDataLength() {
+        return dataLength;
+    }
+
+    public long getDurationMillis() {
+        if (format == null) return 0;
+        int frameSize = format.getChannelCount() * format.getBitsPerSample() / 8;
+        if (frameSize == 0) return 0;
+        return dataLength / frameSize * 1000L / format.getSampleRate();
+    }
+
+    /**
+     * Writes the final header. Throws if nothing was appended, since the format is unknown then.
+     */
+    public void finish() throws IOException {
+        if (format == null) throw new IOException("Nothing to export");
+        if (dataLength + PcmAudio.WAV_HEADER_SIZE - 8 > 0xffffffffL) {
+            throw new IOException("Export exceeds the 4 GB WAV limit");
+        }
+        PcmAudio.writeWavHeader(output, format.getSampleRate(), format.getChannelCount(), format.getBitsPerSample(),
+                dataLength);
+        output.force(false);
+    }
+}
@@ -0,0 +1,64 @@
+package com.simplexity.basictts;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class AudioCacheTest {
+
+    private File directory;
+    private AudioCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("cache").toFile();
+        cache = new AudioCache(directory, 1000);
+    }
+
+    @After
+    public void tearDown() {
+        cache.clear();
+        directory.delete();
+    }
+
+    @Test
+    public void replacingAnEntryCountsOnlyTheNewFile() throws IOException {
+        cache.put("a", write("a", 100));
+        cache.put("a", write("a", 300));
+        assertEquals(300, cache.getTotalBytes());
+        assertEquals(1, cache.getEntryCount());
+    }
+
+    @Test
+    public void entryDeletedBehindTheCacheIsUncounted() throws IOException {
+        File file = cache.put("a", write("a", 100));
+        cache.put("b", write("b", 200));
+        file.delete();
+        assertNull(cache.get("a"));
+        assertEquals(200, cache.getTotalBytes());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedOverTheLimit() throws IOException {
+        cache.put("a", write("a", 400));
+        cache.put("b", write("b", 400));
+        cache.get("a");
+        cache.put("c", write("c", 400));
+        assertNull(cache.get("b"));
+        assertEquals(800, cache.getTotalBytes());
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    private File write(String key, int size) throws IOException {
+        File file = cache.createTempFile(key, "u" + System.nanoTime());
+        Files.write(file.toPath(), new byte[size]);
+        return file;
+    }
+}
@@ -0,0 +1,107 @@
+package com.simplexity.basictts;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ConversationTest {
+
+    private final List<String> events = new ArrayList<>();
+    private Conversation conversation;
+
+    @Before
+    public void setUp() {
+        conversation = new Conversation(1000, new Conversation.Observer() {
+            @Override
+            public void onMessagesInserted(int start, int count) {
+                events.add("insert " + start + " " + count);
+            }
+
+            @Override
+            public void onMessageChanged(int position) {
+                events.add("change " + position);
+            }
+
+            @Override
+            public void onHighlightChanged(long messageId, int start, int end) {
+                events.add("highlight " + messageId + " " + start + " " + end);
+            }
+        });
+    }
+
+    @Test
+    public void savedMessagesAreMadeOnDemand() {
+        assertEquals(1000, conversation.size());
+        Message message = conversation.get(123);
+        assertEquals(123, message.getId());
+        assertEquals(Message.State.SAVED, message.getState());
+        assertEquals(0, message.getTimestampMillis());
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void appendsReportOnlyTheNewRows() {
+        conversation.onMessageAppended(1000);
+        // One seen late, after another message was appended elsewhere
+        conversation.onMessageAppended(1002);
+        conversation.onMessageAppended(1001);
+
+        assertEquals(1003, conversation.size());
+        assertEquals(List.of("insert 1000 1", "insert 1001 2"), events);
+        assertTrue(conversation.get(1001).getTimestampMillis() > 0);
+    }
+
+    @Test
+    public void stateChangesReportOneRowEach() {
+        conversation.onMessageAppended(1000);
+        conversation.track("u1", 1000, "voice");
+        conversation.onStart("u1");
+        conversation.onRangeStart("u1", 0, 4);
+        conversation.onDone("u1");
+
+        assertEquals(List.of("insert 1000 1", "change 1000", "change 1000", "highlight 1000 0 4",
+                "highlight -1 0 0", "change 1000"), events);
+        Message message = conversation.get(1000);
+        assertEquals(Message.State.SPOKEN, message.getState());
+        assertEquals("voice", message.getVoice());
+    }
+
+    @Test
+    public void resumedMessageIsSpeakingAgain() {
+        conversation.track("u1", 10, "voice");
+        conversation.onStart("u1");
+        conversation.onPreempted("u1");
+        assertEquals(Message.State.INTERRUPTED, conversation.get(10).getState());
+        conversation.onStart("u1");
+        assertEquals(Message.State.SPEAKING, conversation.get(10).getState());
+    }
+
+    @Test
+    public void coalescedUtteranceUpdatesEachMessage() {
+        conversation.track("u1", 10, "voice");
+        conversation.track("u1", 11, "voice");
+        events.clear();
+        conversation.onDropped("u1");
+
+        assertEquals(List.of("change 10", "change 11"), events);
+        assertEquals(Message.State.DROPPED, conversation.get(10).getState());
+        assertEquals(Message.State.DROPPED, conversation.get(11).getState());
+        // Untracked rows stay as they were
+        assertEquals(Message.State.SAVED, conversation.get(12).getState());
+        assertNull(conversation.get(12).getVoice());
+    }
+
+    @Test
+    public void ignoresUnknownUtterancesAndPositions() {
+        conversation.track("u1", 5000, "voice");
+        conversation.onStart("u1");
+        conversation.onError("other", 0);
+        assertTrue(events.isEmpty());
+    }
+}
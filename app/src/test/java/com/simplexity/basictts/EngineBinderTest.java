@@ -0,0 +1,232 @@
+package com.simplexity.basictts;
+
+import android.speech.tts.TextToSpeech;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Binds {@link FakeTextToSpeech} engines that hang, fail or call back late, with the binder on
+ * its own thread as in TtsManager. Each test waits for every late init callback and timeout to
+ * be handled before checking that only the bound engine is left running.
+ */
+public class EngineBinderTest {
+
+    private static final long WAIT_SECONDS = 60;
+
+    private final List<ExecutorService> threads = new ArrayList<>();
+    private final ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+    private final List<FakeTextToSpeech.Engines> allEngines = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (ExecutorService thread : threads) {
+            thread.shutdownNow();
+        }
+        for (FakeTextToSpeech.Engines engines : allEngines) {
+            engines.shutdownAll();
+        }
+    }
+
+    @Test
+    public void failsOverPastHangingBrokenAndSlowEngines() throws Exception {
+        FakeTextToSpeech.Engines engines = install(new FakeTextToSpeech.Engines("hang")
+                .install("hang", new FakeTextToSpeech.Settings().hangs())
+                .install("broken", new FakeTextToSpeech.Settings().initStatus(TextToSpeech.ERROR))
+                .install("slow", new FakeTextToSpeech.Settings().initDelay(300))
+                .install("good", new FakeTextToSpeech.Settings().initDelay(5)));
+        EngineStats stats = new EngineStats();
+        BindResult result = bind(engines, stats, 100, null);
+        assertTrue(result.outcome.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        // The slow engine's init callback arrives after it was given up on
+        settle(result);
+
+        assertEquals("good", result.boundPackage.get());
+        assertEquals(1, result.outcomes.get());
+        assertEquals(1, engines.getRunning().size());
+        assertEquals("good", engines.getRunning().get(0).getEnginePackage());
+        assertEquals("good", stats.rank(engines.getInstalledEngines(null), "hang").get(0));
+
+        // The next launch binds the engine that worked first
+        engines.shutdownAll();
+        int created = engines.getCreatedCount();
+        BindResult next = bind(engines, stats, 100, "hang");
+        assertTrue(next.outcome.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertEquals("good", next.boundPackage.get());
+        assertEquals(created + 1, engines.getCreatedCount());
+        assertNoFailures();
+    }
+
+    @Test
+    public void unavailableWhenEveryEngineFails() throws Exception {
+        FakeTextToSpeech.Engines engines = install(new FakeTextToSpeech.Engines("a")
+                .install("a", new FakeTextToSpeech.Settings().hangs())
+                .install("b", new FakeTextToSpeech.Settings().initStatus(TextToSpeech.ERROR)));
+        BindResult result = bind(engines, new EngineStats(), 50, null);
+        assertTrue(result.outcome.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        settle(result);
+
+        assertTrue(result.isUnavailable);
+        assertEquals(1, result.outcomes.get());
+        assertEquals(0, engines.getRunning().size());
+        assertNoFailures();
+    }
+
+    @Test
+    public void randomInitFailuresAndClosesLeaveNoEngineRunning() throws Exception {
+        int rounds = 60;
+        Random random = new Random(17);
+        List<BindResult> results = new ArrayList<>();
+        ScheduledExecutorService closer = newTimer();
+        for (int round = 0; round < rounds; round++) {
+            FakeTextToSpeech.Engines engines = install(new FakeTextToSpeech.Engines("e0"));
+            for (int e = 0; e < 4; e++) {
+                FakeTextToSpeech.Settings settings = new FakeTextToSpeech.Settings().initDelay(random.nextInt(30));
+                int kind = random.nextInt(4);
+                if (kind == 0) settings.hangs();
+                if (kind == 1) settings.initStatus(TextToSpeech.ERROR);
+                engines.install("e" + e, settings);
+            }
+            BindResult result = bind(engines, new EngineStats(), 15, null);
+            results.add(result);
+            if (random.nextBoolean()) {
+                closer.schedule(() -> result.main.execute(() -> {
+                    result.binder.close();
+                    result.isClosed = true;
+                    result.outcome.countDown();
+                }), random.nextInt(40), TimeUnit.MILLISECONDS);
+            }
+        }
+        for (BindResult result : results) {
+            assertTrue(result.outcome.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        }
+        for (BindResult result : results) {
+            settle(result);
+        }
+
+        for (int round = 0; round < rounds; round++) {
+            BindResult result = results.get(round);
+            int running = allEngines.get(round).getRunning().size();
+            assertTrue("round " + round, result.outcomes.get() <= 1);
+            assertEquals("round " + round, result.boundPackage.get() == null ? 0 : 1, running);
+            assertTrue("round " + round, result.outcomes.get() == 1 || result.isClosed);
+        }
+        assertNoFailures();
+    }
+
+    private FakeTextToSpeech.Engines install(FakeTextToSpeech.Engines engines) {
+        allEngines.add(engines);
+        return engines;
+    }
+
+    private BindResult bind(FakeTextToSpeech.Engines engines, EngineStats stats, long timeoutMillis,
+                            String preferred) {
+        BindResult result = new BindResult(guarded(newThread()), newTimer(), timeoutMillis);
+        result.binder = new EngineBinder<>(engines, stats, result.main,
+                (task, delay) -> result.timer.schedule(task, delay, TimeUnit.MILLISECONDS), timeoutMillis,
+                new EngineBinder.Listener<FakeTextToSpeech>() {
+                    @Override
+                    public void onBound(FakeTextToSpeech engine, String enginePackage) {
+                        result.outcomes.incrementAndGet();
+                        result.boundPackage.set(enginePackage);
+                        result.outcome.countDown();
+                    }
+
+                    @Override
+                    public void onUnavailable() {
+                        result.outcomes.incrementAndGet();
+                        result.isUnavailable = true;
+                        result.outcome.countDown();
+                    }
+                });
+        result.main.execute(() -> result.binder.start(preferred));
+        return result;
+    }
+
+    /**
+     * Waits for the init callbacks and timeouts still in flight after the outcome, then for the
+     * binder to have handled them.
+     */
+    private static void settle(BindResult result) throws InterruptedException {
+        FakeTextToSpeech.awaitInitCallbacks();
+        // Anything the binder scheduled is due no later than a timeout from now
+        CountDownLatch timedOut = new CountDownLatch(1);
+        result.timer.schedule(timedOut::countDown, result.timeoutMillis, TimeUnit.MILLISECONDS);
+        assertTrue(timedOut.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        CountDownLatch handled = new CountDownLatch(1);
+        result.main.execute(handled::countDown);
+        assertTrue(handled.await(WAIT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    private ExecutorService newThread() {
+        ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "binder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        threads.add(executor);
+        return executor;
+    }
+
+    private ScheduledExecutorService newTimer() {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        threads.add(timer);
+        return timer;
+    }
+
+    /**
+     * Keeps exceptions thrown on a thread for the test to fail on, rather than losing them.
+     */
+    private Executor guarded(ExecutorService thread) {
+        return task -> thread.execute(() -> {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                failures.add(t);
+            }
+        });
+    }
+
+    private void assertNoFailures() {
+        Throwable failure = failures.peek();
+        if (failure != null) throw new AssertionError(failures.size() + " exceptions on worker threads", failure);
+    }
+
+    private static final class BindResult {
+        private final Executor main;
+        private final ScheduledExecutorService timer;
+        private final long timeoutMillis;
+        private final CountDownLatch outcome = new CountDownLatch(1);
+        private final AtomicInteger outcomes = new AtomicInteger();
+        private final AtomicReference<String> boundPackage = new AtomicReference<>();
+        private EngineBinder<FakeTextToSpeech> binder;
+        private volatile boolean isUnavailable;
+        private volatile boolean isClosed;
+
+        private BindResult(Executor main, ScheduledExecutorService timer, long timeoutMillis) {
+            this.main = main;
+            this.timer = timer;
+            this.timeoutMillis = timeoutMillis;
+        }
+    }
+}
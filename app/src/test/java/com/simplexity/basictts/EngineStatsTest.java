@@ -0,0 +1,87 @@
+package com.simplexity.basictts;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EngineStatsTest {
+
+    @Test
+    public void ranksFastestFirstAndUnmeasuredInGivenOrder() {
+        EngineStats stats = new EngineStats();
+        stats.recordFirstAudio("slow", 1, 900);
+        stats.recordFirstAudio("fast", 1, 120);
+        assertEquals(Arrays.asList("fast", "slow", "b", "a"), stats.rank(Arrays.asList("b", "slow", "a", "fast"), null));
+    }
+
+    @Test
+    public void preferredEngineComesFirstUnlessItFailed() {
+        EngineStats stats = new EngineStats();
+        stats.recordFirstAudio("fast", 1, 120);
+        stats.recordFirstAudio("voice", 1, 500);
+        assertEquals("voice", stats.rank(Arrays.asList("fast", "voice"), "voice").get(0));
+
+        stats.recordFailure("voice");
+        assertEquals(Arrays.asList("fast", "voice"), stats.rank(Arrays.asList("voice", "fast"), "voice"));
+
+        stats.recordInit("voice", 300);
+        assertEquals("voice", stats.rank(Arrays.asList("fast", "voice"), "voice").get(0));
+    }
+
+    @Test
+    public void benchmarksAgainAfterAnUpdate() {
+        EngineStats stats = new EngineStats();
+        assertTrue(stats.needsBenchmark("engine", 7));
+        stats.recordInit("engine", 400);
+        assertTrue(stats.needsBenchmark("engine", 7));
+        stats.recordFirstAudio("engine", 7, 200);
+        assertFalse(stats.needsBenchmark("engine", 7));
+        assertTrue(stats.needsBenchmark("engine", 8));
+    }
+
+    @Test
+    public void failedEngineIsMeasuredAgainUntilItInitializes() {
+        EngineStats stats = new EngineStats();
+        stats.recordInit("voice", 300);
+        stats.recordFirstAudio("voice", 1, 500);
+        assertFalse(stats.needsBenchmark("voice", 1));
+
+        // One timeout at bind must not rank it last for good
+        stats.recordFailure("voice");
+        assertTrue(stats.needsBenchmark("voice", 1));
+
+        // The benchmark binds it again, which clears the failure
+        stats.recordInit("voice", 320);
+        stats.recordFirstAudio("voice", 1, 480);
+        assertFalse(stats.needsBenchmark("voice", 1));
+        assertEquals("voice", stats.rank(Arrays.asList("fast", "voice"), "voice").get(0));
+    }
+
+    @Test
+    public void survivesWriteAndRead() throws IOException {
+        EngineStats stats = new EngineStats();
+        stats.recordInit("a", 350);
+        stats.recordFirstAudio("a", 3, 150);
+        stats.recordFailure("b");
+        assertTrue(stats.isDirty());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        stats.writeTo(new DataOutputStream(bytes));
+        assertFalse(stats.isDirty());
+
+        EngineStats read = new EngineStats();
+        read.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(350, read.getInitMillis("a"), 0);
+        assertEquals(150, read.getFirstAudioMillis("a"), 0);
+        assertFalse(read.needsBenchmark("a", 3));
+        assertEquals(Arrays.asList("a", "b"), read.rank(Arrays.asList("b", "a"), null));
+    }
+}
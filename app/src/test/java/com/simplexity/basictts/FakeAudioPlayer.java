@@ -0,0 +1,118 @@
+package com.simplexity.basictts;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Stand-in for {@link CachedAudioPlayer} on the JVM, with the same queue rules: entries without a
+ * file hold the queue until marked ready, failed ones are reported and skipped. Playing takes no
+ * time; completion is posted to the main executor like MediaPlayer's is. Called on the main
+ * executor only.
+ */
+final class FakeAudioPlayer implements SpeechRouter.Player {
+
+    private static final class Entry {
+        private final String segmentId;
+        private File file;
+        private boolean failed;
+        private int silenceMillis;
+
+        private Entry(String segmentId, File file) {
+            this.segmentId = segmentId;
+            this.file = file;
+        }
+    }
+
+    private final CachedAudioPlayer.Listener listener;
+    private final Executor main;
+    private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+    private final List<String> played = new CopyOnWriteArrayList<>();
+    private Entry current;
+
+    FakeAudioPlayer(CachedAudioPlayer.Listener listener, Executor main) {
+        this.listener = listener;
+        this.main = main;
+    }
+
+    @Override
+    public void enqueue(String segmentId, File file) {
+        queue.addLast(new Entry(segmentId, file));
+        playNextIfIdle();
+    }
+
+    @Override
+    public void enqueueSilence(String segmentId, int millis) {
+        Entry entry = new Entry(segmentId, null);
+        entry.silenceMillis = Math.max(1, millis);
+        queue.addLast(entry);
+        playNextIfIdle();
+    }
+
+    @Override
+    public void markReady(String segmentId, File file) {
+        for (Iterator<Entry> iterator = queue.iterator(); iterator.hasNext(); ) {
+            Entry entry = iterator.next();
+            if (entry.segmentId.equals(segmentId)) {
+                entry.file = file;
+                entry.failed = file == null;
+                break;
+            }
+        }
+        playNextIfIdle();
+    }
+
+    @Override
+    public void stop() {
+        queue.clear();
+        current = null;
+    }
+
+    /**
+     * @return what was played in order: the contents of each file, or "pause" for a silence
+     */
+    List<String> getPlayed() {
+        return played;
+    }
+
+    private void playNextIfIdle() {
+        while (current == null && !queue.isEmpty()) {
+            Entry next = queue.peekFirst();
+            if (next.file == null && !next.failed && next.silenceMillis == 0) return;
+            queue.pollFirst();
+            if (next.failed) {
+                listener.onPlaybackError(next.segmentId);
+                continue;
+            }
+            play(next);
+        }
+    }
+
+    private void play(Entry entry) {
+        String contents = "pause";
+        if (entry.silenceMillis == 0) {
+            try {
+                contents = new String(Files.readAllBytes(entry.file.toPath()), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                listener.onPlaybackError(entry.segmentId);
+                return;
+            }
+        }
+        current = entry;
+        played.add(contents);
+        listener.onPlaybackStart(entry.segmentId);
+        main.execute(() -> {
+            // Stopped meanwhile
+            if (current != entry) return;
+            current = null;
+            listener.onPlaybackDone(entry.segmentId);
+            playNextIfIdle();
+        });
+    }
+}
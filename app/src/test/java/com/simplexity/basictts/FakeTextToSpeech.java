@@ -0,0 +1,339 @@
+package com.simplexity.basictts;
+
+import android.speech.tts.TextToSpeech;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stand-in for TextToSpeech on the JVM. Like the real engine it queues requests (QUEUE_ADD) and
+ * reports progress from its own thread, here one thread per instance. How long init takes,
+ * whether it fails or hangs, how fast speech plays and how often a segment fails are set per
+ * instance; failures come from a seeded random, so a run can be repeated.
+ */
+final class FakeTextToSpeech {
+
+    interface ProgressListener {
+        void onStart(String utteranceId);
+
+        void onDone(String utteranceId);
+
+        void onError(String utteranceId, int errorCode);
+
+        void onStop(String utteranceId, boolean interrupted);
+
+        void onRangeStart(String utteranceId, int start, int end);
+    }
+
+    static final class Settings {
+        long initDelayMillis;
+        int initStatus = TextToSpeech.SUCCESS;
+        boolean hangsOnInit;
+        // Audio time per character; 0 plays as fast as callbacks can be delivered
+        double millisPerChar;
+        // Share of a requested silence that is waited; 0 skips pauses
+        double silenceScale = 1;
+        // Chance that a segment fails instead of playing
+        double failureRate;
+        long seed = 1;
+
+        Settings initDelay(long millis) {
+            initDelayMillis = millis;
+            return this;
+        }
+
+        Settings initStatus(int status) {
+            initStatus = status;
+            return this;
+        }
+
+        Settings hangs() {
+            hangsOnInit = true;
+            return this;
+        }
+
+        Settings millisPerChar(double millis) {
+            millisPerChar = millis;
+            return this;
+        }
+
+        Settings silenceScale(double scale) {
+            silenceScale = scale;
+            return this;
+        }
+
+        Settings failureRate(double rate) {
+            failureRate = rate;
+            return this;
+        }
+
+        Settings seed(long value) {
+            seed = value;
+            return this;
+        }
+    }
+
+    private static final class Request {
+        private final String utteranceId;
+        private final String text;
+        private final long durationMillis;
+        // Written instead of played when set
+        private final File file;
+
+        private Request(String utteranceId, String text, long durationMillis, File file) {
+            this.utteranceId = utteranceId;
+            this.text = text;
+            this.durationMillis = durationMillis;
+            this.file = file;
+        }
+    }
+
+    // Init callbacks outlive the instance, so a late callback still arrives after a shutdown
+    private static final ScheduledExecutorService initThread = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "fake-tts-init");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // When the last init callback scheduled so far is due, in nanoTime
+    private static final AtomicLong lastInitDueNanos = new AtomicLong();
+
+    private final String enginePackage;
+    private final Settings settings;
+    private final ScheduledExecutorService audioThread;
+    private final Random random;
+    private volatile ProgressListener listener;
+    private volatile boolean isShutdown;
+    // Only touched on the audio thread
+    private final ArrayDeque<Request> queue = new ArrayDeque<>();
+    private Request playing;
+    private final AtomicInteger playedCount = new AtomicInteger();
+
+    FakeTextToSpeech(String enginePackage, Settings settings, EngineBinder.InitCallback callback) {
+        this.enginePackage = enginePackage;
+        this.settings = settings;
+        this.random = new Random(settings.seed);
+        this.audioThread = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "fake-tts-" + enginePackage);
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (!settings.hangsOnInit) {
+            long due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(settings.initDelayMillis);
+            lastInitDueNanos.accumulateAndGet(due, Math::max);
+            initThread.schedule(() -> callback.onInit(settings.initStatus), settings.initDelayMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Waits until every init callback scheduled so far has been delivered, including those of
+     * engines that were given up on.
+     */
+    static void awaitInitCallbacks() throws InterruptedException {
+        CountDownLatch delivered = new CountDownLatch(1);
+        long delay = Math.max(0, lastInitDueNanos.get() - System.nanoTime());
+        initThread.schedule(delivered::countDown, delay, TimeUnit.NANOSECONDS);
+        delivered.await();
+    }
+
+    String getEnginePackage() {
+        return enginePackage;
+    }
+
+    void setOnUtteranceProgressListener(ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    int speak(String text, String utteranceId) {
+        return enqueue(new Request(utteranceId, text, Math.round(text.length() * settings.millisPerChar), null));
+    }
+
+    int playSilentUtterance(long durationMillis, String utteranceId) {
+        return enqueue(new Request(utteranceId, "", Math.round(durationMillis * settings.silenceScale), null));
+    }
+
+    /**
+     * Queues a render of the text into the file, which takes as long as speaking it would. The
+     * file holds the text itself rather than audio.
+     */
+    int synthesizeToFile(String text, File file, String utteranceId) {
+        return enqueue(new Request(utteranceId, text, Math.round(text.length() * settings.millisPerChar), file));
+    }
+
+    /**
+     * Drops everything queued; the request playing is reported stopped.
+     */
+    int stop() {
+        return post(() -> {
+            queue.clear();
+            Request stopped = playing;
+            playing = null;
+            if (stopped != null) listener.onStop(stopped.utteranceId, true);
+        });
+    }
+
+    void shutdown() {
+        isShutdown = true;
+        audioThread.shutdownNow();
+    }
+
+    boolean isShutdown() {
+        return isShutdown;
+    }
+
+    int getPlayedCount() {
+        return playedCount.get();
+    }
+
+    private int enqueue(Request request) {
+        return post(() -> {
+            queue.addLast(request);
+            playNext();
+        });
+    }
+
+    private int post(Runnable task) {
+        if (isShutdown) return TextToSpeech.ERROR;
+        try {
+            audioThread.execute(task);
+            return TextToSpeech.SUCCESS;
+        } catch (RejectedExecutionException e) {
+            // Shut down between the check and the post
+            return TextToSpeech.ERROR;
+        }
+    }
+
+    private void playNext() {
+        if (playing != null || queue.isEmpty()) return;
+        Request request = queue.pollFirst();
+        playing = request;
+        listener.onStart(request.utteranceId);
+        if (random.nextDouble() < settings.failureRate) {
+            playing = null;
+            listener.onError(request.utteranceId, TextToSpeech.ERROR_SYNTHESIS);
+            playNext();
+            return;
+        }
+        if (request.file == null) reportWords(request);
+        if (request.durationMillis == 0) {
+            finish(request);
+        } else {
+            audioThread.schedule(() -> finish(request), request.durationMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void reportWords(Request request) {
+        String text = request.text;
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf(' ', start);
+            if (end < 0) end = text.length();
+            if (end > start) listener.onRangeStart(request.utteranceId, start, end);
+            start = end + 1;
+        }
+    }
+
+    private void finish(Request request) {
+        // Stopped meanwhile
+        if (playing != request) return;
+        playing = null;
+        playedCount.incrementAndGet();
+        if (request.file != null && !write(request)) {
+            listener.onError(request.utteranceId, TextToSpeech.ERROR_OUTPUT);
+        } else {
+            listener.onDone(request.utteranceId);
+        }
+        playNext();
+    }
+
+    private static boolean write(Request request) {
+        try {
+            Files.write(request.file.toPath(), request.text.getBytes(StandardCharsets.UTF_8));
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The installed engines, for {@link EngineBinder}. Keeps every instance it created to check
+     * that only bound engines are left running.
+     */
+    static final class Engines implements EngineBinder.Engines<FakeTextToSpeech> {
+        private final LinkedHashMap<String, Settings> installed = new LinkedHashMap<>();
+        private final List<FakeTextToSpeech> created = new ArrayList<>();
+        private final String defaultEngine;
+
+        Engines(String defaultEngine) {
+            this.defaultEngine = defaultEngine;
+        }
+
+        Engines install(String enginePackage, Settings settings) {
+            installed.put(enginePackage, settings);
+            return this;
+        }
+
+        @Override
+        public synchronized FakeTextToSpeech create(String enginePackage, EngineBinder.InitCallback callback) {
+            String bound = enginePackage == null ? defaultEngine : enginePackage;
+            Settings settings = installed.get(bound);
+            // An engine that is not installed fails like the real one does
+            FakeTextToSpeech engine = new FakeTextToSpeech(bound,
+                    settings == null ? new Settings().initStatus(TextToSpeech.ERROR) : settings, callback);
+            created.add(engine);
+            return engine;
+        }
+
+        @Override
+        public String getDefaultEngine(FakeTextToSpeech engine) {
+            return defaultEngine;
+        }
+
+        @Override
+        public List<String> getInstalledEngines(FakeTextToSpeech engine) {
+            return new ArrayList<>(installed.keySet());
+        }
+
+        @Override
+        public boolean isInstalled(String enginePackage) {
+            return installed.containsKey(enginePackage);
+        }
+
+        @Override
+        public void shutdown(FakeTextToSpeech engine) {
+            engine.shutdown();
+        }
+
+        synchronized int getCreatedCount() {
+            return created.size();
+        }
+
+        synchronized List<FakeTextToSpeech> getRunning() {
+            List<FakeTextToSpeech> running = new ArrayList<>();
+            for (FakeTextToSpeech engine : created) {
+                if (!engine.isShutdown()) running.add(engine);
+            }
+            return running;
+        }
+
+        synchronized void shutdownAll() {
+            for (FakeTextToSpeech engine : created) {
+                engine.shutdown();
+            }
+        }
+    }
+}
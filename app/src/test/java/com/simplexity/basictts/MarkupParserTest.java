@@ -0,0 +1,116 @@
+package com.simplexity.basictts;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MarkupParserTest {
+
+    @Test
+    public void plainTextIsOneToken() {
+        assertEquals(Arrays.asList("text:Hello there."), tokens("Hello there."));
+        assertFalse(MarkupParser.hasMarkup("Hello there."));
+    }
+
+    @Test
+    public void readsPauses() {
+        assertEquals(Arrays.asList("text:A ", "pause:500", "text: B"), tokens("A [pause 500] B"));
+        assertEquals(Arrays.asList("pause:250"), tokens("[pause=250ms]"));
+        assertEquals(Arrays.asList("pause:1500"), tokens("[PAUSE 1.5s]"));
+        assertEquals(Arrays.asList("pause:" + MarkupParser.MAX_PAUSE_MILLIS), tokens("[pause 90s]"));
+    }
+
+    @Test
+    public void readsVoiceSwitches() {
+        assertEquals(Arrays.asList("voice:en-gb-x-rjs", "text:Hi", "voice:"),
+                tokens("[voice=en-gb-x-rjs]Hi[/voice]"));
+        assertEquals(Arrays.asList("voice:"), tokens("[voice default]"));
+    }
+
+    @Test
+    public void readsPitchAndRate() {
+        assertEquals(Arrays.asList("pitch:1.2", "rate:0.8", "rate:1.0", "pitch:1.0"),
+                tokens("[pitch 1.2][speed=80%][/rate][pitch]"));
+        assertEquals(Arrays.asList("pitch:" + MarkupParser.MAX_SCALE), tokens("[pitch 20]"));
+    }
+
+    @Test
+    public void readsEmphasis() {
+        assertEquals(Arrays.asList("text:a ", "emphasis:true", "text:very", "emphasis:false", "text: big deal"),
+                tokens("a *very* big deal"));
+    }
+
+    @Test
+    public void leavesStrayCharactersAsText() {
+        assertEquals("2 * 3 * 4", MarkupParser.stripMarkup("2 * 3 * 4"));
+        assertEquals("a ** b", MarkupParser.stripMarkup("a ** b"));
+        assertEquals("[1] see [note] or [pause soon]", MarkupParser.stripMarkup("[1] see [note] or [pause soon]"));
+        assertEquals("[pause 5", MarkupParser.stripMarkup("[pause 5"));
+        assertEquals("[pitch -1]", MarkupParser.stripMarkup("[pitch -1]"));
+        assertEquals("C:\\dir\\file", MarkupParser.stripMarkup("C:\\dir\\file"));
+        assertFalse(MarkupParser.hasMarkup("2 * 3 [1] C:\\dir"));
+    }
+
+    @Test
+    public void escapesKeepMarkupCharactersLiteral() {
+        assertEquals("[pause 500] *not* \\", MarkupParser.stripMarkup("\\[pause 500] \\*not* \\\\"));
+        assertTrue(MarkupParser.hasMarkup("\\*"));
+    }
+
+    @Test
+    public void stripsMarkup() {
+        assertEquals("Hi there, you.", MarkupParser.stripMarkup("Hi [pause 300]there, [voice=x]*you*.[/voice]"));
+    }
+
+    @Test
+    public void parserIsReusable() {
+        MarkupParser parser = new MarkupParser();
+        // Abandoned with an emphasis open, closing at index 3
+        parser.reset("*ab*");
+        assertEquals(MarkupParser.Token.EMPHASIS, parser.next());
+        parser.reset("abc*");
+        assertEquals(MarkupParser.Token.TEXT, parser.next());
+        assertEquals(MarkupParser.Token.TEXT, parser.next());
+        assertEquals(3, parser.getStart());
+        assertEquals(MarkupParser.Token.END, parser.next());
+    }
+
+    private static List<String> tokens(String text) {
+        MarkupParser parser = new MarkupParser().reset(text);
+        List<String> tokens = new ArrayList<>();
+        for (MarkupParser.Token token = parser.next(); token != MarkupParser.Token.END; token = parser.next()) {
+            switch (token) {
+                case TEXT:
+                    // Adjacent text tokens are one piece of text to the caller
+                    String piece = text.substring(parser.getStart(), parser.getEnd());
+                    int last = tokens.size() - 1;
+                    if (last >= 0 && tokens.get(last).startsWith("text:")) {
+                        tokens.set(last, tokens.get(last) + piece);
+                    } else {
+                        tokens.add("text:" + piece);
+                    }
+                    break;
+                case PAUSE:
+                    tokens.add("pause:" + parser.getPauseMillis());
+                    break;
+                case VOICE:
+                    tokens.add("voice:" + text.substring(parser.getStart(), parser.getEnd()));
+                    break;
+                case PITCH:
+                case RATE:
+                    tokens.add(token.name().toLowerCase() + ":" + parser.getScale());
+                    break;
+                case EMPHASIS:
+                    tokens.add("emphasis:" + parser.isEmphasisStart());
+                    break;
+            }
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,179 @@
+package com.simplexity.basictts;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PcmStretcherTest {
+
+    private static final int SAMPLE_RATE = 22050;
+    private static final long GOLDEN_CHIRP_CRC = 1937985204L;
+
+    @Test
+    public void rateChangesLengthButNotFrequency() {
+        short[] input = sine(440, SAMPLE_RATE * 2, 1);
+        for (float rate : new float[]{0.5f, 0.8f, 1.5f, 2f}) {
+            short[] output = stretch(input, 1, rate, 1f, 4096);
+            assertEquals(Math.round(input.length / rate), output.length);
+            assertEquals(440, dominantFrequency(output, 1), 8);
+        }
+    }
+
+    @Test
+    public void pitchChangesFrequencyButNotLength() {
+        short[] input = sine(220, SAMPLE_RATE * 2, 1);
+        for (float pitch : new float[]{0.75f, 1.5f}) {
+            short[] output = stretch(input, 1, 1f, pitch, 4096);
+            assertEquals(input.length, output.length);
+            assertEquals(220 * pitch, dominantFrequency(output, 1), 8);
+        }
+    }
+
+    @Test
+    public void rateAndPitchCombine() {
+        short[] input = sine(300, SAMPLE_RATE * 2, 2);
+        short[] output = stretch(input, 2, 1.25f, 1.2f, 4096);
+        assertEquals(Math.round(input.length / 2 / 1.25f) * 2, output.length);
+        assertEquals(360, dominantFrequency(output, 2), 8);
+    }
+
+    @Test
+    public void outputDoesNotDependOnBlockSize() {
+        short[] input = chirp(SAMPLE_RATE);
+        short[] whole = stretch(input, 1, 1.3f, 0.8f, 4096);
+        assertArrayEquals(whole, stretch(input, 1, 1.3f, 0.8f, 1));
+        assertArrayEquals(whole, stretch(input, 1, 1.3f, 0.8f, 333));
+    }
+
+    @Test
+    public void matchesGoldenOutput() {
+        // Regenerate only for an intended change to the algorithm, after listening to the result
+        assertEquals(GOLDEN_CHIRP_CRC, crc(stretch(chirp(SAMPLE_RATE), 1, 1.3f, 0.8f, 4096)));
+    }
+
+    @Test
+    public void clipHelperMatchesStreaming() {
+        short[] input = chirp(SAMPLE_RATE);
+        ByteBuffer bytes = ByteBuffer.allocateDirect(input.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.asShortBuffer().put(input);
+        PcmAudio stretched = PcmStretcher.stretch(new PcmAudio(SAMPLE_RATE, 1, 16, bytes), 1.3f, 0.8f);
+
+        ShortBuffer samples = stretched.getData().asShortBuffer();
+        short[] output = new short[samples.remaining()];
+        samples.get(output);
+        assertArrayEquals(stretch(input, 1, 1.3f, 0.8f, 4096), output);
+    }
+
+    @Test
+    public void doesNotAllocateWhileProcessing() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        short[] input = chirp(SAMPLE_RATE * 4);
+        short[] block = new short[1024];
+        PcmStretcher stretcher = new PcmStretcher(SAMPLE_RATE, 1);
+        stretcher.setRate(1.4f);
+        stretcher.setPitch(1.1f);
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        int position = 0;
+        while (position < input.length) {
+            position += stretcher.write(input, position, Math.min(1024, input.length - position));
+            while (stretcher.read(block, 0, block.length) > 0) {
+                // Discarded; only allocations matter here
+            }
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        // Leaves room for the bookkeeping of the measurement itself
+        assertTrue("Allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    private static short[] stretch(short[] input, int channels, float rate, float pitch, int blockFrames) {
+        PcmStretcher stretcher = new PcmStretcher(SAMPLE_RATE, channels);
+        stretcher.setRate(rate);
+        stretcher.setPitch(pitch);
+        short[] output = new short[input.length * 5];
+        short[] block = new short[blockFrames * channels];
+        int outputSamples = 0;
+        int position = 0;
+        while (position < input.length) {
+            int frames = Math.min(blockFrames, (input.length - position) / channels);
+            position += stretcher.write(input, position, frames) * channels;
+            int read;
+            while ((read = stretcher.read(block, 0, blockFrames)) > 0) {
+                System.arraycopy(block, 0, output, outputSamples, read * channels);
+                outputSamples += read * channels;
+            }
+        }
+        stretcher.flush();
+        int read;
+        while ((read = stretcher.read(block, 0, blockFrames)) > 0) {
+            System.arraycopy(block, 0, output, outputSamples, read * channels);
+            outputSamples += read * channels;
+        }
+        short[] result = new short[outputSamples];
+        System.arraycopy(output, 0, result, 0, outputSamples);
+        return result;
+    }
+
+    private static short[] sine(double frequency, int frames, int channels) {
+        short[] samples = new short[frames * channels];
+        for (int i = 0; i < frames; i++) {
+            short value = (short) (Math.sin(2 * Math.PI * frequency * i / SAMPLE_RATE) * 12000);
+            for (int channel = 0; channel < channels; channel++) {
+                samples[i * channels + channel] = value;
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * 200 Hz to 1200 Hz sweep, enough variation to exercise the overlap search.
+     */
+    private static short[] chirp(int frames) {
+        short[] samples = new short[frames];
+        double phase = 0;
+        for (int i = 0; i < frames; i++) {
+            double frequency = 200 + 1000.0 * i / frames;
+            phase += 2 * Math.PI * frequency / SAMPLE_RATE;
+            samples[i] = (short) (Math.sin(phase) * 12000);
+        }
+        return samples;
+    }
+
+    /**
+     * Frequency of the first channel from its rising zero crossings, skipping the edges.
+     */
+    private static double dominantFrequency(short[] samples, int channels) {
+        int frames = samples.length / channels;
+        int start = frames / 10;
+        int end = frames - frames / 10;
+        int first = -1;
+        int last = -1;
+        int crossings = 0;
+        for (int i = start + 1; i < end; i++) {
+            if (samples[(i - 1) * channels] < 0 && samples[i * channels] >= 0) {
+                if (first < 0) first = i;
+                last = i;
+                crossings++;
+            }
+        }
+        return (crossings - 1) * (double) SAMPLE_RATE / (last - first);
+    }
+
+    private static long crc(short[] samples) {
+        CRC32 crc = new CRC32();
+        for (short sample : samples) {
+            crc.update(sample & 0xff);
+            crc.update((sample >> 8) & 0xff);
+        }
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,166 @@
+package com.simplexity.basictts;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PhraseIndexTest {
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("phrases").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        delete(directory);
+    }
+
+    @Test
+    public void completesByScoreThenAlphabetically() {
+        PhraseIndex index = new PhraseIndex();
+        index.recordAll(Arrays.asList("Thank you", "thanks", "That's fine", "thanks", "Thanks a lot",
+                "Hello", "thank you", "thanks"), 0);
+
+        // The latest spelling is offered, ties go to the earlier phrase
+        assertEquals(Arrays.asList("thanks", "thank you", "Thanks a lot", "That's fine"),
+                index.complete("  Tha", 10));
+        assertEquals(Arrays.asList("thanks", "thank you", "Thanks a lot"), index.complete("THANK", 10));
+        // The text itself is not offered
+        assertEquals(Collections.singletonList("Thanks a lot"), index.complete("thanks", 10));
+        assertTrue(index.complete("x", 10).isEmpty());
+        assertTrue(index.complete("", 10).isEmpty());
+    }
+
+    @Test
+    public void limitsToTheBestK() {
+        PhraseIndex index = new PhraseIndex();
+        List<String> uses = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            String phrase = String.format("item %04d", i);
+            // Every tenth item is used more the later it comes, the rest once
+            for (int use = 0; use < (i % 10 == 0 ? 1 + i / 10 : 1); use++) {
+                uses.add(phrase);
+            }
+        }
+        index.recordAll(uses, 0);
+
+        assertEquals(Arrays.asList("item 0990", "item 0980", "item 0970"), index.complete("item", 3));
+        assertEquals(Arrays.asList("item 0090", "item 0080", "item 0070", "item 0060"),
+                index.complete("item 00", 4));
+        // Past the tenth items the rest tie, alphabetically
+        assertEquals(Arrays.asList("item 0050", "item 0051", "item 0052"), index.complete("item 005", 3));
+        assertEquals(0, index.complete("item", 0).size());
+        assertEquals(1000, index.size());
+    }
+
+    @Test
+    public void knownAndBufferedPhrasesRankTogether() {
+        PhraseIndex index = new PhraseIndex();
+        // Enough new phrases to merge the buffer into the arrays once
+        for (int i = 0; i <= PhraseIndex.MAX_PENDING; i++) {
+            index.record("filler " + i, 0);
+        }
+        // These stay in the buffer, next to merged ones used again
+        index.record("good morning", 0);
+        index.record("good night", 0);
+        index.record("good morning", 0);
+        index.record("good evening", 0);
+        index.record("good evening", 0);
+        index.record("good evening", 0);
+        index.record("filler 7", 0);
+
+        assertEquals(Arrays.asList("good evening", "good morning", "good night"), index.complete("good", 5));
+        assertEquals(Arrays.asList("filler 7", "filler 0"), index.complete("filler", 2));
+        assertEquals(PhraseIndex.MAX_PENDING + 4, index.size());
+    }
+
+    @Test
+    public void recentUsesOutweighOldOnes() {
+        PhraseIndex index = new PhraseIndex();
+        for (int i = 0; i < 3; i++) {
+            index.record("see you later", 0);
+        }
+        index.record("see you soon", 0);
+        assertEquals(Arrays.asList("see you later", "see you soon"), index.complete("see", 5));
+
+        // Two half-lives on, one use counts for four of the old ones
+        index.record("see you soon", 2 * PhraseIndex.HALF_LIFE_MILLIS);
+        assertEquals(Arrays.asList("see you soon", "see you later"), index.complete("see", 5));
+    }
+
+    @Test
+    public void rescalingKeepsTheOrder() {
+        PhraseIndex index = new PhraseIndex();
+        index.record("alpha", 0);
+        index.record("alpha", 0);
+        index.record("alpha", 0);
+        index.record("also", 0);
+        // Far enough for the scores to be rescaled before the new weight is applied
+        long later = 600 * PhraseIndex.HALF_LIFE_MILLIS;
+        index.record("alps", later);
+        index.record("alpha", later + DAY);
+
+        assertEquals(Arrays.asList("alpha", "alps", "also"), index.complete("al", 5));
+    }
+
+    @Test
+    public void saveAndLoadRoundTrip() throws IOException {
+        MessageLog log = new MessageLog(new File(directory, "history"));
+        for (String message : Arrays.asList("one", "Two", "three", "two", "ÜBER", "über", "two")) {
+            log.append(message);
+        }
+        PhraseIndex index = new PhraseIndex();
+        index.catchUp(log, 0);
+        index.record("three", DAY);
+        File file = new File(directory, "index");
+        index.save(file);
+
+        PhraseIndex loaded = PhraseIndex.load(file);
+        assertEquals(4, loaded.size());
+        assertEquals(7, loaded.getLogPosition());
+        assertEquals(index.complete("t", 5), loaded.complete("t", 5));
+        assertEquals(Collections.singletonList("über"), loaded.complete("Ü", 5));
+        assertEquals(Collections.singletonList("one"), loaded.complete("o", 5));
+        assertEquals(Arrays.asList("two", "three"), loaded.complete("t", 5));
+        // Only messages appended after the save are counted again
+        log.append("three");
+        log.append("three");
+        loaded.catchUp(log, DAY);
+        assertEquals(Arrays.asList("three", "two"), loaded.complete("t", 5));
+        assertEquals(9, loaded.getLogPosition());
+        log.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void loadRejectsOtherFiles() throws IOException {
+        File file = new File(directory, "index");
+        Files.write(file.toPath(), new byte[64]);
+        PhraseIndex.load(file);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
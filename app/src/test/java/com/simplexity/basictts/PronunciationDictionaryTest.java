@@ -0,0 +1,111 @@
+package com.simplexity.basictts;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class PronunciationDictionaryTest {
+
+    @Test
+    public void countsTheTermsParseWouldCompile() {
+        String source = "# comment\n\nDr = Doctor\ndr = doctor\n= nothing\nSt = Street\nno separator";
+        assertEquals(2, PronunciationDictionary.countEntries(source));
+        assertEquals(PronunciationDictionary.parse(source).size(), PronunciationDictionary.countEntries(source));
+        assertEquals(0, PronunciationDictionary.countEntries(null));
+    }
+
+    @Test
+    public void longestOfOverlappingTermsWins() {
+        PronunciationDictionary dictionary = PronunciationDictionary.parse("a = 1\nab = 2\nabc = 3");
+        assertEquals("3 2 1 abcd", dictionary.apply("abc ab a abcd"));
+    }
+
+    @Test
+    public void termsSharingLettersMatchWholeWords() {
+        PronunciationDictionary dictionary = PronunciationDictionary.parse("he = him\nhers = theirs");
+        assertEquals("theirs him herself", dictionary.apply("hers he herself"));
+        // Both sit inside "ushers", so neither matches there
+        assertEquals("ushers him", dictionary.apply("ushers he"));
+    }
+
+    @Test
+    public void earlierMatchWinsOverLaterOverlap() {
+        PronunciationDictionary dictionary = PronunciationDictionary.parse("a b = X\nb c = Y");
+        assertEquals("X c", dictionary.apply("a b c"));
+    }
+
+    @Test
+    public void matchesAtStartAndEnd() {
+        PronunciationDictionary dictionary = PronunciationDictionary.parse("ok = okay");
+        assertEquals("okay", dictionary.apply("ok"));
+        assertEquals("okay then okay", dictionary.apply("ok then ok"));
+        assertEquals("okay.", dictionary.apply("ok."));
+    }
+
+    @Test
+    public void rejectsWordTermsInsideWords() {
+        PronunciationDictionary dictionary = PronunciationDictionary.parse("ok = okay\n& = and\n++ = increment");
+        assertEquals("book okra", dictionary.apply("book okra"));
+        assertEquals("ok2", dictionary.apply("ok2"));
+        // Terms of symbols have no word to be inside of
+        assertEquals("R and D", dictionary.apply("R&D"));
+        assertEquals("c increment", dictionary.apply("c++"));
+    }
+
+    @Test
+    public void foldsCase() {
+        PronunciationDictionary dictionary = PronunciationDictionary.parse("Dr. = doctor");
+        assertEquals("doctor Who, doctor Who, doctor Who", dictionary.apply("Dr. Who, DR. Who, dr. Who"));
+        // The last spelling of a folded term is the one kept
+        PronunciationDictionary twice = PronunciationDictionary.parse("ok = okay\nOK = fine");
+        assertEquals(1, twice.size());
+        assertEquals("fine", twice.apply("Ok"));
+    }
+
+    @Test
+    public void mapsEveryPositionBackToSource() {
+        PronunciationDictionary dictionary = PronunciationDictionary.parse("ok = okay\nwww. = ");
+        String text = "say ok at www.site";
+        PronunciationDictionary.Normalized normalized = dictionary.normalize(text);
+        // One longer replacement and one that removes its term
+        assertEquals("say okay at site", normalized.getText());
+
+        int[] starts = {0, 1, 2, 3, 4, 4, 4, 4, 6, 7, 8, 9, 14, 15, 16, 17, 18};
+        int[] ends = {0, 1, 2, 3, 4, 6, 6, 6, 6, 7, 8, 9, 10, 15, 16, 17, 18};
+        for (int position = 0; position <= normalized.getText().length(); position++) {
+            assertEquals("start " + position, starts[position], normalized.toSource(position, false));
+            assertEquals("end " + position, ends[position], normalized.toSource(position, true));
+        }
+    }
+
+    @Test
+    public void mapsPositionsAroundShorterReplacement() {
+        PronunciationDictionary dictionary = PronunciationDictionary.parse("etc. = etc");
+        PronunciationDictionary.Normalized normalized = dictionary.normalize("a etc. b");
+        assertEquals("a etc b", normalized.getText());
+        // A range over "etc" covers the whole term, and " b" follows it
+        assertEquals(2, normalized.toSource(2, false));
+        assertEquals(6, normalized.toSource(5, true));
+        assertEquals(6, normalized.toSource(5, false));
+        assertEquals(8, normalized.toSource(7, true));
+    }
+
+    @Test
+    public void emptyDictionaryLeavesTextAlone() {
+        PronunciationDictionary empty = PronunciationDictionary.EMPTY;
+        assertEquals(0, empty.size());
+        assertEquals("anything & all", empty.apply("anything & all"));
+        assertEquals("", empty.apply(""));
+        PronunciationDictionary.Normalized normalized = empty.normalize("text");
+        assertSame("text", normalized.getText());
+        for (int position = 0; position <= 4; position++) {
+            assertEquals(position, normalized.toSource(position, false));
+            assertEquals(position, normalized.toSource(position, true));
+        }
+        // Comments, blank lines and lines without a term compile to nothing
+        assertEquals(0, PronunciationDictionary.parse("# note\n\n= nothing\nno separator").size());
+        assertEquals(0, PronunciationDictionary.parse(null).size());
+        assertEquals(empty, PronunciationDictionary.parse(""));
+    }
+}
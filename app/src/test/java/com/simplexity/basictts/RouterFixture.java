@@ -0,0 +1,263 @@
+package com.simplexity.basictts;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * A {@link SpeechRouter} with the threads TtsManager gives it, a main thread, the scheduler's
+ * thread and the engine's own thread, against {@link FakeTextToSpeech} and
+ * {@link FakeAudioPlayer}. Engine progress is posted to the main thread the way TtsManager's
+ * progress listener does. Every utterance event is recorded, and exceptions on any thread are
+ * kept for the test to fail on.
+ */
+final class RouterFixture implements SpeechRouter.Engine, TtsManager.UtteranceListener {
+
+    static final long WAIT_SECONDS = 60;
+    static final int MAX_INPUT_LENGTH = 4000;
+
+    private final List<ExecutorService> threads = new ArrayList<>();
+    private final ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+    final Executor main = guarded(newThread("main"));
+    final AtomicReference<TtsConfig> config = new AtomicReference<>(TtsConfig.forVoice(null, 1f, 1f));
+    final File directory;
+    final FakeTextToSpeech tts;
+    final SpeechRouter router;
+    FakeAudioPlayer player;
+    // Text handed to the engine to speak or render, in order
+    final ConcurrentLinkedQueue<String> spoken = new ConcurrentLinkedQueue<>();
+    final AtomicInteger rendered = new AtomicInteger();
+    final ConcurrentLinkedQueue<String> events = new ConcurrentLinkedQueue<>();
+    private final ConcurrentHashMap<String, AtomicInteger> endings = new ConcurrentHashMap<>();
+    private final Semaphore ended = new Semaphore(0);
+
+    RouterFixture(FakeTextToSpeech.Settings settings) throws IOException {
+        directory = Files.createTempDirectory("router").toFile();
+        tts = new FakeTextToSpeech("fake", settings, status -> {
+        });
+        tts.setOnUtteranceProgressListener(progress);
+        router = new SpeechRouter(this, listener -> player = new FakeAudioPlayer(listener, main), config,
+                new TextSegmenter(40, 120, Locale.US), MAX_INPUT_LENGTH, new File(directory, "draft"), main,
+                guarded(newThread("scheduler")), guarded(newThread("conditioning")));
+        router.addUtteranceListener(this);
+    }
+
+    static Utterance utterance(String utteranceId, String text) {
+        return utterance(utteranceId, text, UtteranceScheduler.Priority.NORMAL);
+    }
+
+    static Utterance utterance(String utteranceId, String text, UtteranceScheduler.Priority priority) {
+        return new Utterance(utteranceId, text, null, 1f, 1f, false, priority);
+    }
+
+    /**
+     * Runs the action on the main thread, like every call into the router, and waits for it.
+     */
+    <T> T call(Supplier<T> action) {
+        try {
+            return CompletableFuture.supplyAsync(action, main).get(WAIT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            throw new AssertionError("Main thread task failed", e);
+        }
+    }
+
+    void run(Runnable action) {
+        call(() -> {
+            action.run();
+            return null;
+        });
+    }
+
+    String send(Utterance utterance) {
+        return call(() -> router.enqueue(utterance));
+    }
+
+    /**
+     * Waits until this many more utterances have been reported done, failed or dropped.
+     */
+    void awaitEnded(int count) throws InterruptedException {
+        if (!ended.tryAcquire(count, WAIT_SECONDS, TimeUnit.SECONDS)) {
+            assertNoFailures();
+            fail("Not all of " + count + " utterances ended, queued: " + router.getScheduledUtterances());
+        }
+        assertNoFailures();
+    }
+
+    void assertEachEndedOnce(int count) {
+        assertEquals(count, endings.size());
+        for (Map.Entry<String, AtomicInteger> ending : endings.entrySet()) {
+            assertEquals(ending.getKey(), 1, ending.getValue().get());
+        }
+    }
+
+    void assertNoFailures() {
+        Throwable failure = failures.peek();
+        if (failure != null) throw new AssertionError(failures.size() + " exceptions on worker threads", failure);
+    }
+
+    void close() {
+        for (ExecutorService thread : threads) {
+            thread.shutdownNow();
+        }
+        tts.shutdown();
+        delete(directory);
+    }
+
+    ExecutorService newThread(String name) {
+        ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        threads.add(executor);
+        return executor;
+    }
+
+    /**
+     * Keeps exceptions thrown on a thread for the test to fail on, rather than losing them.
+     */
+    Executor guarded(ExecutorService thread) {
+        return task -> thread.execute(() -> {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                failures.add(t);
+            }
+        });
+    }
+
+    private void end(String utteranceId) {
+        endings.computeIfAbsent(utteranceId, key -> new AtomicInteger()).incrementAndGet();
+        ended.release();
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    // SpeechRouter.Engine, on the main thread
+
+    @Override
+    public int speak(Utterance utterance, UtterancePlan.Segment segment, String text, String segmentId,
+                     int segmentIndex) {
+        spoken.add(text);
+        return tts.speak(text, segmentId);
+    }
+
+    @Override
+    public int playSilence(int millis, String segmentId) {
+        return tts.playSilentUtterance(millis, segmentId);
+    }
+
+    @Override
+    public int synthesizeToFile(Utterance utterance, UtterancePlan.Segment segment, String text, File file,
+                                String id) {
+        spoken.add(text);
+        rendered.incrementAndGet();
+        return tts.synthesizeToFile(text, file, id);
+    }
+
+    @Override
+    public String getVoiceName(Utterance utterance, UtterancePlan.Segment segment) {
+        return segment == null || segment.getVoice() == null ? "default" : segment.getVoice();
+    }
+
+    @Override
+    public void stop() {
+        tts.stop();
+    }
+
+    // TtsManager.UtteranceListener, on the main thread
+
+    @Override
+    public void onQueued(String utteranceId, int queueDepth) {
+        events.add("queued " + utteranceId + " " + queueDepth);
+    }
+
+    @Override
+    public void onStart(String utteranceId) {
+        events.add("start " + utteranceId);
+    }
+
+    @Override
+    public void onDone(String utteranceId) {
+        events.add("done " + utteranceId);
+        end(utteranceId);
+    }
+
+    @Override
+    public void onError(String utteranceId, int errorCode) {
+        events.add("error " + utteranceId);
+        end(utteranceId);
+    }
+
+    @Override
+    public void onDropped(String utteranceId) {
+        events.add("dropped " + utteranceId);
+        end(utteranceId);
+    }
+
+    @Override
+    public void onPreempted(String utteranceId) {
+        events.add("preempted " + utteranceId);
+    }
+
+    @Override
+    public void onRangeStart(String utteranceId, int start, int end) {
+        events.add("range " + utteranceId + " " + start + " " + end);
+    }
+
+    // Engine progress, on the engine thread
+    private final FakeTextToSpeech.ProgressListener progress = new FakeTextToSpeech.ProgressListener() {
+        @Override
+        public void onStart(String utteranceId) {
+            main.execute(() -> router.onEngineStart(utteranceId));
+        }
+
+        @Override
+        public void onDone(String utteranceId) {
+            main.execute(() -> router.onEngineDone(utteranceId));
+        }
+
+        @Override
+        public void onError(String utteranceId, int errorCode) {
+            main.execute(() -> router.onEngineError(utteranceId, errorCode));
+        }
+
+        @Override
+        public void onStop(String utteranceId, boolean interrupted) {
+            main.execute(() -> router.onEngineStop(utteranceId));
+        }
+
+        @Override
+        public void onRangeStart(String utteranceId, int start, int end) {
+            main.execute(() -> router.onEngineRangeStart(utteranceId, start, end));
+        }
+    };
+}
@@ -0,0 +1,272 @@
+package com.simplexity.basictts;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Loads the production speak path, {@link SpeechRouter} and its scheduler, through
+ * {@link RouterFixture}: sends from several threads, stops and config flips during speech, and
+ * a chat screen recreated while messages play. Checks that every message ends exactly once and
+ * prints throughput and latency percentiles.
+ */
+@Category(StressTests.class)
+public class SpeakPathStressTest {
+
+    private static final String[] TEXTS = {
+            "Hello there.",
+            "Dr Smith is on the way. See you at the *station* soon.",
+            "One moment [pause 20] please.",
+            "[voice=en-GB]Cheers, mate.[/voice] Back to normal.",
+            "Call Dr Jones, then Dr Who. Then call me back, etc.",
+    };
+
+    private RouterFixture fixture;
+
+    @After
+    public void tearDown() {
+        if (fixture != null) fixture.close();
+    }
+
+    @Test
+    public void thousandsOfSendsEndExactlyOnce() throws Exception {
+        fixture = new RouterFixture(new FakeTextToSpeech.Settings().silenceScale(0).failureRate(0.01).seed(7));
+        fixture.run(fixture.router::onEngineReady);
+        LatencyHistogram startLatency = trackStartLatency();
+        int producers = 4;
+        int perProducer = 5000;
+        long start = System.nanoTime();
+        ExecutorService senders = Executors.newFixedThreadPool(producers);
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            senders.execute(() -> {
+                Random random = new Random(producer);
+                for (int i = 0; i < perProducer; i++) {
+                    Utterance utterance = RouterFixture.utterance(producer + "-" + i,
+                            TEXTS[random.nextInt(TEXTS.length)], randomPriority(random));
+                    fixture.main.execute(() -> fixture.router.enqueue(utterance));
+                }
+            });
+        }
+        try {
+            fixture.awaitEnded(producers * perProducer);
+        } finally {
+            senders.shutdownNow();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        fixture.assertEachEndedOnce(producers * perProducer);
+        assertEquals(0, (int) fixture.call(fixture.router::getQueueDepth));
+        System.out.printf(Locale.US, "%d utterances in %.2f s, %.0f/s, %d segments played%n",
+                producers * perProducer, seconds, producers * perProducer / seconds, fixture.tts.getPlayedCount());
+        System.out.println(startLatency);
+    }
+
+    @Test
+    public void stopsAndConfigFlipsDuringSpeech() throws Exception {
+        PronunciationDictionary doctor = PronunciationDictionary.parse("Dr = Doctor");
+        PronunciationDictionary drive = PronunciationDictionary.parse("Dr = Drive\netc. = and so on");
+        fixture = new RouterFixture(new FakeTextToSpeech.Settings().millisPerChar(0.01).seed(3));
+        fixture.config.set(TtsConfig.forVoice(null, 1f, 1f, doctor));
+        fixture.run(fixture.router::onEngineReady);
+        int count = 3000;
+        AtomicInteger sent = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(2);
+        workers.execute(() -> {
+            Random random = new Random(11);
+            for (int i = 0; i < count; i++) {
+                Utterance utterance = RouterFixture.utterance("m" + i, TEXTS[random.nextInt(TEXTS.length)],
+                        randomPriority(random));
+                fixture.main.execute(() -> fixture.router.enqueue(utterance));
+                sent.incrementAndGet();
+            }
+        });
+        workers.execute(() -> {
+            boolean flip = false;
+            while (sent.get() < count) {
+                flip = !flip;
+                fixture.config.set(TtsConfig.forVoice(null, 1f, 1f, flip ? doctor : drive));
+                Thread.yield();
+            }
+        });
+        ScheduledExecutorService stopper = Executors.newSingleThreadScheduledExecutor();
+        try {
+            stopper.scheduleAtFixedRate(() -> fixture.main.execute(fixture.router::stop), 1, 1, TimeUnit.MILLISECONDS);
+            fixture.awaitEnded(count);
+        } finally {
+            stopper.shutdownNow();
+            workers.shutdownNow();
+        }
+
+        fixture.assertEachEndedOnce(count);
+        for (String text : fixture.spoken) {
+            // Each segment is rewritten with one dictionary, never a mix of both
+            assertFalse(text, text.contains("Doctor") && (text.contains("Drive") || text.contains("and so on")));
+            assertFalse(text, text.contains("Dr "));
+        }
+        assertEquals(0, (int) fixture.call(fixture.router::getQueueDepth));
+    }
+
+    @Test
+    public void activityRecreatedMidUtterance() throws Exception {
+        fixture = new RouterFixture(new FakeTextToSpeech.Settings().millisPerChar(0.05).failureRate(0.02).seed(5));
+        fixture.run(fixture.router::onEngineReady);
+        ChatScreen screen = new ChatScreen();
+        fixture.router.addUtteranceListener(screen);
+        int count = 2000;
+        Random random = new Random(13);
+        for (int i = 0; i < count; i++) {
+            String text = TEXTS[random.nextInt(TEXTS.length)];
+            fixture.main.execute(() -> screen.send(text));
+        }
+        fixture.awaitEnded(count);
+
+        assertTrue(screen.recreations.get() > 0);
+        fixture.run(() -> {
+            assertEquals(count, screen.conversation.size());
+            for (int i = 0; i < count; i++) {
+                Message message = screen.conversation.get(i);
+                assertTrue(message.toString(), message.getState() != Message.State.QUEUED
+                        && message.getState() != Message.State.SPEAKING);
+            }
+        });
+    }
+
+    private static UtteranceScheduler.Priority randomPriority(Random random) {
+        int roll = random.nextInt(100);
+        if (roll < 2) return UtteranceScheduler.Priority.URGENT;
+        if (roll < 12) return UtteranceScheduler.Priority.BACKGROUND;
+        return UtteranceScheduler.Priority.NORMAL;
+    }
+
+    /**
+     * Records the time from each send to its start, taken from the listeners on the main thread.
+     */
+    private LatencyHistogram trackStartLatency() {
+        LatencyHistogram histogram = new LatencyHistogram("send_to_start");
+        ConcurrentHashMap<String, Long> queuedAt = new ConcurrentHashMap<>();
+        fixture.router.addUtteranceListener(new NullListener() {
+            @Override
+            public void onQueued(String utteranceId, int queueDepth) {
+                queuedAt.putIfAbsent(utteranceId, System.nanoTime());
+            }
+
+            @Override
+            public void onStart(String utteranceId) {
+                Long queued = queuedAt.remove(utteranceId);
+                if (queued != null) histogram.record(System.nanoTime() - queued);
+            }
+        });
+        return histogram;
+    }
+
+    /**
+     * Sends and tracks messages the way the chat screen does, on the main thread, and is
+     * recreated every 50 starts, while a message plays. A recreated screen shows the stored log
+     * and does not track what the previous one sent.
+     */
+    private final class ChatScreen extends NullListener {
+        private final AtomicInteger recreations = new AtomicInteger();
+        private Conversation conversation = new Conversation(0, new NullObserver());
+        private int logSize;
+        private int starts;
+
+        void send(String text) {
+            int position = logSize++;
+            conversation.onMessageAppended(position);
+            String utteranceId = fixture.router.enqueue(RouterFixture.utterance("m" + position, text));
+            conversation.track(utteranceId, position, null);
+        }
+
+        @Override
+        public void onStart(String utteranceId) {
+            conversation.onStart(utteranceId);
+            if (++starts % 50 == 0) {
+                conversation = new Conversation(logSize, new NullObserver());
+                recreations.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void onDone(String utteranceId) {
+            conversation.onDone(utteranceId);
+        }
+
+        @Override
+        public void onError(String utteranceId, int errorCode) {
+            conversation.onError(utteranceId, errorCode);
+        }
+
+        @Override
+        public void onDropped(String utteranceId) {
+            conversation.onDropped(utteranceId);
+        }
+
+        @Override
+        public void onPreempted(String utteranceId) {
+            conversation.onPreempted(utteranceId);
+        }
+
+        @Override
+        public void onRangeStart(String utteranceId, int start, int end) {
+            conversation.onRangeStart(utteranceId, start, end);
+        }
+    }
+
+    private static class NullListener implements TtsManager.UtteranceListener {
+        @Override
+        public void onQueued(String utteranceId, int queueDepth) {
+        }
+
+        @Override
+        public void onStart(String utteranceId) {
+        }
+
+        @Override
+        public void onDone(String utteranceId) {
+        }
+
+        @Override
+        public void onError(String utteranceId, int errorCode) {
+        }
+
+        @Override
+        public void onDropped(String utteranceId) {
+        }
+
+        @Override
+        public void onPreempted(String utteranceId) {
+        }
+
+        @Override
+        public void onRangeStart(String utteranceId, int start, int end) {
+        }
+    }
+
+    private static final class NullObserver implements Conversation.Observer {
+        @Override
+        public void onMessagesInserted(int start, int count) {
+        }
+
+        @Override
+        public void onMessageChanged(int position) {
+        }
+
+        @Override
+        public void onHighlightChanged(long messageId, int start, int end) {
+        }
+    }
+}
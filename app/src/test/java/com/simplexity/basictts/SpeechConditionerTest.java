@@ -0,0 +1,203 @@
+package com.simplexity.basictts;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SpeechConditionerTest {
+
+    private static final int SAMPLE_RATE = 22050;
+    private static final SpeechConditioner.Settings TRIM = new SpeechConditioner.Settings(true,
+            SpeechConditioner.Settings.DEFAULT_THRESHOLD_DB, false, SpeechConditioner.Settings.DEFAULT_TARGET_DB);
+    private static final SpeechConditioner.Settings NORMALIZE = new SpeechConditioner.Settings(false,
+            SpeechConditioner.Settings.DEFAULT_THRESHOLD_DB, true, SpeechConditioner.Settings.DEFAULT_TARGET_DB);
+    private static final SpeechConditioner.Settings BOTH = new SpeechConditioner.Settings(true,
+            SpeechConditioner.Settings.DEFAULT_THRESHOLD_DB, true, SpeechConditioner.Settings.DEFAULT_TARGET_DB);
+
+    @Test
+    public void trimsLeadingAndTrailingSilenceKeepingRolls() {
+        short[] tone = sine(440, millis(500), 1, 8000);
+        short[] input = concat(silence(millis(500), 1), tone, silence(millis(500), 1));
+        SpeechConditioner conditioner = new SpeechConditioner(SAMPLE_RATE, 1, TRIM);
+        short[] output = condition(conditioner, input, 1, 4096);
+
+        // The tone starts and ends near zero, so its loud part is a little shorter
+        int first = firstLoud(input);
+        int last = lastLoud(input);
+        int start = first - millis(20);
+        assertArrayEquals(slice(input, start, last + 1 + millis(40) - start), output);
+        assertEquals(480, conditioner.getTrimmedLeadingMillis());
+        assertEquals(460, conditioner.getTrimmedTrailingMillis());
+    }
+
+    @Test
+    public void keepsPausesInsideSpeech() {
+        short[] tone = sine(440, millis(300), 1, 8000);
+        // One pause shorter than the hold buffer and one longer
+        short[] input = concat(tone, silence(millis(300), 1), tone, silence(millis(1500), 1), tone);
+        assertArrayEquals(input, condition(new SpeechConditioner(SAMPLE_RATE, 1, TRIM), input, 1, 4096));
+    }
+
+    @Test
+    public void dropsAllSilence() {
+        short[] input = silence(millis(300), 1);
+        SpeechConditioner conditioner = new SpeechConditioner(SAMPLE_RATE, 1, TRIM);
+        assertEquals(0, condition(conditioner, input, 1, 4096).length);
+        assertEquals(300, conditioner.getTrimmedLeadingMillis());
+    }
+
+    @Test
+    public void bringsSpeechToTargetLevel() {
+        // Levels that need a gain inside the allowed range, up and down
+        for (double amplitude : new double[]{1500, 5000, 12000}) {
+            short[] input = sine(300, millis(2000), 1, amplitude);
+            short[] output = condition(new SpeechConditioner(SAMPLE_RATE, 1, NORMALIZE), input, 1, 4096);
+            assertEquals(input.length, output.length);
+            assertEquals("amplitude " + amplitude, SpeechConditioner.Settings.DEFAULT_TARGET_DB,
+                    rmsDb(output, millis(300), output.length - millis(300)), 0.5);
+        }
+    }
+
+    @Test
+    public void earlyPeakDoesNotCapLaterGain() {
+        // A click at full scale, then a second of quiet speech well apart from it
+        short[] input = concat(sine(300, millis(50), 1, 32000), silence(millis(500), 1),
+                sine(300, millis(1500), 1, 1500));
+        short[] output = condition(new SpeechConditioner(SAMPLE_RATE, 1, NORMALIZE), input, 1, 4096);
+        int quietStart = millis(50 + 500 + 400);
+        assertEquals(SpeechConditioner.Settings.DEFAULT_TARGET_DB, rmsDb(output, quietStart, output.length), 0.5);
+    }
+
+    @Test
+    public void neverClips() {
+        // Peaky speech asked to go far louder than it can
+        SpeechConditioner.Settings loud = new SpeechConditioner.Settings(false,
+                SpeechConditioner.Settings.DEFAULT_THRESHOLD_DB, true, -1f);
+        short[] input = concat(sine(300, millis(1000), 1, 30000), sine(300, millis(1000), 1, 4000));
+        short[] output = condition(new SpeechConditioner(SAMPLE_RATE, 1, loud), input, 1, 4096);
+        // Peaks may round to full scale, but a clipped wave would stay there for several samples
+        for (int i = 1; i < output.length; i++) {
+            boolean isFull = Math.abs(output[i]) >= Short.MAX_VALUE;
+            assertTrue("Clipped at " + i, !isFull || Math.abs(output[i - 1]) < Short.MAX_VALUE);
+        }
+        assertTrue(peak(output, 0, millis(1000)) > 32000);
+    }
+
+    @Test
+    public void outputDoesNotDependOnBlockSize() {
+        short[] tone = sine(220, millis(700), 2, 5000);
+        short[] input = concat(silence(millis(300), 2), tone, silence(millis(200), 2),
+                sine(500, millis(400), 2, 15000), silence(millis(800), 2));
+        short[] whole = condition(new SpeechConditioner(SAMPLE_RATE, 2, BOTH), input, 2, 4096);
+        assertArrayEquals(whole, condition(new SpeechConditioner(SAMPLE_RATE, 2, BOTH), input, 2, 1));
+        assertArrayEquals(whole, condition(new SpeechConditioner(SAMPLE_RATE, 2, BOTH), input, 2, 333));
+    }
+
+    @Test
+    public void doesNotAllocateWhileProcessing() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        short[] input = concat(silence(millis(500), 1), sine(300, SAMPLE_RATE * 4, 1, 6000), silence(millis(500), 1));
+        SpeechConditioner conditioner = new SpeechConditioner(SAMPLE_RATE, 1, BOTH);
+        short[] output = new short[conditioner.getMaxOutputFrames(1024)];
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int position = 0; position < input.length; position += 1024) {
+            conditioner.process(input, position, Math.min(1024, input.length - position), output, 0);
+        }
+        conditioner.flush(output, 0);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        // Leaves room for the bookkeeping of the measurement itself
+        assertTrue("Allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    private static short[] condition(SpeechConditioner conditioner, short[] input, int channels, int blockFrames) {
+        short[] output = new short[conditioner.getMaxOutputFrames(input.length / channels) * channels];
+        int out = 0;
+        for (int position = 0; position < input.length; position += blockFrames * channels) {
+            int frames = Math.min(blockFrames, (input.length - position) / channels);
+            out += conditioner.process(input, position, frames, output, out) * channels;
+        }
+        out += conditioner.flush(output, out) * channels;
+        return slice(output, 0, out);
+    }
+
+    private static int millis(int millis) {
+        return SAMPLE_RATE * millis / 1000;
+    }
+
+    private static short[] sine(double frequency, int frames, int channels, double amplitude) {
+        short[] samples = new short[frames * channels];
+        for (int i = 0; i < frames; i++) {
+            short value = (short) Math.round(Math.sin(2 * Math.PI * frequency * i / SAMPLE_RATE) * amplitude);
+            for (int channel = 0; channel < channels; channel++) {
+                samples[i * channels + channel] = value;
+            }
+        }
+        return samples;
+    }
+
+    private static short[] silence(int frames, int channels) {
+        return new short[frames * channels];
+    }
+
+    private static short[] concat(short[]... parts) {
+        int length = 0;
+        for (short[] part : parts) {
+            length += part.length;
+        }
+        short[] result = new short[length];
+        int position = 0;
+        for (short[] part : parts) {
+            System.arraycopy(part, 0, result, position, part.length);
+            position += part.length;
+        }
+        return result;
+    }
+
+    private static short[] slice(short[] samples, int start, int length) {
+        short[] result = new short[length];
+        System.arraycopy(samples, start, result, 0, length);
+        return result;
+    }
+
+    private static int firstLoud(short[] samples) {
+        int threshold = threshold();
+        for (int i = 0; i < samples.length; i++) {
+            if (Math.abs(samples[i]) > threshold) return i;
+        }
+        return -1;
+    }
+
+    private static int lastLoud(short[] samples) {
+        int threshold = threshold();
+        for (int i = samples.length - 1; i >= 0; i--) {
+            if (Math.abs(samples[i]) > threshold) return i;
+        }
+        return -1;
+    }
+
+    private static int threshold() {
+        return (int) Math.round(32767 * Math.pow(10, SpeechConditioner.Settings.DEFAULT_THRESHOLD_DB / 20));
+    }
+
+    private static double rmsDb(short[] samples, int start, int end) {
+        double sum = 0;
+        for (int i = start; i < end; i++) {
+            sum += (double) samples[i] * samples[i];
+        }
+        return 20 * Math.log10(Math.sqrt(sum / (end - start)) / 32767);
+    }
+
+    private static int peak(short[] samples, int start, int end) {
+        int peak = 0;
+        for (int i = start; i < end; i++) {
+            peak = Math.max(peak, Math.abs(samples[i]));
+        }
+        return peak;
+    }
+}
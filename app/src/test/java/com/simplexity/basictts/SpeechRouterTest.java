@@ -0,0 +1,223 @@
+package com.simplexity.basictts;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SpeechRouterTest {
+
+    private RouterFixture fixture;
+
+    @Before
+    public void setUp() throws IOException {
+        fixture = new RouterFixture(new FakeTextToSpeech.Settings());
+    }
+
+    @After
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    public void holdsMessagesUntilEngineIsReady() throws InterruptedException {
+        fixture.send(RouterFixture.utterance("u1", "One."));
+        fixture.send(RouterFixture.utterance("u2", "Two."));
+        assertEquals(2, (int) fixture.call(fixture.router::getQueueDepth));
+        assertTrue(fixture.spoken.isEmpty());
+
+        fixture.run(fixture.router::onEngineReady);
+        fixture.awaitEnded(2);
+
+        assertEquals(Arrays.asList("One.", "Two."), new ArrayList<>(fixture.spoken));
+        assertEquals(Arrays.asList("queued u1 1", "queued u2 2"), events("queued").subList(0, 2));
+        assertEquals(0, (int) fixture.call(fixture.router::getQueueDepth));
+        assertEquals(2, (int) fixture.call(fixture.router::getMaxQueueDepth));
+    }
+
+    @Test
+    public void rejectsWhenPendingQueueIsFull() throws InterruptedException {
+        fixture.run(() -> {
+            fixture.router.setMaxPending(2);
+            fixture.router.setBackpressurePolicy(TtsManager.BackpressurePolicy.REJECT);
+        });
+        fixture.send(RouterFixture.utterance("u1", "One."));
+        fixture.send(RouterFixture.utterance("u2", "Two."));
+        assertNull(fixture.send(RouterFixture.utterance("u3", "Three.")));
+        assertEquals(Collections.singletonList("dropped u3"), events("dropped"));
+
+        fixture.run(fixture.router::onEngineReady);
+        fixture.awaitEnded(3);
+        assertEquals(Arrays.asList("One.", "Two."), new ArrayList<>(fixture.spoken));
+    }
+
+    @Test
+    public void dropsOldestWhenPendingQueueIsFull() throws InterruptedException {
+        fixture.run(() -> {
+            fixture.router.setMaxPending(2);
+            fixture.router.setBackpressurePolicy(TtsManager.BackpressurePolicy.DROP_OLDEST);
+        });
+        fixture.send(RouterFixture.utterance("u1", "One."));
+        fixture.send(RouterFixture.utterance("u2", "Two."));
+        assertEquals("u3", fixture.send(RouterFixture.utterance("u3", "Three.")));
+        assertEquals(Collections.singletonList("dropped u1"), events("dropped"));
+
+        fixture.run(fixture.router::onEngineReady);
+        fixture.awaitEnded(3);
+        assertEquals(Arrays.asList("Two.", "Three."), new ArrayList<>(fixture.spoken));
+    }
+
+    @Test
+    public void coalescesIntoLastPendingMessage() throws InterruptedException {
+        fixture.run(() -> fixture.router.setMaxPending(2));
+        fixture.send(RouterFixture.utterance("u1", "One."));
+        fixture.send(RouterFixture.utterance("u2", "Two."));
+        assertEquals("u2", fixture.send(RouterFixture.utterance("u3", "Three.")));
+        assertEquals(2, (int) fixture.call(fixture.router::getQueueDepth));
+
+        fixture.run(fixture.router::onEngineReady);
+        fixture.awaitEnded(2);
+        // Joined into u2, whose sentences are still spoken one segment at a time
+        assertEquals(Arrays.asList("One.", "Two.", "Three."), new ArrayList<>(fixture.spoken));
+        assertTrue(events("done").contains("done u2"));
+        assertTrue(events("dropped").isEmpty());
+    }
+
+    @Test
+    public void messageThatCannotCoalesceIsQueuedPastTheBound() throws InterruptedException {
+        fixture.run(() -> fixture.router.setMaxPending(2));
+        fixture.send(RouterFixture.utterance("u1", "One."));
+        fixture.send(RouterFixture.utterance("u2", "Two."));
+        // A message with its own settings cannot join, and nothing is dropped to make room
+        assertEquals("u3", fixture.send(new Utterance("u3", "Three.", null, 1f, 2f, true,
+                UtteranceScheduler.Priority.NORMAL)));
+        assertEquals(3, (int) fixture.call(fixture.router::getQueueDepth));
+        assertTrue(events("dropped").isEmpty());
+
+        fixture.run(fixture.router::onEngineReady);
+        fixture.awaitEnded(3);
+        assertEquals(Arrays.asList("One.", "Two.", "Three."), new ArrayList<>(fixture.spoken));
+    }
+
+    @Test
+    public void unavailableEngineDropsPendingAndNewMessages() throws InterruptedException {
+        fixture.send(RouterFixture.utterance("u1", "One."));
+        fixture.send(RouterFixture.utterance("u2", "Two."));
+        fixture.run(fixture.router::onEngineUnavailable);
+        assertNull(fixture.send(RouterFixture.utterance("u3", "Three.")));
+
+        fixture.awaitEnded(3);
+        assertEquals(Arrays.asList("dropped u1", "dropped u2", "dropped u3"), events("dropped"));
+        assertEquals(0, (int) fixture.call(fixture.router::getQueueDepth));
+        assertTrue(fixture.spoken.isEmpty());
+    }
+
+    @Test
+    public void sendingTheDraftPlaysItsRender() throws InterruptedException {
+        fixture.config.set(TtsConfig.forVoice(null, 1f, 1f, PronunciationDictionary.parse("Dr = Doctor")));
+        fixture.run(fixture.router::onEngineReady);
+        fixture.run(() -> fixture.router.preRenderDraft("Dr Smith  is here. "));
+        fixture.send(RouterFixture.utterance("u1", "Dr Smith is here."));
+        fixture.awaitEnded(1);
+
+        // Rendered once while typing, played from the file rather than spoken again
+        assertEquals(Collections.singletonList("Doctor Smith is here."), new ArrayList<>(fixture.spoken));
+        assertEquals(1, fixture.rendered.get());
+        assertEquals(Collections.singletonList("Doctor Smith is here."), fixture.player.getPlayed());
+        // The render is deleted once it has played
+        assertEquals(0, listDrafts().length);
+    }
+
+    @Test
+    public void otherTextIsSpokenAndDiscardsTheDraft() throws InterruptedException {
+        fixture.run(fixture.router::onEngineReady);
+        fixture.run(() -> fixture.router.preRenderDraft("Hello there."));
+        fixture.send(RouterFixture.utterance("u1", "Hello."));
+        fixture.awaitEnded(1);
+        fixture.run(() -> fixture.router.preRenderDraft(""));
+
+        assertEquals(Arrays.asList("Hello there.", "Hello."), new ArrayList<>(fixture.spoken));
+        assertTrue(fixture.player.getPlayed().isEmpty());
+        assertEquals(0, listDrafts().length);
+    }
+
+    @Test
+    public void cacheRendersMissesAndPlaysHits() throws InterruptedException {
+        AudioCache cache = new AudioCache(new File(fixture.directory, "cache"), 1 << 20);
+        fixture.run(() -> {
+            fixture.router.setAudioCache(cache);
+            fixture.router.onEngineReady();
+        });
+        fixture.send(RouterFixture.utterance("u1", "One moment [pause 20] please."));
+        fixture.awaitEnded(1);
+        fixture.send(RouterFixture.utterance("u2", "Please."));
+        fixture.awaitEnded(1);
+        fixture.send(RouterFixture.utterance("u3", "One moment [pause 20] please."));
+        fixture.awaitEnded(1);
+
+        // Pauses wait in the player's queue, the second message only reuses audio
+        assertEquals(Arrays.asList("One moment", "please.", "Please."), new ArrayList<>(fixture.spoken));
+        assertEquals(Arrays.asList("One moment", "pause", "please.", "Please.", "One moment", "pause", "please."),
+                fixture.player.getPlayed());
+        assertEquals(3, cache.getEntryCount());
+        assertEquals(2, cache.getHitCount());
+        assertTrue(events("range").isEmpty());
+    }
+
+    @Test
+    public void rangesPointIntoTheSentText() throws InterruptedException {
+        fixture.config.set(TtsConfig.forVoice(null, 1f, 1f, PronunciationDictionary.parse("Dr = Doctor")));
+        fixture.run(fixture.router::onEngineReady);
+        String text = "Hello there, how are you doing today? Dr Smith is on the way.";
+        fixture.send(RouterFixture.utterance("u1", text));
+        fixture.awaitEnded(1);
+
+        // Split into two segments, the second rewritten by the dictionary
+        assertEquals(Arrays.asList("Hello there, how are you doing today?", "Doctor Smith is on the way."),
+                new ArrayList<>(fixture.spoken));
+        List<String> words = new ArrayList<>();
+        for (String range : events("range")) {
+            String[] parts = range.split(" ");
+            assertEquals("u1", parts[1]);
+            words.add(text.substring(Integer.parseInt(parts[2]), Integer.parseInt(parts[3])));
+        }
+        assertEquals(Arrays.asList(text.split(" ")), words);
+    }
+
+    @Test
+    public void stopDropsPendingMessages() throws InterruptedException {
+        fixture.send(RouterFixture.utterance("u1", "One."));
+        fixture.send(RouterFixture.utterance("u2", "Two."));
+        fixture.run(fixture.router::stop);
+        fixture.awaitEnded(2);
+
+        fixture.run(fixture.router::onEngineReady);
+        fixture.send(RouterFixture.utterance("u3", "Three."));
+        fixture.awaitEnded(1);
+        assertEquals(Arrays.asList("dropped u1", "dropped u2"), events("dropped"));
+        assertEquals(Collections.singletonList("Three."), new ArrayList<>(fixture.spoken));
+    }
+
+    private List<String> events(String kind) {
+        List<String> matching = new ArrayList<>();
+        for (String event : fixture.events) {
+            if (event.startsWith(kind + " ")) matching.add(event);
+        }
+        return matching;
+    }
+
+    private String[] listDrafts() {
+        String[] drafts = new File(fixture.directory, "draft").list();
+        return drafts == null ? new String[0] : drafts;
+    }
+}
@@ -0,0 +1,8 @@
+package com.simplexity.basictts;
+
+/**
+ * JUnit category of tests that load the app for seconds at a time. Unit test tasks leave them
+ * out unless Gradle runs with -Pstress.
+ */
+public interface StressTests {
+}
@@ -0,0 +1,79 @@
+package com.simplexity.basictts;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class UtterancePlanTest {
+
+    private final TextSegmenter segmenter = new TextSegmenter(120, 400, Locale.US);
+
+    @Test
+    public void plainTextIsSegmentedAsBefore() {
+        UtterancePlan plan = new UtterancePlan("One. Two.", segmenter);
+        assertEquals(Arrays.asList("One.", "Two."), drain(plan));
+        assertTrue(plan.get(1).hasDefaultSettings());
+        assertEquals(5, plan.get(1).getSourceStart());
+    }
+
+    @Test
+    public void pausesBecomeSilentSegments() {
+        UtterancePlan plan = new UtterancePlan("Ready? [pause 700] Go!", segmenter);
+        assertEquals(Arrays.asList("Ready?", "", "Go!"), drain(plan));
+        assertTrue(plan.get(1).isPause());
+        assertEquals(700, plan.get(1).getPauseMillis());
+        assertEquals(19, plan.get(2).getSourceStart());
+    }
+
+    @Test
+    public void settingsApplyUntilReset() {
+        UtterancePlan plan = new UtterancePlan("A [voice=en-gb][rate 0.5]B[/voice] C[/rate] D", segmenter);
+        assertEquals(Arrays.asList("A", "B", "C", "D"), drain(plan));
+        assertTrue(plan.get(0).hasDefaultSettings());
+        assertEquals("en-gb", plan.get(1).getVoice());
+        assertEquals(0.5f, plan.get(1).getRateScale(), 0f);
+        assertNull(plan.get(2).getVoice());
+        assertEquals(0.5f, plan.get(2).getRateScale(), 0f);
+        assertTrue(plan.get(3).hasDefaultSettings());
+    }
+
+    @Test
+    public void emphasisChangesPitchAndRate() {
+        UtterancePlan plan = new UtterancePlan("[pitch 2]It is *huge*", segmenter);
+        assertEquals(Arrays.asList("It is", "huge"), drain(plan));
+        assertEquals(2f, plan.get(0).getPitchScale(), 0f);
+        assertEquals(2f * UtterancePlan.EMPHASIS_PITCH, plan.get(1).getPitchScale(), 1e-6f);
+        assertEquals(UtterancePlan.EMPHASIS_RATE, plan.get(1).getRateScale(), 1e-6f);
+        assertEquals(16, plan.get(1).getSourceStart());
+    }
+
+    @Test
+    public void escapedTextMapsBackToTheMessage() {
+        UtterancePlan plan = new UtterancePlan("\\*a\\* x. [pause 1] Then y.", segmenter);
+        assertEquals(Arrays.asList("*a* x.", "", "Then y."), drain(plan));
+        assertEquals(1, plan.get(0).getSourceStart());
+        assertEquals(19, plan.get(2).getSourceStart());
+    }
+
+    @Test
+    public void markupOnlyMessageHasNoTextSegments() {
+        UtterancePlan plan = new UtterancePlan("[voice=x] [pitch 2] ", segmenter);
+        assertEquals(new ArrayList<String>(), drain(plan));
+        assertNull(plan.next());
+    }
+
+    private static List<String> drain(UtterancePlan plan) {
+        List<String> texts = new ArrayList<>();
+        for (String text = plan.next(); text != null; text = plan.next()) {
+            texts.add(text);
+        }
+        return texts;
+    }
+}
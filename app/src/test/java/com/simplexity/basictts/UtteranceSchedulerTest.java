@@ -0,0 +1,257 @@
+package com.simplexity.basictts;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UtteranceSchedulerTest {
+
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    private final FakeEngine engine = new FakeEngine();
+    private final List<String> events = new ArrayList<>();
+    private UtteranceScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new UtteranceScheduler(engine, new RecordingListener(), tasks::add, 2);
+    }
+
+    @Test
+    public void equalPriorityPlaysInSubmitOrder() {
+        submit("a", UtteranceScheduler.Priority.NORMAL, "A1.");
+        submit("b", UtteranceScheduler.Priority.NORMAL, "B1.");
+        drain();
+        assertEquals(Arrays.asList("A1."), engine.spokenTexts());
+
+        finishAll();
+        assertEquals(Arrays.asList("A1.", "B1."), engine.spokenTexts());
+        assertEquals(Arrays.asList("start a", "done a", "start b", "done b"), events);
+    }
+
+    @Test
+    public void keepsLookaheadSegmentsInEngine() {
+        submit("a", UtteranceScheduler.Priority.NORMAL, "A1.", "A2.", "A3.");
+        drain();
+        assertEquals(Arrays.asList("A1.", "A2."), engine.spokenTexts());
+
+        finishNext();
+        assertEquals(Arrays.asList("A1.", "A2.", "A3."), engine.spokenTexts());
+    }
+
+    @Test
+    public void urgentPreemptsAndNormalResumesAtUnfinishedSentence() {
+        submit("a", UtteranceScheduler.Priority.NORMAL, "A1.", "A2.", "A3.");
+        drain();
+        finishNext();
+        submit("u", UtteranceScheduler.Priority.URGENT, "U1.");
+        drain();
+
+        assertEquals(1, engine.stopCount);
+        assertEquals("U1.", engine.last().text);
+        List<UtteranceScheduler.Entry> snapshot = scheduler.getSnapshot();
+        assertEquals("u", snapshot.get(0).getUtteranceId());
+        assertEquals(UtteranceScheduler.State.PLAYING, snapshot.get(0).getState());
+        assertEquals("a", snapshot.get(1).getUtteranceId());
+        assertEquals(UtteranceScheduler.State.INTERRUPTED, snapshot.get(1).getState());
+        assertEquals(1, snapshot.get(1).getFinishedSegments());
+
+        finishAll();
+        // A1 finished before the preemption, A2 and A3 had not
+        assertEquals(Arrays.asList("A1.", "A2.", "A3.", "U1.", "A2.", "A3."), engine.spokenTexts());
+        // The resumed run reports its start again
+        assertEquals(Arrays.asList("start a", "preempted a", "start u", "done u", "start a", "done a"), events);
+        assertEquals(0, scheduler.getQueueDepth());
+    }
+
+    @Test
+    public void backgroundWaitsForNormal() {
+        submit("a", UtteranceScheduler.Priority.NORMAL, "A1.");
+        submit("bg", UtteranceScheduler.Priority.BACKGROUND, "G1.");
+        submit("b", UtteranceScheduler.Priority.NORMAL, "B1.");
+        drain();
+        finishAll();
+
+        assertEquals(Arrays.asList("A1.", "B1.", "G1."), engine.spokenTexts());
+        assertEquals(0, engine.stopCount);
+    }
+
+    @Test
+    public void ignoresCallbacksForPreemptedSegments() {
+        submit("a", UtteranceScheduler.Priority.NORMAL, "A1.", "A2.");
+        drain();
+        String staleId = engine.spoken.get(0).segmentId;
+        submit("u", UtteranceScheduler.Priority.URGENT, "U1.");
+        drain();
+
+        scheduler.onSegmentStopped(staleId);
+        scheduler.onSegmentDone(staleId);
+        drain();
+        assertEquals("u", scheduler.getSnapshot().get(0).getUtteranceId());
+        assertEquals(0, scheduler.getSnapshot().get(1).getFinishedSegments());
+        assertEquals(Arrays.asList("preempted a"), events);
+    }
+
+    @Test
+    public void errorStopsEngineAndMovesOn() {
+        submit("a", UtteranceScheduler.Priority.NORMAL, "A1.", "A2.");
+        submit("b", UtteranceScheduler.Priority.NORMAL, "B1.");
+        drain();
+        scheduler.onSegmentError(engine.spoken.get(0).segmentId, -3);
+        drain();
+
+        assertEquals(1, engine.stopCount);
+        assertEquals("B1.", engine.last().text);
+        assertEquals(Arrays.asList("error a -3"), events);
+    }
+
+    @Test
+    public void stopDropsPlayingAndQueued() {
+        submit("a", UtteranceScheduler.Priority.NORMAL, "A1.");
+        submit("b", UtteranceScheduler.Priority.BACKGROUND, "B1.");
+        drain();
+        scheduler.stop();
+        drain();
+
+        assertEquals(1, engine.stopCount);
+        assertEquals(Arrays.asList("dropped a", "dropped b"), events);
+        assertEquals(0, scheduler.getQueueDepth());
+    }
+
+    @Test
+    public void snapshotFollowsQueueChanges() {
+        submit("a", UtteranceScheduler.Priority.NORMAL, "A1.");
+        drain();
+        List<UtteranceScheduler.Entry> before = scheduler.getSnapshot();
+        assertEquals(1, before.size());
+
+        submit("b", UtteranceScheduler.Priority.NORMAL, "B1.");
+        submit("c", UtteranceScheduler.Priority.BACKGROUND, "C1.");
+        drain();
+        assertEquals(3, scheduler.getQueueDepth());
+        assertEquals(1, before.size());
+        List<UtteranceScheduler.Entry> after = scheduler.getSnapshot();
+        assertEquals(Arrays.asList("a", "b", "c"), Arrays.asList(after.get(0).getUtteranceId(),
+                after.get(1).getUtteranceId(), after.get(2).getUtteranceId()));
+        // Unchanged queue, same snapshot
+        assertTrue(after == scheduler.getSnapshot());
+
+        finishNext();
+        assertEquals(2, scheduler.getQueueDepth());
+        assertEquals("b", scheduler.getSnapshot().get(0).getUtteranceId());
+    }
+
+    @Test
+    public void emptyTextCompletesWithoutSpeaking() {
+        submit("a", UtteranceScheduler.Priority.NORMAL);
+        drain();
+
+        assertTrue(engine.spoken.isEmpty());
+        assertEquals(Arrays.asList("done a"), events);
+    }
+
+    private void submit(String id, UtteranceScheduler.Priority priority, String... segments) {
+        Utterance utterance = new Utterance(id, String.join(" ", segments), null, 1f, 1f, false, priority);
+        Iterator<String> iterator = Arrays.asList(segments).iterator();
+        scheduler.submit(utterance, priority, () -> iterator.hasNext() ? iterator.next() : null);
+    }
+
+    private void drain() {
+        Runnable task;
+        while ((task = tasks.pollFirst()) != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * Plays the oldest segment still in the engine from start to done.
+     */
+    private void finishNext() {
+        Spoken next = engine.pending.pollFirst();
+        scheduler.onSegmentStart(next.segmentId);
+        scheduler.onSegmentDone(next.segmentId);
+        drain();
+    }
+
+    private void finishAll() {
+        drain();
+        while (!engine.pending.isEmpty()) {
+            finishNext();
+        }
+    }
+
+    private static final class Spoken {
+        private final String segmentId;
+        private final String text;
+
+        private Spoken(String segmentId, String text) {
+            this.segmentId = segmentId;
+            this.text = text;
+        }
+    }
+
+    private static final class FakeEngine implements UtteranceScheduler.SpeechEngine {
+        private final List<Spoken> spoken = new ArrayList<>();
+        private final ArrayDeque<Spoken> pending = new ArrayDeque<>();
+        private int stopCount;
+
+        @Override
+        public void speak(Utterance utterance, String segmentId, String text, int segmentIndex) {
+            Spoken segment = new Spoken(segmentId, text);
+            spoken.add(segment);
+            pending.addLast(segment);
+        }
+
+        @Override
+        public void stop() {
+            stopCount++;
+            pending.clear();
+        }
+
+        private Spoken last() {
+            return spoken.get(spoken.size() - 1);
+        }
+
+        private List<String> spokenTexts() {
+            List<String> texts = new ArrayList<>();
+            for (Spoken segment : spoken) {
+                texts.add(segment.text);
+            }
+            return texts;
+        }
+    }
+
+    private final class RecordingListener implements UtteranceScheduler.Listener {
+        @Override
+        public void onStart(Utterance utterance) {
+            events.add("start " + utterance.getUtteranceId());
+        }
+
+        @Override
+        public void onPreempted(Utterance utterance) {
+            events.add("preempted " + utterance.getUtteranceId());
+        }
+
+        @Override
+        public void onDone(Utterance utterance) {
+            events.add("done " + utterance.getUtteranceId());
+        }
+
+        @Override
+        public void onError(Utterance utterance, int errorCode) {
+            events.add("error " + utterance.getUtteranceId() + " " + errorCode);
+        }
+
+        @Override
+        public void onDropped(Utterance utterance) {
+            events.add("dropped " + utterance.getUtteranceId());
+        }
+    }
+}
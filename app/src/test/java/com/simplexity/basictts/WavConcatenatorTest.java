@@ -0,0 +1,144 @@
+package com.simplexity.basictts;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class WavConcatenatorTest {
+
+    private File directory;
+    private File output;
+    private FileChannel channel;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("wav").toFile();
+        output = new File(directory, "out.wav");
+        channel = FileChannel.open(output.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        channel.close();
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void joinsSamplesAndPatchesHeader() throws IOException {
+        WavConcatenator concatenator = new WavConcatenator(channel);
+        concatenator.append(wav("a.wav", 22050, 1, samples(0, 100)));
+        concatenator.append(wav("b.wav", 22050, 1, samples(100, 50)));
+        concatenator.finish();
+
+        assertEquals(300, concatenator.getDataLength());
+        assertEquals(PcmAudio.WAV_HEADER_SIZE + 300, output.length());
+        PcmAudio audio = PcmAudio.readWav(output);
+        assertEquals(22050, audio.getSampleRate());
+        assertEquals(1, audio.getChannelCount());
+        assertEquals(16, audio.getBitsPerSample());
+        assertArrayEquals(samples(0, 150), toShorts(audio.getData()));
+        ByteBuffer header = read(0, 8);
+        assertEquals(PcmAudio.WAV_HEADER_SIZE - 8 + 300, header.getInt(4));
+    }
+
+    @Test
+    public void durationFollowsFormat() throws IOException {
+        WavConcatenator concatenator = new WavConcatenator(channel);
+        // One second of 16-bit stereo
+        concatenator.append(wav("a.wav", 8000, 2, new short[8000 * 2]));
+        assertEquals(1000, concatenator.getDurationMillis());
+    }
+
+    @Test
+    public void failedAppendLeavesOutputAsBefore() throws IOException {
+        WavConcatenator concatenator = new WavConcatenator(channel);
+        concatenator.append(wav("a.wav", 22050, 1, samples(0, 100)));
+        try {
+            concatenator.append(wav("b.wav", 16000, 1, samples(0, 100)));
+            fail("Appended a part of another format");
+        } catch (IOException expected) {
+        }
+        try {
+            concatenator.append(garbage("c.wav"));
+            fail("Appended a file that is not WAV");
+        } catch (IOException expected) {
+        }
+        concatenator.append(wav("d.wav", 22050, 1, samples(100, 10)));
+        concatenator.finish();
+
+        assertEquals(220, concatenator.getDataLength());
+        assertArrayEquals(samples(0, 110), toShorts(PcmAudio.readWav(output).getData()));
+    }
+
+    @Test
+    public void discardEmptiesOutput() throws IOException {
+        WavConcatenator concatenator = new WavConcatenator(channel);
+        concatenator.append(wav("a.wav", 22050, 1, samples(0, 100)));
+        concatenator.discard();
+
+        assertEquals(0, output.length());
+        assertEquals(0, concatenator.getDataLength());
+    }
+
+    @Test(expected = IOException.class)
+    public void finishWithoutPartsFails() throws IOException {
+        new WavConcatenator(channel).finish();
+    }
+
+    private File wav(String name, int sampleRate, int channelCount, short[] samples) throws IOException {
+        File file = new File(directory, name);
+        try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer data = ByteBuffer.allocate(samples.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+            data.asShortBuffer().put(samples);
+            PcmAudio.writeWavHeader(out, sampleRate, channelCount, 16, data.capacity());
+            long position = PcmAudio.WAV_HEADER_SIZE;
+            while (data.hasRemaining()) {
+                position += out.write(data, position);
+            }
+        }
+        return file;
+    }
+
+    private File garbage(String name) throws IOException {
+        File file = new File(directory, name);
+        Files.write(file.toPath(), new byte[64]);
+        return file;
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        channel.read(buffer, position);
+        return buffer;
+    }
+
+    private static short[] samples(int from, int count) {
+        short[] samples = new short[count];
+        for (int i = 0; i < count; i++) {
+            samples[i] = (short) ((from + i) * 37);
+        }
+        return samples;
+    }
+
+    private static short[] toShorts(ByteBuffer data) {
+        short[] samples = new short[data.remaining() / 2];
+        data.duplicate().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(samples);
+        return samples;
+    }
+}
@@ -0,0 +1,38 @@
+plugins {
+    java
+    alias(libs.plugins.jmh)
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+// The app module is Android-only, so the plain-JVM parts of it are compiled straight from its
+// source tree. Anything listed here must not import android.* or androidx.*.
+sourceSets {
+    main {
+        java {
+            setSrcDirs(listOf("../app/src/main/java"))
+            include(
+                "com/simplexity/basictts/VoiceInfo.java",
+                "com/simplexity/basictts/VoiceIndex.java",
+                "com/simplexity/basictts/VoiceLatencyStats.java",
+                "com/simplexity/basictts/MessageLog.java",
+                "com/simplexity/basictts/TextSource.java",
+                "com/simplexity/basictts/PcmAudio.java",
+                "com/simplexity/basictts/PcmStretcher.java",
+                "com/simplexity/basictts/PhraseIndex.java",
+                "com/simplexity/basictts/PronunciationDictionary.java",
+            )
+        }
+    }
+}
+
+jmh {
+    jmhVersion.set(libs.versions.jmh)
+    warmupIterations.set(2)
+    iterations.set(5)
+    fork.set(1)
+    resultFormat.set("JSON")
+}
@@ -0,0 +1,79 @@
+package com.simplexity.basictts;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MessageLogBenchmark {
+
+    private static final int PAGE_SIZE = 50;
+
+    @Param({"100", "100000"})
+    public int messageCount;
+
+    private File directory;
+    private MessageLog messageLog;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("message-log-bench").toFile();
+        messageLog = new MessageLog(directory);
+        for (int i = 0; i < messageCount; i++) {
+            messageLog.append("Message number " + i + ", one moment please");
+        }
+        random = new Random(7);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        messageLog.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public int append() throws IOException {
+        return messageLog.append("Yes, I will be there in five minutes");
+    }
+
+    @Benchmark
+    public List<String> readRandomPage() throws IOException {
+        int start = random.nextInt(Math.max(1, messageCount - PAGE_SIZE));
+        return messageLog.read(start, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<String> readLastPage() throws IOException {
+        return messageLog.read(Math.max(0, messageLog.size() - PAGE_SIZE), PAGE_SIZE);
+    }
+
+    @Benchmark
+    public MessageLog reopen() throws IOException {
+        MessageLog reopened = new MessageLog(directory);
+        reopened.close();
+        return reopened;
+    }
+}
@@ -0,0 +1,76 @@
+package com.simplexity.basictts;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the rate/pitch stage. Each invocation streams one second of input, and the
+ * score is in input samples per second; anything far above the sample rate is faster than
+ * real time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PcmStretcherBenchmark {
+
+    private static final int SAMPLE_RATE = 22050;
+    private static final int BLOCK_FRAMES = 1024;
+
+    @Param({"1.0", "1.5", "0.75"})
+    public float rate;
+
+    @Param({"1.0", "1.25"})
+    public float pitch;
+
+    private short[] input;
+    private short[] block;
+    private PcmStretcher stretcher;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        // Voiced-like signal: a few harmonics plus noise, so the overlap search does real work
+        Random random = new Random(7);
+        input = new short[SAMPLE_RATE];
+        for (int i = 0; i < input.length; i++) {
+            double t = i / (double) SAMPLE_RATE;
+            double value = Math.sin(2 * Math.PI * 140 * t) * 6000 + Math.sin(2 * Math.PI * 280 * t) * 3000
+                    + Math.sin(2 * Math.PI * 1200 * t) * 1000 + random.nextGaussian() * 300;
+            input[i] = (short) value;
+        }
+        block = new short[BLOCK_FRAMES];
+        stretcher = new PcmStretcher(SAMPLE_RATE, 1);
+        stretcher.setRate(rate);
+        stretcher.setPitch(pitch);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLE_RATE)
+    public int stream() {
+        stretcher.reset();
+        int position = 0;
+        int produced = 0;
+        int read;
+        while (position < input.length) {
+            position += stretcher.write(input, position, Math.min(BLOCK_FRAMES, input.length - position));
+            while ((read = stretcher.read(block, 0, BLOCK_FRAMES)) > 0) {
+                produced += read;
+            }
+        }
+        stretcher.flush();
+        while ((read = stretcher.read(block, 0, BLOCK_FRAMES)) > 0) {
+            produced += read;
+        }
+        return produced;
+    }
+}
@@ -0,0 +1,117 @@
+package com.simplexity.basictts;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PhraseIndexBenchmark {
+
+    private static final int SUGGESTIONS = 3;
+    private static final long START_MILLIS = 1_700_000_000_000L;
+    private static final String[] WORDS = {
+            "i", "you", "we", "need", "want", "would", "like", "some", "water", "coffee", "tea", "help",
+            "please", "thank", "yes", "no", "maybe", "later", "now", "home", "go", "to", "the", "a",
+            "bathroom", "tired", "hungry", "cold", "warm", "call", "my", "mom", "doctor", "nurse",
+            "outside", "tomorrow", "today", "again", "sorry", "love", "how", "are", "what", "time", "is", "it"
+    };
+
+    @Param({"1000", "100000"})
+    public int phraseCount;
+
+    private PhraseIndex index;
+    private List<String> phrases;
+    private File file;
+    private Random random;
+    private String typing;
+    private int typed;
+    private long nowMillis;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Random setupRandom = new Random(11);
+        phrases = new ArrayList<>(phraseCount);
+        index = new PhraseIndex();
+        nowMillis = START_MILLIS;
+        List<String> batch = new ArrayList<>();
+        while (index.size() < phraseCount) {
+            String phrase = createPhrase(setupRandom);
+            phrases.add(phrase);
+            batch.add(phrase);
+            // A few phrases come up again and again, like they do in a real history
+            batch.add(phrases.get((int) (phrases.size() * Math.pow(setupRandom.nextDouble(), 4))));
+            if (batch.size() >= 1000) {
+                nowMillis += 60 * 60 * 1000;
+                index.recordAll(batch, nowMillis);
+                batch.clear();
+            }
+        }
+        file = Files.createTempFile("phrase-index-bench", ".bin").toFile();
+        index.save(file);
+        random = new Random(7);
+        typing = "";
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    /**
+     * One keystroke of typing a phrase from the history, letter by letter.
+     */
+    @Benchmark
+    public List<String> keystroke() {
+        if (typed >= typing.length()) {
+            typing = phrases.get(random.nextInt(phrases.size()));
+            typed = 0;
+        }
+        typed++;
+        return index.complete(typing.substring(0, typed), SUGGESTIONS);
+    }
+
+    /**
+     * The widest range there is: every phrase starting with the most common first letter.
+     */
+    @Benchmark
+    public List<String> firstLetter() {
+        return index.complete("i", SUGGESTIONS);
+    }
+
+    @Benchmark
+    public void recordRepeated() {
+        index.record(phrases.get(random.nextInt(phrases.size())), nowMillis);
+    }
+
+    @Benchmark
+    public PhraseIndex load() throws IOException {
+        return PhraseIndex.load(file);
+    }
+
+    private static String createPhrase(Random random) {
+        StringBuilder phrase = new StringBuilder();
+        int words = 2 + random.nextInt(7);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) phrase.append(' ');
+            phrase.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return phrase.toString();
+    }
+}
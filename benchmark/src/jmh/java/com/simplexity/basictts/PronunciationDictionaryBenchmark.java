@@ -0,0 +1,82 @@
+package com.simplexity.basictts;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PronunciationDictionaryBenchmark {
+
+    private static final int MESSAGE_LENGTH = 4000;
+
+    @Param({"100", "10000"})
+    public int entryCount;
+
+    private String source;
+    private PronunciationDictionary dictionary;
+    private String message;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(5);
+        StringBuilder text = new StringBuilder();
+        List<String> terms = new ArrayList<>(entryCount);
+        for (int i = 0; i < entryCount; i++) {
+            // Abbreviations and site names of a few letters
+            String term = createWord(random, 2 + random.nextInt(8)) + (i % 4 == 0 ? ".com" : "");
+            String replacement = createWord(random, 4 + random.nextInt(10));
+            terms.add(term);
+            text.append(term).append(" = ").append(replacement).append('\n');
+        }
+        source = text.toString();
+        dictionary = PronunciationDictionary.parse(source);
+        // Ordinary words with a dictionary term about every tenth word
+        StringBuilder words = new StringBuilder(MESSAGE_LENGTH + 16);
+        while (words.length() < MESSAGE_LENGTH) {
+            if (words.length() > 0) words.append(random.nextInt(12) == 0 ? ". " : " ");
+            words.append(random.nextInt(10) == 0 ? terms.get(random.nextInt(entryCount))
+                    : createWord(random, 1 + random.nextInt(9)));
+        }
+        message = words.substring(0, MESSAGE_LENGTH);
+    }
+
+    @Benchmark
+    public String normalize() {
+        return dictionary.apply(message);
+    }
+
+    @Benchmark
+    public int normalizeWithOffsets() {
+        PronunciationDictionary.Normalized normalized = dictionary.normalize(message);
+        return normalized.toSource(normalized.getText().length() / 2, false);
+    }
+
+    /**
+     * What editing the dictionary costs: parsing and compiling it again.
+     */
+    @Benchmark
+    public PronunciationDictionary compile() {
+        return PronunciationDictionary.parse(source);
+    }
+
+    private static String createWord(Random random, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(chars);
+    }
+}
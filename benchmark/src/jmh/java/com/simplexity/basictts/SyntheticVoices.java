@@ -0,0 +1,46 @@
+package com.simplexity.basictts;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Voice lists shaped like the ones Android engines report: a few dozen locales, names of the form
+ * "en-us-x-abc-local", and roughly a third of them network voices.
+ */
+final class SyntheticVoices {
+
+    private static final String[] LANGUAGE_TAGS = {
+            "en-US", "en-GB", "en-AU", "en-IN", "de-DE", "fr-FR", "fr-CA", "es-ES", "es-US", "it-IT",
+            "pt-BR", "pt-PT", "nl-NL", "sv-SE", "da-DK", "nb-NO", "fi-FI", "pl-PL", "cs-CZ", "ru-RU",
+            "uk-UA", "tr-TR", "el-GR", "hu-HU", "ro-RO", "ja-JP", "ko-KR", "zh-CN", "zh-TW", "hi-IN",
+            "bn-IN", "ta-IN", "th-TH", "vi-VN", "id-ID", "ar-XA", "he-IL", "sk-SK", "bg-BG", "hr-HR"
+    };
+
+    private SyntheticVoices() {
+    }
+
+    static List<VoiceInfo> create(int count) {
+        Random random = new Random(42);
+        List<VoiceInfo> voices = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Locale locale = Locale.forLanguageTag(LANGUAGE_TAGS[i % LANGUAGE_TAGS.length]);
+            boolean network = random.nextInt(3) == 0;
+            String name = createName(locale, i, network);
+            int quality = (1 + random.nextInt(5)) * 100;
+            int latency = (1 + random.nextInt(5)) * 100;
+            boolean installed = random.nextInt(10) != 0;
+            voices.add(new VoiceInfo(VoiceInfo.createHumanReadableName(name, locale), name, locale, network,
+                    quality, latency, installed));
+        }
+        return voices;
+    }
+
+    static String createName(Locale locale, int index, boolean network) {
+        String prefix = locale.toString().toLowerCase(Locale.ROOT).replace('_', '-');
+        if (index < LANGUAGE_TAGS.length) return prefix + "-language";
+        String variant = Integer.toString(index, 36);
+        return prefix + "-x-" + variant + (network ? "-network" : "-local");
+    }
+}
@@ -0,0 +1,91 @@
+package com.simplexity.basictts;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class VoiceBenchmark {
+
+    @Param({"50", "500", "5000"})
+    public int voiceCount;
+
+    private List<VoiceInfo> voices;
+    private String[] names;
+    private Locale[] locales;
+    private VoiceIndex index;
+    private VoiceLatencyStats latencyStats;
+
+    @Setup
+    public void setup() {
+        voices = SyntheticVoices.create(voiceCount);
+        names = new String[voiceCount];
+        locales = new Locale[voiceCount];
+        index = new VoiceIndex();
+        for (int i = 0; i < voiceCount; i++) {
+            VoiceInfo voice = voices.get(i);
+            names[i] = voice.getVoiceId();
+            locales[i] = voice.getLocale();
+            index.add(voice);
+        }
+        latencyStats = new VoiceLatencyStats();
+        for (int i = 0; i < voiceCount; i += 3) {
+            latencyStats.record(names[i], 40 + (i % 200));
+        }
+    }
+
+    @Benchmark
+    public void humanReadableNames(Blackhole blackhole) {
+        for (int i = 0; i < names.length; i++) {
+            blackhole.consume(VoiceInfo.createHumanReadableName(names[i], locales[i]));
+        }
+    }
+
+    @Benchmark
+    public VoiceIndex groupByLocale() {
+        VoiceIndex built = new VoiceIndex();
+        for (VoiceInfo voice : voices) {
+            built.add(voice);
+        }
+        return built;
+    }
+
+    @Benchmark
+    public List<VoiceInfo> sortedVoicesWithNetwork() {
+        return index.getSortedVoices("en-US", true);
+    }
+
+    @Benchmark
+    public List<VoiceInfo> sortedVoicesOfflineOnly() {
+        return index.getSortedVoices("en-US", false);
+    }
+
+    @Benchmark
+    public List<Locale> sortedLocales() {
+        return index.getSortedLocales();
+    }
+
+    @Benchmark
+    public VoiceInfo fastestVoice() {
+        return index.selectFastestVoice("en-US", latencyStats);
+    }
+
+    @Benchmark
+    public void lookupByName(Blackhole blackhole) {
+        for (String name : names) {
+            blackhole.consume(index.get(name));
+        }
+    }
+}